@@ -54,6 +54,7 @@ public class ImapConfig extends AccountConfig {
     private int maxFolderDepth;
     private boolean onlySubscribedFolders;
     private boolean enableCompression;
+    private int maxConnections;
 
     /**
      * Instantiates a new connection configuration with defaults.
@@ -84,6 +85,7 @@ public class ImapConfig extends AccountConfig {
         this.folderPrefix = "";
         this.onlySubscribedFolders = true;
         this.enableCompression = false;
+        this.maxConnections = 1;
     }
 
     /* (non-Javadoc)
@@ -252,6 +254,36 @@ public class ImapConfig extends AccountConfig {
         }
     }
     
+    /**
+     * Gets the maximum number of simultaneous connections to open to the
+     * server.  Any connections beyond the first are used for fetching
+     * message content, so that large downloads do not hold up other
+     * requests.  If three or more connections are allowed, one of them
+     * is also used to idle on the INBOX while another folder is open.
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    /**
+     * Sets the maximum number of simultaneous connections to open to the
+     * server.
+     *
+     * @param maxConnections the maximum number of connections, which must
+     *     be at least 1
+     */
+    public void setMaxConnections(int maxConnections) {
+        if(maxConnections < 1) {
+            maxConnections = 1;
+        }
+        if(this.maxConnections != maxConnections) {
+            this.maxConnections = maxConnections;
+            changeType |= CHANGE_TYPE_ADVANCED;
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.conf.AccountConfig#writeConfigItems(org.logicprobe.LogicMail.util.SerializableHashtable)
      */
@@ -275,6 +307,7 @@ public class ImapConfig extends AccountConfig {
         table.put("account_imap_maxFolderDepth", new Integer(maxFolderDepth));
         table.put("account_imap_onlySubscribedFolders", new Boolean(onlySubscribedFolders));
         table.put("account_imap_enableCompression", new Boolean(enableCompression));
+        table.put("account_imap_maxConnections", new Integer(maxConnections));
     }
 
     /* (non-Javadoc)
@@ -310,5 +343,9 @@ public class ImapConfig extends AccountConfig {
         if(value instanceof Boolean) {
             enableCompression = ((Boolean)value).booleanValue();
         }
+        value = table.get("account_imap_maxConnections");
+        if(value instanceof Integer) {
+            maxConnections = Math.max(1, ((Integer)value).intValue());
+        }
     }
 }
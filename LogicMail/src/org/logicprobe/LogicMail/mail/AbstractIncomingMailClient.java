@@ -110,6 +110,16 @@ public abstract class AbstractIncomingMailClient implements IncomingMailClient {
         // Default empty implementation for unsupported feature
     }
     
+    public void moveMessage(
+            MessageToken messageToken,
+            FolderTreeItem destinationFolder)
+    throws IOException, MailException {
+        // Default implementation that performs each step separately
+        if(!hasCopy()) { return; }
+        copyMessage(messageToken, destinationFolder);
+        deleteMessage(messageToken);
+    }
+    
     public boolean hasUndelete() {
         return false;
     }
@@ -175,4 +185,8 @@ public abstract class AbstractIncomingMailClient implements IncomingMailClient {
     public void idleModeEnd() throws IOException, MailException {
         // Default empty implementation for unsupported feature
     }
+    
+    public boolean hasFolderNotify() {
+        return false;
+    }
 }
@@ -83,8 +83,10 @@ public abstract class AbstractMailConnectionHandler {
 
 	/**
 	 * Start the mail connection handler thread.
+	 * This method may safely be called from multiple threads, and has no
+	 * effect if the handler thread is already running.
 	 */
-	public void start() {
+	public synchronized void start() {
 		if(!connectionThread.isAlive()) {
 			if(connectionThread.isShutdown()) {
 				connectionThread = new ConnectionThread();
@@ -126,9 +128,7 @@ public abstract class AbstractMailConnectionHandler {
 		synchronized(requestQueue) {
 			shutdownInProgress = false;
 		}
-		MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-				client.getConnectionConfig(),
-				MailConnectionStateEvent.STATE_DISCONNECTED);
+		fireConnectionStateChanged(MailConnectionStateEvent.STATE_DISCONNECTED);
 	}
 
 	/**
@@ -216,9 +216,7 @@ public abstract class AbstractMailConnectionHandler {
 			if(client.open()) {
 				invalidLogin = false;
 				setConnectionState(STATE_OPENED);
-				MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-						client.getConnectionConfig(),
-						MailConnectionStateEvent.STATE_CONNECTED);
+				fireConnectionStateChanged(MailConnectionStateEvent.STATE_CONNECTED);
 				return;
 			}
 			else {
@@ -451,9 +449,7 @@ public abstract class AbstractMailConnectionHandler {
 		try { client.close(); } catch (IOException e) {} catch (MailException e) {}
 		setConnectionState(STATE_CLOSED);
 		if(!shutdownInProgress) {
-			MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-					client.getConnectionConfig(),
-					MailConnectionStateEvent.STATE_DISCONNECTED);
+			fireConnectionStateChanged(MailConnectionStateEvent.STATE_DISCONNECTED);
 		}
 	}
 
@@ -464,6 +460,25 @@ public abstract class AbstractMailConnectionHandler {
 	 */
 	protected void handleBeforeClosing() { }
 	
+	/**
+	 * Gets whether this handler manages the primary connection for its
+	 * account.  Only the primary connection reports connection state
+	 * changes, so that secondary connections opening and closing in the
+	 * background do not affect the displayed account state.
+	 *
+	 * @return true, by default
+	 */
+	protected boolean isPrimaryConnection() {
+	    return true;
+	}
+	
+	private void fireConnectionStateChanged(int state) {
+	    if(isPrimaryConnection()) {
+	        MailConnectionManager.getInstance().fireMailConnectionStateChanged(
+	                client.getConnectionConfig(), state);
+	    }
+	}
+	
 	/**
 	 * Gets the current connection state.
 	 * 
@@ -648,9 +663,7 @@ public abstract class AbstractMailConnectionHandler {
 			
 			// Explicitly notify any listeners that the connection dropped,
 			// since the CLOSING state is not entered in this situation.
-            MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-                    client.getConnectionConfig(),
-                    MailConnectionStateEvent.STATE_DISCONNECTED);
+            fireConnectionStateChanged(MailConnectionStateEvent.STATE_DISCONNECTED);
             
             // Set the next state to opening
 			setConnectionState(STATE_OPENING, isSilent);
@@ -0,0 +1,126 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.util.Vector;
+
+import org.logicprobe.LogicMail.message.FolderMessage;
+
+/**
+ * Folder message callback that passes messages on to the mail store
+ * listeners in groups, rather than individually, to reduce the number of
+ * model and UI updates caused by a large fetch.
+ * <p>
+ * Messages are held until {@link #BATCH_SIZE} of them have accumulated, or
+ * until a message arrives more than {@link #BATCH_INTERVAL} milliseconds
+ * after the first one being held.  Any remaining messages are passed on
+ * when the end of the sequence is indicated with a <code>null</code>
+ * message.  If the fetch fails before the end of the sequence, the request
+ * should call {@link #flush()} so the messages already received are not
+ * lost.
+ * </p>
+ */
+class BatchedFolderMessageCallback implements FolderMessageCallback {
+    static final int BATCH_SIZE = 50;
+    static final long BATCH_INTERVAL = 500;
+    
+    private final AbstractMailStore mailStore;
+    private final FolderTreeItem folder;
+    private final boolean flagsOnly;
+    private final Vector pendingMessages = new Vector(BATCH_SIZE);
+    private long batchStartTime;
+    
+    /**
+     * Instantiates a new batched folder message callback.
+     *
+     * @param mailStore the mail store to fire events from
+     * @param folder the folder the messages belong to
+     * @param flagsOnly true if the messages only include flags
+     */
+    BatchedFolderMessageCallback(AbstractMailStore mailStore, FolderTreeItem folder, boolean flagsOnly) {
+        this.mailStore = mailStore;
+        this.folder = folder;
+        this.flagsOnly = flagsOnly;
+    }
+    
+    public void folderMessageUpdate(FolderMessage folderMessage) {
+        if(folderMessage != null) {
+            messageAvailable(folderMessage);
+            
+            long currentTime = System.currentTimeMillis();
+            if(pendingMessages.isEmpty()) {
+                batchStartTime = currentTime;
+            }
+            pendingMessages.addElement(folderMessage);
+            
+            if(pendingMessages.size() >= BATCH_SIZE
+                    || currentTime - batchStartTime >= BATCH_INTERVAL) {
+                flush();
+            }
+        }
+        else {
+            // This is the last update of the sequence
+            flush();
+            messagesComplete();
+            mailStore.fireFolderMessagesAvailable(folder, null, flagsOnly);
+        }
+    }
+    
+    /**
+     * Passes on any messages that are being held, without ending the
+     * sequence.  This has no effect if no messages are being held, so it
+     * is safe to call once the sequence has completed normally.
+     */
+    public void flush() {
+        if(pendingMessages.isEmpty()) { return; }
+        
+        FolderMessage[] messages = new FolderMessage[pendingMessages.size()];
+        pendingMessages.copyInto(messages);
+        pendingMessages.removeAllElements();
+        mailStore.fireFolderMessagesAvailable(folder, messages, flagsOnly);
+    }
+    
+    /**
+     * Called as soon as each message is received, before it is added to the
+     * current batch.
+     *
+     * @param folderMessage the folder message
+     */
+    protected void messageAvailable(FolderMessage folderMessage) {
+    }
+    
+    /**
+     * Called at the end of the sequence, after the last batch of messages
+     * has been passed on, and before the end of the sequence is passed on.
+     */
+    protected void messagesComplete() {
+    }
+}
@@ -0,0 +1,179 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+/**
+ * Holds the information needed to incrementally resynchronize a locally
+ * cached folder with the mail server, for protocols that support it.
+ * <p>
+ * For IMAP, this is the UIDVALIDITY and HIGHESTMODSEQ of the mailbox as of
+ * the last complete folder refresh.  A highest mod-sequence of zero indicates
+ * that no valid synchronization point is known.
+ * </p>
+ * <p>
+ * Along with that, it holds enough of the mailbox state to let a refresh
+ * after an application restart continue from where the last one left off.
+ * This is the UIDNEXT and EXISTS values, and the known mapping of message
+ * indices to UIDs, as of the last complete folder refresh.
+ * </p>
+ * <p>
+ * For POP, which has no synchronization point, this instead holds the UIDL
+ * index of the mailbox as of the last complete folder refresh.
+ * </p>
+ */
+public class FolderSyncState {
+    private int uidValidity;
+    private long highestModSeq;
+    private int uidNext = -1;
+    private int exists;
+    private int[] messageIndices = new int[0];
+    private int[] messageUids = new int[0];
+    private PopUidlIndex uidlIndex;
+
+    /**
+     * Instantiates a new folder sync state with no valid synchronization point.
+     */
+    public FolderSyncState() {
+    }
+
+    /**
+     * Instantiates a new folder sync state.
+     *
+     * @param uidValidity the UIDVALIDITY of the folder
+     * @param highestModSeq the highest mod-sequence the folder was last
+     *     synchronized to
+     */
+    public FolderSyncState(int uidValidity, long highestModSeq) {
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+    }
+
+    public int getUidValidity() {
+        return uidValidity;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * Sets the synchronization point for the folder.
+     *
+     * @param uidValidity the UIDVALIDITY of the folder
+     * @param highestModSeq the highest mod-sequence the folder is now
+     *     synchronized to
+     */
+    public void setState(int uidValidity, long highestModSeq) {
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+    }
+
+    public int getUidNext() {
+        return uidNext;
+    }
+
+    public int getExists() {
+        return exists;
+    }
+
+    /**
+     * Gets the indices of the messages with known UIDs.
+     *
+     * @return the message indices, in the same order as {@link #getMessageUids()}
+     */
+    public int[] getMessageIndices() {
+        return messageIndices;
+    }
+
+    /**
+     * Gets the UIDs of the messages with known indices.
+     *
+     * @return the message UIDs, in the same order as {@link #getMessageIndices()}
+     */
+    public int[] getMessageUids() {
+        return messageUids;
+    }
+
+    /**
+     * Sets the mailbox state for the folder.
+     *
+     * @param uidNext the UIDNEXT of the folder
+     * @param exists the number of messages in the folder
+     * @param messageIndices the indices of the messages with known UIDs
+     * @param messageUids the UIDs of those messages
+     */
+    public void setMailboxState(int uidNext, int exists, int[] messageIndices, int[] messageUids) {
+        if(messageIndices.length != messageUids.length) {
+            throw new IllegalArgumentException();
+        }
+        this.uidNext = uidNext;
+        this.exists = exists;
+        this.messageIndices = messageIndices;
+        this.messageUids = messageUids;
+    }
+
+    /**
+     * Gets the POP UIDL index for the folder.
+     *
+     * @return the UIDL index, or <code>null</code> if none is known
+     */
+    public PopUidlIndex getUidlIndex() {
+        return uidlIndex;
+    }
+
+    /**
+     * Sets the POP UIDL index for the folder.
+     *
+     * @param uidlIndex the UIDL index
+     */
+    public void setUidlIndex(PopUidlIndex uidlIndex) {
+        this.uidlIndex = uidlIndex;
+    }
+
+    /**
+     * Checks whether this object contains a usable mailbox state, independent
+     * of whether it contains a usable synchronization point.
+     *
+     * @return true, if the mailbox state can be restored
+     */
+    public boolean hasMailboxState() {
+        return uidValidity != 0 && uidNext > 0;
+    }
+
+    /**
+     * Checks whether this object contains a usable synchronization point.
+     *
+     * @return true, if the folder can be incrementally resynchronized
+     */
+    public boolean isValid() {
+        return highestModSeq > 0;
+    }
+}
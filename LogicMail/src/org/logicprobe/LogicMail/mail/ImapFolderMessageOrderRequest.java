@@ -0,0 +1,91 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+
+import org.logicprobe.LogicMail.LogicMailResource;
+import org.logicprobe.LogicMail.mail.imap.ImapClient;
+
+/**
+ * Fetches the UIDs of every message in an IMAP folder, in an order
+ * determined by the server.  The result is used to page through the folder
+ * with {@link ImapFolderOrderedMessagesRequest}.
+ */
+class ImapFolderMessageOrderRequest extends NetworkMailStoreRequest implements MailStoreRequest {
+    private final FolderTreeItem folder;
+    private final int order;
+    private int[] orderedUids;
+    
+    ImapFolderMessageOrderRequest(NetworkMailStore mailStore, FolderTreeItem folder, int order) {
+        super(mailStore);
+        this.folder = folder;
+        this.order = order;
+    }
+    
+    public FolderTreeItem getFolder() {
+        return folder;
+    }
+    
+    /**
+     * Gets the order of the messages being requested.
+     *
+     * @return the message order, such as {@link ImapClient#ORDER_DATE}
+     */
+    public int getOrder() {
+        return order;
+    }
+    
+    /**
+     * Gets the complete list of message UIDs for the folder, in the
+     * requested order.  This is only valid once the request has completed.
+     *
+     * @return the ordered message UIDs
+     */
+    public int[] getResultOrderedUids() {
+        return orderedUids;
+    }
+    
+    protected String getInitialStatus() {
+        return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES) + "...";
+    }
+    
+    public void execute(MailClient client) throws IOException, MailException {
+        ImapClient imapClient = (ImapClient)client;
+        
+        String message = resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES);
+        checkActiveFolder(imapClient, folder);
+        
+        orderedUids = imapClient.getFolderMessageOrder(order, getProgressHandler(message));
+        
+        fireMailStoreRequestComplete();
+    }
+}
@@ -0,0 +1,89 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+
+import org.logicprobe.LogicMail.LogicMailResource;
+import org.logicprobe.LogicMail.mail.imap.ImapClient;
+
+/**
+ * Fetches a page of messages from an IMAP folder, in an order determined by
+ * the server.  The complete ordered list of message UIDs is obtained
+ * beforehand with {@link ImapFolderMessageOrderRequest}, so paging through
+ * the folder only requires fetching the messages on each page.
+ */
+class ImapFolderOrderedMessagesRequest extends NetworkMailStoreRequest implements MailStoreRequest {
+    private final FolderTreeItem folder;
+    private final int[] orderedUids;
+    private final int pageIndex;
+    private final int pageSize;
+    
+    ImapFolderOrderedMessagesRequest(NetworkMailStore mailStore, FolderTreeItem folder, int[] orderedUids, int pageIndex, int pageSize) {
+        super(mailStore);
+        this.folder = folder;
+        this.orderedUids = orderedUids;
+        this.pageIndex = pageIndex;
+        this.pageSize = pageSize;
+    }
+    
+    public FolderTreeItem getFolder() {
+        return folder;
+    }
+    
+    protected String getInitialStatus() {
+        return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES) + "...";
+    }
+    
+    public void execute(MailClient client) throws IOException, MailException {
+        ImapClient imapClient = (ImapClient)client;
+        
+        String message = resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES);
+        checkActiveFolder(imapClient, folder);
+        
+        int start = Math.min(pageIndex * pageSize, orderedUids.length);
+        int end = Math.min(start + pageSize, orderedUids.length);
+        int[] pageUids = new int[end - start];
+        System.arraycopy(orderedUids, start, pageUids, 0, pageUids.length);
+        
+        BatchedFolderMessageCallback callback = new BatchedFolderMessageCallback(mailStore, folder, false) {
+            protected void messagesComplete() {
+                fireMailStoreRequestComplete();
+            }
+        };
+        try {
+            imapClient.getFolderMessagesByUid(pageUids, callback, getProgressHandler(message));
+        } finally {
+            // Pass on any messages received before a failure
+            callback.flush();
+        }
+    }
+}
@@ -46,16 +46,23 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
     private final String statusMessage;
     private final FolderTreeItem folder;
     private final Hashtable loadedMessageMap;
+    private final FolderSyncState syncState;
+    private final boolean completeSync;
     private int messageRetentionLimit;
     private volatile boolean checkAllTokens;
     private volatile boolean recentMessageAvailable;
     private Vector secondaryMessageTokensToFetch;
     private boolean bypassRequest;
+    private GetFolderMessageCallback activeCallback;
     
-    ImapFolderRefreshRequest(NetworkMailStore mailStore, FolderTreeItem folder, FolderMessage[] loadedMessages) {
+    ImapFolderRefreshRequest(NetworkMailStore mailStore, FolderTreeItem folder, FolderMessage[] loadedMessages, FolderSyncState syncState) {
         super(mailStore);
         this.statusMessage = resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES);
         this.folder = folder;
+        this.syncState = syncState;
+        // Only a refresh that starts from the full set of cached messages
+        // leaves the cache in sync with the server.
+        this.completeSync = (loadedMessages != null);
         this.loadedMessageMap = new Hashtable();
         if(loadedMessages != null) {
             for(int i=0; i<loadedMessages.length; i++) {
@@ -114,8 +121,18 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
     }
     
     public void execute(MailClient client) throws IOException, MailException {
-        ImapClient incomingClient = (ImapClient)client;
-        
+        try {
+            refreshFolder((ImapClient)client);
+        } finally {
+            // Pass on any messages received before a failure
+            if(activeCallback != null) {
+                activeCallback.flush();
+                activeCallback = null;
+            }
+        }
+    }
+    
+    private void refreshFolder(ImapClient incomingClient) throws IOException, MailException {
         if(bypassRequest) {
             fireMailStoreRequestComplete();
             return;
@@ -123,6 +140,12 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
         
         this.messageRetentionLimit = incomingClient.getAcctConfig().getMaximumFolderMessages();
         
+        if(completeSync && syncState != null) {
+            // Pick up where the last complete refresh left off, if this is
+            // the first time the folder is being refreshed since startup
+            incomingClient.restoreFolderState(folder, syncState);
+        }
+        
         if(!checkActiveFolder(incomingClient, folder)) {
             // Shortcut out if the folder selection has not changed, and a
             // refresh is not required.
@@ -130,6 +153,11 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
             return;
         }
         
+        if(canResynchronize(incomingClient)) {
+            resynchronizeFolder(incomingClient);
+            return;
+        }
+        
         // Fetch new folder messages from the mail store
         Vector folderMessages = new Vector();
         incomingClient.getNewFolderMessages(
@@ -140,6 +168,96 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
         initialFlagsRefreshComplete(incomingClient, folderMessages);
     }
 
+    /**
+     * Checks whether the cached messages can be brought up to date using only
+     * the changes since the last synchronization point, instead of checking
+     * the flags on every cached message.
+     */
+    private boolean canResynchronize(ImapClient incomingClient) {
+        return syncState != null
+            && syncState.isValid()
+            && !loadedMessageMap.isEmpty()
+            && incomingClient.hasQresync()
+            && incomingClient.getActiveFolderHighestModSeq() > 0
+            && incomingClient.getActiveFolderUidValidity() == syncState.getUidValidity();
+    }
+    
+    private void resynchronizeFolder(ImapClient incomingClient) throws IOException, MailException {
+        long highestModSeq = incomingClient.getActiveFolderHighestModSeq();
+        secondaryMessageTokensToFetch = new Vector();
+        checkAllTokens = false;
+        
+        // If the mod-sequence has not changed, then neither has the folder
+        if(highestModSeq != syncState.getHighestModSeq()) {
+            Vector folderMessages = new Vector();
+            MessageToken[] vanishedTokens = incomingClient.getChangedFolderMessages(
+                    syncState.getHighestModSeq(),
+                    new GetFolderMessageCallback(folderMessages, true),
+                    getProgressHandler(statusMessage));
+            
+            // Changed messages that are not in the cache are new, and need
+            // to be fetched.  They arrive in ascending order, so only the
+            // newest ones within the retention limit are kept.
+            Vector newMessageTokens = new Vector();
+            int size = folderMessages.size();
+            for(int i=0; i<size; i++) {
+                MessageToken token = ((FolderMessage)folderMessages.elementAt(i)).getMessageToken();
+                if(loadedMessageMap.remove(token.getMessageUid()) == null) {
+                    newMessageTokens.addElement(token);
+                }
+            }
+            folderMessages.removeAllElements();
+            
+            size = newMessageTokens.size();
+            for(int i=Math.max(0, size - messageRetentionLimit); i<size; i++) {
+                secondaryMessageTokensToFetch.addElement(newMessageTokens.elementAt(i));
+            }
+            
+            if(vanishedTokens.length > 0) {
+                mailStore.fireFolderExpunged(folder, vanishedTokens, new MessageToken[0]);
+                refreshShiftedMessageIndices(incomingClient, vanishedTokens);
+            }
+        }
+        
+        loadedMessageMap.clear();
+        finalFolderMessageFetch(incomingClient);
+    }
+    
+    /**
+     * Expunges change the index of every message that follows them, so the
+     * flags of any unchanged cached message following the oldest expunged
+     * message are fetched again to update their indices.
+     */
+    private void refreshShiftedMessageIndices(ImapClient incomingClient, MessageToken[] vanishedTokens) throws IOException, MailException {
+        Comparator tokenComparator = vanishedTokens[0].getComparator();
+        MessageToken oldestVanishedToken = vanishedTokens[0];
+        for(int i=1; i<vanishedTokens.length; i++) {
+            loadedMessageMap.remove(vanishedTokens[i].getMessageUid());
+            if(tokenComparator.compare(vanishedTokens[i], oldestVanishedToken) < 0) {
+                oldestVanishedToken = vanishedTokens[i];
+            }
+        }
+        loadedMessageMap.remove(vanishedTokens[0].getMessageUid());
+        
+        Vector shiftedTokens = new Vector();
+        for(Enumeration e = loadedMessageMap.elements(); e.hasMoreElements() ;) {
+            MessageToken token = ((FolderMessage)e.nextElement()).getMessageToken();
+            if(tokenComparator.compare(token, oldestVanishedToken) > 0) {
+                shiftedTokens.addElement(token);
+            }
+        }
+        
+        if(shiftedTokens.size() > 0) {
+            MessageToken[] tokens = new MessageToken[shiftedTokens.size()];
+            shiftedTokens.copyInto(tokens);
+            incomingClient.getFolderMessages(
+                    tokens,
+                    true,
+                    new GetFolderMessageCallback(true),
+                    getProgressHandler(statusMessage));
+        }
+    }
+    
     private void initialFlagsRefreshComplete(ImapClient incomingClient, Vector pendingFlagUpdates) throws IOException, MailException {
         secondaryMessageTokensToFetch = new Vector();
         MessageToken oldestFetchedToken = null;
@@ -261,6 +379,13 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
                     getProgressHandler(statusMessage));
         }
         loadedMessageMap.clear();
+        
+        if(completeSync && syncState != null) {
+            syncState.setState(
+                    incomingClient.getActiveFolderUidValidity(),
+                    incomingClient.getActiveFolderHighestModSeq());
+            incomingClient.saveActiveFolderState(syncState);
+        }
 
         // Handle the unlikely-but-possible case of an untagged new message
         // notification during the folder refresh process.
@@ -286,27 +411,20 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
         mailStore.fireFolderExpunged(folder, orphanedTokens, new MessageToken[0]);
     }
 
-    private class GetFolderMessageCallback implements FolderMessageCallback {
+    private class GetFolderMessageCallback extends BatchedFolderMessageCallback {
         private final Vector folderMessages;
-        private final boolean flagsOnly;
         public GetFolderMessageCallback(Vector folderMessages, boolean flagsOnly) {
+            super(mailStore, folder, flagsOnly);
             this.folderMessages = folderMessages;
-            this.flagsOnly = flagsOnly;
+            activeCallback = this;
         }
         public GetFolderMessageCallback(boolean flagsOnly) {
             this(null, flagsOnly);
         }
 
-        public void folderMessageUpdate(FolderMessage folderMessage) {
-            if(folderMessage != null) {
-                if(folderMessages != null) {
-                    folderMessages.addElement(folderMessage);
-                }
-                mailStore.fireFolderMessagesAvailable(folder, new FolderMessage[] { folderMessage }, flagsOnly);
-            }
-            else {
-                // This is the last update of the sequence
-                mailStore.fireFolderMessagesAvailable(folder, null, flagsOnly);
+        protected void messageAvailable(FolderMessage folderMessage) {
+            if(folderMessages != null) {
+                folderMessages.addElement(folderMessage);
             }
         }
     }
@@ -0,0 +1,224 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.Queue;
+
+/**
+ * Connection handler for a secondary connection that does nothing but idle
+ * on the INBOX.  This is used when the server cannot notify the primary
+ * connection of changes to other folders, so that new mail still arrives
+ * promptly while the primary connection has a different folder selected.
+ * <p>
+ * New messages are not fetched on this connection.  Instead, the primary
+ * connection is told about them, as if it had been idling on the INBOX
+ * itself.
+ * </p>
+ */
+class InboxMonitorConnectionHandler extends AbstractMailConnectionHandler {
+    private final NetworkMailStore mailStore;
+    private final IncomingMailClient incomingClient;
+    
+    /**
+     * Maximum amount of time to spend in a single IDLE command, before
+     * restarting it to keep the connection alive.
+     */
+    private static final int IDLE_TIMEOUT = 300000;
+    
+    private final Timer idleTimer = new Timer();
+    private TimerTask idleTimerTask;
+    private volatile boolean idleTimeout;
+    private volatile boolean stopRequested;
+    private volatile FolderTreeItem inboxFolder;
+    
+    /**
+     * Listener to handle asynchronous notifications from the mail client.
+     * Only new messages are of interest, and those are passed on to the
+     * primary connection.  Flag changes are passed along since they are
+     * free, but expunges are left to the primary connection.
+     */
+    private IncomingMailClientListener mailClientListener = new IncomingMailClientListener() {
+        public void recentFolderMessagesAvailable(FolderTreeItem folder) {
+            mailStore.getConnectionHandler().handleRecentFolderMessagesAvailable(folder);
+        }
+        public void folderMessageFlagsChanged(MessageToken token, MessageFlags messageFlags) {
+            mailStore.fireMessageFlagsChanged(token, messageFlags);
+        }
+        public void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens) { }
+        public void folderStatusChanged(FolderTreeItem folder) { }
+        public void idleModeError() {
+            wakeConnectionThread();
+        }
+    };
+    
+    InboxMonitorConnectionHandler(NetworkMailStore mailStore, IncomingMailClient client) {
+        super(client);
+        this.mailStore = mailStore;
+        this.incomingClient = client;
+        this.incomingClient.setListener(mailClientListener);
+    }
+    
+    public void shutdown(boolean wait) {
+        cancelIdleTimer();
+        super.shutdown(wait);
+    }
+    
+    protected boolean isPrimaryConnection() {
+        return false;
+    }
+    
+    /**
+     * Gets the mail client used by this connection.
+     *
+     * @return the mail client
+     */
+    IncomingMailClient getIncomingClient() {
+        return incomingClient;
+    }
+    
+    /**
+     * Starts monitoring the INBOX, connecting if necessary.
+     * This does nothing if monitoring is already in progress.
+     *
+     * @param inboxFolder the INBOX folder
+     */
+    void startMonitoring(FolderTreeItem inboxFolder) {
+        this.inboxFolder = inboxFolder;
+        this.stopRequested = false;
+        start();
+        
+        Queue requestQueue = getRequestQueue();
+        synchronized(requestQueue) {
+            if(getConnectionState() == STATE_CLOSED && requestQueue.element() == null) {
+                addRequest(new MonitorRequest());
+            }
+        }
+    }
+    
+    /**
+     * Stops monitoring the INBOX, disconnecting once the current IDLE
+     * command has been ended.
+     */
+    void stopMonitoring() {
+        if(!stopRequested) {
+            stopRequested = true;
+            wakeConnectionThread();
+        }
+    }
+    
+    protected void handleBeginIdle() throws IOException, MailException {
+        if(stopRequested || inboxFolder == null) {
+            throw new MailException("Requested disconnect", true, REQUEST_DISCONNECT);
+        }
+        
+        FolderTreeItem activeFolder = incomingClient.getActiveFolder();
+        if(activeFolder == null
+                || !activeFolder.getPath().equalsIgnoreCase(inboxFolder.getPath())) {
+            incomingClient.setActiveFolder(inboxFolder, false);
+        }
+        
+        idleTimeout = false;
+        synchronized(idleTimer) {
+            idleTimerTask = new TimerTask() {
+                public void run() {
+                    idleTimeout = true;
+                    wakeConnectionThread();
+                }
+            };
+            idleTimer.schedule(idleTimerTask, IDLE_TIMEOUT);
+        }
+        incomingClient.idleModeBegin();
+    }
+    
+    protected void handleEndIdle() throws IOException, MailException {
+        cancelIdleTimer();
+        incomingClient.idleModeEnd();
+        
+        if(stopRequested || inboxFolder == null) {
+            throw new MailException("Requested disconnect", true, REQUEST_DISCONNECT);
+        }
+        else if(idleTimeout) {
+            // Make sure the connection is still alive before starting the
+            // next IDLE command
+            idleTimeout = false;
+            incomingClient.noop();
+        }
+    }
+    
+    private void wakeConnectionThread() {
+        Queue requestQueue = getRequestQueue();
+        synchronized(requestQueue) {
+            requestQueue.notifyAll();
+        }
+    }
+    
+    private void cancelIdleTimer() {
+        synchronized(idleTimer) {
+            if(idleTimerTask != null) {
+                idleTimerTask.cancel();
+                idleTimerTask = null;
+            }
+        }
+    }
+    
+    /**
+     * Request used to open the monitoring connection, since connections are
+     * only opened to process a request.  The INBOX is selected here, so the
+     * connection goes straight into the idle state afterwards.
+     */
+    private class MonitorRequest implements ConnectionHandlerRequest {
+        public void setDeliberate(boolean deliberate) { }
+        
+        public boolean isDeliberate() {
+            return false;
+        }
+        
+        public boolean isAdministrative() {
+            return false;
+        }
+        
+        public void showInitialStatus() { }
+        
+        public void execute(MailClient client) throws IOException, MailException {
+            FolderTreeItem folder = inboxFolder;
+            if(folder != null && !stopRequested) {
+                ((IncomingMailClient)client).setActiveFolder(folder, false);
+            }
+        }
+        
+        public void notifyConnectionRequestFailed(Throwable exception, boolean isFinal) { }
+    }
+}
@@ -410,16 +410,22 @@ public interface IncomingMailClient extends MailClient {
      * protocol-specific capabilities, application-wide data
      * format capabilities, and user configuration options.
      * </p>
+     * <p>
+     * If a content callback is provided, it will be given the content for
+     * each part as soon as it is available, and only the content it declines
+     * responsibility for will be included in the returned message.
+     * </p>
      * 
      * @param messageToken the message token
      * @param useLimits true, if user-configured download limits should be used
+     * @param contentCallback the content callback, or <code>null</code>
      * @param progressHandler the progress handler
      * @return the message
      * 
      * @throws IOException on I/O errors
      * @throws MailException on protocol errors
      */
-    Message getMessage(MessageToken messageToken, boolean useLimits, MailProgressHandler progressHandler) throws IOException, MailException;
+    Message getMessage(MessageToken messageToken, boolean useLimits, MessageContentCallback contentCallback, MailProgressHandler progressHandler) throws IOException, MailException;
 
     /**
      * Get a particular message part from a message in the selected folder.
@@ -497,6 +503,25 @@ public interface IncomingMailClient extends MailClient {
      */
     void copyMessage(MessageToken messageToken, FolderTreeItem destinationFolder) throws IOException, MailException;
     
+    /**
+     * Copies a message into another folder, then marks the original message
+     * as deleted.  The original message is not marked as deleted if the copy
+     * fails.
+     * <p>
+     * This method should only be implemented when the underlying protocol
+     * directly supports the copy operation, and protocols that can perform
+     * both steps together should do so.
+     * </p>
+     * 
+     * @param messageToken Token identifying the message to be moved
+     * @param destinationFolder Destination folder to move the message into
+     *
+     * @throws IOException on I/O errors
+     * @throws MailException on protocol errors
+     * @see #hasCopy()
+     */
+    void moveMessage(MessageToken messageToken, FolderTreeItem destinationFolder) throws IOException, MailException;
+    
     /**
      * Sets the flags on a message so the server knows it was answered.
      * This should do nothing if the underlying protocol does not support
@@ -637,4 +662,21 @@ public interface IncomingMailClient extends MailClient {
      * @see #hasIdle()
      */
     void idleModeEnd() throws IOException, MailException;
+    
+    /**
+     * Return whether the client is currently being notified of changes to
+     * folders other than the active folder.  When this is true, those
+     * changes are reported through
+     * {@link IncomingMailClientListener#folderStatusChanged(FolderTreeItem)}
+     * and it is not necessary to periodically refresh the status of every
+     * folder.
+     * <p>
+     * Since the notifications may only be requested once idle mode has been
+     * entered, this should not be checked until after a call to
+     * {@link #idleModeBegin()}.
+     * </p>
+     * 
+     * @return True if folder change notifications are active, false otherwise
+     */
+    boolean hasFolderNotify();
 }
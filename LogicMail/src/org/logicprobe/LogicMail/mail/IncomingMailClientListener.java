@@ -63,10 +63,21 @@ public interface IncomingMailClientListener {
      * mailbox.
      *  
      * @param expungedToken the token of the expunged message, or null if unavailable
-     * @param updatedTokens the tokens with updated data as a result of the expunge operation
+     * @param updatedTokens the tokens with updated data as a result of the expunge operation,
+     *     which may instead be provided in a later call covering several expunges
      */
     void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens);
     
+    /**
+     * Called to indicate that the status of a folder other than the active
+     * folder has changed.  This is only expected while
+     * {@link IncomingMailClient#hasFolderNotify()} is true.
+     * 
+     * @param folder a copy of the folder with the updated counts, where any
+     *     count the server did not provide is set to -1
+     */
+    void folderStatusChanged(FolderTreeItem folder);
+    
     /**
      * Called to indicate that idle processing has prematurely terminated
      * due to an error condition.  This should be handled by calling
@@ -80,7 +80,7 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
     private final Timer idleTimer = new Timer();
     private TimerTask idleTimerTask;
     private boolean idleTimeout;
-    private boolean idleRecentMessagesRequested;
+    private volatile boolean idleRecentMessagesRequested;
     private long idleStartTime;
     private boolean idleEnabledAtBegin;
     
@@ -108,6 +108,9 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         public void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens) {
             handleFolderMessageExpunged(expungedToken, updatedTokens);
         }
+        public void folderStatusChanged(FolderTreeItem folder) {
+            handleFolderStatusChanged(folder);
+        }
         public void idleModeError() {
             handleIdleModeError();
         }
@@ -136,10 +139,18 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         super.handleRequest(request);
     }
     
-    private void handleRecentFolderMessagesAvailable(FolderTreeItem folder) {
-        if(getConnectionState() == STATE_IDLE) {
-            if(idleRecentMessagesRequested) { return; }
-            idleRecentMessagesRequested = true;
+    /**
+     * Handles the availability of new messages in a folder.  This is also
+     * called by the INBOX monitoring connection, if one is in use.
+     *
+     * @param folder the folder with new messages
+     */
+    void handleRecentFolderMessagesAvailable(FolderTreeItem folder) {
+        synchronized(this) {
+            if(getConnectionState() == STATE_IDLE) {
+                if(idleRecentMessagesRequested) { return; }
+                idleRecentMessagesRequested = true;
+            }
         }
         
         ConnectionHandlerRequest currentRequest = getRequestInProgress();
@@ -177,7 +188,32 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         // This notification just updates local data, so it does not need to
         // break out of the idle state.
         
-        mailStore.fireFolderExpunged(incomingClient.getActiveFolder(), new MessageToken[] { expungedToken }, updatedTokens);
+        MessageToken[] expungedTokens = (expungedToken != null)
+                ? new MessageToken[] { expungedToken } : new MessageToken[0];
+        mailStore.fireFolderExpunged(incomingClient.getActiveFolder(), expungedTokens, updatedTokens);
+    }
+
+    private void handleFolderStatusChanged(FolderTreeItem folder) {
+        if(folder.getMsgCount() < 0 || folder.getUnseenCount() < 0) {
+            // The notification did not include everything needed to update
+            // the folder, so ask for the status of just this folder.
+            FolderStatusRequest request = mailStore.createFolderStatusRequest(new FolderTreeItem[] { folder });
+            ((ConnectionHandlerRequest)request).setDeliberate(false);
+            mailStore.processRequest(request);
+        }
+        else {
+            if(folder.getRecentCount() < 0) {
+                folder.setRecentCount(0);
+            }
+            mailStore.fireFolderStatusChanged(folder);
+        }
+        
+        // New mail in the INBOX is fetched right away, just as if it had
+        // been the active folder
+        FolderTreeItem inboxFolder = incomingClient.getInboxFolder();
+        if(inboxFolder != null && inboxFolder.getPath().equalsIgnoreCase(folder.getPath())) {
+            handleRecentFolderMessagesAvailable(inboxFolder);
+        }
     }
 
     private void handleIdleModeError() {
@@ -212,6 +248,17 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         if(incomingClient.hasIdle() && idleEnabledAtBegin) {
             startIdleTimer(IDLE_TIMEOUT);
             incomingClient.idleModeBegin();
+            
+            // If changes to the INBOX will not be reported while another
+            // folder is active, then use a separate connection to watch it.
+            activeFolder = incomingClient.getActiveFolder();
+            if(!incomingClient.hasFolderNotify() && inboxFolder != null && activeFolder != null
+                    && !inboxFolder.getPath().equalsIgnoreCase(activeFolder.getPath())) {
+                mailStore.startInboxMonitor(inboxFolder);
+            }
+            else {
+                mailStore.stopInboxMonitor();
+            }
         }
         else if(!incomingClient.hasLockedFolders()) {
             // In this case, we do a NOOP-based polling
@@ -401,6 +448,10 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         }
     }
 
+    protected void handleBeforeClosing() {
+        mailStore.stopInboxMonitor();
+    }
+    
     void handleRequestDisconnect() throws IOException, MailException {
         this.previousActiveFolder = null;
         throw new MailException("Requested disconnect", true, REQUEST_DISCONNECT);
@@ -441,7 +492,11 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
             
             attemptConnectionHandover();
             
-            mailStore.fireRefreshRequired(false);
+            // Changes to every folder are already being reported while
+            // idle, so there is nothing for a full refresh to find.
+            if(!incomingClient.hasFolderNotify()) {
+                mailStore.fireRefreshRequired(false);
+            }
         }
     }
     
@@ -48,6 +48,7 @@ import org.logicprobe.LogicMail.util.MailMessageParser;
 class LocalMessageRequest extends LocalMailStoreRequest implements MessageRequest {
     private final LocalMessageToken messageToken;
     private final boolean useLimits;
+    private MessageContentCallback contentCallback;
     
     private MimeMessagePart resultStructure;
     private MimeMessageContent[] resultContent;
@@ -73,6 +74,15 @@ class LocalMessageRequest extends LocalMailStoreRequest implements MessageReques
     public MimeMessagePart[] getMessageParts() {
         return null;
     }
+    
+    public MessageRequest setContentCallback(MessageContentCallback contentCallback) {
+        this.contentCallback = contentCallback;
+        return this;
+    }
+    
+    public MessageContentCallback getContentCallback() {
+        return contentCallback;
+    }
 
     public void run() {
         FolderTreeItem tokenFolder = mailStore.getMatchingFolderTreeItem(messageToken.getFolderPath());
@@ -104,7 +114,9 @@ class LocalMessageRequest extends LocalMailStoreRequest implements MessageReques
                 MimeMessageContent content = (MimeMessageContent)contentMap.get(part);
                 // Local parts are always complete, regardless of what the parser thinks
                 content.setPartComplete(MimeMessageContent.PART_COMPLETE);
-                message.putContent(part, content);
+                if(contentCallback == null || contentCallback.messageContentAvailable(content)) {
+                    message.putContent(part, content);
+                }
             }
         } catch (IOException e) {
             EventLogger.logEvent(AppInfo.GUID, ("Unable to read message: " + e.toString()).getBytes(), EventLogger.ERROR);
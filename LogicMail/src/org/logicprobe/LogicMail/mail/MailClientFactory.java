@@ -64,6 +64,18 @@ public class MailClientFactory {
         return createMailClientImpl(accountConfig, false);
     }
     
+    /**
+     * Get a concrete mail client instance for a secondary connection to an
+     * account.  A new client instance will always be provided, with its own
+     * connection and mailbox state.
+     *
+     * @param accountConfig User account configuration
+     * @return Usable mail client instance
+     */
+    static IncomingMailClient createPooledMailClient(AccountConfig accountConfig) {
+        return createMailClientImpl(accountConfig, false);
+    }
+    
     /**
      * Get a concrete mail client instance.
      * If a client already exists for the provided configuration,
@@ -43,6 +43,9 @@ public interface MessageRequest extends MailStoreRequest {
     boolean isUseLimits();
     MimeMessagePart[] getMessageParts();
     
+    MessageRequest setContentCallback(MessageContentCallback contentCallback);
+    MessageContentCallback getContentCallback();
+    
     boolean isResultComplete();
     MimeMessagePart getResultStructure();
     MimeMessageContent[] getResultContent();
@@ -111,49 +111,52 @@ class NetworkFolderMessagesRequest extends NetworkMailStoreRequest implements Fo
         
         GetFolderMessageCallback clientCallback = new GetFolderMessageCallback();
         
-        switch(type) {
-        case TYPE_RANGE:
-            incomingClient.getFolderMessages(
-                    firstToken, increment,
-                    clientCallback,
-                    getProgressHandler(message));
-            break;
-        case TYPE_SET_TOKENS:
-            incomingClient.getFolderMessages(
-                    messageTokens,
-                    flagsOnly,
-                    clientCallback,
-                    getProgressHandler(message));
-            break;
-        case TYPE_SET_INDICES:
-            incomingClient.getFolderMessages(
-                    messageIndices,
-                    clientCallback,
-                    getProgressHandler(message));
-            break;
-        case TYPE_RECENT:
-            incomingClient.getNewFolderMessages(
-                    flagsOnly,
-                    clientCallback,
-                    getProgressHandler(message));
-            break;
-        default:
-            fireMailStoreRequestFailed(null, true);
-            break;
+        try {
+            switch(type) {
+            case TYPE_RANGE:
+                incomingClient.getFolderMessages(
+                        firstToken, increment,
+                        clientCallback,
+                        getProgressHandler(message));
+                break;
+            case TYPE_SET_TOKENS:
+                incomingClient.getFolderMessages(
+                        messageTokens,
+                        flagsOnly,
+                        clientCallback,
+                        getProgressHandler(message));
+                break;
+            case TYPE_SET_INDICES:
+                incomingClient.getFolderMessages(
+                        messageIndices,
+                        clientCallback,
+                        getProgressHandler(message));
+                break;
+            case TYPE_RECENT:
+                incomingClient.getNewFolderMessages(
+                        flagsOnly,
+                        clientCallback,
+                        getProgressHandler(message));
+                break;
+            default:
+                fireMailStoreRequestFailed(null, true);
+                break;
+            }
+        } finally {
+            // Pass on any messages received before a failure
+            clientCallback.flush();
         }
     }
     
-    private class GetFolderMessageCallback implements FolderMessageCallback {
-        public void folderMessageUpdate(FolderMessage folderMessage) {
-            if(folderMessage != null) {
-                folderMessages.addElement(folderMessage);
-                mailStore.fireFolderMessagesAvailable(folder, new FolderMessage[] { folderMessage }, flagsOnly);
-            }
-            else {
-                // This is the last update of the sequence
-                fireMailStoreRequestComplete();
-                mailStore.fireFolderMessagesAvailable(folder, null, flagsOnly);
-            }
+    private class GetFolderMessageCallback extends BatchedFolderMessageCallback {
+        public GetFolderMessageCallback() {
+            super(mailStore, folder, flagsOnly);
+        }
+        protected void messageAvailable(FolderMessage folderMessage) {
+            folderMessages.addElement(folderMessage);
+        }
+        protected void messagesComplete() {
+            fireMailStoreRequestComplete();
         }
     };
     
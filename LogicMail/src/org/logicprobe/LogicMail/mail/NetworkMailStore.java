@@ -36,7 +36,9 @@ import java.util.Date;
 import net.rim.device.api.system.UnsupportedOperationException;
 
 import org.logicprobe.LogicMail.conf.AccountConfig;
+import org.logicprobe.LogicMail.conf.ImapConfig;
 import org.logicprobe.LogicMail.mail.imap.ImapClient;
+import org.logicprobe.LogicMail.mail.imap.ImapMessageToken;
 import org.logicprobe.LogicMail.mail.pop.PopClient;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageFlags;
@@ -46,12 +48,37 @@ public class NetworkMailStore extends AbstractMailStore {
 	private IncomingMailClient client;
 	private IncomingMailConnectionHandler connectionHandler;
 	private AccountConfig accountConfig;
+	private PooledMailConnectionHandler[] connectionPool;
+	private InboxMonitorConnectionHandler inboxMonitor;
+	
 	public NetworkMailStore(AccountConfig accountConfig) {
 		super();
 		this.client = MailClientFactory.createMailClient(accountConfig);
 		this.accountConfig = accountConfig;
 		this.connectionHandler = new IncomingMailConnectionHandler(this, client);
 		this.connectionHandler.start();
+		
+		// Secondary connections are only useful for IMAP, since POP servers
+		// typically lock the mailbox to a single session.  The INBOX monitor
+		// counts against the connection limit, and is only created once
+		// there is at least one other secondary connection for fetching
+		// message content.
+		if(client instanceof ImapClient && accountConfig instanceof ImapConfig) {
+		    int secondaryCount = ((ImapConfig)accountConfig).getMaxConnections() - 1;
+		    int poolSize = (secondaryCount > 1) ? secondaryCount - 1 : secondaryCount;
+		    if(poolSize > 0) {
+		        connectionPool = new PooledMailConnectionHandler[poolSize];
+		        for(int i=0; i<poolSize; i++) {
+		            connectionPool[i] = new PooledMailConnectionHandler(this,
+		                    MailClientFactory.createPooledMailClient(accountConfig));
+		        }
+		    }
+		    
+		    if(secondaryCount > poolSize) {
+		        inboxMonitor = new InboxMonitorConnectionHandler(this,
+		                MailClientFactory.createPooledMailClient(accountConfig));
+		    }
+		}
 	}
 
     /**
@@ -65,6 +92,14 @@ public class NetworkMailStore extends AbstractMailStore {
 	
 	public void shutdown(boolean wait) {
 		connectionHandler.shutdown(wait);
+		if(connectionPool != null) {
+		    for(int i=0; i<connectionPool.length; i++) {
+		        connectionPool[i].shutdown(wait);
+		    }
+		}
+		if(inboxMonitor != null) {
+		    inboxMonitor.shutdown(wait);
+		}
 	}
 
 	/**
@@ -119,6 +154,20 @@ public class NetworkMailStore extends AbstractMailStore {
 	    return client.hasFolderMessageIndexMap();
 	}
 	
+	/**
+	 * Returns whether the mail store can page through folders in the provided
+	 * server-determined order.  This is only known once the mail store has
+	 * connected to the server.
+	 *
+	 * @param order The message order, such as {@link ImapClient#ORDER_DATE}.
+	 * @return True if the order is supported, false otherwise
+	 * @see #createFolderMessageOrderRequest(FolderTreeItem, int)
+	 */
+	public boolean hasFolderMessageOrder(int order) {
+	    return (client instanceof ImapClient)
+	        && ((ImapClient)client).hasFolderMessageOrder(order);
+	}
+	
 	/**
 	 * Returns whether the mail store has a locked folder view while connected.
 	 * If this method returns true, then an explicit refresh during an existing
@@ -209,6 +258,55 @@ public class NetworkMailStore extends AbstractMailStore {
         return request;
 	}
 	
+	/**
+	 * Creates a request to fetch the UIDs of every message in a folder, in an
+	 * order determined by the server.  This is only supported by IMAP
+	 * servers with the SORT or THREAD extensions.
+	 *
+	 * @param folder The folder to order the messages of.
+	 * @param order The message order, such as {@link ImapClient#ORDER_DATE}.
+	 * @return the request object
+	 * @see #getResultOrderedUids(MailStoreRequest)
+	 */
+	public MailStoreRequest createFolderMessageOrderRequest(FolderTreeItem folder, int order) {
+	    if(!(client instanceof ImapClient)) {
+	        throw new UnsupportedOperationException();
+	    }
+	    return new ImapFolderMessageOrderRequest(this, folder, order);
+	}
+	
+	/**
+	 * Gets the ordered message UIDs obtained by a request created with
+	 * {@link #createFolderMessageOrderRequest(FolderTreeItem, int)}.
+	 *
+	 * @param request the completed request
+	 * @return the ordered message UIDs
+	 */
+	public static int[] getResultOrderedUids(MailStoreRequest request) {
+	    return ((ImapFolderMessageOrderRequest)request).getResultOrderedUids();
+	}
+	
+	/**
+	 * Creates a request to fetch a page of messages from a folder, in an
+	 * order determined by the server.
+	 *
+	 * @param folder The folder to fetch messages from.
+	 * @param orderedUids The ordered message UIDs, as obtained with a request
+	 *     created by {@link #createFolderMessageOrderRequest(FolderTreeItem, int)}.
+	 * @param pageIndex The index of the page to fetch.
+	 * @param pageSize The number of messages in each page.
+	 * @return the request object
+	 */
+	public MailStoreRequest createFolderMessagesOrderedRequest(FolderTreeItem folder, int[] orderedUids, int pageIndex, int pageSize) {
+	    if(!(client instanceof ImapClient)) {
+	        throw new UnsupportedOperationException();
+	    }
+	    if(orderedUids == null || pageIndex < 0 || pageSize <= 0) {
+	        throw new IllegalArgumentException();
+	    }
+	    return new ImapFolderOrderedMessagesRequest(this, folder, orderedUids, pageIndex, pageSize);
+	}
+	
 	public FolderMessagesRequest createFolderMessagesRecentRequest(FolderTreeItem folder, boolean flagsOnly) {
         NetworkFolderMessagesRequest request = new NetworkFolderMessagesRequest(this, folder, flagsOnly);
         return request;
@@ -228,16 +326,42 @@ public class NetworkMailStore extends AbstractMailStore {
 	 */
 	public MailStoreRequest createFolderRefreshRequest(FolderTreeItem folder, FolderMessage[] loadedMessages) {
 	    if(client instanceof ImapClient) {
-            return new ImapFolderRefreshRequest(this, folder, loadedMessages);
+            return new ImapFolderRefreshRequest(this, folder, loadedMessages, null);
 	    }
 	    else if(client instanceof PopClient) {
-	        return new PopFolderRefreshRequest(this, folder, loadedMessages);
+	        return new PopFolderRefreshRequest(this, folder, loadedMessages, null);
 	    }
 	    else {
 	        throw new UnsupportedOperationException();
 	    }
 	}
 	
+	/**
+	 * Creates a request to synchronize a locally cached folder with data from
+	 * the mail server, starting from a known synchronization point.  For
+	 * protocols that cannot use the synchronization point, this is the same
+	 * as {@link #createFolderRefreshRequest(FolderTreeItem, FolderMessage[])}.
+	 * 
+	 * @param folder The folder to refresh.
+	 * @param loadedMessages Collection of {@link FolderMessage} objects
+	 *     for messages that have already been loaded for this folder prior to
+	 *     the start of the refresh operation.
+	 * @param syncState The synchronization point that the loaded messages
+	 *     reflect, which will be updated if the request completes successfully.
+	 * @return the request object
+	 */
+	public MailStoreRequest createFolderRefreshRequest(FolderTreeItem folder, FolderMessage[] loadedMessages, FolderSyncState syncState) {
+	    if(client instanceof ImapClient) {
+	        return new ImapFolderRefreshRequest(this, folder, loadedMessages, syncState);
+	    }
+	    else if(client instanceof PopClient) {
+	        return new PopFolderRefreshRequest(this, folder, loadedMessages, syncState);
+	    }
+	    else {
+	        return createFolderRefreshRequest(folder, loadedMessages);
+	    }
+	}
+	
 	public MessageRequest createMessageRequest(MessageToken messageToken, boolean useLimits) {
 		NetworkMessageRequest request = new NetworkMessageRequest(this, messageToken, useLimits);
         return request;
@@ -305,12 +429,38 @@ public class NetworkMailStore extends AbstractMailStore {
 	    if(!this.hasCopy()) {
 	        throw new UnsupportedOperationException();
 	    }
-	    NetworkMessageCopyRequest request = new NetworkMessageCopyRequest(this, messageToken, destinationFolder);
+	    NetworkMessageCopyRequest request = new NetworkMessageCopyRequest(this, messageToken, destinationFolder, false);
+	    return request;
+	}
+	
+    /**
+     * Creates a request to move a message into another folder.  The message
+     * is copied on the server, and the original is then marked as deleted
+     * as part of the same request.
+     * <p>
+     * If <tt>hasCopy()</tt> returns <tt>false</tt>,
+     * then this method will throw an
+     * <tt>UnsupportedOperationException</tt>.
+     * </p>
+     * 
+     * @param messageToken The token used to identify the message
+     * @param destinationFolder The folder to move the message into
+     * @return the request object
+     */
+	public MessageCopyRequest createMessageMoveRequest(MessageToken messageToken, FolderTreeItem destinationFolder) {
+	    if(!this.hasCopy()) {
+	        throw new UnsupportedOperationException();
+	    }
+	    NetworkMessageCopyRequest request = new NetworkMessageCopyRequest(this, messageToken, destinationFolder, true);
 	    return request;
 	}
 	
     public void processRequest(MailStoreRequest request) {
-        if(request instanceof NetworkMailStoreRequest
+        if(connectionPool != null && request instanceof NetworkMessageRequest) {
+            getPooledConnectionHandler(((NetworkMessageRequest)request).getMessageToken())
+                .addRequest((ConnectionHandlerRequest)request);
+        }
+        else if(request instanceof NetworkMailStoreRequest
                 && request instanceof ConnectionHandlerRequest) {
             connectionHandler.addRequest((ConnectionHandlerRequest)request);
         }
@@ -338,4 +488,80 @@ public class NetworkMailStore extends AbstractMailStore {
     IncomingMailConnectionHandler getConnectionHandler() {
         return connectionHandler;
     }
+    
+    /**
+     * Gets the secondary connection handler that should process requests
+     * for the folder containing the provided message.  Each folder is
+     * always routed to the same secondary connection, so that connection
+     * can stay selected on that folder between requests.
+     *
+     * @param messageToken the message token
+     * @return the started connection handler
+     */
+    private PooledMailConnectionHandler getPooledConnectionHandler(MessageToken messageToken) {
+        String folderPath = ((ImapMessageToken)messageToken).getFolderPath();
+        PooledMailConnectionHandler handler =
+            connectionPool[getPoolIndex(folderPath, connectionPool.length)];
+        
+        // Use the same login as the primary connection, in case the user
+        // was prompted for it.
+        IncomingMailClient pooledClient = handler.getIncomingClient();
+        pooledClient.setUsername(client.getUsername());
+        pooledClient.setPassword(client.getPassword());
+        
+        handler.start();
+        return handler;
+    }
+    
+    /**
+     * Gets the index of the secondary connection that handles requests for
+     * the provided folder.
+     *
+     * @param folderPath the path of the folder
+     * @param poolSize the number of secondary connections
+     * @return the connection index, from zero to <code>poolSize - 1</code>
+     */
+    static int getPoolIndex(String folderPath, int poolSize) {
+        return (folderPath.hashCode() & 0x7FFFFFFF) % poolSize;
+    }
+    
+    /**
+     * Starts idling on the INBOX with a secondary connection, if one is
+     * available for this account.  This is used while the primary connection
+     * has another folder selected, and cannot be notified of changes to
+     * the INBOX.
+     *
+     * @param inboxFolder the INBOX folder
+     */
+    void startInboxMonitor(FolderTreeItem inboxFolder) {
+        if(inboxMonitor == null) { return; }
+        
+        // Use the same login as the primary connection, in case the user
+        // was prompted for it.
+        IncomingMailClient monitorClient = inboxMonitor.getIncomingClient();
+        monitorClient.setUsername(client.getUsername());
+        monitorClient.setPassword(client.getPassword());
+        
+        inboxMonitor.startMonitoring(inboxFolder);
+    }
+    
+    /**
+     * Stops idling on the INBOX with a secondary connection, if it was
+     * previously started.
+     */
+    void stopInboxMonitor() {
+        if(inboxMonitor == null) { return; }
+        inboxMonitor.stopMonitoring();
+    }
+    
+    /**
+     * Checks whether the provided mail client belongs to a secondary
+     * connection, rather than the primary connection for the account.
+     *
+     * @param mailClient the mail client
+     * @return true, if the client belongs to a secondary connection
+     */
+    boolean isPooledClient(MailClient mailClient) {
+        return mailClient != client;
+    }
 }
@@ -87,7 +87,9 @@ abstract class NetworkMailStoreRequest extends AbstractMailStoreRequest implemen
     protected void checkActiveFolder(IncomingMailClient incomingClient, MessageToken messageToken) throws IOException, MailException {
         FolderTreeItem invalidFolder = incomingClient.setActiveFolder(messageToken, true);
         
-        if(invalidFolder != null) {
+        // Secondary connections do not keep a complete view of the folder,
+        // so only the primary connection can decide that a refresh is needed
+        if(invalidFolder != null && !mailStore.isPooledClient(incomingClient)) {
             mailStore.fireFolderRefreshRequired(invalidFolder, this.deliberate);
         }
     }
@@ -95,7 +97,7 @@ abstract class NetworkMailStoreRequest extends AbstractMailStoreRequest implemen
     protected void handleSetActiveFolder(IncomingMailClient incomingClient, FolderTreeItem folder) throws IOException, MailException {
         boolean isStateValid = incomingClient.setActiveFolder(folder, true);
         
-        if(!isStateValid) {
+        if(!isStateValid && !mailStore.isPooledClient(incomingClient)) {
             mailStore.fireFolderRefreshRequired(folder, this.deliberate);
         }
     }
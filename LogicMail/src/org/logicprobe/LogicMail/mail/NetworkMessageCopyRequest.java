@@ -38,11 +38,13 @@ import org.logicprobe.LogicMail.LogicMailResource;
 class NetworkMessageCopyRequest extends NetworkMailStoreRequest implements MessageCopyRequest {
     private final MessageToken messageToken;
     private final FolderTreeItem destinationFolder;
+    private final boolean deleteOriginal;
     
-    NetworkMessageCopyRequest(NetworkMailStore mailStore, MessageToken messageToken, FolderTreeItem destinationFolder) {
+    NetworkMessageCopyRequest(NetworkMailStore mailStore, MessageToken messageToken, FolderTreeItem destinationFolder, boolean deleteOriginal) {
         super(mailStore);
         this.messageToken = messageToken;
         this.destinationFolder = destinationFolder;
+        this.deleteOriginal = deleteOriginal;
     }
 
     public MessageToken getMessageToken() {
@@ -62,7 +64,12 @@ class NetworkMessageCopyRequest extends NetworkMailStoreRequest implements Messa
         
         if(incomingClient.hasCopy()) {
             checkActiveFolder(incomingClient, messageToken);
-            incomingClient.copyMessage(messageToken, destinationFolder);
+            if(deleteOriginal) {
+                incomingClient.moveMessage(messageToken, destinationFolder);
+            }
+            else {
+                incomingClient.copyMessage(messageToken, destinationFolder);
+            }
         }
 
         fireMailStoreRequestComplete();
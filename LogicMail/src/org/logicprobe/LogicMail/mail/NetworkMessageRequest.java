@@ -44,6 +44,7 @@ class NetworkMessageRequest extends NetworkMailStoreRequest implements MessageRe
     private final MessageToken messageToken;
     private final boolean useLimits;
     private final MimeMessagePart[] messageParts;
+    private MessageContentCallback contentCallback;
     
     private boolean resultComplete;
     private MimeMessagePart resultStructure;
@@ -81,6 +82,15 @@ class NetworkMessageRequest extends NetworkMailStoreRequest implements MessageRe
         return messageParts;
     }
     
+    public MessageRequest setContentCallback(MessageContentCallback contentCallback) {
+        this.contentCallback = contentCallback;
+        return this;
+    }
+    
+    public MessageContentCallback getContentCallback() {
+        return contentCallback;
+    }
+    
     protected String getInitialStatus() {
         return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_MESSAGE);
     }
@@ -92,7 +102,7 @@ class NetworkMessageRequest extends NetworkMailStoreRequest implements MessageRe
         checkActiveFolder(incomingClient, messageToken);
 
         if(messageParts == null) {
-            Message message = incomingClient.getMessage(messageToken, useLimits, getProgressHandler(statusMessage));
+            Message message = incomingClient.getMessage(messageToken, useLimits, contentCallback, getProgressHandler(statusMessage));
 
             if(message != null) {
                 resultComplete = message.isComplete();
@@ -78,12 +78,8 @@ class NetworkSendMessageRequest implements ConnectionHandlerRequest {
         OutgoingMailClient outgoingClient = (OutgoingMailClient)client;
         
         showStatus(outgoingClient, resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_SEND_MESSAGE));
-		byte[] rawMessage = outgoingClient.sendMessage(envelope, message);
-		String messageSource;
-		if(rawMessage != null && rawMessage.length > 0) {
-		    messageSource = new String(rawMessage);
-		}
-		else {
+		String messageSource = outgoingClient.sendMessage(envelope, message);
+		if(messageSource != null && messageSource.length() == 0) {
 		    messageSource = null;
 		}
         
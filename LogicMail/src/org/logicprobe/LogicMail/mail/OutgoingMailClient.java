@@ -48,5 +48,5 @@ public interface OutgoingMailClient extends MailClient {
      * @throws IOException on I/O errors
      * @throws MailException on protocol errors
      */
-    public abstract byte[] sendMessage(MessageEnvelope envelope, Message message) throws IOException, MailException;
+    public abstract String sendMessage(MessageEnvelope envelope, Message message) throws IOException, MailException;
 }
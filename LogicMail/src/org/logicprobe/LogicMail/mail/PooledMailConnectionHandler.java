@@ -0,0 +1,138 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.Queue;
+
+/**
+ * Connection handler for a secondary connection from a pool of connections
+ * to the same account.  Secondary connections are used for requests that
+ * may take a long time, such as fetching message content, so that they do
+ * not hold up requests on the primary connection.
+ * <p>
+ * Unlike the primary connection, a secondary connection does not idle or
+ * poll the server for changes.  It simply disconnects after it has been
+ * unused for a while, and reconnects when another request arrives.
+ * </p>
+ */
+class PooledMailConnectionHandler extends AbstractMailConnectionHandler {
+    private final NetworkMailStore mailStore;
+    private final IncomingMailClient incomingClient;
+    
+    /**
+     * Amount of time to keep an unused secondary connection open.
+     * Currently set to 2 minutes.
+     */
+    private static final int IDLE_TIMEOUT = 120000;
+    
+    private final Timer idleTimer = new Timer();
+    private TimerTask idleTimerTask;
+    private volatile boolean idleTimeout;
+    
+    /**
+     * Listener to handle asynchronous notifications from the mail client.
+     * Only flag changes are passed along, since the primary connection is
+     * responsible for tracking new and expunged messages.
+     */
+    private IncomingMailClientListener mailClientListener = new IncomingMailClientListener() {
+        public void recentFolderMessagesAvailable(FolderTreeItem folder) { }
+        public void folderMessageFlagsChanged(MessageToken token, MessageFlags messageFlags) {
+            mailStore.fireMessageFlagsChanged(token, messageFlags);
+        }
+        public void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens) { }
+        public void folderStatusChanged(FolderTreeItem folder) { }
+        public void idleModeError() { }
+    };
+    
+    PooledMailConnectionHandler(NetworkMailStore mailStore, IncomingMailClient client) {
+        super(client);
+        this.mailStore = mailStore;
+        this.incomingClient = client;
+        this.incomingClient.setListener(mailClientListener);
+    }
+    
+    public void shutdown(boolean wait) {
+        cancelIdleTimer();
+        super.shutdown(wait);
+    }
+    
+    protected boolean isPrimaryConnection() {
+        return false;
+    }
+    
+    /**
+     * Gets the mail client used by this connection.
+     *
+     * @return the mail client
+     */
+    IncomingMailClient getIncomingClient() {
+        return incomingClient;
+    }
+    
+    protected void handleBeginIdle() throws IOException, MailException {
+        idleTimeout = false;
+        synchronized(idleTimer) {
+            idleTimerTask = new TimerTask() {
+                public void run() {
+                    idleTimeout = true;
+                    Queue requestQueue = getRequestQueue();
+                    synchronized(requestQueue) {
+                        requestQueue.notifyAll();
+                    }
+                }
+            };
+            idleTimer.schedule(idleTimerTask, IDLE_TIMEOUT);
+        }
+    }
+    
+    protected void handleEndIdle() throws IOException, MailException {
+        cancelIdleTimer();
+        if(idleTimeout) {
+            idleTimeout = false;
+            // This only closes the connection if no new requests have arrived
+            throw new MailException("Timeout disconnect", true, REQUEST_DISCONNECT_TIMEOUT);
+        }
+    }
+    
+    private void cancelIdleTimer() {
+        synchronized(idleTimer) {
+            if(idleTimerTask != null) {
+                idleTimerTask.cancel();
+                idleTimerTask = null;
+            }
+        }
+    }
+}
@@ -37,8 +37,6 @@ import java.util.Vector;
 
 import net.rim.device.api.util.IntHashtable;
 import net.rim.device.api.util.IntVector;
-import net.rim.device.api.util.SimpleSortingIntVector;
-import net.rim.device.api.util.ToIntHashtable;
 
 import org.logicprobe.LogicMail.LogicMailResource;
 import org.logicprobe.LogicMail.mail.pop.PopClient;
@@ -48,11 +46,13 @@ class PopFolderRefreshRequest extends NetworkMailStoreRequest implements MailSto
     private final String statusMessage;
     private final FolderTreeItem folder;
     private final Hashtable loadedMessageMap;
+    private final FolderSyncState syncState;
 
-    PopFolderRefreshRequest(NetworkMailStore mailStore, FolderTreeItem folder, FolderMessage[] loadedMessages) {
+    PopFolderRefreshRequest(NetworkMailStore mailStore, FolderTreeItem folder, FolderMessage[] loadedMessages, FolderSyncState syncState) {
         super(mailStore);
         this.statusMessage = resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES);
         this.folder = folder;
+        this.syncState = syncState;
         this.loadedMessageMap = new Hashtable();
         if(loadedMessages != null) {
             for(int i=0; i<loadedMessages.length; i++) {
@@ -72,52 +72,62 @@ class PopFolderRefreshRequest extends NetworkMailStoreRequest implements MailSto
 
         checkActiveFolder(incomingClient, folder);
         
-        // Get the Index-to-UID map for the folder
-        ToIntHashtable uidIndexMap = incomingClient.getFolderMessageIndexMap(getProgressHandler(statusMessage));
+        // Get the UIDs of the messages in the folder, in mailbox order
+        String[] uids = incomingClient.getFolderMessageUids(getProgressHandler(statusMessage));
         
         // Get configuration values that affect the rest of the process
         int initialMessageLimit = incomingClient.getAcctConfig().getInitialFolderMessages();
         int messageRetentionLimit = incomingClient.getAcctConfig().getMaximumFolderMessages();
 
-        // Initialize collections used during processing
-        Vector messagesUpdated = new Vector();
-        SimpleSortingIntVector indexVector = new SimpleSortingIntVector();
-        IntHashtable cachedIndexToMessageMap = new IntHashtable();
+        // Bring the index from the last refresh up to date with the server,
+        // leaving it with an entry for each message in mailbox order
+        PopUidlIndex uidlIndex = null;
+        if(syncState != null) {
+            uidlIndex = syncState.getUidlIndex();
+        }
+        if(uidlIndex == null) {
+            uidlIndex = new PopUidlIndex();
+        }
+        uidlIndex.merge(uids);
+        if(syncState != null) {
+            syncState.setUidlIndex(uidlIndex);
+        }
         
-        // Iterate through the UID-to-index map, and do the following:
+        // Iterate through the index, and do the following:
         // - Remove cache-loaded messages from the orphan set if they exist on the server.
         // - Update index information for those messages that do still exist server-side.
-        // - Build a sortable vector of index values
-        Enumeration e = uidIndexMap.keys();
-        while(e.hasMoreElements()) {
-            String uid = (String)e.nextElement();
-            int index = uidIndexMap.get(uid);
-            indexVector.addElement(index);
-            
-            FolderMessage message = (FolderMessage)loadedMessageMap.remove(uid);
+        // - Update the index with the current state of those messages.
+        int size = uidlIndex.size();
+        Vector messagesUpdated = new Vector();
+        IntHashtable cachedPositionMap = new IntHashtable();
+        for(int i=0; i<size; i++) {
+            int index = uidlIndex.getMessageIndex(i);
+            FolderMessage message = (FolderMessage)loadedMessageMap.remove(uids[index - 1]);
             if(message != null) {
                 message.setIndex(index);
                 message.getMessageToken().updateMessageIndex(index);
                 messagesUpdated.addElement(message);
-                cachedIndexToMessageMap.put(index, message);
+                cachedPositionMap.put(i, message);
+                uidlIndex.setEntry(i, message.getSize(), getIndexFlags(message));
+            }
+            else {
+                uidlIndex.setEntry(i, uidlIndex.getMessageSize(i),
+                        uidlIndex.getFlags(i) & ~PopUidlIndex.FLAG_CONTENT_CACHED);
             }
         }
-        indexVector.reSort(SimpleSortingIntVector.SORT_TYPE_NUMERIC);
         
         notifyMessageFlagUpdates(messagesUpdated);
         removeOrphanedMessages();
 
         // Determine the fetch range
-        int size = indexVector.size();
         if(size == 0) { return; }
         int fetchRangeStart = Math.max(0, size - initialMessageLimit);
         
         // Build a list of indices to fetch
         IntVector messagesToFetch = new IntVector();
-        for(int i=indexVector.size() - 1; i >= fetchRangeStart; --i) {
-            int index = indexVector.elementAt(i);
-            if(!cachedIndexToMessageMap.containsKey(index)) {
-                messagesToFetch.addElement(index);
+        for(int i=size - 1; i >= fetchRangeStart; --i) {
+            if(!cachedPositionMap.containsKey(i)) {
+                messagesToFetch.addElement(uidlIndex.getMessageIndex(i));
             }
         }
 
@@ -128,9 +138,11 @@ class PopFolderRefreshRequest extends NetworkMailStoreRequest implements MailSto
             }
             else {
                 // Beyond the limit, add these back to the orphan set
-                FolderMessage message = (FolderMessage)cachedIndexToMessageMap.get(indexVector.elementAt(i));
+                FolderMessage message = (FolderMessage)cachedPositionMap.get(i);
                 if(message != null) {
                     loadedMessageMap.put(message.getMessageToken().getMessageUid(), message);
+                    uidlIndex.setEntry(i, uidlIndex.getMessageSize(i),
+                            uidlIndex.getFlags(i) & ~PopUidlIndex.FLAG_CONTENT_CACHED);
                 }
             }
         }
@@ -138,7 +150,7 @@ class PopFolderRefreshRequest extends NetworkMailStoreRequest implements MailSto
         
         // Do the final request for missing messages
         if(messagesToFetch.size() > 0) {
-            fetchMessageSetByIndices(incomingClient, messagesToFetch.toArray());
+            fetchMessageSetByIndices(incomingClient, uidlIndex, messagesToFetch.toArray());
         }
         
         loadedMessageMap.clear();
@@ -165,23 +177,38 @@ class PopFolderRefreshRequest extends NetworkMailStoreRequest implements MailSto
         mailStore.fireFolderExpunged(folder, orphanedTokens, new MessageToken[0]);
     }
     
-    private void fetchMessageSetByIndices(PopClient incomingClient, int[] messageIndices) throws IOException, MailException {
-        GetFolderMessageCallback clientCallback = new GetFolderMessageCallback();
-        incomingClient.getFolderMessages(
-                messageIndices,
-                clientCallback,
-                getProgressHandler(statusMessage));
+    private void fetchMessageSetByIndices(PopClient incomingClient, final PopUidlIndex uidlIndex, int[] messageIndices) throws IOException, MailException {
+        BatchedFolderMessageCallback callback =
+                new BatchedFolderMessageCallback(mailStore, folder, false) {
+                    protected void messageAvailable(FolderMessage folderMessage) {
+                        int position = uidlIndex.positionOf(folderMessage.getIndex());
+                        if(position < 0) { return; }
+                        
+                        // Restore any state the message had the last time
+                        // it was in the cache
+                        int flags = uidlIndex.getFlags(position);
+                        if((flags & PopUidlIndex.FLAG_SEEN) != 0) {
+                            folderMessage.setSeen(true);
+                            folderMessage.setRecent(false);
+                        }
+                        if((flags & PopUidlIndex.FLAG_DELETED) != 0) {
+                            folderMessage.setDeleted(true);
+                        }
+                        uidlIndex.setEntry(position, folderMessage.getSize(), getIndexFlags(folderMessage));
+                    }
+                };
+        try {
+            incomingClient.getFolderMessages(messageIndices, callback, getProgressHandler(statusMessage));
+        } finally {
+            // Pass on any messages received before a failure
+            callback.flush();
+        }
     }
     
-    private class GetFolderMessageCallback implements FolderMessageCallback {
-        public void folderMessageUpdate(FolderMessage folderMessage) {
-            if(folderMessage != null) {
-                mailStore.fireFolderMessagesAvailable(folder, new FolderMessage[] { folderMessage }, false);
-            }
-            else {
-                // This is the last update of the sequence
-                mailStore.fireFolderMessagesAvailable(folder, null, false);
-            }
-        }
-    };
+    private static int getIndexFlags(FolderMessage message) {
+        int flags = PopUidlIndex.FLAG_CONTENT_CACHED;
+        if(message.isSeen()) { flags |= PopUidlIndex.FLAG_SEEN; }
+        if(message.isDeleted()) { flags |= PopUidlIndex.FLAG_DELETED; }
+        return flags;
+    }
 }
@@ -0,0 +1,285 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import net.rim.device.api.util.IntIntHashtable;
+
+/**
+ * Compact index of the messages in a POP mailbox, as of the last complete
+ * folder refresh.
+ * <p>
+ * Each message is stored as a single <code>long</code>, holding a hash of
+ * its UID along with its size and a few flags.  Entries are kept in mailbox
+ * order, which POP servers preserve between sessions, so the index can be
+ * reconciled against a fresh UIDL listing in a single linear pass.
+ * </p>
+ * <p>
+ * Since only a hash of each UID is kept, a collision between two UIDs can
+ * at worst cause the state of one message to be carried over to the other.
+ * </p>
+ */
+public class PopUidlIndex {
+    /** The message has been seen. */
+    public static final int FLAG_SEEN = 0x01;
+    /** The message has been marked as deleted. */
+    public static final int FLAG_DELETED = 0x02;
+    /** The message is held in the local message cache. */
+    public static final int FLAG_CONTENT_CACHED = 0x04;
+    
+    private static final int FLAG_MASK = 0x07;
+    private static final int SIZE_SHIFT = 3;
+    private static final int SIZE_MASK = 0x1FFFFFFF;
+    
+    private long[] entries;
+    private int count;
+    
+    /**
+     * Message indices from the last merge.  These only describe the current
+     * session, so they are not persisted.
+     */
+    private int[] messageIndices;
+    
+    /**
+     * Instantiates a new, empty UIDL index.
+     */
+    public PopUidlIndex() {
+        this(new long[0]);
+    }
+    
+    /**
+     * Instantiates a new UIDL index from its persisted form.
+     *
+     * @param entries the index entries, as returned by {@link #toArray()}
+     */
+    public PopUidlIndex(long[] entries) {
+        this.entries = entries;
+        this.count = entries.length;
+    }
+    
+    /**
+     * Gets the hash used to identify a message UID within the index.
+     *
+     * @param uid the message UID
+     * @return the UID hash
+     */
+    public static int hashUid(String uid) {
+        return uid.hashCode();
+    }
+    
+    /**
+     * Gets the number of messages in the index.
+     *
+     * @return the number of messages
+     */
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * Gets the UID hash of a message in the index.
+     *
+     * @param position the position of the message within the index
+     * @return the UID hash, as returned by {@link #hashUid(String)}
+     */
+    public int getUidHash(int position) {
+        return (int)(entries[position] >>> 32);
+    }
+    
+    /**
+     * Gets the size of a message in the index.
+     *
+     * @param position the position of the message within the index
+     * @return the size of the message, in bytes, or 0 if it is not known
+     */
+    public int getMessageSize(int position) {
+        return ((int)entries[position] >>> SIZE_SHIFT) & SIZE_MASK;
+    }
+    
+    /**
+     * Gets the flags of a message in the index.
+     *
+     * @param position the position of the message within the index
+     * @return the message flags, such as {@link #FLAG_SEEN}
+     */
+    public int getFlags(int position) {
+        return (int)entries[position] & FLAG_MASK;
+    }
+    
+    /**
+     * Sets the size and flags of a message in the index.
+     *
+     * @param position the position of the message within the index
+     * @param size the size of the message, in bytes
+     * @param flags the message flags
+     */
+    public void setEntry(int position, int size, int flags) {
+        entries[position] = createEntry(getUidHash(position), size, flags);
+    }
+    
+    /**
+     * Gets the mailbox index of a message, as of the last merge.
+     *
+     * @param position the position of the message within the index
+     * @return the message index, or -1 if the index has not been merged
+     *     with a UIDL listing
+     */
+    public int getMessageIndex(int position) {
+        return (messageIndices != null) ? messageIndices[position] : -1;
+    }
+    
+    /**
+     * Finds the position of a message within the index, by its mailbox
+     * index as of the last merge.
+     *
+     * @param messageIndex the message index
+     * @return the position of the message, or -1 if it was not found
+     */
+    public int positionOf(int messageIndex) {
+        if(messageIndices == null) { return -1; }
+        
+        // Message indices are in ascending order, following mailbox order
+        int low = 0;
+        int high = count - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(messageIndices[mid] < messageIndex) {
+                low = mid + 1;
+            }
+            else if(messageIndices[mid] > messageIndex) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Reconciles the index with a fresh UIDL listing for the mailbox.
+     * <p>
+     * Afterwards, the index contains one entry for each listed message, in
+     * mailbox order.  Messages that were already in the index keep their
+     * size and flags, messages that are new to the index start out with
+     * neither, and messages that are no longer listed are dropped.
+     * </p>
+     * <p>
+     * Since POP servers only ever remove messages from a mailbox or append
+     * them to its end, the listing is walked alongside the existing entries.
+     * Entries skipped over are set aside, in case the server did not keep
+     * messages in order, and are only dropped if they never turn up later
+     * in the listing.
+     * </p>
+     *
+     * @param uids the message UIDs, where the UID of each message is at its
+     *     index minus one, and deleted messages have <code>null</code> entries
+     * @return the number of messages that were dropped from the index
+     */
+    public int merge(String[] uids) {
+        int listed = 0;
+        for(int i=0; i<uids.length; i++) {
+            if(uids[i] != null) { listed++; }
+        }
+        
+        long[] merged = new long[listed];
+        int[] mergedIndices = new int[listed];
+        IntIntHashtable skipped = null;
+        int carried = 0;
+        int next = 0;
+        int n = 0;
+        
+        for(int i=0; i<uids.length; i++) {
+            if(uids[i] == null) { continue; }
+            int hash = hashUid(uids[i]);
+            
+            // Look ahead for the message among the entries not yet reached
+            int position = next;
+            while(position < count && (int)(entries[position] >>> 32) != hash) {
+                position++;
+            }
+            
+            // Set aside the entries passed over, which is all of the
+            // remaining ones if the message was not found ahead
+            if(next < position) {
+                if(skipped == null) { skipped = new IntIntHashtable(); }
+                for(int j=next; j<position; j++) {
+                    skipped.put((int)(entries[j] >>> 32), j);
+                }
+            }
+            
+            if(position < count) {
+                next = position + 1;
+            }
+            else {
+                next = count;
+                position = (skipped != null) ? skipped.remove(hash) : -1;
+            }
+            
+            if(position >= 0) {
+                merged[n] = entries[position];
+                carried++;
+            }
+            else {
+                merged[n] = createEntry(hash, 0, 0);
+            }
+            mergedIndices[n] = i + 1;
+            n++;
+        }
+        
+        int dropped = count - carried;
+        
+        entries = merged;
+        count = n;
+        messageIndices = mergedIndices;
+        return dropped;
+    }
+    
+    /**
+     * Gets the index in a form suitable for persistence.
+     *
+     * @return the index entries
+     */
+    public long[] toArray() {
+        if(entries.length == count) {
+            return entries;
+        }
+        long[] result = new long[count];
+        System.arraycopy(entries, 0, result, 0, count);
+        return result;
+    }
+    
+    private static long createEntry(int hash, int size, int flags) {
+        if(size < 0) { size = 0; }
+        else if(size > SIZE_MASK) { size = SIZE_MASK; }
+        return ((long)hash << 32)
+            | ((long)((size << SIZE_SHIFT) | (flags & FLAG_MASK)) & 0xFFFFFFFFL);
+    }
+}
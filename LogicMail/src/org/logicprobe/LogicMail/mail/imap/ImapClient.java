@@ -37,6 +37,7 @@ import java.util.Hashtable;
 import java.util.Vector;
 
 import net.rim.device.api.system.EventLogger;
+import net.rim.device.api.util.IntVector;
 
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.conf.AccountConfig;
@@ -48,9 +49,11 @@ import org.logicprobe.LogicMail.conf.MailSettingsEvent;
 import org.logicprobe.LogicMail.conf.MailSettingsListener;
 import org.logicprobe.LogicMail.mail.AbstractIncomingMailClient;
 import org.logicprobe.LogicMail.mail.FolderMessageCallback;
+import org.logicprobe.LogicMail.mail.FolderSyncState;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
+import org.logicprobe.LogicMail.mail.MessageContentCallback;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.imap.ImapProtocol.FetchEnvelopeResponse;
 import org.logicprobe.LogicMail.message.FolderMessage;
@@ -63,8 +66,11 @@ import org.logicprobe.LogicMail.message.MimeMessagePartFactory;
 import org.logicprobe.LogicMail.message.MultiPart;
 import org.logicprobe.LogicMail.message.UnsupportedContentException;
 import org.logicprobe.LogicMail.message.UnsupportedPart;
+import org.logicprobe.LogicMail.util.CompressionStage;
 import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.DeflateCompressionStage;
 import org.logicprobe.LogicMail.util.NetworkConnector;
+import org.logicprobe.LogicMail.util.SizedByteArrayOutputStream;
 import org.logicprobe.LogicMail.util.DataStore;
 import org.logicprobe.LogicMail.util.DataStoreFactory;
 import org.logicprobe.LogicMail.util.Watchdog;
@@ -76,6 +82,15 @@ import org.logicprobe.LogicMail.util.WatchdogListener;
  * 
  */
 public class ImapClient extends AbstractIncomingMailClient {
+    /** Order messages by date, newest first */
+    public static final int ORDER_DATE = 0;
+    /** Order messages by sender */
+    public static final int ORDER_FROM = 1;
+    /** Order messages by subject */
+    public static final int ORDER_SUBJECT = 2;
+    /** Order messages by conversation thread, newest thread first */
+    public static final int ORDER_THREAD = 3;
+    
     private final NetworkConnector networkConnector;
     private final MailSettings mailSettings;
     private final ImapConfig accountConfig;
@@ -85,12 +100,37 @@ public class ImapClient extends AbstractIncomingMailClient {
     private String username;
     private String password;
     private boolean openStarted;
+    
+    /**
+     * Cached results of the session setup commands from a prior connection,
+     * if they were usable for the current connection
+     */
+    private ImapSessionCache sessionCache;
+    private String sessionFingerprint;
+    
+    /**
+     * Mailbox that was last selected, which is selected again along with
+     * the login when reconnecting
+     */
+    private FolderTreeItem lastSelectedMailbox;
 
     /**
      * Table of supported server capabilities
      */
     private Hashtable capabilities;
 
+    /**
+     * Set if the QRESYNC extension has been enabled for this session
+     */
+    private boolean qresyncEnabled;
+
+    /**
+     * Set once the NOTIFY extension has been tried for this session, and
+     * whether it was accepted by the server
+     */
+    private boolean notifyAttempted;
+    private boolean notifyEnabled;
+
     /**
      * Delimiter between folder names in the hierarchy
      */
@@ -109,6 +149,14 @@ public class ImapClient extends AbstractIncomingMailClient {
      */
     private FolderTreeItem activeMailbox = null;
 
+    /**
+     * Set if the active mailbox was selected along with the login, and its
+     * message index map turned out to be invalid.  The next explicit select
+     * of that mailbox then reports the map as invalid, instead of taking the
+     * shortcut for a mailbox that is already selected.
+     */
+    private boolean activeMailboxMapInvalid;
+
     /**
      * Special INBOX mailbox reference.
      */
@@ -130,12 +178,43 @@ public class ImapClient extends AbstractIncomingMailClient {
      */
     private final Hashtable knownMailboxes = new Hashtable();
 
+    /**
+     * Mailboxes with state restored from a prior session, which have not
+     * yet been selected.
+     * (<code>FolderTreeItem</code> to <code>Boolean</code>)
+     */
+    private final Hashtable restoredMailboxes = new Hashtable();
+
+    /**
+     * Folder status returned along with the last folder listing, used to
+     * avoid a separate STATUS request for the folder status refresh that
+     * normally follows it.
+     * (<code>String</code> to <code>ImapProtocol.StatusResponse</code>)
+     */
+    private final Hashtable listStatusCache = new Hashtable();
+
     private static String INBOX = "INBOX";
-    private static String CAPABILITY_CHILDREN = "CHILDREN";
     private static String CAPABILITY_NAMESPACE = "NAMESPACE";
     private static String CAPABILITY_STARTTLS = "STARTTLS";
     private static String CAPABILITY_IDLE = "IDLE";
     private static String CAPABILITY_COMPRESS = "COMPRESS=DEFLATE";
+    private static String CAPABILITY_CONDSTORE = "CONDSTORE";
+    private static String CAPABILITY_QRESYNC = "QRESYNC";
+    private static String CAPABILITY_BINARY = "BINARY";
+    private static String CAPABILITY_LIST_EXTENDED = "LIST-EXTENDED";
+    private static String CAPABILITY_LIST_STATUS = "LIST-STATUS";
+    private static String CAPABILITY_ESEARCH = "ESEARCH";
+    private static String CAPABILITY_SORT = "SORT";
+    private static String CAPABILITY_THREAD_REFERENCES = "THREAD=REFERENCES";
+    private static String CAPABILITY_NOTIFY = "NOTIFY";
+    private static String NOTIFY_EVENTS = "(selected MessageNew MessageExpunge FlagChange) (personal MessageNew MessageExpunge FlagChange)";
+    private static String SORT_DATE = "REVERSE DATE";
+    private static String SORT_FROM = "FROM";
+    private static String SORT_SUBJECT = "SUBJECT";
+    private static String THREAD_REFERENCES = "REFERENCES";
+    private static String SEARCH_ALL = "ALL";
+    private static String SEARCH_NOT_DELETED = "NOT DELETED";
+    private static String SEARCH_UNSEEN = "UNSEEN";
     
     public ImapClient(NetworkConnector networkConnector, GlobalConfig globalConfig, ImapConfig accountConfig) {
         this(networkConnector, globalConfig, accountConfig, new ImapProtocol());
@@ -216,14 +295,26 @@ public class ImapClient extends AbstractIncomingMailClient {
                 watchdog.setDefaultTimeoutForConnection(connection.getConnectionType());
                 
                 activeMailbox = null;
+                activeMailboxMapInvalid = false;
+                notifyAttempted = false;
+                notifyEnabled = false;
 
-                // Swallow the initial "* OK" line from the server
+                // Read the initial "* OK" line from the server
                 watchdog.start(45000); // wait 45 sec for initial greeting
-                connection.receive();
+                byte[] greeting = connection.receive();
                 watchdog.cancel();
                 
-                // Find out server capabilities
-                capabilities = imapProtocol.executeCapability();
+                // Find out server capabilities, reusing the post-login
+                // results from a prior session if the server appears to be
+                // unchanged
+                sessionFingerprint = getSessionFingerprint(greeting);
+                sessionCache = loadSessionCache(sessionFingerprint);
+                if(sessionCache != null) {
+                    capabilities = sessionCache.getCapabilities();
+                }
+                else {
+                    capabilities = imapProtocol.executeCapability();
+                }
 
                 // TLS initialization
                 int serverSecurity = accountConfig.getServerSecurity();
@@ -238,42 +329,64 @@ public class ImapClient extends AbstractIncomingMailClient {
                 openStarted = true;
             }
 
-            // Authenticate with the server
-            if(!imapProtocol.executeLogin(username, password)) {
+            boolean useCompression = accountConfig.getEnableCompression()
+                && capabilities.containsKey(CAPABILITY_COMPRESS);
+            boolean useQresync = capabilities.containsKey(CAPABILITY_QRESYNC)
+                && capabilities.containsKey(CAPABILITY_CONDSTORE);
+            
+            // Authenticate with the server.  On a reconnect with cached
+            // session data, the previously selected mailbox is selected
+            // along with the login.  This is skipped if compression or
+            // QRESYNC need to be enabled first, since those commands cannot
+            // be pipelined ahead of the select.
+            boolean selectedWithLogin = false;
+            if(sessionCache != null && lastSelectedMailbox != null
+                    && !useCompression && !useQresync) {
+                if(!loginAndSelect(lastSelectedMailbox)) {
+                    return false;
+                }
+                selectedWithLogin = true;
+            }
+            else if(!imapProtocol.executeLogin(username, password)) {
                 return false;
             }
+            
+            boolean capabilitiesChanged = updateCapabilities();
+            if(!selectedWithLogin) {
+                useCompression = accountConfig.getEnableCompression()
+                    && capabilities.containsKey(CAPABILITY_COMPRESS);
+                useQresync = capabilities.containsKey(CAPABILITY_QRESYNC)
+                    && capabilities.containsKey(CAPABILITY_CONDSTORE);
+            }
 
             // Enable compression, if enabled and supported
-            if(accountConfig.getEnableCompression()
-                    && capabilities.containsKey(CAPABILITY_COMPRESS)) {
+            if(useCompression) {
                 if(imapProtocol.executeCompressDeflate()) {
-                    connection.enableCompression();
+                    connection.enableCompression(
+                            new DeflateCompressionStage(CompressionStage.FLUSH_ON_RECEIVE));
                 }
             }
             
-            // Get the namespaces, if supported
-            if(capabilities.containsKey(CAPABILITY_NAMESPACE)) {
-                ImapProtocol.NamespaceResponse nsResponse = imapProtocol.executeNamespace();
-
-                if(nsResponse.personal != null &&
-                        nsResponse.personal.length > 0 &&
-                        nsResponse.personal[0] != null &&
-                        nsResponse.personal[0].delimiter != null &&
-                        nsResponse.personal[0].prefix != null) {
-                    // We got a valid personal namespace, so proceed
-                    nsPersonal = nsResponse.personal[0];
-                    folderDelim = nsPersonal.delimiter;
-                }
+            // Enable quick mailbox resynchronization, if supported
+            qresyncEnabled = false;
+            if(useQresync) {
+                qresyncEnabled = imapProtocol.executeEnable(CAPABILITY_QRESYNC);
             }
-            // We could not get valid personal namespace information,
-            // so the folder delimiter will be acquired differently.
-            if(nsPersonal == null) {
-                // Discover folder delimiter
-                Vector resp = imapProtocol.executeList("", "", null);
-                if(resp.size() > 0) {
-                    folderDelim = ((ImapProtocol.ListResponse)resp.elementAt(0)).delim;
+            
+            if(sessionCache != null) {
+                nsPersonal = sessionCache.getPersonalNamespace();
+                folderDelim = sessionCache.getFolderDelim();
+                if(capabilitiesChanged) {
+                    sessionCache = new ImapSessionCache(
+                            sessionFingerprint, capabilities, nsPersonal, folderDelim);
+                    saveSessionCache(sessionCache);
                 }
             }
+            else {
+                discoverNamespace();
+                saveSessionCache(new ImapSessionCache(
+                        sessionFingerprint, capabilities, nsPersonal, folderDelim));
+            }
 
             openStarted = false;
         } catch (MailException exp) {
@@ -287,6 +400,147 @@ public class ImapClient extends AbstractIncomingMailClient {
         return true;
     }
 
+    /**
+     * Replaces the capabilities obtained before authentication with the ones
+     * the server advertised along with the login, since servers often
+     * advertise additional capabilities once authenticated.  If the login
+     * response did not include them, they are requested again, unless the
+     * current set came from the session cache and is already a post-login
+     * set.
+     *
+     * @return true, if the capabilities differ from the cached set
+     */
+    private boolean updateCapabilities() throws IOException, MailException {
+        Hashtable loginCapabilities = imapProtocol.getLoginCapabilities();
+        if(loginCapabilities == null) {
+            if(sessionCache != null) { return false; }
+            loginCapabilities = imapProtocol.executeCapability();
+        }
+        
+        // STARTTLS is only advertised before authentication, but is still
+        // needed to decide whether to negotiate TLS when the cached set is
+        // used for the next connection.
+        if(capabilities.containsKey(CAPABILITY_STARTTLS)) {
+            loginCapabilities.put(CAPABILITY_STARTTLS, Boolean.TRUE);
+        }
+        
+        boolean changed = false;
+        if(sessionCache != null) {
+            changed = capabilities.size() != loginCapabilities.size();
+            for(Enumeration e = loginCapabilities.keys(); !changed && e.hasMoreElements();) {
+                changed = !capabilities.containsKey(e.nextElement());
+            }
+        }
+        capabilities = loginCapabilities;
+        return changed;
+    }
+    
+    /**
+     * Discovers the personal namespace and folder delimiter.
+     */
+    private void discoverNamespace() throws IOException, MailException {
+        nsPersonal = null;
+        
+        // Get the namespaces, if supported
+        if(capabilities.containsKey(CAPABILITY_NAMESPACE)) {
+            ImapProtocol.NamespaceResponse nsResponse = imapProtocol.executeNamespace();
+
+            if(nsResponse.personal != null &&
+                    nsResponse.personal.length > 0 &&
+                    nsResponse.personal[0] != null &&
+                    nsResponse.personal[0].delimiter != null &&
+                    nsResponse.personal[0].prefix != null) {
+                // We got a valid personal namespace, so proceed
+                nsPersonal = nsResponse.personal[0];
+                folderDelim = nsPersonal.delimiter;
+            }
+        }
+        // We could not get valid personal namespace information,
+        // so the folder delimiter will be acquired differently.
+        if(nsPersonal == null) {
+            // Discover folder delimiter
+            Vector resp = imapProtocol.executeList("", "", null);
+            if(resp.size() > 0) {
+                folderDelim = ((ImapProtocol.ListResponse)resp.elementAt(0)).delim;
+            }
+        }
+    }
+    
+    /**
+     * Logs in and selects the provided mailbox with a single round trip.
+     * If the state of the mailbox is no longer valid, the required refresh
+     * is reported by the next explicit select of the mailbox.
+     *
+     * @param mailbox the mailbox to select
+     * @return true, if the login was successful
+     */
+    private boolean loginAndSelect(FolderTreeItem mailbox) throws IOException, MailException {
+        ImapProtocol.SelectResponse response;
+        try {
+            response = imapProtocol.executeLoginSelect(username, password, mailbox.getPath());
+        } catch (MailException e) {
+            // Logged in, but the mailbox could not be selected
+            return true;
+        }
+        if(response == null) {
+            return false;
+        }
+        
+        // The server now has the mailbox selected, so it has to become the
+        // active mailbox for any untagged responses to be handled
+        activeMailboxMapInvalid = !mailboxSelected(mailbox, response, true);
+        return true;
+    }
+    
+    /**
+     * Gets the fingerprint used to check whether cached session data is
+     * still applicable to the server being connected to.
+     * <p>
+     * Only the capability response code is taken from the greeting, since
+     * many servers include per-connection text such as a session ID or a
+     * timestamp in the rest of it.
+     * </p>
+     *
+     * @param greeting the greeting received from the server
+     * @return the fingerprint
+     */
+    private String getSessionFingerprint(byte[] greeting) {
+        StringBuffer buf = new StringBuffer();
+        buf.append(accountConfig.getServerName());
+        buf.append(':');
+        buf.append(accountConfig.getServerPort());
+        buf.append(':');
+        buf.append(accountConfig.getServerSecurity());
+        if(greeting != null) {
+            String greetingText = new String(greeting);
+            int p = greetingText.toUpperCase().indexOf("[CAPABILITY ");
+            int q = (p != -1) ? greetingText.indexOf(']', p) : -1;
+            if(q != -1) {
+                buf.append(' ');
+                buf.append(greetingText.substring(p, q + 1));
+            }
+        }
+        return buf.toString();
+    }
+    
+    private ImapSessionCache loadSessionCache(String fingerprint) {
+        DataStore dataStore = DataStoreFactory.getConnectionCacheStore();
+        Object loadedObject = dataStore.getNamedObject(Long.toString(accountConfig.getUniqueId()) + "_SESSION");
+        if(loadedObject instanceof ImapSessionCache) {
+            ImapSessionCache cache = (ImapSessionCache)loadedObject;
+            if(cache.isValid(fingerprint, System.currentTimeMillis())) {
+                return cache;
+            }
+        }
+        return null;
+    }
+    
+    private void saveSessionCache(ImapSessionCache cache) {
+        DataStore dataStore = DataStoreFactory.getConnectionCacheStore();
+        dataStore.putNamedObject(Long.toString(accountConfig.getUniqueId()) + "_SESSION", cache);
+        dataStore.save();
+    }
+
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.MailClient#close()
      */
@@ -419,6 +673,40 @@ public class ImapClient extends AbstractIncomingMailClient {
         return capabilities.containsKey(CAPABILITY_IDLE);
     }
 
+    /* (non-Javadoc)
+     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#hasFolderNotify()
+     */
+    public boolean hasFolderNotify() {
+        return notifyEnabled;
+    }
+
+    /**
+     * Checks whether the QRESYNC extension has been enabled for the current
+     * session, making {@link #getChangedFolderMessages(long, FolderMessageCallback, MailProgressHandler)}
+     * available.
+     *
+     * @return true, if quick mailbox resynchronization is available
+     */
+    public boolean hasQresync() {
+        return qresyncEnabled;
+    }
+
+    /**
+     * Checks whether the server can provide the message order requested
+     * through {@link #getFolderMessageOrder(int, MailProgressHandler)}.
+     *
+     * @param order the message order, such as {@link #ORDER_DATE}
+     * @return true, if the server supports the order
+     */
+    public boolean hasFolderMessageOrder(int order) {
+        if(order == ORDER_THREAD) {
+            return capabilities.containsKey(CAPABILITY_THREAD_REFERENCES);
+        }
+        else {
+            return capabilities.containsKey(CAPABILITY_SORT);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#hasLockedFolders()
      */
@@ -430,18 +718,49 @@ public class ImapClient extends AbstractIncomingMailClient {
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getFolderTree(org.logicprobe.LogicMail.mail.MailProgressHandler)
      */
     public FolderTreeItem getFolderTree(MailProgressHandler progressHandler) throws IOException, MailException {
-        // Get the folder subscription list, used to prune the results
-        Hashtable subscriptions = getFolderSubscriptions(progressHandler);
+        boolean listExtended = capabilities.containsKey(CAPABILITY_LIST_EXTENDED);
+        boolean listStatus = listExtended && capabilities.containsKey(CAPABILITY_LIST_STATUS);
+        listStatusCache.clear();
+        
+        String folderPrefix = accountConfig.getFolderPrefix();
+        boolean hasFolderPrefix = folderPrefix != null && folderPrefix.length() > 0;
+        
+        // Get the folder subscription list, used to prune the results.
+        // If the server supports extended LIST, this comes along with
+        // the folder listing itself.
+        Hashtable subscriptions = null;
+        if(!listExtended) {
+            subscriptions = getFolderSubscriptions(progressHandler);
+        }
+        
+        // Get the complete folder list in a single request, and assemble
+        // it into a tree.
+        Vector respList;
+        if(listExtended) {
+            respList = imapProtocol.executeListExtended(
+                    hasFolderPrefix ? folderPrefix : "", "*", listStatus, progressHandler);
+            if(accountConfig.getOnlySubscribedFolders()) {
+                subscriptions = new Hashtable();
+                int size = respList.size();
+                for(int i=0; i<size; i++) {
+                    ImapProtocol.ListResponse resp = (ImapProtocol.ListResponse)respList.elementAt(i);
+                    if(resp.subscribed) {
+                        subscriptions.put(resp.name, Boolean.TRUE);
+                    }
+                }
+            }
+        }
+        else {
+            respList = imapProtocol.executeList(
+                    hasFolderPrefix ? folderPrefix : "", "*", progressHandler);
+        }
         
         FolderTreeItem rootItem = new FolderTreeItem("", "", folderDelim);
 
-        boolean childrenExtension = capabilities.containsKey(CAPABILITY_CHILDREN);
-
         // Special logic to handle a user-specified folder prefix
-        String folderPrefix = accountConfig.getFolderPrefix();
-        if(folderPrefix != null && folderPrefix.length() > 0) {
+        if(hasFolderPrefix) {
             FolderTreeItem fakeRootItem = new FolderTreeItem("", folderPrefix, folderDelim);
-            getFolderTreeImpl(fakeRootItem, 0, childrenExtension, progressHandler);
+            buildFolderTree(fakeRootItem, respList);
 
             // Since we have no way to find the inbox with a hard-coded prefix,
             // assume it to be there and then do a STATUS to verify.
@@ -463,7 +782,7 @@ public class ImapClient extends AbstractIncomingMailClient {
             }
         }
         else {
-            getFolderTreeImpl(rootItem, 0, childrenExtension, progressHandler);
+            buildFolderTree(rootItem, respList);
         }
 
         // Find and save the INBOX folder
@@ -508,42 +827,82 @@ public class ImapClient extends AbstractIncomingMailClient {
         return result;
     }
     
-    private void getFolderTreeImpl(
-            FolderTreeItem baseFolder,
-            int depth,
-            boolean childrenExtension,
-            MailProgressHandler progressHandler) throws IOException, MailException {
-        
-        Vector respList;
-        if(depth == 0) {
-            respList = imapProtocol.executeList(baseFolder.getPath(), "%", progressHandler);
-        }
-        else {
-            if(baseFolder.getDelim().length() == 0) { return; }
-            respList = imapProtocol.executeList(baseFolder.getPath() + baseFolder.getDelim(), "%", progressHandler);
-        }
-
+    /**
+     * Assembles a flat folder listing into a tree, under the provided base
+     * folder.  Folders deeper than the configured maximum folder depth are
+     * ignored, and any intermediate folders the server did not list are
+     * added as non-selectable placeholders.
+     *
+     * @param baseFolder the folder to add the tree under
+     * @param respList the <code>ListResponse</code> objects to assemble
+     */
+    private void buildFolderTree(FolderTreeItem baseFolder, Vector respList) throws IOException, MailException {
+        int maxDepth = accountConfig.getMaxFolderDepth();
         int size = respList.size();
-        for(int i=0;i<size;++i) {
+        int[] depths = new int[size];
+        for(int i=0; i<size; i++) {
             ImapProtocol.ListResponse resp = (ImapProtocol.ListResponse)respList.elementAt(i);
-            FolderTreeItem childItem = getFolderItem(baseFolder, resp.name, resp.canSelect);
-            baseFolder.addChild(childItem);
-            if(resp.hasChildren || (!resp.noInferiors && !childrenExtension)) {
-                // The folder has children, so lets go and list them
-                if(depth+1 < accountConfig.getMaxFolderDepth()) {
-                    getFolderTreeImpl(childItem, depth+1, childrenExtension, progressHandler);
+            depths[i] = getFolderDepth(baseFolder.getPath(), resp.name);
+        }
+        
+        // Responses may arrive in any order, so add them one level at a time
+        // to make sure parents are always added ahead of their children.
+        Hashtable folderMap = new Hashtable();
+        for(int depth=0; depth<maxDepth; depth++) {
+            for(int i=0; i<size; i++) {
+                if(depths[i] != depth) { continue; }
+                ImapProtocol.ListResponse resp = (ImapProtocol.ListResponse)respList.elementAt(i);
+                if(folderMap.containsKey(resp.name)) { continue; }
+                
+                FolderTreeItem parentItem = getParentFolderItem(baseFolder, folderMap, resp.name, depth);
+                FolderTreeItem childItem = getFolderItem(parentItem, resp.name, resp.canSelect);
+                if(resp.status != null) {
+                    childItem.setMsgCount(resp.status.exists);
+                    childItem.setUnseenCount(resp.status.unseen);
+                    childItem.setRecentCount(resp.status.recent);
+                    listStatusCache.put(resp.name, resp.status);
                 }
+                parentItem.addChild(childItem);
+                folderMap.put(resp.name, childItem);
             }
-            else if(depth == 0 &&
-                    nsPersonal != null &&
-                    (resp.name + nsPersonal.delimiter).equals(nsPersonal.prefix) &&
-                    accountConfig.getMaxFolderDepth() > 1) {
-                // The folder claims to have no children, but it is a root
-                // folder that matches the personal namespace prefix, so
-                // look for children anyways.
-                getFolderTreeImpl(childItem, depth+1, childrenExtension, progressHandler);
+        }
+    }
+    
+    /**
+     * Gets the depth of a folder relative to a base path, based on the
+     * number of hierarchy delimiters in its path.
+     */
+    private int getFolderDepth(String basePath, String folderPath) {
+        if(folderDelim.length() == 0) { return 0; }
+        
+        int p = 0;
+        if(basePath.length() > 0 && folderPath.startsWith(basePath)) {
+            p = basePath.length();
+            if(folderPath.startsWith(folderDelim, p)) {
+                p += folderDelim.length();
             }
         }
+        
+        int depth = 0;
+        while((p = folderPath.indexOf(folderDelim, p)) != -1) {
+            depth++;
+            p += folderDelim.length();
+        }
+        return depth;
+    }
+    
+    private FolderTreeItem getParentFolderItem(FolderTreeItem baseFolder, Hashtable folderMap, String folderPath, int depth) throws IOException, MailException {
+        if(depth == 0) { return baseFolder; }
+        
+        String parentPath = folderPath.substring(0, folderPath.lastIndexOf(folderDelim));
+        FolderTreeItem parentItem = (FolderTreeItem)folderMap.get(parentPath);
+        if(parentItem == null) {
+            FolderTreeItem grandparentItem = getParentFolderItem(baseFolder, folderMap, parentPath, depth - 1);
+            parentItem = getFolderItem(grandparentItem, parentPath, false);
+            grandparentItem.addChild(parentItem);
+            folderMap.put(parentPath, parentItem);
+        }
+        return parentItem;
     }
 
     private FolderTreeItem pruneFolderTree(FolderTreeItem currentItem, Hashtable subscriptions) {
@@ -572,16 +931,30 @@ public class ImapClient extends AbstractIncomingMailClient {
     public void refreshFolderStatus(FolderTreeItem[] folders, MailProgressHandler progressHandler) throws IOException, MailException {
         int i;
 
-        // Construct an array of mailbox paths to match the folder vector
+        // Construct an array of mailbox paths to match the folder vector,
+        // skipping any folders whose status was just returned as part of
+        // the folder listing.
         Vector mboxPaths = new Vector();
         Hashtable mboxMap = new Hashtable();
         for(i=0; i<folders.length; i++) {
             FolderTreeItem item = folders[i];
             if(item.isSelectable()) {
-                mboxPaths.addElement(item.getPath());
-                mboxMap.put(item.getPath(), item);
+                ImapProtocol.StatusResponse status =
+                    (ImapProtocol.StatusResponse)listStatusCache.get(item.getPath());
+                if(status != null) {
+                    item.setMsgCount(status.exists);
+                    item.setUnseenCount(status.unseen);
+                    item.setRecentCount(status.recent);
+                }
+                else {
+                    mboxPaths.addElement(item.getPath());
+                    mboxMap.put(item.getPath(), item);
+                }
             }
         }
+        listStatusCache.clear();
+        if(mboxPaths.isEmpty()) { return; }
+        
         String[] mboxPathsArray = new String[mboxPaths.size()];
         mboxPaths.copyInto(mboxPathsArray);
 
@@ -670,7 +1043,7 @@ public class ImapClient extends AbstractIncomingMailClient {
         
         // Shortcut out if a folder change is not necessary
         if(activeMailbox != null && activeMailbox.getPath().equals(folderPath)) {
-            return true;
+            return checkActiveMailboxMap();
         }
 
         return setActiveFolderImpl(mailbox, notifyAvailable);
@@ -685,7 +1058,7 @@ public class ImapClient extends AbstractIncomingMailClient {
 
         // Shortcut out if a folder change is not necessary
         if(activeMailbox != null && activeMailbox.getPath().equals(folderPath)) {
-            return null;
+            return checkActiveMailboxMap() ? null : activeMailbox;
         }
 
         FolderTreeItem mailbox = getFolderForPath(folderPath);
@@ -696,10 +1069,40 @@ public class ImapClient extends AbstractIncomingMailClient {
     }
 
     private boolean setActiveFolderImpl(FolderTreeItem mailbox, boolean notifyAvailable) throws IOException, MailException {
+        notifyShiftedMessageTokens();
+        
         // Change active mailbox
         ImapProtocol.SelectResponse response = imapProtocol.executeSelect(mailbox.getPath());
+        activeMailboxMapInvalid = false;
 
+        return mailboxSelected(mailbox, response, notifyAvailable);
+    }
+    
+    /**
+     * Checks whether the message index map of the already active mailbox is
+     * valid, clearing any pending invalid state from a select that was made
+     * along with the login.
+     *
+     * @return true, if the map is valid
+     */
+    private boolean checkActiveMailboxMap() {
+        boolean mapValid = !activeMailboxMapInvalid;
+        activeMailboxMapInvalid = false;
+        return mapValid;
+    }
+    
+    /**
+     * Makes a newly selected mailbox the active mailbox, and updates its
+     * state from the select response.
+     *
+     * @param mailbox the mailbox that was selected
+     * @param response the select response
+     * @param notifyAvailable whether to notify the listener of new messages
+     * @return true, if the message index map of the mailbox is still valid
+     */
+    private boolean mailboxSelected(FolderTreeItem mailbox, ImapProtocol.SelectResponse response, boolean notifyAvailable) {
         this.activeMailbox = mailbox;
+        this.lastSelectedMailbox = mailbox;
         activeMailbox.setMsgCount(response.exists);
         activeMailbox.setUnseenCount(response.unseen);
         activeMailbox.setRecentCount(response.recent);
@@ -716,10 +1119,25 @@ public class ImapClient extends AbstractIncomingMailClient {
         }
         
         int previousExists = mailboxState.getExists();
+        int previousUidNext = mailboxState.getUidNext();
         
         boolean mapValid = mailboxState.mailboxSelected(response);
+        
+        boolean restored = (restoredMailboxes.remove(mailbox) != null);
+        if(restored) {
+            if(!mapValid) {
+                // The restored state is stale, so start over as if this
+                // mailbox had never been seen
+                seenMailboxes.remove(mailbox);
+            }
+            else if(previousUidNext < mailboxState.getUidNext()) {
+                // Messages arrived since the state was saved, so the next
+                // incremental fetch needs to start from the saved UIDNEXT
+                mailboxState.setUidNext(previousUidNext);
+            }
+        }
 
-        if(mapValid && notifyAvailable && mailboxState.getExists() > previousExists) {
+        if(mapValid && notifyAvailable && !restored && mailboxState.getExists() > previousExists) {
             if(clientListener != null) {
                 clientListener.recentFolderMessagesAvailable(mailbox);
             }
@@ -731,6 +1149,91 @@ public class ImapClient extends AbstractIncomingMailClient {
         return mapValid;
     }
     
+    /**
+     * Gets the UIDVALIDITY value reported when the active folder was selected.
+     *
+     * @return the UIDVALIDITY value, or 0 if no folder is selected
+     */
+    public int getActiveFolderUidValidity() {
+        if(activeMailbox == null) { return 0; }
+        return ((MailboxState)knownMailboxes.get(activeMailbox)).getUidValidity();
+    }
+
+    /**
+     * Gets the HIGHESTMODSEQ value reported when the active folder was
+     * selected.
+     *
+     * @return the highest mod-sequence, or 0 if no folder is selected or
+     *         the server does not support persistent mod-sequences
+     */
+    public long getActiveFolderHighestModSeq() {
+        if(activeMailbox == null) { return 0; }
+        return ((MailboxState)knownMailboxes.get(activeMailbox)).getHighestModSeq();
+    }
+
+    /**
+     * Restores the mailbox state for a folder from a prior session, so that
+     * the next time it is selected, new messages can be fetched incrementally
+     * instead of starting over with the initial message window.
+     * <p>
+     * This has no effect if the folder has already been seen during this
+     * session, or if the provided state does not contain a mailbox state.
+     * </p>
+     *
+     * @param mailbox the folder to restore the state of
+     * @param syncState the saved state of the folder
+     */
+    public void restoreFolderState(FolderTreeItem mailbox, FolderSyncState syncState) {
+        if(!syncState.hasMailboxState()
+                || seenMailboxes.containsKey(mailbox)
+                || knownMailboxes.containsKey(mailbox)) {
+            return;
+        }
+        
+        MailboxState mailboxState = new MailboxState();
+        mailboxState.setUidValidity(syncState.getUidValidity());
+        mailboxState.setUidNext(syncState.getUidNext());
+        mailboxState.setExists(syncState.getExists());
+        
+        int[] messageIndices = syncState.getMessageIndices();
+        int[] messageUids = syncState.getMessageUids();
+        for(int i=0; i<messageIndices.length; i++) {
+            ImapMessageToken token = new ImapMessageToken(mailbox.getPath(), messageUids[i]);
+            token.setMessageIndex(messageIndices[i]);
+            mailboxState.messageFetched(token);
+        }
+        
+        knownMailboxes.put(mailbox, mailboxState);
+        seenMailboxes.put(mailbox, Boolean.TRUE);
+        restoredMailboxes.put(mailbox, Boolean.TRUE);
+    }
+    
+    /**
+     * Saves the mailbox state of the active folder, so it can be restored
+     * with {@link #restoreFolderState(FolderTreeItem, FolderSyncState)}
+     * during a later session.
+     *
+     * @param syncState the state object to populate
+     */
+    public void saveActiveFolderState(FolderSyncState syncState) {
+        if(activeMailbox == null) { return; }
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+        
+        ImapMessageToken[] tokens = mailboxState.getMessageTokens();
+        int[] messageIndices = new int[tokens.length];
+        int[] messageUids = new int[tokens.length];
+        for(int i=0; i<tokens.length; i++) {
+            messageIndices[i] = tokens[i].getMessageIndex();
+            messageUids[i] = tokens[i].getImapMessageUid();
+        }
+        
+        syncState.setMailboxState(
+                mailboxState.getUidNext(),
+                mailboxState.getExists(),
+                messageIndices,
+                messageUids);
+    }
+
     private FolderTreeItem getFolderForPath(String folderPath) {
         FolderTreeItem mailbox = null;
         Enumeration e = knownMailboxes.keys();
@@ -763,6 +1266,7 @@ public class ImapClient extends AbstractIncomingMailClient {
      */
     public void expungeActiveFolder() throws IOException, MailException {
         imapProtocol.executeExpunge();
+        notifyShiftedMessageTokens();
     }
 
     /* (non-Javadoc)
@@ -770,7 +1274,28 @@ public class ImapClient extends AbstractIncomingMailClient {
      */
     public void getFolderMessages(MessageToken firstToken, int increment, FolderMessageCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
         ImapMessageToken imapToken = (ImapMessageToken)firstToken;
-        int lastIndex = imapToken.getMessageIndex() - 1;
+        if(capabilities.containsKey(CAPABILITY_ESEARCH)) {
+            // Let the server find the messages preceding the first token,
+            // rather than assuming they occupy the preceding indices.
+            int firstUid = imapToken.getImapMessageUid();
+            if(firstUid <= 1) { return; }
+            getFolderMessagesBySearch(
+                    "UID 1:" + (firstUid - 1) + ' ' + getSearchCriteria(),
+                    increment, callback, progressHandler);
+            return;
+        }
+        
+        // The index within the token may be out of date if there have been
+        // expunges, so prefer the one from the mailbox state
+        int lastIndex = imapToken.getMessageIndex();
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+        if(mailboxState != null) {
+            int index = mailboxState.getMessageIndex(imapToken.getImapMessageUid());
+            if(index != -1) {
+                lastIndex = index;
+            }
+        }
+        lastIndex--;
         if(lastIndex <= 0) { return; }
         int firstIndex = Math.max(1, lastIndex - (increment - 1));
         if(firstIndex > lastIndex) { return; }
@@ -787,8 +1312,13 @@ public class ImapClient extends AbstractIncomingMailClient {
 
     private class ImapFetchEnvelopeCallback implements ImapProtocol.FetchEnvelopeCallback {
         private FolderMessageCallback callback;
+        private boolean notifyComplete;
         public ImapFetchEnvelopeCallback(FolderMessageCallback callback) {
+            this(callback, true);
+        }
+        public ImapFetchEnvelopeCallback(FolderMessageCallback callback, boolean notifyComplete) {
             this.callback = callback;
+            this.notifyComplete = notifyComplete;
         }
         public void responseAvailable(FetchEnvelopeResponse response) {
             if(response != null) {
@@ -796,12 +1326,83 @@ public class ImapClient extends AbstractIncomingMailClient {
                 ((MailboxState)knownMailboxes.get(activeMailbox)).messageFetched(folderMessage.getMessageToken());
                 callback.folderMessageUpdate(folderMessage);
             }
-            else {
+            else if(notifyComplete) {
                 callback.folderMessageUpdate(null);
             }
         }
     }
 
+    /**
+     * Gets the search criteria matching the messages that should be shown
+     * in the folder message list.
+     */
+    private String getSearchCriteria() {
+        return mailSettings.getGlobalConfig().getHideDeletedMsg() ? SEARCH_NOT_DELETED : SEARCH_ALL;
+    }
+    
+    /**
+     * Gets the newest messages in the active folder that match the provided
+     * search criteria, using the ESEARCH extension to find them.  This way,
+     * only the headers for messages that will actually be shown are fetched.
+     * Any unread messages within the window are fetched first.
+     *
+     * @param criteria the search criteria
+     * @param count the maximum number of messages to fetch
+     * @param callback the callback to notify of fetched messages
+     * @param progressHandler the progress handler
+     */
+    private void getFolderMessagesBySearch(String criteria, int count, FolderMessageCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        // Sanity check
+        if(activeMailbox == null) {
+            throw new MailException("Mailbox not selected");
+        }
+        
+        ImapProtocol.SearchResponse searchResponse =
+            imapProtocol.executeSearchUid(criteria, progressHandler);
+        int[] uids = searchResponse.uids;
+        if(uids.length == 0 || count <= 0) {
+            callback.folderMessageUpdate(null);
+            return;
+        }
+        
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+        if(mailboxState.getUidNext() == -1) {
+            mailboxState.setUidNext(searchResponse.max + 1);
+        }
+        
+        // Narrow the results to the newest messages
+        if(uids.length > count) {
+            int[] window = new int[count];
+            System.arraycopy(uids, uids.length - count, window, 0, count);
+            uids = window;
+        }
+        
+        // Split the window so that the unread messages come first,
+        // walking both of the sorted UID lists together.
+        int[] unseen = imapProtocol.executeSearchUid(
+                SEARCH_UNSEEN + ' ' + criteria, progressHandler).uids;
+        IntVector unseenUids = new IntVector();
+        IntVector seenUids = new IntVector();
+        int j = 0;
+        for(int i=0; i<uids.length; i++) {
+            while(j < unseen.length && unseen[j] < uids[i]) { j++; }
+            if(j < unseen.length && unseen[j] == uids[i]) {
+                unseenUids.addElement(uids[i]);
+            }
+            else {
+                seenUids.addElement(uids[i]);
+            }
+        }
+        
+        if(unseenUids.size() > 0 && seenUids.size() > 0) {
+            imapProtocol.executeFetchEnvelopeUid(unseenUids.toArray(), new ImapFetchEnvelopeCallback(callback, false), progressHandler);
+            imapProtocol.executeFetchEnvelopeUid(seenUids.toArray(), new ImapFetchEnvelopeCallback(callback), progressHandler);
+        }
+        else {
+            imapProtocol.executeFetchEnvelopeUid(uids, new ImapFetchEnvelopeCallback(callback), progressHandler);
+        }
+    }
+
     private void getFolderMessages(int firstIndex, int lastIndex, boolean flagsOnly, FolderMessageCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
         // Sanity check
         if(activeMailbox == null) {
@@ -837,6 +1438,90 @@ public class ImapClient extends AbstractIncomingMailClient {
         }
     }
 
+    /**
+     * Gets the UIDs of every message in the active folder, in an order
+     * determined by the server with the SORT or THREAD extensions.  This
+     * allows large folders to be paged through with
+     * {@link #getFolderMessagesByUid(int[], FolderMessageCallback, MailProgressHandler)},
+     * without having to download every message to sort them locally.
+     * <p>
+     * Messages are ordered newest first by date, alphabetically by sender or
+     * subject, or as conversation threads with the newest thread first.
+     * Deleted messages are excluded if they are being hidden.
+     * </p>
+     *
+     * @param order the message order, such as {@link #ORDER_DATE}
+     * @param progressHandler the progress handler
+     * @return the ordered message UIDs
+     */
+    public int[] getFolderMessageOrder(int order, MailProgressHandler progressHandler) throws IOException, MailException {
+        // Sanity check
+        if(activeMailbox == null) {
+            throw new MailException("Mailbox not selected");
+        }
+        if(!hasFolderMessageOrder(order)) {
+            throw new MailException("Message order not supported");
+        }
+        
+        switch(order) {
+        case ORDER_FROM:
+            return imapProtocol.executeSortUid(SORT_FROM, getSearchCriteria(), progressHandler);
+        case ORDER_SUBJECT:
+            return imapProtocol.executeSortUid(SORT_SUBJECT, getSearchCriteria(), progressHandler);
+        case ORDER_THREAD:
+            ImapProtocol.ThreadResponse response = imapProtocol.executeThreadUid(
+                    THREAD_REFERENCES, getSearchCriteria(), progressHandler);
+            return reverseThreadOrder(response.uids, response.depths);
+        case ORDER_DATE:
+        default:
+            return imapProtocol.executeSortUid(SORT_DATE, getSearchCriteria(), progressHandler);
+        }
+    }
+    
+    /**
+     * Reverses the order of the threads in a flattened thread list, while
+     * keeping the messages within each thread in their original order.
+     * Servers list the oldest thread first, which is the opposite of the
+     * order a folder is normally viewed in.
+     */
+    static int[] reverseThreadOrder(int[] uids, int[] depths) {
+        int[] result = new int[uids.length];
+        int resultIndex = 0;
+        int threadEnd = uids.length;
+        for(int i=uids.length - 1; i>=0; i--) {
+            if(depths[i] == 0) {
+                System.arraycopy(uids, i, result, resultIndex, threadEnd - i);
+                resultIndex += threadEnd - i;
+                threadEnd = i;
+            }
+        }
+        // Keep any messages preceding the first thread root
+        System.arraycopy(uids, 0, result, resultIndex, threadEnd);
+        return result;
+    }
+    
+    /**
+     * Gets the messages in the active folder with the provided UIDs, such as
+     * a page of the UIDs returned by {@link #getFolderMessageOrder(int, MailProgressHandler)}.
+     *
+     * @param uids the UIDs of the messages to fetch
+     * @param callback the callback to notify of fetched messages
+     * @param progressHandler the progress handler
+     */
+    public void getFolderMessagesByUid(int[] uids, FolderMessageCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        // Sanity check
+        if(activeMailbox == null) {
+            throw new MailException("Mailbox not selected");
+        }
+        
+        if(uids.length == 0) {
+            callback.folderMessageUpdate(null);
+            return;
+        }
+        
+        imapProtocol.executeFetchEnvelopeUid(uids, new ImapFetchEnvelopeCallback(callback), progressHandler);
+    }
+    
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getFolderMessages(org.logicprobe.LogicMail.mail.MessageToken[], boolean, org.logicprobe.LogicMail.mail.FolderMessageCallback, org.logicprobe.LogicMail.mail.MailProgressHandler)
      */
@@ -915,9 +1600,14 @@ public class ImapClient extends AbstractIncomingMailClient {
 
         if(!seenMailboxes.containsKey(activeMailbox)) {
             int count = accountConfig.getInitialFolderMessages();
-            int msgCount = activeMailbox.getMsgCount();
-            int firstIndex = Math.max(1, msgCount - count + 1);
-            getFolderMessages(firstIndex, activeMailbox.getMsgCount(), flagsOnly, callback, progressHandler);
+            if(!flagsOnly && capabilities.containsKey(CAPABILITY_ESEARCH)) {
+                getFolderMessagesBySearch(getSearchCriteria(), count, callback, progressHandler);
+            }
+            else {
+                int msgCount = activeMailbox.getMsgCount();
+                int firstIndex = Math.max(1, msgCount - count + 1);
+                getFolderMessages(firstIndex, activeMailbox.getMsgCount(), flagsOnly, callback, progressHandler);
+            }
             seenMailboxes.put(activeMailbox, Boolean.TRUE);
         }
         else {
@@ -953,6 +1643,67 @@ public class ImapClient extends AbstractIncomingMailClient {
         }
     }
 
+    /**
+     * Gets flag updates for every message in the active folder that has
+     * changed since the provided mod-sequence value, including any new
+     * messages, along with the tokens of any messages that have been
+     * expunged since then.
+     * <p>
+     * This requires the QRESYNC extension to be enabled.  Once complete,
+     * subsequent calls to {@link #getNewFolderMessages(boolean, FolderMessageCallback, MailProgressHandler)}
+     * will only check for messages that arrive after this call.
+     * </p>
+     *
+     * @param modSeq the mod-sequence value that was last synchronized to
+     * @param callback the callback to notify of changed messages
+     * @param progressHandler the progress handler
+     * @return tokens for the messages expunged since the provided mod-sequence
+     */
+    public MessageToken[] getChangedFolderMessages(long modSeq, FolderMessageCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        // Sanity check
+        if(activeMailbox == null) {
+            throw new MailException("Mailbox not selected");
+        }
+        if(!qresyncEnabled) {
+            throw new MailException("Quick resynchronization not enabled");
+        }
+
+        ImapProtocol.FetchChangesResponse response =
+            imapProtocol.executeFetchFlagsChangedSince(modSeq, progressHandler);
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+
+        // These expunges happened before the folder was selected, so they
+        // only affect the index map if it was carried over from a prior
+        // selection of the folder.
+        MessageToken[] vanishedTokens = new MessageToken[response.vanished.length];
+        for(int i=0; i<response.vanished.length; i++) {
+            ImapMessageToken token = null;
+            int index = mailboxState.getMessageIndex(response.vanished[i]);
+            if(index != -1) {
+                token = mailboxState.messageExpunged(index);
+            }
+            if(token == null) {
+                token = new ImapMessageToken(activeMailbox.getPath(), response.vanished[i]);
+            }
+            vanishedTokens[i] = token;
+        }
+
+        FolderMessage[] result = prepareFolderMessagesFlags(response.changed);
+        int maxUid = -1;
+        for(int i=0; i<result.length; i++) {
+            mailboxState.messageFetched(result[i].getMessageToken());
+            maxUid = Math.max(maxUid, result[i].getUid());
+            callback.folderMessageUpdate(result[i]);
+        }
+        if(mailboxState.getUidNext() == -1 && maxUid != -1) {
+            mailboxState.setUidNext(maxUid + 1);
+        }
+        callback.folderMessageUpdate(null);
+
+        seenMailboxes.put(activeMailbox, Boolean.TRUE);
+        return vanishedTokens;
+    }
+
     private FolderMessage prepareFolderMessagesEnvelope(ImapProtocol.FetchEnvelopeResponse response) {
         ImapMessageToken token = new ImapMessageToken(activeMailbox.getPath(), response.uid);
         token.setMessageIndex(response.index);
@@ -998,26 +1749,69 @@ public class ImapClient extends AbstractIncomingMailClient {
     }
 
     /* (non-Javadoc)
-     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getMessage(org.logicprobe.LogicMail.mail.MessageToken, boolean, org.logicprobe.LogicMail.mail.MailProgressHandler)
+     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getMessage(org.logicprobe.LogicMail.mail.MessageToken, boolean, org.logicprobe.LogicMail.mail.MessageContentCallback, org.logicprobe.LogicMail.mail.MailProgressHandler)
      */
-    public Message getMessage(MessageToken messageToken, boolean useLimits, MailProgressHandler progressHandler) throws IOException, MailException {
+    public Message getMessage(MessageToken messageToken, boolean useLimits, MessageContentCallback contentCallback, MailProgressHandler progressHandler) throws IOException, MailException {
         ImapMessageToken imapMessageToken = (ImapMessageToken)messageToken;
         if(!imapMessageToken.getFolderPath().equalsIgnoreCase(activeMailbox.getPath())) {
             throw new MailException("Invalid mailbox for message");
         }
 
-        ImapParser.MessageSection structure = getMessageStructure(imapMessageToken.getImapMessageUid());
-        Hashtable contentMap = new Hashtable();
+        int uid = imapMessageToken.getImapMessageUid();
+        ImapParser.MessageSection structure = getMessageStructure(uid);
+        
+        // Build the part tree first, collecting the sections whose content
+        // is wanted, so they can all be fetched with a single command.
+        Vector partList = new Vector();
+        Vector sectionList = new Vector();
         MimeMessagePart rootPart =
-            getMessagePart(contentMap, imapMessageToken.getImapMessageUid(),
+            getMessagePart(partList, sectionList,
                     structure,
-                    useLimits ? accountConfig.getMaxMessageSize() : Integer.MAX_VALUE,
-                    progressHandler);
+                    useLimits ? accountConfig.getMaxMessageSize() : Integer.MAX_VALUE);
+        
+        // If the server supports it, have the content transfer decoding done
+        // on the server to avoid sending encoded data over the air.  Should
+        // the server fail to decode any part, fall back to fetching the
+        // encoded parts instead.
+        byte[][] partData = null;
+        boolean decoded = false;
+        if(capabilities.containsKey(CAPABILITY_BINARY)) {
+            try {
+                partData = getMessageBodies(uid, sectionList, true, progressHandler);
+                decoded = true;
+            } catch (MailException e) {
+                // The server rejected the command, most likely because of
+                // a content transfer encoding it did not understand.
+                EventLogger.logEvent(AppInfo.GUID,
+                        ("Unable to fetch decoded message: " + e.getMessage()).getBytes(),
+                        EventLogger.WARNING);
+            }
+        }
+        if(partData == null) {
+            partData = getMessageBodies(uid, sectionList, false, progressHandler);
+        }
+        
         Message msg = new Message(rootPart);
-        Enumeration e = contentMap.keys();
-        while(e.hasMoreElements()) {
-            MimeMessagePart part = (MimeMessagePart)e.nextElement();
-            msg.putContent(part, (MimeMessageContent)contentMap.get(part));
+        int size = partList.size();
+        for(int i=0; i<size; i++) {
+            MimeMessagePart part = (MimeMessagePart)partList.elementAt(i);
+            try {
+                MimeMessageContent content;
+                if(decoded && partData[i] != null) {
+                    content = MimeMessageContentFactory.createContentRaw(part, partData[i]);
+                }
+                else {
+                    content = MimeMessageContentFactory.createContentEncoded(part, partData[i]);
+                }
+                partData[i] = null;
+                if(contentCallback == null || contentCallback.messageContentAvailable(content)) {
+                    msg.putContent(part, content);
+                }
+            } catch (UnsupportedContentException e) {
+                EventLogger.logEvent(AppInfo.GUID,
+                        ("UnsupportedContentException: " + e.getMessage()).getBytes(),
+                        EventLogger.WARNING);
+            }
         }
         return msg;
     }
@@ -1042,32 +1836,53 @@ public class ImapClient extends AbstractIncomingMailClient {
         if(!(messageToken instanceof ImapMessageToken)) { return null; }
 
 
-        byte[] data = getMessageBody(imapMessageToken.getImapMessageUid(), partAddress, progressHandler);
+        int uid = imapMessageToken.getImapMessageUid();
+        byte[] data = null;
+        if(capabilities.containsKey(CAPABILITY_BINARY)) {
+            try {
+                data = getMessageBinary(uid, partAddress, mimeMessagePart.getSize(), progressHandler);
+            } catch (MailException e) {
+                EventLogger.logEvent(AppInfo.GUID,
+                        ("Unable to fetch decoded message part: " + e.getMessage()).getBytes(),
+                        EventLogger.WARNING);
+            }
+        }
+        
         MimeMessageContent content;
         try {
-            content = MimeMessageContentFactory.createContentEncoded(mimeMessagePart, data);
+            if(data != null) {
+                content = MimeMessageContentFactory.createContentRaw(mimeMessagePart, data);
+            }
+            else {
+                data = getMessageBody(uid, partAddress, mimeMessagePart.getSize(), progressHandler);
+                content = MimeMessageContentFactory.createContentEncoded(mimeMessagePart, data);
+            }
         } catch (UnsupportedContentException e) {
             content = null;
         }
         return content;
     }
 
+    /**
+     * Builds the part tree for a message structure.  Every part that should
+     * have content is added to the part list, and its section is added to
+     * the section list at the same position.  Multipart sections have no
+     * content to fetch, so they are represented by null in the section list.
+     */
     private MimeMessagePart getMessagePart(
-            Hashtable contentMap,
-            int uid,
+            Vector partList,
+            Vector sectionList,
             ImapParser.MessageSection structure,
-            int maxSize,
-            MailProgressHandler progressHandler)
-    throws IOException, MailException
+            int maxSize)
     {
         MimeMessagePart part;
         if(MimeMessagePartFactory.isMimeMessagePartSupported(structure.type, structure.subtype)) {
-            byte[] data;
+            ImapParser.MessageSection section;
             if(structure.type.equalsIgnoreCase("multipart"))
-                data = null;
+                section = null;
             else {
                 if(structure.size < maxSize) {
-                    data = getMessageBody(uid, structure.address, progressHandler);
+                    section = structure;
                     maxSize -= structure.size;
                 }
                 else {
@@ -1085,13 +1900,8 @@ public class ImapClient extends AbstractIncomingMailClient {
                     structure.contentId,
                     structure.size,
                     structure.address);
-            try {
-                contentMap.put(part, MimeMessageContentFactory.createContentEncoded(part, data));
-            } catch (UnsupportedContentException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("UnsupportedContentException: " + e.getMessage()).getBytes(),
-                        EventLogger.WARNING);
-            }
+            partList.addElement(part);
+            sectionList.addElement(section);
         }
         else if(structure.address.equals("1")) {
             // If this was the root part, and still could not be loaded,
@@ -1104,7 +1914,7 @@ public class ImapClient extends AbstractIncomingMailClient {
 
         if((part instanceof MultiPart)&&(structure.subsections != null)&&(structure.subsections.length > 0)) {
             for(int i=0;i<structure.subsections.length;i++) {
-                MimeMessagePart subPart = getMessagePart(contentMap, uid, structure.subsections[i], maxSize, progressHandler);
+                MimeMessagePart subPart = getMessagePart(partList, sectionList, structure.subsections[i], maxSize);
                 if(subPart != null) {
                     ((MultiPart)part).addPart(subPart);
                 }
@@ -1176,11 +1986,78 @@ public class ImapClient extends AbstractIncomingMailClient {
         return item;
     }
 
-    private byte[] getMessageBody(int uid, String address, MailProgressHandler progressHandler) throws IOException, MailException {
+    private byte[] getMessageBody(int uid, String address, int size, MailProgressHandler progressHandler) throws IOException, MailException {
+        if(activeMailbox == null) {
+            throw new MailException("Mailbox not selected");
+        }
+        
+        // The body is streamed into a buffer sized for the expected content,
+        // so it should not need to be reallocated or copied once received.
+        SizedByteArrayOutputStream output = new SizedByteArrayOutputStream(size);
+        imapProtocol.executeFetchBody(uid, address, output, progressHandler);
+        return output.getData();
+    }
+
+    private byte[] getMessageBinary(int uid, String address, int size, MailProgressHandler progressHandler) throws IOException, MailException {
         if(activeMailbox == null) {
             throw new MailException("Mailbox not selected");
         }
-        return imapProtocol.executeFetchBody(uid, address, progressHandler);
+        
+        SizedByteArrayOutputStream output = new SizedByteArrayOutputStream(size);
+        imapProtocol.executeFetchBinaries(uid,
+                new String[] { address }, new int[] { size },
+                new SizedByteArrayOutputStream[] { output }, progressHandler);
+        return output.getData();
+    }
+
+    /**
+     * Fetches the content of several sections of a message at once.
+     *
+     * @param uid the message UID
+     * @param sectionList the sections to fetch, any of which may be null
+     * @param decoded true to have the server remove the content transfer
+     *   encoding from each section, using the BINARY extension
+     * @param progressHandler the progress handler
+     * @return the content of each section, or null for null sections
+     */
+    private byte[][] getMessageBodies(int uid, Vector sectionList, boolean decoded, MailProgressHandler progressHandler) throws IOException, MailException {
+        int size = sectionList.size();
+        byte[][] result = new byte[size][];
+        
+        int count = 0;
+        for(int i=0; i<size; i++) {
+            if(sectionList.elementAt(i) != null) { count++; }
+        }
+        if(count == 0) { return result; }
+        
+        String[] addresses = new String[count];
+        int[] sizes = new int[count];
+        SizedByteArrayOutputStream[] outputs = new SizedByteArrayOutputStream[count];
+        int j = 0;
+        for(int i=0; i<size; i++) {
+            ImapParser.MessageSection section = (ImapParser.MessageSection)sectionList.elementAt(i);
+            if(section == null) { continue; }
+            addresses[j] = section.address;
+            sizes[j] = section.size;
+            outputs[j] = new SizedByteArrayOutputStream(section.size);
+            j++;
+        }
+        
+        if(decoded) {
+            imapProtocol.executeFetchBinaries(uid, addresses, sizes, outputs, progressHandler);
+        }
+        else {
+            imapProtocol.executeFetchBodies(uid, addresses, sizes, outputs, progressHandler);
+        }
+        
+        j = 0;
+        for(int i=0; i<size; i++) {
+            if(sectionList.elementAt(i) != null) {
+                result[i] = outputs[j].getData();
+                outputs[j++] = null;
+            }
+        }
+        return result;
     }
 
     /* (non-Javadoc)
@@ -1243,7 +2120,11 @@ public class ImapClient extends AbstractIncomingMailClient {
             throw new MailException("Invalid mailbox for message");
         }
 
-        imapProtocol.executeStore(imapMessageToken.getImapMessageUid(), addOrRemove, new String[] { flag });
+        imapProtocol.executePipeline(
+                imapProtocol.createStoreCommands(
+                        new int[] { imapMessageToken.getImapMessageUid() },
+                        addOrRemove, new String[] { flag }),
+                null);
     }
     
     private void changeMessageFlag(
@@ -1262,7 +2143,9 @@ public class ImapClient extends AbstractIncomingMailClient {
             messageUids[i] = ((ImapMessageToken)messageTokens[i]).getImapMessageUid();
         }
 
-        imapProtocol.executeStore(messageUids, addOrRemove, new String[] { flag });
+        imapProtocol.executePipeline(
+                imapProtocol.createStoreCommands(messageUids, addOrRemove, new String[] { flag }),
+                null);
     }
     
     private static void refreshMessageFlags(ImapProtocol.MessageFlags updatedFlags, MessageFlags messageFlags) {
@@ -1306,17 +2189,58 @@ public class ImapClient extends AbstractIncomingMailClient {
         imapProtocol.executeCopy(imapMessageToken.getImapMessageUid(), destinationFolder.getPath());
     }
 
+    /* (non-Javadoc)
+     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#moveMessage(org.logicprobe.LogicMail.mail.MessageToken, org.logicprobe.LogicMail.mail.FolderTreeItem)
+     */
+    public void moveMessage(MessageToken messageToken, FolderTreeItem destinationFolder) throws IOException, MailException {
+        ImapMessageToken imapMessageToken = (ImapMessageToken)messageToken;
+        if(!imapMessageToken.getFolderPath().equalsIgnoreCase(activeMailbox.getPath())) {
+            throw new MailException("Invalid mailbox for message");
+        }
+        
+        // The copy and the deletion are pipelined, so the move only takes a
+        // single round trip.  Since the deletion cannot be made conditional
+        // on the copy, it is reverted if the copy fails.
+        int uid = imapMessageToken.getImapMessageUid();
+        ImapProtocol.PipelinedCommand copyCommand =
+            imapProtocol.createCopyCommand(uid, destinationFolder.getPath());
+        ImapProtocol.PipelinedCommand[] storeCommands =
+            imapProtocol.createStoreCommands(new int[] { uid }, true, new String[] { ImapParser.FLAG_DELETED });
+        
+        try {
+            imapProtocol.executePipeline(
+                    new ImapProtocol.PipelinedCommand[] { copyCommand, storeCommands[0] },
+                    null);
+        } catch (MailException e) {
+            if(!copyCommand.isOk() && storeCommands[0].isOk()) {
+                imapProtocol.executeStore(uid, false, new String[] { ImapParser.FLAG_DELETED });
+            }
+            throw e;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#noop()
      */
     public void noop() throws IOException, MailException {
         imapProtocol.executeNoop();
+        notifyShiftedMessageTokens();
     }
 
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#idleModeBegin()
      */
     public void idleModeBegin() throws IOException, MailException {
+        // Ask for changes to all personal mailboxes to be reported while
+        // idle.  This only needs to happen once per session, since the
+        // notification settings are kept across changes to the selected
+        // mailbox.  FlagChange is also requested for the other mailboxes,
+        // so their STATUS responses carry UNSEEN along with MESSAGES and
+        // do not need a separate STATUS request to fill in the counts.
+        if(!notifyAttempted && capabilities.containsKey(CAPABILITY_NOTIFY)) {
+            notifyAttempted = true;
+            notifyEnabled = imapProtocol.executeNotify(NOTIFY_EVENTS);
+        }
         imapProtocol.executeIdle(idleListener);
     }
 
@@ -1325,11 +2249,39 @@ public class ImapClient extends AbstractIncomingMailClient {
      */
     public void idleModeEnd() throws IOException, MailException {
         imapProtocol.executeIdleDone();
+        notifyShiftedMessageTokens();
+    }
+    
+    /**
+     * Notifies the listener of any messages in the active folder with indices
+     * that have been shifted by expunges.  This is done as a single group
+     * after the commands that expunges are expected to follow, rather than
+     * on every expunge.
+     */
+    private void notifyShiftedMessageTokens() {
+        if(activeMailbox == null) { return; }
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+        if(mailboxState == null) { return; }
+        
+        MessageToken[] shiftedTokens = mailboxState.getShiftedMessageTokens();
+        if(shiftedTokens.length > 0 && clientListener != null) {
+            clientListener.folderMessageExpunged(null, shiftedTokens);
+        }
+    }
+    
+    /**
+     * Gets the state of the active mailbox, for handling untagged responses.
+     *
+     * @return the mailbox state, or null if no mailbox is active
+     */
+    private MailboxState getActiveMailboxState() {
+        if(activeMailbox == null) { return null; }
+        return (MailboxState)knownMailboxes.get(activeMailbox);
     }
     
     private ImapProtocol.UntaggedResponseListener untaggedResponseListener = new ImapProtocol.UntaggedResponseListener() {
         public void existsResponse(int value) {
-            MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+            MailboxState mailboxState = getActiveMailboxState();
             if(mailboxState == null) { return; }
             
             if(mailboxState.getExists() < value) {
@@ -1340,25 +2292,51 @@ public class ImapClient extends AbstractIncomingMailClient {
             }
         }
         public void recentResponse(int value) {
-            if(clientListener != null) {
+            if(activeMailbox != null && clientListener != null) {
                 clientListener.recentFolderMessagesAvailable(activeMailbox);
             }
         }
         public void expungeResponse(int value) {
-            MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+            MailboxState mailboxState = getActiveMailboxState();
             if(mailboxState == null) { return; }
             
-            Vector updatedTokenVector = new Vector();
-            ImapMessageToken token = mailboxState.messageExpunged(value, updatedTokenVector);
+            // Messages shifted by the expunge are reported together, once
+            // the server is done sending expunges
+            ImapMessageToken token = mailboxState.messageExpunged(value);
             
-            if(clientListener != null) {
-                MessageToken[] updatedTokens = new MessageToken[updatedTokenVector.size()];
-                updatedTokenVector.copyInto(updatedTokens);
-                clientListener.folderMessageExpunged(token, updatedTokens);
+            if(clientListener != null && token != null) {
+                clientListener.folderMessageExpunged(token, new MessageToken[0]);
             }
         }
+        public void vanishedResponse(int[] uids) {
+            MailboxState mailboxState = getActiveMailboxState();
+            if(mailboxState == null) { return; }
+            
+            for(int i=0; i<uids.length; i++) {
+                ImapMessageToken token = mailboxState.messageVanished(uids[i]);
+                if(token == null) {
+                    token = new ImapMessageToken(activeMailbox.getPath(), uids[i]);
+                }
+                
+                if(clientListener != null) {
+                    clientListener.folderMessageExpunged(token, new MessageToken[0]);
+                }
+            }
+            notifyShiftedMessageTokens();
+        }
+        public void statusResponse(String mailboxName, ImapProtocol.StatusResponse status) {
+            // Only expected for other mailboxes, as a result of NOTIFY
+            if(!notifyEnabled || clientListener == null) { return; }
+            if(activeMailbox != null && activeMailbox.getPath().equals(mailboxName)) { return; }
+            
+            FolderTreeItem mailbox = new FolderTreeItem(getFolderForPath(mailboxName));
+            mailbox.setMsgCount(status.exists);
+            mailbox.setUnseenCount(status.unseen);
+            mailbox.setRecentCount(status.recent);
+            clientListener.folderStatusChanged(mailbox);
+        }
         public void fetchResponse(ImapProtocol.FetchFlagsResponse value) {
-            MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+            MailboxState mailboxState = getActiveMailboxState();
             if(mailboxState == null) { return; }
 
             // Handle a UID FETCH response
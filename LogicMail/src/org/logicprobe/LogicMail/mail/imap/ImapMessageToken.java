@@ -137,7 +137,7 @@ public class ImapMessageToken implements MessageToken, Persistable {
      * 
      * @return IMAP unique ID.
      */
-    int getImapMessageUid() {
+    public int getImapMessageUid() {
     	return this.messageUid;
     }
     
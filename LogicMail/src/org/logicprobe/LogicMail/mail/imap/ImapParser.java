@@ -33,6 +33,7 @@ package org.logicprobe.LogicMail.mail.imap;
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
 import net.rim.device.api.util.ByteVector;
+import net.rim.device.api.util.IntVector;
 
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
@@ -53,8 +54,7 @@ import java.util.Vector;
  * needed when using the IMAP protocol
  */
 class ImapParser {
-    private static String NIL = "NIL";
-    private static String BODYSTRUCTURE = "BODYSTRUCTURE";
+    private static byte[] BODYSTRUCTURE_B = "BODYSTRUCTURE".getBytes();
     private static String MODIFIED_BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+,";
     private static Character LPAREN = new Character('(');
     private static Character RPAREN = new Character(')');
@@ -70,36 +70,50 @@ class ImapParser {
     static String FLAG_FORWARDED = "$Forwarded";
     static String FLAG_JUNK0 = "Junk";
     static String FLAG_JUNK1 = "$Junk";
+    private static byte[] FLAG_SEEN_B = FLAG_SEEN.getBytes();
+    private static byte[] FLAG_ANSWERED_B = FLAG_ANSWERED.getBytes();
+    private static byte[] FLAG_FLAGGED_B = FLAG_FLAGGED.getBytes();
+    private static byte[] FLAG_DELETED_B = FLAG_DELETED.getBytes();
+    private static byte[] FLAG_DRAFT_B = FLAG_DRAFT.getBytes();
+    private static byte[] FLAG_RECENT_B = FLAG_RECENT.getBytes();
+    private static byte[] FLAG_FORWARDED_B = FLAG_FORWARDED.getBytes();
+    private static byte[] FLAG_JUNK0_B = FLAG_JUNK0.getBytes();
+    private static byte[] FLAG_JUNK1_B = FLAG_JUNK1.getBytes();
     
     private ImapParser() {
     }
 
-    static ImapProtocol.MessageFlags parseMessageFlags(Vector flagsVec) {
+    /**
+     * Parses a list of message flags.
+     *
+     * @param tokenizer the tokenizer, positioned at the start of the list
+     * @return the message flags
+     */
+    static ImapProtocol.MessageFlags parseMessageFlags(ImapTokenizer tokenizer) {
         ImapProtocol.MessageFlags flags = new ImapProtocol.MessageFlags();
 
-        String text;
-        int size = flagsVec.size();
-
-        for (int i = 0; i < size; i++) {
-            if (flagsVec.elementAt(i) instanceof String) {
-                text = (String) flagsVec.elementAt(i);
-
-                if (text.equalsIgnoreCase(FLAG_SEEN)) {
+        int type;
+        while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            if (type == ImapTokenizer.LIST_START) {
+                tokenizer.skipList();
+            } else if (type == ImapTokenizer.ATOM) {
+                if (tokenizer.equalsIgnoreCase(FLAG_SEEN_B)) {
                     flags.seen = true;
-                } else if (text.equalsIgnoreCase(FLAG_ANSWERED)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_ANSWERED_B)) {
                     flags.answered = true;
-                } else if (text.equalsIgnoreCase(FLAG_FLAGGED)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_FLAGGED_B)) {
                     flags.flagged = true;
-                } else if (text.equalsIgnoreCase(FLAG_DELETED)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_DELETED_B)) {
                     flags.deleted = true;
-                } else if (text.equalsIgnoreCase(FLAG_DRAFT)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_DRAFT_B)) {
                     flags.draft = true;
-                } else if (text.equalsIgnoreCase(FLAG_RECENT)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_RECENT_B)) {
                     flags.recent = true;
-                } else if (text.equalsIgnoreCase(FLAG_FORWARDED)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_FORWARDED_B)) {
                     flags.forwarded = true;
-                } else if (text.equalsIgnoreCase(FLAG_JUNK0) ||
-                        text.equalsIgnoreCase(FLAG_JUNK1)) {
+                } else if (tokenizer.equalsIgnoreCase(FLAG_JUNK0_B) ||
+                        tokenizer.equalsIgnoreCase(FLAG_JUNK1_B)) {
                     flags.junk = true;
                 }
             }
@@ -166,9 +180,68 @@ class ImapParser {
         return buf.toString();
     }
 
-    static MessageEnvelope parseMessageEnvelope(Vector parsedEnv) {
+    /**
+     * Parses a message envelope.
+     *
+     * @param tokenizer the tokenizer, positioned at the start of the envelope
+     * @return the message envelope
+     */
+    static MessageEnvelope parseMessageEnvelope(ImapTokenizer tokenizer) {
+        MessageEnvelope env = new MessageEnvelope();
+        int index = 0;
+        int type;
+
+        while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            if (type == ImapTokenizer.STRING) {
+                switch (index) {
+                case 0:
+                    try {
+                        env.date = StringParser.parseDateString(tokenizer.getString());
+                    } catch (Exception e) {
+                        env.date = null;
+                    }
+                    break;
+                case 1:
+                    env.subject = StringParser.parseEncodedHeader(tokenizer.getString());
+                    break;
+                case 8:
+                    env.inReplyTo = tokenizer.getString();
+                    break;
+                case 9:
+                    env.messageId = tokenizer.getString();
+                    break;
+                }
+            } else if (type == ImapTokenizer.LIST_START) {
+                switch (index) {
+                case 2:
+                    env.from = parseAddressList(tokenizer);
+                    break;
+                case 3:
+                    env.sender = parseAddressList(tokenizer);
+                    break;
+                case 4:
+                    env.replyTo = parseAddressList(tokenizer);
+                    break;
+                case 5:
+                    env.to = parseAddressList(tokenizer);
+                    break;
+                case 6:
+                    env.cc = parseAddressList(tokenizer);
+                    break;
+                case 7:
+                    env.bcc = parseAddressList(tokenizer);
+                    break;
+                default:
+                    tokenizer.skipList();
+                    break;
+                }
+            }
+            index++;
+        }
+
         // Sanity checking
-        if (parsedEnv.size() < 10) {
+        if (index < 10) {
             EventLogger.logEvent(AppInfo.GUID,
                 "ImapParser.parseMessageEnvelope: Sanity check failed".getBytes(),
                 EventLogger.WARNING);
@@ -176,113 +249,80 @@ class ImapParser {
             return generateDummyEnvelope();
         }
 
-        MessageEnvelope env = new MessageEnvelope();
-
-        if (parsedEnv.elementAt(0) instanceof byte[]) {
-            try {
-                env.date = StringParser.parseDateString(
-                        new String((byte[]) parsedEnv.elementAt(0)));
-            } catch (Exception e) {
-                env.date = Calendar.getInstance().getTime();
-            }
-        }
-        else {
+        if (env.date == null) {
             env.date = Calendar.getInstance().getTime();
         }
 
-        if (parsedEnv.elementAt(1) instanceof byte[]) {
-            env.subject = StringParser.parseEncodedHeader(
-                    new String((byte[])parsedEnv.elementAt(1)));
-        }
-        else {
+        if (env.subject == null) {
             env.subject = "";
         }
 
-        if (parsedEnv.elementAt(2) instanceof Vector) {
-            env.from = parseAddressList((Vector) parsedEnv.elementAt(2));
-        }
-
-        if (parsedEnv.elementAt(3) instanceof Vector) {
-            env.sender = parseAddressList((Vector) parsedEnv.elementAt(3));
-        }
-
-        if (parsedEnv.elementAt(4) instanceof Vector) {
-            env.replyTo = parseAddressList((Vector) parsedEnv.elementAt(4));
-        }
-
-        if (parsedEnv.elementAt(5) instanceof Vector) {
-            env.to = parseAddressList((Vector) parsedEnv.elementAt(5));
-        }
-
-        if (parsedEnv.elementAt(6) instanceof Vector) {
-            env.cc = parseAddressList((Vector) parsedEnv.elementAt(6));
-        }
-
-        if (parsedEnv.elementAt(7) instanceof Vector) {
-            env.bcc = parseAddressList((Vector) parsedEnv.elementAt(7));
-        }
-
-        if (parsedEnv.elementAt(8) instanceof byte[]) {
-            env.inReplyTo = new String((byte[])parsedEnv.elementAt(8));
-        }
-        else {
+        if (env.inReplyTo == null) {
             env.inReplyTo = "";
         }
 
-        if (parsedEnv.elementAt(9) instanceof byte[]) {
-            env.messageId = new String((byte[])parsedEnv.elementAt(9));
-        }
-        else {
+        if (env.messageId == null) {
             env.messageId = "";
         }
 
         return env;
     }
 
-    static String[] parseAddressList(Vector addrVec) {
-        // Find the number of addresses, and allocate the array
-        String[] addrList = new String[addrVec.size()];
-        int index = 0;
-
-        for (int i = 0; i < addrVec.size(); i++) {
-            if ((addrVec.elementAt(i) instanceof Vector) &&
-                    (((Vector) addrVec.elementAt(i)).size() >= 4)) {
-                Vector entry = (Vector) addrVec.elementAt(i);
-
-                String realName = NIL;
-
-                if (entry.elementAt(0) instanceof byte[]) {
-                    realName = StringParser.parseEncodedHeader(
-                            new String((byte[]) entry.elementAt(0)));
-                }
-
-                String mbName = NIL;
-
-                if (entry.elementAt(2) instanceof byte[]) {
-                    mbName = new String((byte[]) entry.elementAt(2));
-                }
-
-                String hostName = NIL;
+    /**
+     * Parses a list of addresses, as found within a message envelope.
+     *
+     * @param tokenizer the tokenizer, positioned at the start of the list
+     * @return the addresses, formatted for display
+     */
+    static String[] parseAddressList(ImapTokenizer tokenizer) {
+        Vector addrVec = new Vector();
+        int type;
+
+        while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            if (type != ImapTokenizer.LIST_START) {
+                continue;
+            }
 
-                if (entry.elementAt(3) instanceof byte[]) {
-                    hostName = new String((byte[]) entry.elementAt(3));
+            String realName = null;
+            String mbName = null;
+            String hostName = null;
+            int index = 0;
+
+            while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                    && type != ImapTokenizer.END) {
+                if (type == ImapTokenizer.STRING) {
+                    if (index == 0) {
+                        realName = StringParser.parseEncodedHeader(tokenizer.getString());
+                    } else if (index == 2) {
+                        mbName = tokenizer.getString();
+                    } else if (index == 3) {
+                        hostName = tokenizer.getString();
+                    }
+                } else if (type == ImapTokenizer.LIST_START) {
+                    tokenizer.skipList();
                 }
+                index++;
+            }
 
-                String addrStr = (mbName.equals(NIL) ? "" : mbName) +
-                    (hostName.equals(NIL) ? "" : ('@' + hostName));
+            if (index < 4) {
+                continue;
+            }
 
-                // Now assemble these into a single address entry
-                // (possibly eventually storing them separately)
-                if ((realName.length() > 0) && !realName.equals(NIL)) {
-                    addrList[index] = realName + " <" + addrStr + ">";
-                } else {
-                    addrList[index] = addrStr;
-                }
+            String addrStr = (mbName == null ? "" : mbName) +
+                (hostName == null ? "" : ('@' + hostName));
 
-                index++;
+            // Now assemble these into a single address entry
+            // (possibly eventually storing them separately)
+            if ((realName != null) && (realName.length() > 0)) {
+                addrVec.addElement(realName + " <" + addrStr + ">");
+            } else {
+                addrVec.addElement(addrStr);
             }
         }
 
+        String[] addrList = new String[addrVec.size()];
+        addrVec.copyInto(addrList);
         return addrList;
     }
 
@@ -303,11 +343,28 @@ class ImapParser {
      * @return Root of the message structure tree
      */
     static MessageSection parseMessageStructure(byte[] rawText) {
-        Vector parsedText = null;
+        MessageSection msgStructure = null;
 
         try {
             int offset = Arrays.getIndex(rawText, (byte)'(');
-            parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
+            ImapTokenizer tokenizer = new ImapTokenizer(rawText, offset, rawText.length - offset);
+
+            // Find the BODYSTRUCTURE portion of the reply
+            if (tokenizer.next() == ImapTokenizer.LIST_START) {
+                int type;
+                while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                        && type != ImapTokenizer.END) {
+                    if (type == ImapTokenizer.LIST_START) {
+                        tokenizer.skipList();
+                    } else if (tokenizer.equalsIgnoreCase(BODYSTRUCTURE_B)) {
+                        if (tokenizer.next() == ImapTokenizer.LIST_START) {
+                            msgStructure = parseMessageStructure(tokenizer);
+                        } else {
+                            tokenizer.skipValue();
+                        }
+                    }
+                }
+            }
         } catch (Exception exp) {
             EventLogger.logEvent(AppInfo.GUID,
                 ("ImapParser.parseMessageStructure: " +
@@ -317,24 +374,8 @@ class ImapParser {
             return null;
         }
 
-        // Find the BODYSTRUCTURE portion of the reply
-        Vector parsedStruct = null;
-        int size = parsedText.size();
-
-        for (int i = 0; i < size; i++) {
-            if (parsedText.elementAt(i) instanceof String) {
-                String label = (String) parsedText.elementAt(i);
-
-                if (label.equalsIgnoreCase(BODYSTRUCTURE) &&
-                        (i < (size - 1)) &&
-                        parsedText.elementAt(i + 1) instanceof Vector) {
-                    parsedStruct = (Vector) parsedText.elementAt(i + 1);
-                }
-            }
-        }
-
         // Sanity checking
-        if (parsedStruct == null) {
+        if (msgStructure == null) {
             EventLogger.logEvent(AppInfo.GUID,
                 "ImapParser.parseMessageStructure: Sanity check failed".getBytes(),
                 EventLogger.WARNING);
@@ -342,21 +383,19 @@ class ImapParser {
             return null;
         }
 
-        MessageSection msgStructure = parseMessageStructureParameter(parsedStruct);
-
         return msgStructure;
     }
 
     /**
-     * Parse the IMAP message structure tree from a prepared object tree
-     * generated by {@link ImapParser#parenListParser(String)}.
+     * Parse the IMAP message structure tree that follows a BODYSTRUCTURE
+     * data item.
      *
-     * @param parsedStruct Tree containing the {@link Vector} that follows a BODYSTRUCTURE string
+     * @param tokenizer the tokenizer, positioned at the start of the structure
      * @return Root of the message structure tree
      */
-    static MessageSection parseMessageStructureParameter(Vector parsedStruct) {
+    static MessageSection parseMessageStructure(ImapTokenizer tokenizer) {
         MessageSection msgStructure = parseMessageStructureHelper(
-                null, 1, parsedStruct);
+                null, 1, tokenizer);
         fixMessageStructure(msgStructure);
 
         return msgStructure;
@@ -385,7 +424,7 @@ class ImapParser {
     }
 
     private static MessageSection parseMessageStructureHelper(
-        String parentAddress, int index, Vector parsedStruct) {
+        String parentAddress, int index, ImapTokenizer tokenizer) {
         // Determine the address of this body part
         String address;
 
@@ -396,111 +435,131 @@ class ImapParser {
         }
 
         // Determine the number of body parts and parse
-        if (parsedStruct.elementAt(0) instanceof byte[]) {
+        int type = tokenizer.next();
+        if (type == ImapTokenizer.STRING) {
             // The first element is a string, so we hit a simple message part
-            MessageSection section = parseMessageStructureSection(parsedStruct);
+            MessageSection section = parseMessageStructureSection(tokenizer);
             section.address = address;
 
             return section;
-        } else if (parsedStruct.elementAt(0) instanceof Vector) {
-            // The first element is a vector, so we hit a multipart message part
-            int size = parsedStruct.size();
+        } else if (type == ImapTokenizer.LIST_START) {
+            // The first element is a list, so we hit a multipart message part
             Vector subSectionsVector = new Vector();
-
-            for (int i = 0; i < size; ++i) {
-                // Iterate through the message parts
-                if (parsedStruct.elementAt(i) instanceof Vector) {
-                    subSectionsVector.addElement(parseMessageStructureHelper(
-                            address, i + 1, (Vector) parsedStruct.elementAt(i)));
-                } else if (parsedStruct.elementAt(i) instanceof byte[]) {
-                    MessageSection section = new MessageSection();
+            MessageSection section = null;
+            int i = 0;
+
+            while (type != ImapTokenizer.LIST_END && type != ImapTokenizer.END) {
+                // Iterate through the message parts, and then skip past
+                // any extension data following the multipart subtype
+                if (type == ImapTokenizer.LIST_START) {
+                    if (section == null) {
+                        subSectionsVector.addElement(parseMessageStructureHelper(
+                                address, i + 1, tokenizer));
+                    } else {
+                        tokenizer.skipList();
+                    }
+                } else if (type == ImapTokenizer.STRING && section == null) {
+                    section = new MessageSection();
                     section.type = MultiPart.TYPE;
-                    section.subtype = (new String((byte[]) parsedStruct.elementAt(i))).toLowerCase();
+                    section.subtype = tokenizer.getString().toLowerCase();
                     section.subsections = new MessageSection[subSectionsVector.size()];
                     subSectionsVector.copyInto(section.subsections);
                     section.address = address;
-
-                    return section;
                 }
+                i++;
+                type = tokenizer.next();
             }
+
+            return section;
+        } else if (type != ImapTokenizer.LIST_END) {
+            tokenizer.skipList();
         }
 
         return null;
     }
 
+    /**
+     * Parses a simple message part, consuming the remainder of its list.
+     *
+     * @param tokenizer the tokenizer, positioned at the part's media type
+     * @return the message section
+     */
     private static MessageSection parseMessageStructureSection(
-        Vector sectionList) {
+        ImapTokenizer tokenizer) {
         MessageSection sec = new MessageSection();
-        Vector tmpVec;
-        int sectionListSize = sectionList.size();
-
-        if (sectionList.elementAt(0) instanceof byte[]) {
-            sec.type = (new String((byte[])sectionList.elementAt(0))).toLowerCase();
-        }
-
-        if (sectionList.elementAt(1) instanceof byte[]) {
-            sec.subtype = (new String((byte[])sectionList.elementAt(1))).toLowerCase();
-        }
-
+        sec.type = tokenizer.getString().toLowerCase();
         sec.charset = null;
 
-        if (sectionList.elementAt(2) instanceof Vector) {
-            tmpVec = (Vector) sectionList.elementAt(2);
+        int dispositionIndex = -1;
+        int index = 1;
+        int type;
 
-            int size = tmpVec.size();
+        while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            if (index == 1 && type == ImapTokenizer.STRING) {
+                sec.subtype = tokenizer.getString().toLowerCase();
 
-            for (int i = 0; i < (size - 1); i += 2) {
-                if (tmpVec.elementAt(i) instanceof byte[] &&
-                        tmpVec.elementAt(i + 1) instanceof byte[]) {
-                    String key = new String((byte[]) tmpVec.elementAt(i));
-                    String value = new String((byte[]) tmpVec.elementAt(i + 1));
-
-                    if (key.equalsIgnoreCase(CHARSET)) {
-                        sec.charset = value;
-                    } else if (key.equalsIgnoreCase(NAME)) {
-                        sec.name = StringParser.parseEncodedHeader(value);
-                    }
+                if (TextPart.TYPE.equalsIgnoreCase(sec.type)) {
+                    dispositionIndex = 9;
+                } else if (MessagePart.TYPE.equalsIgnoreCase(sec.type)) {
+                    dispositionIndex = 11;
+                } else {
+                    dispositionIndex = 8;
+                }
+            } else if (index == 2 && type == ImapTokenizer.LIST_START) {
+                parseMessageStructureParameters(sec, tokenizer);
+            } else if (index == 3 && type == ImapTokenizer.STRING) {
+                sec.contentId = tokenizer.getString();
+            } else if (index == 5 && type == ImapTokenizer.STRING) {
+                sec.encoding = tokenizer.getString().toLowerCase();
+            } else if (index == 6 && type == ImapTokenizer.ATOM) {
+                try {
+                    sec.size = tokenizer.getInt();
+                } catch (Exception exp) {
+                    sec.size = -1;
+                }
+            } else if (index == dispositionIndex && type == ImapTokenizer.LIST_START) {
+                int first = tokenizer.next();
+                if (first == ImapTokenizer.STRING) {
+                    sec.disposition = tokenizer.getString().toLowerCase();
+                } else if (first == ImapTokenizer.LIST_START) {
+                    tokenizer.skipList();
+                }
+                if (first != ImapTokenizer.LIST_END) {
+                    tokenizer.skipList();
                 }
+            } else {
+                tokenizer.skipValue();
             }
+            index++;
         }
 
-        if (sectionList.elementAt(3) instanceof byte[]) {
-            sec.contentId = new String((byte[]) sectionList.elementAt(3));
-        }
-
-        if (sectionList.elementAt(5) instanceof byte[]) {
-            sec.encoding = new String(((byte[]) sectionList.elementAt(5))).toLowerCase();
-        }
+        return sec;
+    }
 
-        if (sectionList.elementAt(6) instanceof String) {
-            try {
-                sec.size = Integer.parseInt((String) sectionList.elementAt(6));
-            } catch (Exception exp) {
-                sec.size = -1;
+    private static void parseMessageStructureParameters(
+        MessageSection sec, ImapTokenizer tokenizer) {
+        int type;
+        while ((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            String key = (type == ImapTokenizer.STRING) ? tokenizer.getString() : null;
+            tokenizer.skipValue();
+
+            type = tokenizer.next();
+            if (type == ImapTokenizer.LIST_END || type == ImapTokenizer.END) {
+                break;
             }
-        }
-
-        int dispositionIndex;
-        if(TextPart.TYPE.equalsIgnoreCase(sec.type)) {
-            dispositionIndex = 9;
-        }
-        else if(MessagePart.TYPE.equalsIgnoreCase(sec.type)) {
-            dispositionIndex = 11;
-        }
-        else {
-            dispositionIndex = 8;
-        }
-        
-        if ((sectionListSize > dispositionIndex) &&
-                sectionList.elementAt(dispositionIndex) instanceof Vector) {
-            tmpVec = (Vector) sectionList.elementAt(dispositionIndex);
-
-            if (tmpVec.elementAt(0) instanceof byte[]) {
-                sec.disposition = new String((byte[]) tmpVec.elementAt(0)).toLowerCase();
+            String value = (type == ImapTokenizer.STRING) ? tokenizer.getString() : null;
+            tokenizer.skipValue();
+
+            if (key != null && value != null) {
+                if (key.equalsIgnoreCase(CHARSET)) {
+                    sec.charset = value;
+                } else if (key.equalsIgnoreCase(NAME)) {
+                    sec.name = StringParser.parseEncodedHeader(value);
+                }
             }
         }
-
-        return sec;
     }
 
     /**
@@ -553,6 +612,105 @@ class ImapParser {
         return buf.toString();
     }
 
+    /**
+     * Creates compact IMAP sequence sets from a list of values.
+     * The values are sorted, duplicates are dropped, and runs of consecutive
+     * values are collapsed into ranges of the form "a:b".  The result is
+     * split into several sets if necessary, so that no set is longer than
+     * the requested length, allowing each one to be sent in a command line
+     * of reasonable size.
+     *
+     * @param values the values to encode, in any order
+     * @param maxLength the maximum length of each set, in characters
+     * @return the sequence sets, such as "41,43:116,118", which together
+     *   contain all the values
+     */
+    static String[] createSequenceSets(int[] values, int maxLength) {
+        if (values.length == 0) {
+            return new String[0];
+        }
+
+        int[] sorted = new int[values.length];
+        System.arraycopy(values, 0, sorted, 0, values.length);
+        Arrays.sort(sorted, 0, sorted.length);
+
+        Vector result = new Vector();
+        StringBuffer buf = new StringBuffer();
+        int i = 0;
+
+        while (i < sorted.length) {
+            int first = sorted[i];
+            int last = first;
+            i++;
+
+            while (i < sorted.length && sorted[i] <= last + 1) {
+                last = sorted[i];
+                i++;
+            }
+
+            String item = (first == last)
+                ? Integer.toString(first)
+                : (Integer.toString(first) + ':' + last);
+
+            if (buf.length() > 0 && buf.length() + 1 + item.length() > maxLength) {
+                result.addElement(buf.toString());
+                buf.setLength(0);
+            }
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(item);
+        }
+        result.addElement(buf.toString());
+
+        String[] resultArray = new String[result.size()];
+        result.copyInto(resultArray);
+        return resultArray;
+    }
+
+    /**
+     * Parses an IMAP sequence set, such as the UID list within a
+     * <tt>VANISHED</tt> response, into its individual values.
+     * Ranges of the form "a:b" are expanded in ascending order, regardless of
+     * the order in which their endpoints are written.
+     *
+     * @param rawText the sequence set, such as "41,43:116,118"
+     * @return the values contained within the set
+     * @throws NumberFormatException if the set contains non-numeric values
+     */
+    static int[] parseSequenceSet(String rawText) {
+        IntVector result = new IntVector();
+        int len = rawText.length();
+        int p = 0;
+
+        while (p < len) {
+            int q = rawText.indexOf(',', p);
+            if (q == -1) {
+                q = len;
+            }
+
+            int r = rawText.indexOf(':', p);
+            if (r != -1 && r < q) {
+                int first = Integer.parseInt(rawText.substring(p, r));
+                int last = Integer.parseInt(rawText.substring(r + 1, q));
+                if (first > last) {
+                    int temp = first;
+                    first = last;
+                    last = temp;
+                }
+                for (int i = first; i <= last; i++) {
+                    result.addElement(i);
+                }
+            } else if (q > p) {
+                result.addElement(Integer.parseInt(rawText.substring(p, q)));
+            }
+
+            p = q + 1;
+        }
+
+        return result.toArray();
+    }
+
     /**
      * Decodes the IMAP modification of the UTF-7 modification of Base64.
      *
@@ -653,8 +811,11 @@ class ImapParser {
                         i++;
                     }
                 }
-            } else if (ch == '{') {
-                // Literal string
+            } else if (ch == '{' || (ch == '~' && (i + 1) < size && rawText[i + 1] == '{')) {
+                // Literal string, which may be a binary literal (RFC 3516)
+                if (ch == '~') {
+                    i++;
+                }
                 int p = StringArrays.indexOf(rawText, (byte)'}', i);
                 int len = StringArrays.parseInt(rawText, i + 1, p - i - 1);
                 i = p + 3;
@@ -34,7 +34,7 @@ import net.rim.device.api.i18n.MessageFormat;
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
 import net.rim.device.api.util.DataBuffer;
-import net.rim.device.api.util.IntIntHashtable;
+import net.rim.device.api.util.IntVector;
 import net.rim.device.api.util.MathUtilities;
 
 import org.logicprobe.LogicMail.AnalyticsDataCollector;
@@ -45,11 +45,13 @@ import org.logicprobe.LogicMail.mail.MailProgressHandler;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.ConnectionResponseTester;
+import org.logicprobe.LogicMail.util.LineAccumulator;
 import org.logicprobe.LogicMail.util.StringArrays;
 import org.logicprobe.LogicMail.util.StringParser;
 import org.logicprobe.LogicMail.util.Watchdog;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.util.Hashtable;
 import java.util.Vector;
@@ -58,12 +60,23 @@ import java.util.Vector;
  * This class implements the commands for the IMAP protocol
  */
 public class ImapProtocol {
-    private static final ConnectionResponseTester executeResponseTester = new ImapResponseLineTester();    
+    private final ConnectionResponseTester executeResponseTester = new ImapResponseLineTester();
+    private final ImapResponseLineTester literalResponseTester = new ImapResponseLineTester(true);
+    private final LineAccumulator responseLines = new LineAccumulator();
+    
+    /** Callback for commands whose responses only contain untagged values */
+    private final ExecuteCallback untaggedValueCallback = new ExecuteCallback() {
+        public void processResponse(byte[] rawLine) {
+            checkForUntaggedValue(rawLine);
+        }
+        public void executeComplete() { }
+    };
     private Connection connection;
     private Watchdog watchdog;
     private IdleThread idleThread;
     private UntaggedResponseListener untaggedResponseListener;
     private String selectedMailbox;
+    private Hashtable loginCapabilities;
 
     // Number of octets to fetch at a time, when fetching body content.
     private static final int FETCH_INCREMENT_INITIAL_WIFI = 8192;
@@ -71,6 +84,21 @@ public class ImapProtocol {
     private static final int FETCH_INCREMENT_MIN = 1024;
     private static final int FETCH_INCREMENT_MAX = 32768;
     
+    // Maximum number of pipelined commands awaiting completion at a time.
+    private static final int PIPELINE_DEPTH = 10;
+    
+    // Maximum length of the message sequence set within a single command.
+    private static final int MAX_SEQUENCE_SET_LENGTH = 1000;
+    
+    // Number of octets of a literal to receive between watchdog updates.
+    private static final int LITERAL_CHUNK_SIZE = 4096;
+    
+    /** Stream for reading past literals whose contents are not needed. */
+    private static final OutputStream DISCARD_STREAM = new OutputStream() {
+        public void write(int b) { }
+        public void write(byte[] b, int off, int len) { }
+    };
+    
     /**
      * Counts the commands executed so far in this session. Every command of an
      * IMAP session needs a unique ID that is prepended to the command line.
@@ -144,19 +172,83 @@ public class ImapProtocol {
         this.selectedMailbox = "";
         
         // Authenticate with the server
+        PipelinedCommand[] commands = new PipelinedCommand[] {
+            createLoginCommand(username, password)
+        };
         try {
-            execute(LOGIN,
-                CHAR_QUOTE + StringParser.addEscapedChars(username) + "\" \"" +
-                StringParser.addEscapedChars(password) + CHAR_QUOTE, null);
+            executePipeline(commands, null);
         } catch (MailException exp) {
-            // Invalid users are caught by execute()
+            // Invalid users are caught by executePipeline()
             // and a MailException is thrown
             return false;
         }
+        checkLoginCapabilities(commands[0]);
 
         return true;
     }
 
+    /**
+     * Gets the capabilities the server advertised when the last successful
+     * login completed, either with an untagged <code>CAPABILITY</code>
+     * response or a <code>CAPABILITY</code> response code.  Servers often
+     * advertise more capabilities once the client has authenticated, so
+     * this set should replace any that was obtained before the login.
+     *
+     * @return Hashtable containing a mapping from String to the boolean
+     *     value "true" for every capability, or <code>null</code> if the
+     *     server did not advertise its capabilities with the login
+     */
+    public Hashtable getLoginCapabilities() {
+        return loginCapabilities;
+    }
+    
+    private PipelinedCommand createLoginCommand(String username, String password) {
+        loginCapabilities = null;
+        return new PipelinedCommand(LOGIN,
+                CHAR_QUOTE + StringParser.addEscapedChars(username) + "\" \"" +
+                StringParser.addEscapedChars(password) + CHAR_QUOTE,
+                new ExecuteCallback() {
+            public void processResponse(byte[] rawLine) {
+                if(StringArrays.startsWith(rawLine, CAPABILITY_PREFIX_B)) {
+                    loginCapabilities = parseCapabilities(new String(rawLine,
+                            CAPABILITY_PREFIX_B.length, rawLine.length - CAPABILITY_PREFIX_B.length));
+                }
+                else {
+                    checkForUntaggedValue(rawLine);
+                }
+            }
+            public void executeComplete() { }
+        });
+    }
+    
+    /**
+     * Checks the tagged response to a completed login for a
+     * <code>CAPABILITY</code> response code, if the capabilities were
+     * not already provided in an untagged response.
+     */
+    private void checkLoginCapabilities(PipelinedCommand loginCommand) {
+        if(loginCapabilities != null || !loginCommand.isOk()) { return; }
+        
+        String result = new String(loginCommand.getResult());
+        int p = result.indexOf(CAPABILITY_CODE);
+        int q = (p != -1) ? result.indexOf(']', p) : -1;
+        if(q != -1) {
+            loginCapabilities = parseCapabilities(
+                    result.substring(p + CAPABILITY_CODE.length(), q));
+        }
+    }
+    
+    private static Hashtable parseCapabilities(String text) {
+        Hashtable table = new Hashtable();
+        String[] tokens = StringParser.parseTokenString(text, CHAR_SP);
+        for (int i = 0; i < tokens.length; i++) {
+            if(tokens[i].length() > 0) {
+                table.put(tokens[i], Boolean.TRUE);
+            }
+        }
+        return table;
+    }
+
     /**
      * Execute the "LOGOUT" command
      */
@@ -233,6 +325,64 @@ public class ImapProtocol {
         return true;
     }
     
+    /**
+     * Execute the "ENABLE" command, as defined in RFC 5161.
+     * @param capability the capability to enable
+     * @return true, if the server reported the capability as enabled
+     */
+    public boolean executeEnable(String capability) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeEnable(\"" + capability + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        String[] replyText = execute(ENABLE, capability, null);
+
+        for (int i = 0; i < replyText.length; i++) {
+            String[] tokens = StringParser.parseTokenString(replyText[i], CHAR_SP);
+
+            if ((tokens.length > 2) && tokens[1].equals(ENABLED)) {
+                for (int j = 2; j < tokens.length; j++) {
+                    if (tokens[j].equalsIgnoreCase(capability)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Execute the "NOTIFY SET" command, as defined in RFC 5465.
+     * Once this succeeds, changes to the mailboxes covered by the event
+     * groups are reported to the untagged response listener, including
+     * STATUS responses for mailboxes that are not selected.
+     *
+     * @param eventGroups the event groups to request notifications for
+     * @return true, if the server accepted the notification request
+     */
+    public boolean executeNotify(String eventGroups) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeNotify(\"" + eventGroups + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        String[] replyText;
+        try {
+            replyText = execute(NOTIFY, SET_ + eventGroups, null);
+        } catch (MailException e) {
+            return false;
+        }
+        
+        for (int i = 0; i < replyText.length; i++) {
+            checkForUntaggedValue(replyText[i].getBytes());
+        }
+        return true;
+    }
+
     /**
      * Execute the "NAMESPACE" command
      * @return A fully populated Namespace object
@@ -366,6 +516,69 @@ public class ImapProtocol {
         String[] replyText = execute(SELECT,
                 CHAR_QUOTE + StringParser.addEscapedChars(mboxpath) +
                 CHAR_QUOTE, null);
+        SelectResponse response = parseSelectResponse(replyText);
+
+        // Keep track of the selected mailbox for the few commands that
+        // can operate on any mailbox.
+        this.selectedMailbox = mboxpath;
+        
+        return response;
+    }
+
+    /**
+     * Execute the "LOGIN" command followed by the "SELECT" command, sending
+     * both commands before waiting for either response.  This allows a
+     * reconnect to return to a previously selected mailbox with only a
+     * single round trip to the server.
+     *
+     * @param username the username
+     * @param password the password
+     * @param mboxpath the path of the mailbox to select
+     * @return the select response, or <code>null</code> if the login failed
+     * @throws MailException if the login succeeded, but the select failed
+     */
+    public SelectResponse executeLoginSelect(String username, String password, String mboxpath)
+        throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeLoginSelect(\"****\", \"****\", \"" + mboxpath + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        this.selectedMailbox = "";
+        
+        final Vector selectLines = new Vector();
+        PipelinedCommand[] commands = new PipelinedCommand[] {
+            createLoginCommand(username, password),
+            new PipelinedCommand(SELECT,
+                    CHAR_QUOTE + StringParser.addEscapedChars(mboxpath) + CHAR_QUOTE,
+                    new ExecuteCallback() {
+                public void processResponse(byte[] rawLine) {
+                    selectLines.addElement(new String(rawLine));
+                }
+                public void executeComplete() { }
+            })
+        };
+        
+        try {
+            executePipeline(commands, null);
+        } catch (MailException e) {
+            if(!commands[0].isOk()) {
+                return null;
+            }
+            checkLoginCapabilities(commands[0]);
+            throw e;
+        }
+        checkLoginCapabilities(commands[0]);
+        
+        String[] replyText = new String[selectLines.size()];
+        selectLines.copyInto(replyText);
+        SelectResponse response = parseSelectResponse(replyText);
+        this.selectedMailbox = mboxpath;
+        return response;
+    }
+
+    private static SelectResponse parseSelectResponse(String[] replyText) {
         SelectResponse response = new SelectResponse();
 
         int p;
@@ -434,13 +647,20 @@ public class ImapProtocol {
                         response.uidNext = -1;
                     }
                 }
+            } else if ((p = rowText.indexOf(HIGHESTMODSEQ_)) != -1) {
+                p += 13;
+                q = rowText.indexOf(']');
+
+                if ((q != -1) && (p != -1) && (q > p)) {
+                    try {
+                        response.highestModSeq = Long.parseLong(rowText.substring(p +
+                                    1, q));
+                    } catch (NumberFormatException e) {
+                        response.highestModSeq = 0;
+                    }
+                }
             }
         }
-
-        // Keep track of the selected mailbox for the few commands that
-        // can operate on any mailbox.
-        this.selectedMailbox = mboxpath;
-        
         return response;
     }
 
@@ -481,69 +701,68 @@ public class ImapProtocol {
         }
 
         StatusResponse[] response = new StatusResponse[mboxpaths.length];
-        String[] result = new String[mboxpaths.length];
         
         int i;
-        for (i = 0; i < mboxpaths.length; i+=10) {
-            int increment = Math.min(10, mboxpaths.length - i);
-            String[] arguments = new String[increment];
-            for(int j=0; j<increment; j++) {
-                arguments[j] = CHAR_QUOTE
-                    + StringParser.addEscapedChars(mboxpaths[i + j])
-                    + "\" (MESSAGES RECENT UNSEEN)";
-            }
-            
-            String[] tempResult = executeBatch(STATUS, arguments, progressHandler);
-            if ((tempResult == null) || (tempResult.length != arguments.length)) {
-                throw new MailException("Unable to query folder status");
-            }
-            for(int j=0; j<increment; j++) {
-                result[i + j] = tempResult[j];
-            }
+        String[] arguments = new String[mboxpaths.length];
+        for (i = 0; i < mboxpaths.length; i++) {
+            arguments[i] = CHAR_QUOTE
+                + StringParser.addEscapedChars(mboxpaths[i])
+                + "\" (MESSAGES RECENT UNSEEN)";
+        }
+        
+        String[] result = executeBatch(STATUS, arguments, progressHandler);
+        if ((result == null) || (result.length != arguments.length)) {
+            throw new MailException("Unable to query folder status");
         }
 
         for (i = 0; i < result.length; i++) {
             response[i] = new StatusResponse();
 
-            if (result[i] == null) {
-                continue;
+            if (result[i] != null) {
+                parseStatusResponse(result[i], response[i]);
             }
+        }
 
-            int p = result[i].indexOf('(');
-            int q = result[i].indexOf(')');
+        return response;
+    }
 
-            if ((p == -1) || (q == -1) || (p >= q)) {
-                continue;
-            }
+    /**
+     * Parses the "(MESSAGES n RECENT n UNSEEN n)" portion of a STATUS
+     * response line.  Fields that are not present in the response are left
+     * unchanged.
+     *
+     * @param line the response line
+     * @param response the status response object to populate
+     */
+    private static void parseStatusResponse(String line, StatusResponse response) {
+        int p = line.lastIndexOf('(');
+        int q = line.lastIndexOf(')');
 
-            String[] fields = StringParser.parseTokenString(result[i].substring(p +
-                        1, q), CHAR_SP);
+        if ((p == -1) || (q == -1) || (p >= q)) {
+            return;
+        }
 
-            if (fields.length != 6) {
-                continue;
-            }
+        String[] fields = StringParser.parseTokenString(line.substring(p +
+                    1, q), CHAR_SP);
 
-            for (int j = 0; j < fields.length; j += 2) {
-                if (fields[j].equalsIgnoreCase(MESSAGES)) {
-                    try {
-                        response[i].exists = Integer.parseInt(fields[j + 1]);
-                    } catch (NumberFormatException e) {
-                    }
-                } else if (fields[j].equalsIgnoreCase(RECENT)) {
-                    try {
-                        response[i].recent = Integer.parseInt(fields[j + 1]);
-                    } catch (NumberFormatException e) {
-                    }
-                } else if (fields[j].equalsIgnoreCase(UNSEEN)) {
-                    try {
-                        response[i].unseen = Integer.parseInt(fields[j + 1]);
-                    } catch (NumberFormatException e) {
-                    }
+        for (int j = 0; j < fields.length - 1; j += 2) {
+            if (fields[j].equalsIgnoreCase(MESSAGES)) {
+                try {
+                    response.exists = Integer.parseInt(fields[j + 1]);
+                } catch (NumberFormatException e) {
+                }
+            } else if (fields[j].equalsIgnoreCase(RECENT)) {
+                try {
+                    response.recent = Integer.parseInt(fields[j + 1]);
+                } catch (NumberFormatException e) {
+                }
+            } else if (fields[j].equalsIgnoreCase(UNSEEN)) {
+                try {
+                    response.unseen = Integer.parseInt(fields[j + 1]);
+                } catch (NumberFormatException e) {
                 }
             }
         }
-
-        return response;
     }
 
     /**
@@ -634,17 +853,17 @@ public class ImapProtocol {
             return new FetchFlagsResponse[0];
         }
 
-        String uidList = getUidList(uids);
+        String[] uidSets = ImapParser.createSequenceSets(uids, MAX_SEQUENCE_SET_LENGTH);
         
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchFlagsUid(" + uidList + ")").getBytes(),
+                ("ImapProtocol.executeFetchFlagsUid(" + getSequenceSetList(uidSets) + ")").getBytes(),
                 EventLogger.DEBUG_INFO);
         }
 
         final Vector result = new Vector();
-        executeResponse(UID_FETCH,
-                uidList + " (FLAGS UID)",
+        executeSequenceSetResponse(UID_FETCH,
+                uidSets, "(FLAGS UID)",
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
                 FetchFlagsResponse response = prepareFetchFlagsResponse(rawLine);
@@ -663,122 +882,421 @@ public class ImapProtocol {
         return resultArray;
     }
 
-    private static String getUidList(int[] uids) {
-        StringBuffer buf = new StringBuffer();
-
-        for (int i = 0; i < (uids.length - 1); i++) {
-            buf.append(uids[i]);
-            buf.append(',');
-        }
-
-        buf.append(uids[uids.length - 1]);
-
-        return buf.toString();
-    }
-
-    private FetchFlagsResponse prepareFetchFlagsResponse(byte[] rawText) {
-        if(rawText == null || rawText.length == 0 || rawText[0] != CHAR_ASTERISK) {
-            return null;
+    /**
+     * Execute the "UID FETCH 1:* (FLAGS UID) (CHANGEDSINCE n VANISHED)"
+     * command, as defined in RFC 7162.  The QRESYNC extension must have been
+     * enabled prior to calling this method.
+     * @param modSeq the mod-sequence value that was last synchronized to
+     * @param progressHandler the progress handler
+     * @return the changed messages, and the UIDs of any expunged messages
+     */
+    public FetchChangesResponse executeFetchFlagsChangedSince(long modSeq,
+        MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeFetchFlagsChangedSince(" + modSeq + ")").getBytes(),
+                EventLogger.DEBUG_INFO);
         }
 
-        FetchFlagsResponse flagRespItem = new FetchFlagsResponse();
-        
-        try {
-            Vector parsedText = null;
-
-            try {
-                int offset = Arrays.getIndex(rawText, (byte)'(');
-                if(offset == -1) { return null; }
-                parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
-            } catch (Throwable exp) {
-                parsedText = null;
-                return null;
-            }
-
-            
-            flagRespItem.flags = null;
-
-            // Iterate through results, locating and parsing the
-            // FLAGS and ENVELOPE sections in an order-independent way.
-            int parsedSize = parsedText.size();
-
-            for (int j = 0; j < parsedSize; j++) {
-                if (parsedText.elementAt(j) instanceof String) {
-                    if (((String) parsedText.elementAt(j)).equals(FLAGS) &&
-                            (parsedSize > (j + 1)) &&
-                            parsedText.elementAt(j + 1) instanceof Vector) {
-                        flagRespItem.flags = ImapParser.parseMessageFlags((Vector) parsedText.elementAt(j +
-                                    1));
-                    } else if (((String) parsedText.elementAt(j)).equals(
-                                UID) && (parsedSize > (j + 1)) &&
-                            parsedText.elementAt(j + 1) instanceof String) {
-                        try {
-                            flagRespItem.uid = Integer.parseInt((String) parsedText.elementAt(j +
-                                        1));
-                        } catch (NumberFormatException e) {
-                            flagRespItem.uid = -1;
-                        }
+        final Vector result = new Vector();
+        final IntVector vanished = new IntVector();
+        executeResponse(UID_FETCH,
+                "1:* (FLAGS UID) (CHANGEDSINCE " + modSeq + " VANISHED)",
+                new ExecuteCallback() {
+            public void processResponse(byte[] rawLine) {
+                if(StringArrays.startsWith(rawLine, VANISHED_PREFIX)) {
+                    int[] uids = parseVanishedResponse(rawLine);
+                    for(int i=0; i<uids.length; i++) {
+                        vanished.addElement(uids[i]);
                     }
+                    return;
+                }
+                FetchFlagsResponse response = prepareFetchFlagsResponse(rawLine);
+                if(response != null) {
+                    result.addElement(response);
+                }
+                else {
+                    checkForUntaggedValue(rawLine);
                 }
             }
+            public void executeComplete() { }},
+            progressHandler);
 
-            if (flagRespItem.flags == null) {
-                flagRespItem.flags = new MessageFlags();
-            }
+        FetchChangesResponse response = new FetchChangesResponse();
+        response.changed = new FetchFlagsResponse[result.size()];
+        result.copyInto(response.changed);
+        response.vanished = vanished.toArray();
+        return response;
+    }
 
-            // Find the message index in the reply
-            int spaceIndex = Arrays.getIndex(rawText, (byte)' ');
-            int fetchIndex = StringArrays.indexOf(rawText, FETCH.getBytes(), spaceIndex);
-            int midx = StringArrays.parseInt(rawText, spaceIndex + 1, fetchIndex - spaceIndex - 2);
+    /**
+     * Parses the UID set out of a <tt>VANISHED</tt> response, with or
+     * without the <tt>(EARLIER)</tt> tag.
+     *
+     * @param rawLine the raw response line
+     * @return the UIDs of the expunged messages
+     */
+    private static int[] parseVanishedResponse(byte[] rawLine) {
+        int p = VANISHED_PREFIX.length;
+        if(rawLine.length >= p + EARLIER_B.length
+                && Arrays.equals(rawLine, p, EARLIER_B, 0, EARLIER_B.length)) {
+            p += EARLIER_B.length;
+        }
 
-            flagRespItem.index = midx;
-        } catch (Throwable exp) {
+        try {
+            return ImapParser.parseSequenceSet(new String(rawLine, p, rawLine.length - p).trim());
+        } catch (NumberFormatException e) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("Parse error: " + exp).getBytes(), EventLogger.ERROR);
-            AnalyticsDataCollector.getInstance().onApplicationError("Parse error: " + exp);
-            flagRespItem = null;
+                    ("Unable to parse VANISHED response: " + e.toString()).getBytes(),
+                    EventLogger.ERROR);
+            return new int[0];
         }
-
-        return flagRespItem;
     }
 
     /**
-     * Execute the "FETCH (FLAGS UID ENVELOPE BODYSTRUCTURE)" command
-     * @param firstIndex Index of the first message
-     * @param lastIndex Index of the last message
-     * @param callback Callback for asynchronous notification of new envelopes
+     * Execute the "UID SEARCH RETURN (MIN MAX COUNT ALL)" command, as
+     * defined in RFC 4731, to find the messages matching the provided
+     * search criteria.  The ESEARCH extension must be supported by the
+     * server, though a plain SEARCH response will also be accepted.
+     *
+     * @param criteria the search criteria, such as "UNSEEN NOT DELETED"
      * @param progressHandler the progress handler
+     * @return the search results
      */
-    public void executeFetchEnvelope(int firstIndex, int lastIndex,
-        final FetchEnvelopeCallback callback, MailProgressHandler progressHandler)
-        throws IOException, MailException {
+    public SearchResponse executeSearchUid(String criteria,
+        MailProgressHandler progressHandler) throws IOException, MailException {
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchEnvelope(" + firstIndex + ", " +
-                lastIndex + ")").getBytes(), EventLogger.DEBUG_INFO);
+                ("ImapProtocol.executeSearchUid(\"" + criteria + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
         }
 
-        executeResponse(FETCH,
-                Integer.toString(firstIndex) + CHAR_COLON +
-                Integer.toString(lastIndex) +
-                " (FLAGS UID ENVELOPE BODYSTRUCTURE)",
+        final SearchResponse response = new SearchResponse();
+        response.uids = new int[0];
+        executeResponse(UID_SEARCH,
+                "RETURN (MIN MAX COUNT ALL) " + criteria,
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
-                if(!prepareFetchEnvelopeResponse(rawLine, callback)) {
-                    checkForUntaggedValue(rawLine);
+                if(StringArrays.startsWith(rawLine, ESEARCH_PREFIX)) {
+                    parseSearchResponse(rawLine, ESEARCH_PREFIX.length, response);
                 }
-            }
-            public void executeComplete() {
-                if(callback != null) {
-                    callback.responseAvailable(null);
+                else if(StringArrays.startsWith(rawLine, SEARCH_PREFIX)) {
+                    parseSearchResponse(rawLine, SEARCH_PREFIX.length, response);
+                }
+                else {
+                    checkForUntaggedValue(rawLine);
                 }
             }
-        },
-        progressHandler);
+            public void executeComplete() { }},
+            progressHandler);
+
+        return response;
     }
 
     /**
-     * Execute the "UID FETCH (FLAGS UID ENVELOPE BODYSTRUCTURE)" command
+     * Execute the "UID SORT" command, as defined in RFC 5256, to get the
+     * UIDs of the messages matching the provided search criteria in the
+     * order determined by the server.  The SORT extension must be supported
+     * by the server.
+     *
+     * @param sortCriteria the sort criteria, such as "REVERSE DATE"
+     * @param searchCriteria the search criteria, such as "NOT DELETED"
+     * @param progressHandler the progress handler
+     * @return the UIDs of the matching messages, in sorted order
+     */
+    public int[] executeSortUid(String sortCriteria, String searchCriteria,
+        MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeSortUid(\"" + sortCriteria + "\", \""
+                        + searchCriteria + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        final IntVector result = new IntVector();
+        executeResponse(UID_SORT,
+                "(" + sortCriteria + ") " + CHARSET_UTF8 + " " + searchCriteria,
+                new ExecuteCallback() {
+            public void processResponse(byte[] rawLine) {
+                if(StringArrays.startsWith(rawLine, SORT_PREFIX)) {
+                    ImapTokenizer tokenizer = new ImapTokenizer(
+                            rawLine, SORT_PREFIX.length, rawLine.length - SORT_PREFIX.length);
+                    try {
+                        while(tokenizer.next() == ImapTokenizer.ATOM) {
+                            result.addElement(tokenizer.getInt());
+                        }
+                    } catch (NumberFormatException e) {
+                        EventLogger.logEvent(AppInfo.GUID,
+                                ("Unable to parse SORT response: " + e.toString()).getBytes(),
+                                EventLogger.ERROR);
+                    }
+                }
+                else {
+                    checkForUntaggedValue(rawLine);
+                }
+            }
+            public void executeComplete() { }},
+            progressHandler);
+
+        return result.toArray();
+    }
+
+    /**
+     * Execute the "UID THREAD" command, as defined in RFC 5256, to get the
+     * UIDs of the messages matching the provided search criteria grouped
+     * into conversation threads by the server.  The server must support the
+     * THREAD extension with the requested algorithm.
+     *
+     * @param algorithm the threading algorithm, such as "REFERENCES"
+     * @param searchCriteria the search criteria, such as "NOT DELETED"
+     * @param progressHandler the progress handler
+     * @return the threaded UIDs
+     */
+    public ThreadResponse executeThreadUid(String algorithm, String searchCriteria,
+        MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeThreadUid(\"" + algorithm + "\", \""
+                        + searchCriteria + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        final IntVector uids = new IntVector();
+        final IntVector depths = new IntVector();
+        executeResponse(UID_THREAD,
+                algorithm + " " + CHARSET_UTF8 + " " + searchCriteria,
+                new ExecuteCallback() {
+            public void processResponse(byte[] rawLine) {
+                if(StringArrays.startsWith(rawLine, THREAD_PREFIX)) {
+                    ImapTokenizer tokenizer = new ImapTokenizer(
+                            rawLine, THREAD_PREFIX.length, rawLine.length - THREAD_PREFIX.length);
+                    try {
+                        while(tokenizer.next() == ImapTokenizer.LIST_START) {
+                            parseThreadList(tokenizer, 0, uids, depths);
+                        }
+                    } catch (NumberFormatException e) {
+                        EventLogger.logEvent(AppInfo.GUID,
+                                ("Unable to parse THREAD response: " + e.toString()).getBytes(),
+                                EventLogger.ERROR);
+                    }
+                }
+                else {
+                    checkForUntaggedValue(rawLine);
+                }
+            }
+            public void executeComplete() { }},
+            progressHandler);
+
+        ThreadResponse response = new ThreadResponse();
+        response.uids = uids.toArray();
+        response.depths = depths.toArray();
+        return response;
+    }
+
+    /**
+     * Parses a parenthesized thread list, following its opening parenthesis.
+     * Each message in the list is a child of the one before it, and any
+     * nested lists are sibling branches below the last message.
+     *
+     * @param tokenizer the tokenizer, positioned at the start of the list
+     * @param depth the depth of the first message in the list
+     * @param uids the vector to add message UIDs to, in thread order
+     * @param depths the vector to add message depths to
+     */
+    private static void parseThreadList(ImapTokenizer tokenizer, int depth, IntVector uids, IntVector depths) {
+        int type;
+        while((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            if(type == ImapTokenizer.LIST_START) {
+                parseThreadList(tokenizer, depth, uids, depths);
+            }
+            else if(type == ImapTokenizer.ATOM) {
+                uids.addElement(tokenizer.getInt());
+                depths.addElement(depth);
+                depth++;
+            }
+        }
+    }
+
+    /**
+     * Parses an <tt>ESEARCH</tt> response, or the result list of a plain
+     * <tt>SEARCH</tt> response.
+     *
+     * @param rawLine the raw response line
+     * @param offset the offset of the data following the response name
+     * @param response the search response object to populate
+     */
+    private static void parseSearchResponse(byte[] rawLine, int offset, SearchResponse response) {
+        ImapTokenizer tokenizer = new ImapTokenizer(rawLine, offset, rawLine.length - offset);
+        IntVector uids = null;
+        try {
+            int type;
+            while((type = tokenizer.next()) != ImapTokenizer.END) {
+                if(type == ImapTokenizer.LIST_START) {
+                    // Skip the search correlator
+                    tokenizer.skipList();
+                }
+                else if(tokenizer.atomEquals(UID_B)) {
+                    continue;
+                }
+                else if(tokenizer.atomEquals(MIN_B)) {
+                    tokenizer.next();
+                    response.min = tokenizer.getInt();
+                }
+                else if(tokenizer.atomEquals(MAX_B)) {
+                    tokenizer.next();
+                    response.max = tokenizer.getInt();
+                }
+                else if(tokenizer.atomEquals(COUNT_B)) {
+                    tokenizer.next();
+                    response.count = tokenizer.getInt();
+                }
+                else if(tokenizer.atomEquals(ALL_B)) {
+                    tokenizer.next();
+                    response.uids = ImapParser.parseSequenceSet(tokenizer.getString());
+                }
+                else if(type == ImapTokenizer.ATOM) {
+                    // Plain SEARCH responses are just a list of numbers
+                    if(uids == null) { uids = new IntVector(); }
+                    uids.addElement(tokenizer.getInt());
+                }
+            }
+        } catch (NumberFormatException e) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("Unable to parse SEARCH response: " + e.toString()).getBytes(),
+                    EventLogger.ERROR);
+        }
+        
+        if(uids != null) {
+            response.uids = uids.toArray();
+            response.count = uids.size();
+            if(response.count > 0) {
+                response.min = uids.elementAt(0);
+                response.max = uids.elementAt(response.count - 1);
+            }
+        }
+    }
+
+    private static String getSequenceSetList(String[] sequenceSets) {
+        StringBuffer buf = new StringBuffer();
+
+        for (int i = 0; i < sequenceSets.length; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(sequenceSets[i]);
+        }
+
+        return buf.toString();
+    }
+
+    private FetchFlagsResponse prepareFetchFlagsResponse(byte[] rawText) {
+        if(rawText == null || rawText.length == 0 || rawText[0] != CHAR_ASTERISK) {
+            return null;
+        }
+
+        int offset = Arrays.getIndex(rawText, (byte)'(');
+        if(offset == -1) { return null; }
+        
+        FetchFlagsResponse flagRespItem = new FetchFlagsResponse();
+        
+        try {
+            flagRespItem.flags = null;
+            parseFetchFlagsItems(new ImapTokenizer(rawText, offset, rawText.length - offset), flagRespItem);
+
+            if (flagRespItem.flags == null) {
+                flagRespItem.flags = new MessageFlags();
+            }
+
+            // Find the message index in the reply
+            int spaceIndex = Arrays.getIndex(rawText, (byte)' ');
+            int fetchIndex = StringArrays.indexOf(rawText, FETCH.getBytes(), spaceIndex);
+            int midx = StringArrays.parseInt(rawText, spaceIndex + 1, fetchIndex - spaceIndex - 2);
+
+            flagRespItem.index = midx;
+        } catch (Throwable exp) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("Parse error: " + exp).getBytes(), EventLogger.ERROR);
+            AnalyticsDataCollector.getInstance().onApplicationError("Parse error: " + exp);
+            flagRespItem = null;
+        }
+
+        return flagRespItem;
+    }
+
+    /**
+     * Parses the FLAGS and UID data items out of a FETCH response, in an
+     * order-independent way, ignoring any other data items.
+     *
+     * @param tokenizer the tokenizer, positioned before the response's list
+     * @param response the response object to populate
+     */
+    private static void parseFetchFlagsItems(ImapTokenizer tokenizer, FetchFlagsResponse response) {
+        if(tokenizer.next() != ImapTokenizer.LIST_START) { return; }
+        
+        int type;
+        while((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                && type != ImapTokenizer.END) {
+            if(tokenizer.atomEquals(FLAGS_B)) {
+                if(tokenizer.next() == ImapTokenizer.LIST_START) {
+                    response.flags = ImapParser.parseMessageFlags(tokenizer);
+                }
+            }
+            else if(tokenizer.atomEquals(UID_B)) {
+                if(tokenizer.next() == ImapTokenizer.ATOM) {
+                    try {
+                        response.uid = tokenizer.getInt();
+                    } catch (NumberFormatException e) {
+                        response.uid = -1;
+                    }
+                }
+                else {
+                    tokenizer.skipValue();
+                }
+            }
+            else {
+                tokenizer.skipValue();
+            }
+        }
+    }
+
+    /**
+     * Execute the "FETCH (FLAGS UID ENVELOPE BODYSTRUCTURE)" command
+     * @param firstIndex Index of the first message
+     * @param lastIndex Index of the last message
+     * @param callback Callback for asynchronous notification of new envelopes
+     * @param progressHandler the progress handler
+     */
+    public void executeFetchEnvelope(int firstIndex, int lastIndex,
+        final FetchEnvelopeCallback callback, MailProgressHandler progressHandler)
+        throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeFetchEnvelope(" + firstIndex + ", " +
+                lastIndex + ")").getBytes(), EventLogger.DEBUG_INFO);
+        }
+
+        executeResponse(FETCH,
+                Integer.toString(firstIndex) + CHAR_COLON +
+                Integer.toString(lastIndex) +
+                " (FLAGS UID ENVELOPE BODYSTRUCTURE)",
+                new ExecuteCallback() {
+            public void processResponse(byte[] rawLine) {
+                if(!prepareFetchEnvelopeResponse(rawLine, callback)) {
+                    checkForUntaggedValue(rawLine);
+                }
+            }
+            public void executeComplete() {
+                if(callback != null) {
+                    callback.responseAvailable(null);
+                }
+            }
+        },
+        progressHandler);
+    }
+
+    /**
+     * Execute the "UID FETCH (FLAGS UID ENVELOPE BODYSTRUCTURE)" command
      * @param uidNext Unique ID of the next message
      * @param callback Callback for asynchronous notification of new envelopes
      * @param progressHandler the progress handler
@@ -825,16 +1343,16 @@ public class ImapProtocol {
             return;
         }
 
-        String indexList = getUidList(indices);
+        String[] indexSets = ImapParser.createSequenceSets(indices, MAX_SEQUENCE_SET_LENGTH);
 
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchEnvelopeUid(" + indexList + ")").getBytes(),
+                ("ImapProtocol.executeFetchEnvelope(" + getSequenceSetList(indexSets) + ")").getBytes(),
                 EventLogger.DEBUG_INFO);
         }
 
-        executeResponse(FETCH,
-                indexList + " (FLAGS UID ENVELOPE BODYSTRUCTURE)",
+        executeSequenceSetResponse(FETCH,
+                indexSets, "(FLAGS UID ENVELOPE BODYSTRUCTURE)",
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
                 if(!prepareFetchEnvelopeResponse(rawLine, callback)) {
@@ -865,16 +1383,16 @@ public class ImapProtocol {
             return;
         }
 
-        String uidList = getUidList(uids);
+        String[] uidSets = ImapParser.createSequenceSets(uids, MAX_SEQUENCE_SET_LENGTH);
 
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchEnvelopeUid(" + uidList + ")").getBytes(),
+                ("ImapProtocol.executeFetchEnvelopeUid(" + getSequenceSetList(uidSets) + ")").getBytes(),
                 EventLogger.DEBUG_INFO);
         }
 
-        executeResponse(UID_FETCH,
-                uidList + " (FLAGS UID ENVELOPE BODYSTRUCTURE)",
+        executeSequenceSetResponse(UID_FETCH,
+                uidSets, "(FLAGS UID ENVELOPE BODYSTRUCTURE)",
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
                 if(!prepareFetchEnvelopeResponse(rawLine, callback)) {
@@ -901,49 +1419,51 @@ public class ImapProtocol {
         try {
             MessageEnvelope env = null;
             ImapParser.MessageSection structure = null;
-            Vector parsedText = null;
 
-            try {
-                int offset = Arrays.getIndex(rawText, (byte)'(');
-                if(offset == -1) { return false; }
-                parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
-            } catch (Throwable exp) {
-                return false;
-            }
+            int offset = Arrays.getIndex(rawText, (byte)'(');
+            if(offset == -1) { return false; }
+            ImapTokenizer tokenizer = new ImapTokenizer(rawText, offset, rawText.length - offset);
+            if(tokenizer.next() != ImapTokenizer.LIST_START) { return false; }
 
             envRespItem = new FetchEnvelopeResponse();
             envRespItem.flags = null;
 
             // Iterate through results, locating and parsing the
             // FLAGS and ENVELOPE sections in an order-independent way.
-            int parsedSize = parsedText.size();
-
-            for (int j = 0; j < parsedSize; j++) {
-                if (FLAGS.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof Vector) {
-                    envRespItem.flags = ImapParser.parseMessageFlags((Vector) parsedText.elementAt(j + 1));
+            int type;
+            while((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                    && type != ImapTokenizer.END) {
+                if (tokenizer.atomEquals(FLAGS_B)) {
+                    if (tokenizer.next() == ImapTokenizer.LIST_START) {
+                        envRespItem.flags = ImapParser.parseMessageFlags(tokenizer);
+                    }
                 }
-                else if (UID.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof String) {
-                    try {
-                        envRespItem.uid = Integer.parseInt((String) parsedText.elementAt(j + 1));
-                    } catch (NumberFormatException e) {
-                        envRespItem.uid = -1;
+                else if (tokenizer.atomEquals(UID_B)) {
+                    if (tokenizer.next() == ImapTokenizer.ATOM) {
+                        try {
+                            envRespItem.uid = tokenizer.getInt();
+                        } catch (NumberFormatException e) {
+                            envRespItem.uid = -1;
+                        }
+                    }
+                    else {
+                        tokenizer.skipValue();
                     }
                 }
-                else if (ENVELOPE.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof Vector) {
-                    env = ImapParser.parseMessageEnvelope((Vector) parsedText.elementAt(j + 1));
-                    hasEnvelopeOrStructure = true;
+                else if (tokenizer.atomEquals(ENVELOPE_B)) {
+                    if (tokenizer.next() == ImapTokenizer.LIST_START) {
+                        env = ImapParser.parseMessageEnvelope(tokenizer);
+                        hasEnvelopeOrStructure = true;
+                    }
                 }
-                else if (BODYSTRUCTURE.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof Vector) {
-                    structure = ImapParser.parseMessageStructureParameter((Vector) parsedText.elementAt(j + 1));
-                    hasEnvelopeOrStructure = true;
+                else if (tokenizer.atomEquals(BODYSTRUCTURE_B)) {
+                    if (tokenizer.next() == ImapTokenizer.LIST_START) {
+                        structure = ImapParser.parseMessageStructure(tokenizer);
+                        hasEnvelopeOrStructure = true;
+                    }
+                }
+                else {
+                    tokenizer.skipValue();
                 }
             }
 
@@ -1056,6 +1576,227 @@ public class ImapProtocol {
         return buf.toArray();
     }
 
+    /**
+     * Execute the "FETCH (BODY)" command, writing the body section to the
+     * provided stream as it is received.
+     * <p>
+     * Unlike {@link #executeFetchBody(int, String, MailProgressHandler)},
+     * the body literal is passed directly from the connection to the stream,
+     * without first being collected into a response line and parsed.
+     * </p>
+     * 
+     * @param uid Unique ID of the message
+     * @param address Address of the body section (i.e. "1", "1.2")
+     * @param output the stream to write the body section to
+     * @param progressHandler the progress handler
+     * @return the number of bytes written to the stream
+     */
+    public int executeFetchBody(int uid, String address, OutputStream output, MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeFetchBody(" + uid + ", \"" + address +
+                "\", output)").getBytes(), EventLogger.DEBUG_INFO);
+        }
+
+        return fetchBody(uid, BODY, address, output, 0, progressHandler);
+    }
+
+    /**
+     * Execute the "FETCH (BODY)" command for several body sections of the
+     * same message at once, writing each section to its own stream as it is
+     * received.
+     * <p>
+     * All the sections are requested in a single command, using the expected
+     * size of each one to size its partial fetch, so that a message with
+     * several parts can usually be downloaded in a single round trip.  Any
+     * section that turns out to be larger than expected, or that the server
+     * does not return as a literal, is then completed with
+     * {@link #executeFetchBody(int, String, OutputStream, MailProgressHandler)}.
+     * </p>
+     * 
+     * @param uid Unique ID of the message
+     * @param addresses Addresses of the body sections (i.e. "1", "1.2")
+     * @param sizes the expected size of each body section, or 0 if unknown
+     * @param outputs the streams to write the body sections to
+     * @param progressHandler the progress handler
+     * @return the number of bytes written to each stream
+     */
+    public int[] executeFetchBodies(int uid, String[] addresses, int[] sizes, OutputStream[] outputs, MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeFetchBodies(" + uid + ", "
+                        + addresses.length + " sections)").getBytes(), EventLogger.DEBUG_INFO);
+        }
+
+        return fetchSections(uid, BODY, addresses, sizes, outputs, progressHandler);
+    }
+
+    /**
+     * Execute the "FETCH (BINARY)" command, as defined in RFC 3516, for
+     * several body sections of the same message at once.  The server removes
+     * any content transfer encoding from the sections, so the data written to
+     * each stream is already decoded.
+     * <p>
+     * This works the same way as
+     * {@link #executeFetchBodies(int, String[], int[], OutputStream[], MailProgressHandler)},
+     * and the same encoded section sizes should be provided, since a decoded
+     * section is never larger than its encoded form.  The BINARY extension
+     * must be supported by the server, and a server that cannot decode a
+     * section will fail the whole command.
+     * </p>
+     * 
+     * @param uid Unique ID of the message
+     * @param addresses Addresses of the body sections (i.e. "1", "1.2")
+     * @param sizes the encoded size of each body section, or 0 if unknown
+     * @param outputs the streams to write the decoded body sections to
+     * @param progressHandler the progress handler
+     * @return the number of bytes written to each stream
+     */
+    public int[] executeFetchBinaries(int uid, String[] addresses, int[] sizes, OutputStream[] outputs, MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeFetchBinaries(" + uid + ", "
+                        + addresses.length + " sections)").getBytes(), EventLogger.DEBUG_INFO);
+        }
+
+        return fetchSections(uid, BINARY, addresses, sizes, outputs, progressHandler);
+    }
+
+    private int[] fetchSections(int uid, String item, String[] addresses, int[] sizes, OutputStream[] outputs, MailProgressHandler progressHandler) throws IOException, MailException {
+        int[] fetched = new int[addresses.length];
+        if(addresses.length == 0) { return fetched; }
+        
+        // Request one byte more than the expected size of each section,
+        // so a section that was completely received can be told apart from
+        // one that needs to be continued.
+        int[] increments = new int[addresses.length];
+        StringBuffer buf = new StringBuffer();
+        buf.append(uid);
+        buf.append(" (");
+        for(int i=0; i<addresses.length; i++) {
+            increments[i] = (sizes[i] > 0) ? (sizes[i] + 1) : getFetchIncrement(-1, -1L);
+            fetched[i] = -1;
+            if(i > 0) { buf.append(CHAR_SP); }
+            buf.append(item);
+            buf.append('[');
+            buf.append(addresses[i]);
+            buf.append("]<0.");
+            buf.append(increments[i]);
+            buf.append('>');
+        }
+        buf.append(')');
+        
+        String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
+        
+        watchdog.start();
+        connection.sendCommand(tag + UID_FETCH + CHAR_SP + buf.toString());
+        watchdog.kick();
+
+        byte[] tagBytes = tag.getBytes();
+        boolean inFetchResponse = false;
+        
+        int preCount = connection.getBytesReceived();
+        byte[] temp = connection.receive(literalResponseTester);
+        watchdog.kick();
+        int postCount = connection.getBytesReceived();
+
+        if (progressHandler != null) {
+            progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
+                (postCount - preCount), -1);
+        }
+
+        while (!StringArrays.startsWith(temp, tagBytes)) {
+            int literalLength = literalResponseTester.literalLength();
+            if(literalLength >= 0) {
+                // Stream each body literal to the output for its section,
+                // and discard any other literal.
+                int index = -1;
+                String address = getBodyLiteralAddress(temp);
+                for(int i=0; address != null && i<addresses.length; i++) {
+                    if(fetched[i] == -1 && addresses[i].equals(address)) {
+                        index = i;
+                        break;
+                    }
+                }
+                
+                if(index != -1) {
+                    receiveLiteral(outputs[index], literalLength, progressHandler);
+                    fetched[index] = literalLength;
+                }
+                else {
+                    receiveLiteral(DISCARD_STREAM, literalLength, progressHandler);
+                }
+                inFetchResponse = true;
+            }
+            else if(inFetchResponse) {
+                // The text following the last literal completes the FETCH
+                // response that contained it.
+                inFetchResponse = false;
+            }
+            else {
+                checkForUntaggedValue(temp);
+            }
+            
+            preCount = connection.getBytesReceived();
+            temp = connection.receive(literalResponseTester);
+            watchdog.kick();
+            postCount = connection.getBytesReceived();
+
+            if (progressHandler != null) {
+                progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
+                    (postCount - preCount), -1);
+            }
+        }
+
+        watchdog.cancel();
+        
+        if(Arrays.equals(temp, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
+                || Arrays.equals(temp, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length)) {
+            throw new MailException(new String(temp));
+        }
+        
+        // Complete any sections that were not fully received
+        for(int i=0; i<addresses.length; i++) {
+            if(fetched[i] == -1) {
+                fetched[i] = fetchBody(uid, item, addresses[i], outputs[i], 0, progressHandler);
+            }
+            else if(fetched[i] == increments[i]) {
+                fetched[i] = fetchBody(uid, item, addresses[i], outputs[i], fetched[i], progressHandler);
+            }
+        }
+        
+        return fetched;
+    }
+
+    /**
+     * Fetches a body section in increments, starting from the provided
+     * offset, until all of it has been written to the output stream.
+     *
+     * @return the total number of bytes of the section that have been
+     *   received, including those prior to the starting offset
+     */
+    private int fetchBody(int uid, String item, String address, OutputStream output, int fetchOffset, MailProgressHandler progressHandler) throws IOException, MailException {
+        int previousIncrement = -1;
+        long previousTime = -1L;
+        while(true) {
+            int fetchIncrement = getFetchIncrement(previousIncrement, previousTime);
+            long time1 = System.currentTimeMillis();
+            int fetched = fetchBodyIncrement(output, uid, item, address, fetchOffset, fetchIncrement, progressHandler);
+            long time2 = System.currentTimeMillis();
+            previousTime = Math.abs(time2 - time1);
+            previousIncrement = fetchIncrement;
+            
+            if(fetched > 0) {
+                fetchOffset += fetched;
+            }
+            if(fetched < fetchIncrement) {
+                break;
+            }
+        }
+        
+        return fetchOffset;
+    }
+
     /**
      * Gets the fetch increment for the next message body fetch operation.
      * The initial value is based on the network transport type.  With each
@@ -1114,48 +1855,231 @@ public class ImapProtocol {
         if (rawList.length < 1) {
             return -1;
         }
-
-        byte[] rawMessage = null;
+
+        byte[] rawMessage = null;
+        
+        for(int i=0; i<rawList.length; i++) {
+            if(rawMessage == null) {
+                // If we don't yet have the raw message body, try to find it in
+                // the current response line
+                rawMessage = getBodyFromResponse(rawList[i]);
+                
+                // If it wasn't in the current response line, then check for
+                // an untagged response instead
+                if(rawMessage == null) {
+                    checkForUntaggedValue(rawList[i]);
+                }
+            }
+            else {
+                // If we already have the expected raw message body, then just
+                // check for an untagged response
+                checkForUntaggedValue(rawList[i]);
+            }
+        }
+
+        if(rawMessage != null && rawMessage.length > 0) {
+            buf.write(rawMessage, 0, rawMessage.length);
+            return rawMessage.length;
+        }
+        else {
+            return 0;
+        }
+    }
+
+    private int fetchBodyIncrement(OutputStream output, int uid, String item, String address, int fetchOffset, int fetchIncrement, MailProgressHandler progressHandler) throws IOException, MailException {
+        String args = MessageFormat.format(
+                "{0} ({1}[{2}]<{3}.{4}>)",
+                new Object[] {
+                        Integer.toString(uid),
+                        item,
+                        address,
+                        Integer.toString(fetchOffset),
+                        Integer.toString(fetchIncrement)
+                });
+        
+        String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
+        
+        watchdog.start();
+        connection.sendCommand(tag + UID_FETCH + CHAR_SP + args);
+        watchdog.kick();
+
+        byte[] tagBytes = tag.getBytes();
+        int fetched = -1;
+        boolean inBodyResponse = false;
+
+        int preCount = connection.getBytesReceived();
+        byte[] temp = connection.receive(literalResponseTester);
+        watchdog.kick();
+        int postCount = connection.getBytesReceived();
+
+        if (progressHandler != null) {
+            progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
+                (postCount - preCount), -1);
+        }
+
+        while (!StringArrays.startsWith(temp, tagBytes)) {
+            int literalLength = literalResponseTester.literalLength();
+            if(literalLength >= 0) {
+                if(fetched == -1 && isBodyLiteralResponse(temp)) {
+                    // Stream the body literal straight to the output, with
+                    // the remainder of this FETCH response to follow it.
+                    receiveLiteral(output, literalLength, progressHandler);
+                    fetched = literalLength;
+                    inBodyResponse = true;
+                }
+                else {
+                    // Any other literal is of no interest here, so it is
+                    // simply read and discarded.
+                    receiveLiteral(DISCARD_STREAM, literalLength, progressHandler);
+                }
+            }
+            else if(inBodyResponse) {
+                // The text following the body literal completes the FETCH
+                // response that contained it.
+                inBodyResponse = false;
+            }
+            else if(fetched == -1) {
+                // If the body was not sent as a literal, it may still have
+                // been sent as a quoted string.
+                byte[] rawMessage = getBodyFromResponse(temp);
+                if(rawMessage != null) {
+                    output.write(rawMessage, 0, rawMessage.length);
+                    fetched = rawMessage.length;
+                }
+                else {
+                    checkForUntaggedValue(temp);
+                }
+            }
+            else {
+                checkForUntaggedValue(temp);
+            }
+            
+            preCount = connection.getBytesReceived();
+            temp = connection.receive(literalResponseTester);
+            watchdog.kick();
+            postCount = connection.getBytesReceived();
+
+            if (progressHandler != null) {
+                progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
+                    (postCount - preCount), -1);
+            }
+        }
+
+        watchdog.cancel();
+        
+        if(Arrays.equals(temp, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
+                || Arrays.equals(temp, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length)) {
+            throw new MailException(new String(temp));
+        }
+        
+        return Math.max(fetched, 0);
+    }
+
+    /**
+     * Receives a literal from the connection, writing it to the provided
+     * stream in chunks so that the watchdog and progress handler are updated
+     * while a large literal is being read.
+     */
+    private void receiveLiteral(OutputStream output, int length, MailProgressHandler progressHandler) throws IOException {
+        int remaining = length;
+        while(remaining > 0) {
+            int count = Math.min(remaining, LITERAL_CHUNK_SIZE);
+            int preCount = connection.getBytesReceived();
+            connection.receiveRaw(output, count);
+            watchdog.kick();
+            int postCount = connection.getBytesReceived();
+            
+            if (progressHandler != null) {
+                progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
+                    (postCount - preCount), -1);
+            }
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Checks whether a response line, ending in a literal size marker, is
+     * the start of a FETCH response whose literal is a body section.
+     */
+    private static boolean isBodyLiteralResponse(byte[] rawLine) {
+        return getBodyLiteralAddress(rawLine) != null;
+    }
+    
+    /**
+     * Gets the address of the body section whose literal follows a response
+     * line ending in a literal size marker.
+     *
+     * @param rawLine the response line
+     * @return the body section address, such as "1.2", or null if the
+     *   literal is not a body section
+     */
+    private static String getBodyLiteralAddress(byte[] rawLine) {
+        // Find the start of the literal size marker
+        int p = rawLine.length - 1;
+        while(p >= 0 && rawLine[p] != (byte)'{') { p--; }
+        
+        // Skip back over the binary literal marker, if present, and the
+        // preceding space to the start of the data item name
+        p--;
+        if(p >= 0 && rawLine[p] == (byte)'~') { p--; }
+        if(p < 0 || rawLine[p] != (byte)' ') { return null; }
+        int end = p;
+        while(p > 0 && rawLine[p - 1] != (byte)' ' && rawLine[p - 1] != (byte)'(') { p--; }
+        
+        int itemLength;
+        if((end - p) > BODY_B.length
+                && Arrays.equals(rawLine, p, BODY_B, 0, BODY_B.length)
+                && rawLine[p + BODY_B.length] == (byte)'[') {
+            itemLength = BODY_B.length;
+        }
+        else if((end - p) > BINARY_B.length
+                && Arrays.equals(rawLine, p, BINARY_B, 0, BINARY_B.length)
+                && rawLine[p + BINARY_B.length] == (byte)'[') {
+            itemLength = BINARY_B.length;
+        }
+        else {
+            return null;
+        }
         
-        for(int i=0; i<rawList.length; i++) {
-            if(rawMessage == null) {
-                // If we don't yet have the raw message body, try to find it in
-                // the current response line
-                int offset = Arrays.getIndex(rawList[i], (byte)'(');
-                if(offset != -1) {
-                    Vector parsedList = ImapParser.parenListParser(rawList[i], offset, rawList[i].length - offset);
-                    int size = parsedList.size();
-
-                    for(int j=0; j<(size - 1); j++) {
-                        Object element = parsedList.elementAt(j);
-                        if(element instanceof String
-                                && ((String)element).startsWith(BODY)
-                                && parsedList.elementAt(j + 1) instanceof byte[]) {
-                            rawMessage = (byte[])parsedList.elementAt(j + 1);
-                        }
+        // The address is everything within the brackets
+        int start = p + itemLength + 1;
+        int q = start;
+        while(q < end && rawLine[q] != (byte)']') { q++; }
+        if(q == end) { return null; }
+        
+        return new String(rawLine, start, q - start);
+    }
+    
+    /**
+     * Parses a FETCH response line for the contents of a body section.
+     *
+     * @param rawLine the response line
+     * @return the body section contents, or null if none were found
+     */
+    private static byte[] getBodyFromResponse(byte[] rawLine) {
+        byte[] rawMessage = null;
+        int offset = Arrays.getIndex(rawLine, (byte)'(');
+        if(offset != -1) {
+            ImapTokenizer tokenizer = new ImapTokenizer(rawLine, offset, rawLine.length - offset);
+            if(tokenizer.next() != ImapTokenizer.LIST_START) { return null; }
+            
+            int type;
+            while((type = tokenizer.next()) != ImapTokenizer.LIST_END
+                    && type != ImapTokenizer.END) {
+                if(tokenizer.atomStartsWith(BODY_B) || tokenizer.atomStartsWith(BINARY_B)) {
+                    if(tokenizer.next() == ImapTokenizer.STRING) {
+                        rawMessage = tokenizer.getBytes();
+                    }
+                    else {
+                        tokenizer.skipValue();
                     }
                 }
-                
-                // If it wasn't in the current response line, then check for
-                // an untagged response instead
-                if(rawMessage == null) {
-                    checkForUntaggedValue(rawList[i]);
+                else {
+                    tokenizer.skipValue();
                 }
             }
-            else {
-                // If we already have the expected raw message body, then just
-                // check for an untagged response
-                checkForUntaggedValue(rawList[i]);
-            }
-        }
-
-        if(rawMessage != null && rawMessage.length > 0) {
-            buf.write(rawMessage, 0, rawMessage.length);
-            return rawMessage.length;
-        }
-        else {
-            return 0;
         }
+        return rawMessage;
     }
     
     /**
@@ -1187,7 +2111,7 @@ public class ImapProtocol {
             EventLogger.logEvent(AppInfo.GUID, buf.toString().getBytes(), EventLogger.DEBUG_INFO);
         }
 
-        executeStoreImpl(Integer.toString(uid), addOrRemove, flags);
+        executeStoreImpl(new String[] { Integer.toString(uid) }, addOrRemove, flags);
     }
 
     /**
@@ -1201,13 +2125,13 @@ public class ImapProtocol {
     public void executeStore(int[] uids, boolean addOrRemove, String[] flags) throws IOException, MailException {
         if(uids.length == 0) { return; }
         
-        String uidList = getUidList(uids);
+        String[] uidSets = ImapParser.createSequenceSets(uids, MAX_SEQUENCE_SET_LENGTH);
         
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             StringBuffer buf = new StringBuffer();
             buf.append("ImapProtocol.executeStore(");
             buf.append('{');
-            buf.append(uidList);
+            buf.append(getSequenceSetList(uidSets));
             buf.append("}, ");
             buf.append(addOrRemove ? "add" : "remove");
             buf.append(", {");
@@ -1224,13 +2148,41 @@ public class ImapProtocol {
             EventLogger.logEvent(AppInfo.GUID, buf.toString().getBytes(), EventLogger.DEBUG_INFO);
         }
 
-        executeStoreImpl(uidList, addOrRemove, flags);
+        executeStoreImpl(uidSets, addOrRemove, flags);
     }
 
-    private void executeStoreImpl(String uidParam, boolean addOrRemove, String[] flags) throws IOException, MailException {
+    private void executeStoreImpl(String[] uidSets, boolean addOrRemove, String[] flags) throws IOException, MailException {
+        executeSequenceSetResponse(UID_STORE, uidSets,
+                createStoreArguments(addOrRemove, flags),
+                untaggedValueCallback, null);
+    }
+    
+    /**
+     * Creates the "STORE" commands to update message flags, so they can be
+     * executed as part of a pipeline.  A separate command is created for each
+     * sequence set needed to describe the messages.
+     * Updated flags will be returned through the untagged response listener.
+     * 
+     * @param uids The message unique IDs to modify.
+     * @param addOrRemove True to add flags, false to remove them.
+     * @param flags Array of flags to change.  (i.e. "\Seen", "\Answered")
+     * @return the commands to execute
+     * @see #executePipeline(PipelinedCommand[], MailProgressHandler)
+     */
+    protected PipelinedCommand[] createStoreCommands(int[] uids, boolean addOrRemove, String[] flags) {
+        String[] uidSets = ImapParser.createSequenceSets(uids, MAX_SEQUENCE_SET_LENGTH);
+        String arguments = createStoreArguments(addOrRemove, flags);
+        
+        PipelinedCommand[] commands = new PipelinedCommand[uidSets.length];
+        for (int i = 0; i < uidSets.length; i++) {
+            commands[i] = new PipelinedCommand(UID_STORE,
+                    uidSets[i] + CHAR_SP + arguments, untaggedValueCallback);
+        }
+        return commands;
+    }
+    
+    private static String createStoreArguments(boolean addOrRemove, String[] flags) {
         StringBuffer buf = new StringBuffer();
-        buf.append(uidParam);
-        buf.append(' ');
         buf.append(addOrRemove ? '+' : '-');
         buf.append("FLAGS (");
 
@@ -1243,16 +2195,7 @@ public class ImapProtocol {
         }
 
         buf.append(')');
-        
-        byte[][] rawList = executeResponse(UID_STORE, buf.toString(), null);
-
-        if (rawList.length < 1) {
-            return;
-        }
-        
-        for(int i=0; i<rawList.length; i++) {
-            checkForUntaggedValue(rawList[i]);
-        }
+        return buf.toString();
     }
 
     /**
@@ -1304,6 +2247,21 @@ public class ImapProtocol {
             uid + " \"" + StringParser.addEscapedChars(mboxPath) + CHAR_QUOTE,
             null);
     }
+    
+    /**
+     * Creates a "COPY" command to copy a message from the current mailbox
+     * to a different mailbox, so it can be executed as part of a pipeline.
+     *
+     * @param uid The IMAP unique ID of the message to copy.
+     * @param mboxPath The path of the destination mailbox
+     * @return the command to execute
+     * @see #executePipeline(PipelinedCommand[], MailProgressHandler)
+     */
+    protected PipelinedCommand createCopyCommand(int uid, String mboxPath) {
+        return new PipelinedCommand(UID_COPY,
+                uid + " \"" + StringParser.addEscapedChars(mboxPath) + CHAR_QUOTE,
+                untaggedValueCallback);
+    }
 
     /**
      * Execute the "LIST" command, and return a fully parsed response.
@@ -1337,6 +2295,52 @@ public class ImapProtocol {
         return executeListImpl(LSUB, refName, mboxName, progressHandler);
     }
 
+    /**
+     * Execute the extended "LIST" command, as defined by RFC 5258, with
+     * return options requesting subscription and child information for every
+     * mailbox.  If requested, the status of every mailbox is also returned,
+     * as defined by RFC 5819.
+     * <p>
+     * This allows a complete folder listing to be obtained with a single
+     * request, instead of requiring separate LIST, LSUB, and STATUS commands.
+     * </p>
+     *
+     * @param refName Reference name
+     * @param mboxName Mailbox name or wildcards (i.e. "*")
+     * @param returnStatus true to include the status of each mailbox, which
+     *   requires the LIST-STATUS capability
+     * @param progressHandler the progress handler
+     * @return Vector of ListResponse objects
+     */
+    public Vector executeListExtended(String refName, String mboxName,
+        boolean returnStatus, MailProgressHandler progressHandler)
+        throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeListExtended(\"" + refName + "\", \"" + mboxName +
+                "\", " + returnStatus + ")").getBytes(), EventLogger.DEBUG_INFO);
+        }
+
+        String[] results;
+        results = execute(LIST,
+                CHAR_QUOTE + StringParser.addEscapedChars(refName) + "\" \"" +
+                StringParser.addEscapedChars(mboxName) + CHAR_QUOTE
+                + (returnStatus ? LIST_RETURN_STATUS : LIST_RETURN),
+                progressHandler);
+
+        Hashtable statusMap = returnStatus ? new Hashtable() : null;
+        Vector retVec = parseListResponses(results, refName, statusMap, progressHandler);
+        
+        if(statusMap != null) {
+            int size = retVec.size();
+            for(int i=0; i<size; i++) {
+                ListResponse response = (ListResponse)retVec.elementAt(i);
+                response.status = (StatusResponse)statusMap.get(response.name);
+            }
+        }
+        return retVec;
+    }
+    
     private Vector executeListImpl(String ListVerb, String refName,
         String mboxName, MailProgressHandler progressHandler)
         throws IOException, MailException {
@@ -1352,6 +2356,21 @@ public class ImapProtocol {
                 StringParser.addEscapedChars(mboxName) + CHAR_QUOTE,
                 progressHandler);
 
+        return parseListResponses(results, refName, null, progressHandler);
+    }
+
+    /**
+     * Parses the results of a LIST or LSUB command.
+     *
+     * @param results the response lines
+     * @param refName the reference name used in the request
+     * @param statusMap if not null, any STATUS responses mixed into the
+     *   results are parsed and stored in this map, keyed by mailbox name
+     * @param progressHandler the progress handler
+     * @return Vector of ListResponse objects
+     */
+    private static Vector parseListResponses(String[] results, String refName,
+            Hashtable statusMap, MailProgressHandler progressHandler) {
         Vector retVec = new Vector(results.length);
         ListResponse response;
         String temp;
@@ -1404,6 +2423,12 @@ public class ImapProtocol {
             flagStr = null;
             argStr = null;
             temp = (String) resultsVec.elementAt(i);
+            
+            if (statusMap != null && temp.startsWith(STATUS_RESPONSE_PREFIX)) {
+                parseListStatusResponse(temp, statusMap);
+                continue;
+            }
+            
             p = temp.indexOf('(');
             q = temp.indexOf(')', p + 1);
 
@@ -1429,6 +2454,10 @@ public class ImapProtocol {
             response.hasChildren = (flagStr.indexOf(FLAG_HAS_CHILDREN) != -1);
             response.noInferiors = (flagStr.indexOf(FLAG_NOINFERIORS) != -1);
             response.marked = (flagStr.indexOf(FLAG_MARKED) != -1);
+            response.subscribed = (flagStr.indexOf(FLAG_SUBSCRIBED) != -1);
+            if (flagStr.indexOf(FLAG_NONEXISTENT) != -1) {
+                response.canSelect = false;
+            }
 
             try {
                 p = 0;
@@ -1507,6 +2536,48 @@ public class ImapProtocol {
         return retVec;
     }
 
+    /**
+     * Parses an untagged STATUS response returned as part of an extended
+     * LIST command.
+     *
+     * @param line the response line
+     * @param statusMap the map to store the result in, keyed by mailbox name
+     */
+    private static void parseListStatusResponse(String line, Hashtable statusMap) {
+        try {
+            String argStr = line.substring(STATUS_RESPONSE_PREFIX.length());
+            String name = parseStatusMailboxName(argStr);
+            
+            StatusResponse response = new StatusResponse();
+            parseStatusResponse(argStr, response);
+            statusMap.put(name, response);
+        } catch (Throwable e) {
+            // Prevent parse errors from being fatal
+        }
+    }
+
+    /**
+     * Parses the mailbox name from the start of the arguments to an untagged
+     * STATUS response.
+     *
+     * @param argStr the response line, following the "* STATUS " prefix
+     * @return the mailbox name
+     */
+    private static String parseStatusMailboxName(String argStr) {
+        String name;
+        if (argStr.charAt(0) == '"') {
+            int q = 1;
+            while (q < argStr.length() && argStr.charAt(q) != '"') {
+                if (argStr.charAt(q) == '\\') { q++; }
+                q++;
+            }
+            name = StringParser.removeEscapedChars(argStr.substring(1, q));
+        } else {
+            name = argStr.substring(0, argStr.indexOf(' '));
+        }
+        return name;
+    }
+
     /**
      * Execute the "NOOP" command.
      * This command does not return anything directly, but the untagged
@@ -1660,25 +2731,7 @@ public class ImapProtocol {
                     fetchResponse.uid = -1;
                     try {
                         int offset = Arrays.getIndex(response, (byte)'(');
-                        Vector parsedText = ImapParser.parenListParser(response, offset, response.length - offset);
-                        int parsedSize = parsedText.size();
-                        for (int i = 0; i < parsedSize; i++) {
-                            if(!(parsedText.elementAt(i) instanceof String)) { continue; }
-                            String element = (String)parsedText.elementAt(i);
-                            if(element.equals(FLAGS)
-                                    && (parsedSize > (i + 1))
-                                    && parsedText.elementAt(i + 1) instanceof Vector) {
-                                fetchResponse.flags =
-                                    ImapParser.parseMessageFlags((Vector)parsedText.elementAt(i + 1));
-                            }
-                            else if(element.equals(UID)
-                                    && (parsedSize > (i + 1))
-                                    && parsedText.elementAt(i + 1) instanceof String) {
-                                try {
-                                    fetchResponse.uid = Integer.parseInt((String)parsedText.elementAt(i + 1));
-                                } catch (NumberFormatException e) { }
-                            }
-                        }
+                        parseFetchFlagsItems(new ImapTokenizer(response, offset, response.length - offset), fetchResponse);
                     } catch (Throwable exp) {
                         EventLogger.logEvent(AppInfo.GUID,
                                 ("Error parsing untagged FETCH: " + exp.toString()).getBytes(),
@@ -1699,6 +2752,49 @@ public class ImapProtocol {
                             EventLogger.DEBUG_INFO);
                 }
             }
+            else if(StringArrays.startsWith(response, STATUS_PREFIX_B)) {
+                // Sent for mailboxes other than the selected one, once
+                // NOTIFY has been enabled
+                String line = new String(response);
+                StatusResponse status = new StatusResponse();
+                status.exists = -1;
+                status.unseen = -1;
+                status.recent = -1;
+                String name = null;
+                try {
+                    String argStr = line.substring(STATUS_RESPONSE_PREFIX.length());
+                    name = parseStatusMailboxName(argStr);
+                    parseStatusResponse(argStr, status);
+                } catch (Throwable exp) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Error parsing untagged STATUS: " + exp.toString()).getBytes(),
+                            EventLogger.ERROR);
+                }
+                if(name != null && untaggedResponseListener != null) {
+                    untaggedResponseListener.statusResponse(name, status);
+                }
+                result = true;
+
+                if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Untagged: " + line.substring(2)).getBytes(),
+                            EventLogger.DEBUG_INFO);
+                }
+            }
+            else if(StringArrays.startsWith(response, VANISHED_PREFIX)) {
+                // Sent in place of EXPUNGE once QRESYNC has been enabled
+                int[] uids = parseVanishedResponse(response);
+                if(uids.length > 0 && untaggedResponseListener != null) {
+                    untaggedResponseListener.vanishedResponse(uids);
+                }
+                result = true;
+
+                if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Untagged: " + (new String(response, 2, response.length - 2))).getBytes(),
+                            EventLogger.DEBUG_INFO);
+                }
+            }
         }
         return result;
     }
@@ -1744,83 +2840,222 @@ public class ImapProtocol {
     /**
      * Executes an IMAP command several times, with different arguments,
      * and return the replies as an array of strings.
+     * The commands are pipelined, using
+     * {@link #executePipeline(PipelinedCommand[], MailProgressHandler)}.
      * @param command IMAP command
      * @param arguments Arguments for the commands
      * @param progressHandler the progress handler
-     * @return List of returned strings
+     * @return List of returned strings, containing the last untagged
+     *     response to each command
      */
     protected String[] executeBatch(String command, String[] arguments,
         MailProgressHandler progressHandler) throws IOException, MailException {
-        String[] result = new String[arguments.length];
-        int count = 0;
-
-        IntIntHashtable commandMap = new IntIntHashtable();
-        StringBuffer commandBuf = new StringBuffer();
+        final String[] result = new String[arguments.length];
+        PipelinedCommand[] commands = new PipelinedCommand[arguments.length];
+        
+        // STATUS responses are normally unsolicited, but not here
+        final boolean statusCommand = command.equals(STATUS);
 
         for (int i = 0; i < arguments.length; i++) {
-            String tag = TAG_PREFIX + (commandCount++);
-            commandMap.put(StringArrays.hashCode(tag.getBytes()), i);
-            commandBuf.append(tag);
-            commandBuf.append(' ');
-            commandBuf.append(command);
-            commandBuf.append(
-                    ((arguments[i] == null) ? "" : (CHAR_SP + arguments[i])));
-            commandBuf.append(CRLF);
+            final int index = i;
+            commands[i] = new PipelinedCommand(command, arguments[i], new ExecuteCallback() {
+                public void processResponse(byte[] rawLine) {
+                    if((statusCommand && StringArrays.startsWith(rawLine, STATUS_PREFIX_B))
+                            || !checkForUntaggedValue(rawLine)) {
+                        result[index] = new String(rawLine);
+                    }
+                }
+                public void executeComplete() { }
+            });
+        }
+        
+        executePipeline(commands, progressHandler);
+        
+        for (int i = 0; i < result.length; i++) {
+            if(result[i] == null) { result[i] = ""; }
         }
+        return result;
+    }
 
+    /**
+     * Executes several independent IMAP commands, without waiting for each
+     * command to complete before sending the next one.
+     * <p>
+     * Only a limited number of commands are outstanding at any time, and
+     * a new command is sent as each one completes.  Untagged responses
+     * are passed to the callback of the oldest command that has not yet
+     * completed, and each callback is notified when its own command
+     * completes.  Commands that require continuation requests, such as
+     * those sending literals, cannot be pipelined.
+     * </p>
+     * <p>
+     * If any command fails, the remaining commands are still allowed to
+     * complete before an exception is thrown for the first failure.  The
+     * outcome of each command is available from the command objects.
+     * </p>
+     * 
+     * @param commands the commands to execute, in the order they are to be sent
+     * @param progressHandler the progress handler
+     */
+    protected void executePipeline(PipelinedCommand[] commands,
+        MailProgressHandler progressHandler) throws IOException, MailException {
+        if(commands.length == 0) { return; }
+        
         int preCount = connection.getBytesReceived();
         
+        // Send the initial window of commands as a single write
+        int sent = Math.min(PIPELINE_DEPTH, commands.length);
+        StringBuffer commandBuf = new StringBuffer();
+        for (int i = 0; i < sent; i++) {
+            appendPipelinedCommand(commandBuf, commands[i]);
+        }
+        
         watchdog.start();
         byte[] data = commandBuf.toString().getBytes();
         connection.sendRaw(data, 0, data.length);
         watchdog.kick();
-
-        int postCount = connection.getBytesReceived();
-
-        if (progressHandler != null) {
-            progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
-                (postCount - preCount), -1);
-        }
-
-        byte[] temp;
-        String tempResult = "";
-        int p;
-
-        while (count < arguments.length) {
-            preCount = postCount;
-
-            temp = connection.receive();
+        
+        int oldest = 0;
+        PipelinedCommand failedCommand = null;
+        
+        while (oldest < commands.length) {
+            byte[] temp = connection.receive(executeResponseTester);
             watchdog.kick();
-            
-            postCount = connection.getBytesReceived();
+            int postCount = connection.getBytesReceived();
 
             if (progressHandler != null) {
                 progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK,
                     (postCount - preCount), -1);
             }
-
-            p = Arrays.getIndex(temp, (byte) ' ');
-
-            if(Arrays.equals(temp, p + 1, BAD_PREFIX, 0, BAD_PREFIX.length)
-                    || Arrays.equals(temp, p + 1, NO_PREFIX, 0, NO_PREFIX.length)) {
-                watchdog.cancel();
-                throw new MailException(new String(temp));
+            preCount = postCount;
+            
+            // Find the command this response completes, if any
+            PipelinedCommand completedCommand = null;
+            if(temp.length > 0 && temp[0] != CHAR_ASTERISK && temp[0] != CHAR_PLUS) {
+                for (int i = oldest; i < sent; i++) {
+                    if(commands[i].result == null
+                            && StringArrays.startsWith(temp, commands[i].tagBytes)) {
+                        completedCommand = commands[i];
+                        break;
+                    }
+                }
             }
-
-            int keyHashCode = StringArrays.hashCode(temp, 0, p);
-
-            if ((p != -1) && commandMap.containsKey(keyHashCode)) {
-                result[commandMap.get(keyHashCode)] = tempResult;
-                tempResult = "";
-                count++;
-            } else {
-                tempResult = new String(temp);
+            
+            if(completedCommand != null) {
+                completedCommand.result = temp;
+                if(failedCommand == null && !completedCommand.isOk()) {
+                    failedCommand = completedCommand;
+                }
+                try {
+                    completedCommand.callback.executeComplete();
+                } catch (Throwable t) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Unable to complete processing the response: " + t.getMessage()).getBytes(),
+                            EventLogger.ERROR);
+                }
+                
+                while (oldest < sent && commands[oldest].result != null) {
+                    oldest++;
+                }
+                
+                // Keep the pipeline full
+                if(sent < commands.length) {
+                    commandBuf.setLength(0);
+                    appendPipelinedCommand(commandBuf, commands[sent]);
+                    data = commandBuf.toString().getBytes();
+                    connection.sendRaw(data, 0, data.length);
+                    watchdog.kick();
+                    sent++;
+                }
+            }
+            else if(oldest < sent) {
+                try {
+                    commands[oldest].callback.processResponse(temp);
+                } catch (Throwable t) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Unable to parse response: " + t.getMessage()).getBytes(),
+                            EventLogger.ERROR);
+                    AnalyticsDataCollector.getInstance().onApplicationError("Unable to parse response: " + t.getMessage());
+                }
             }
         }
-
+        
         watchdog.cancel();
         
-        return result;
+        if(failedCommand != null) {
+            throw new MailException(new String(failedCommand.result));
+        }
+    }
+
+    /**
+     * Executes an IMAP command that operates on a set of messages, invoking
+     * the supplied callback on each line of the response.
+     * <p>
+     * If the messages are described by more than one sequence set, a separate
+     * command is sent for each set, and those commands are pipelined.
+     * Their responses are passed to the callback in the order the commands
+     * were sent, and the callback is notified once all of them complete.
+     * </p>
+     * 
+     * @param command IMAP command
+     * @param sequenceSets the message sequence sets, as created by
+     *     {@link ImapParser#createSequenceSets(int[], int)}
+     * @param arguments Arguments to follow the sequence set in each command
+     * @param callback the callback to invoke on each line of the response
+     * @param progressHandler the progress handler
+     */
+    protected void executeSequenceSetResponse(String command, String[] sequenceSets,
+            String arguments, final ExecuteCallback callback,
+            MailProgressHandler progressHandler) throws IOException, MailException {
+        if(sequenceSets.length == 1) {
+            executeResponse(command, sequenceSets[0] + CHAR_SP + arguments,
+                    callback, progressHandler);
+            return;
+        }
+        
+        ExecuteCallback setCallback = new ExecuteCallback() {
+            public void processResponse(byte[] rawLine) {
+                callback.processResponse(rawLine);
+            }
+            public void executeComplete() { }
+        };
+        
+        PipelinedCommand[] commands = new PipelinedCommand[sequenceSets.length];
+        for (int i = 0; i < sequenceSets.length; i++) {
+            commands[i] = new PipelinedCommand(command,
+                    sequenceSets[i] + CHAR_SP + arguments, setCallback);
+        }
+        
+        MailException failure = null;
+        try {
+            executePipeline(commands, progressHandler);
+        } catch (MailException e) {
+            failure = e;
+        }
+        
+        try {
+            callback.executeComplete();
+        } catch (Throwable t) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("Unable to complete processing the response: " + t.getMessage()).getBytes(),
+                    EventLogger.ERROR);
+        }
+        
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    private void appendPipelinedCommand(StringBuffer buf, PipelinedCommand command) {
+        String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
+        command.tagBytes = tag.getBytes();
+        buf.append(tag);
+        buf.append(command.command);
+        if(command.arguments != null) {
+            buf.append(CHAR_SP);
+            buf.append(command.arguments);
+        }
+        buf.append(CRLF);
     }
 
     /**
@@ -1833,7 +3068,7 @@ public class ImapProtocol {
      */
     protected byte[][] executeResponse(String command, String arguments,
         MailProgressHandler progressHandler) throws IOException, MailException {
-        byte[][] result = new byte[0][];
+        responseLines.clear();
 
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
         
@@ -1855,7 +3090,7 @@ public class ImapProtocol {
         }
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, temp);
+            responseLines.add(temp);
             preCount = postCount;
             temp = connection.receive(executeResponseTester);
             watchdog.kick();
@@ -1869,6 +3104,9 @@ public class ImapProtocol {
 
         watchdog.cancel();
         
+        byte[][] result = responseLines.toArray();
+        responseLines.clear();
+        
         if(Arrays.equals(temp, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
                 || Arrays.equals(temp, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length)) {
             throw new MailException(new String(temp));
@@ -1964,7 +3202,7 @@ public class ImapProtocol {
      */
     protected String[] execute(String command, String arguments,
         MailProgressHandler progressHandler) throws IOException, MailException {
-        String[] result = new String[0];
+        responseLines.clear();
 
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
         watchdog.start();
@@ -1985,7 +3223,7 @@ public class ImapProtocol {
         }
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, new String(temp));
+            responseLines.add(temp);
             preCount = postCount;
             temp = connection.receive();
             watchdog.kick();
@@ -1999,6 +3237,9 @@ public class ImapProtocol {
         
         watchdog.cancel();
         
+        String[] result = responseLines.toStringArray();
+        responseLines.clear();
+        
         if(Arrays.equals(temp, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
                 || Arrays.equals(temp, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length)) {
             throw new MailException(new String(temp));
@@ -2019,7 +3260,7 @@ public class ImapProtocol {
      */
     protected byte[][] executeContinue(String command, String arguments,
         byte[] textData, String errorMsg) throws IOException, MailException {
-        byte[][] result = new byte[0][];
+        responseLines.clear();
 
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
         watchdog.start();
@@ -2047,13 +3288,16 @@ public class ImapProtocol {
         watchdog.kick();
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, temp);
+            responseLines.add(temp);
             temp = connection.receive();
             watchdog.kick();
         }
 
         watchdog.cancel();
         
+        byte[][] result = responseLines.toArray();
+        responseLines.clear();
+        
         if(Arrays.equals(temp, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
                 || Arrays.equals(temp, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length)) {
             throw new MailException(new String(temp));
@@ -2111,7 +3355,7 @@ public class ImapProtocol {
      */
     protected String[] executeUntagged(String command, String arguments,
         String endTag) throws IOException, MailException {
-        String[] result = new String[0];
+        responseLines.clear();
 
         watchdog.start();
         connection.sendCommand(command +
@@ -2122,12 +3366,15 @@ public class ImapProtocol {
         byte[] temp = connection.receive();
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, new String(temp));
+            responseLines.add(temp);
             temp = connection.receive();
             watchdog.kick();
         }
         
         watchdog.cancel();
+        
+        String[] result = responseLines.toStringArray();
+        responseLines.clear();
 
         if(Arrays.equals(temp, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
                 || Arrays.equals(temp, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length)) {
@@ -2144,6 +3391,57 @@ public class ImapProtocol {
         void responseAvailable(FetchEnvelopeResponse response);
     }
 
+    /**
+     * A command to be executed as part of a pipeline.
+     *
+     * @see ImapProtocol#executePipeline(PipelinedCommand[], MailProgressHandler)
+     */
+    protected static class PipelinedCommand {
+        private final String command;
+        private final String arguments;
+        private final ExecuteCallback callback;
+        private byte[] tagBytes;
+        private byte[] result;
+        
+        /**
+         * Instantiates a new pipelined command.
+         *
+         * @param command IMAP command
+         * @param arguments Arguments for the command
+         * @param callback the callback to invoke on the response to the command
+         */
+        public PipelinedCommand(String command, String arguments, ExecuteCallback callback) {
+            this.command = command;
+            this.arguments = arguments;
+            this.callback = callback;
+        }
+        
+        /**
+         * Checks if the command has completed.
+         */
+        public boolean isComplete() {
+            return result != null;
+        }
+        
+        /**
+         * Checks if the command has completed successfully.
+         */
+        public boolean isOk() {
+            return result != null
+                && !Arrays.equals(result, tagBytes.length, BAD_PREFIX, 0, BAD_PREFIX.length)
+                && !Arrays.equals(result, tagBytes.length, NO_PREFIX, 0, NO_PREFIX.length);
+        }
+        
+        /**
+         * Gets the tagged response that completed the command.
+         *
+         * @return the tagged response, or null if the command has not completed
+         */
+        public byte[] getResult() {
+            return result;
+        }
+    }
+
     /**
      * Flags that can be associated with a message.
      * Used inside reply objects for multiple commands.
@@ -2212,6 +3510,7 @@ public class ImapProtocol {
         public int unseen;
         public int uidNext = -1;
         public int uidValidity;
+        public long highestModSeq;
     }
 
     /**
@@ -2223,6 +3522,31 @@ public class ImapProtocol {
         public int recent;
     }
 
+    /**
+     * Container for a UID THREAD response, with the threads flattened into
+     * a list of messages in display order.
+     */
+    public static class ThreadResponse {
+        /** Message UIDs, with each thread following the one before it */
+        public int[] uids;
+        /** Depth of each message within its thread, with 0 for the root */
+        public int[] depths;
+    }
+
+    /**
+     * Container for a UID SEARCH response
+     */
+    public static class SearchResponse {
+        /** Lowest matching UID, or 0 if there were no matches */
+        public int min;
+        /** Highest matching UID, or 0 if there were no matches */
+        public int max;
+        /** Number of matching messages */
+        public int count;
+        /** All matching UIDs, in ascending order */
+        public int[] uids;
+    }
+
     /**
      * Container for a FETCH (FLAGS) response
      */
@@ -2232,6 +3556,14 @@ public class ImapProtocol {
         public MessageFlags flags;
     }
 
+    /**
+     * Container for a FETCH (CHANGEDSINCE) response
+     */
+    public static class FetchChangesResponse {
+        public FetchFlagsResponse[] changed;
+        public int[] vanished;
+    }
+
     /**
      * Container for a FETCH (ENVELOPE) response
      */
@@ -2248,8 +3580,11 @@ public class ImapProtocol {
         public boolean noInferiors;
         public boolean canSelect;
         public boolean marked;
+        public boolean subscribed;
         public String delim;
         public String name;
+        /** Mailbox status, if requested with an extended LIST command */
+        public StatusResponse status;
     }
 
     /**
@@ -2260,6 +3595,8 @@ public class ImapProtocol {
         void recentResponse(int value);
         void expungeResponse(int value);
         void fetchResponse(FetchFlagsResponse value);
+        void vanishedResponse(int[] uids);
+        void statusResponse(String mailboxName, StatusResponse status);
     }
     
     /**
@@ -2273,6 +3610,10 @@ public class ImapProtocol {
     private static String UID_COPY = "UID COPY";
     private static String UID_STORE = "UID STORE";
     private static String UID_FETCH = "UID FETCH";
+    private static String UID_SEARCH = "UID SEARCH";
+    private static String UID_SORT = "UID SORT";
+    private static String UID_THREAD = "UID THREAD";
+    private static String CHARSET_UTF8 = "UTF-8";
     private static String DONE = "DONE";
     private static String IDLE = "IDLE";
     private static String NOOP = "NOOP";
@@ -2280,16 +3621,14 @@ public class ImapProtocol {
     private static String LSUB = "LSUB";
     private static String LIST = "LIST";
     private static String FETCH = "FETCH";
-    private static String BODYSTRUCTURE = "BODYSTRUCTURE";
     private static String BODY = "BODY";
-    private static String ENVELOPE = "ENVELOPE";
-    private static String UID = "UID";
-    private static String FLAGS = "FLAGS";
+    private static String BINARY = "BINARY";
     private static String UNSEEN = "UNSEEN";
     private static String RECENT = "RECENT";
     private static String MESSAGES = "MESSAGES";
     private static String NAMESPACE = "NAMESPACE";
     private static String CAPABILITY = "CAPABILITY";
+    private static String CAPABILITY_CODE = "[CAPABILITY ";
     private static String EXPUNGE = "EXPUNGE";
     private static String APPEND = "APPEND";
     private static String STATUS = "STATUS";
@@ -2299,11 +3638,20 @@ public class ImapProtocol {
     private static String LOGIN = "LOGIN";
     private static String STARTTLS = "STARTTLS";
     private static String COMPRESS = "COMPRESS";
+    private static String ENABLE = "ENABLE";
+    private static String ENABLED = "ENABLED";
+    private static String NOTIFY = "NOTIFY";
+    private static String SET_ = "SET ";
     private static String DEFLATE = "DEFLATE";
     private static String FLAG_MARKED = "\\Marked";
     private static String FLAG_NOINFERIORS = "\\Noinferiors";
     private static String FLAG_HAS_CHILDREN = "\\HasChildren";
     private static String FLAG_NOSELECT = "\\Noselect";
+    private static String FLAG_SUBSCRIBED = "\\Subscribed";
+    private static String FLAG_NONEXISTENT = "\\NonExistent";
+    private static String STATUS_RESPONSE_PREFIX = "* STATUS ";
+    private static String LIST_RETURN = " RETURN (SUBSCRIBED CHILDREN)";
+    private static String LIST_RETURN_STATUS = " RETURN (SUBSCRIBED CHILDREN STATUS (MESSAGES UNSEEN RECENT))";
     private static String TAG_PREFIX = "A";
     private static final byte[] NO_PREFIX = "NO ".getBytes();
     private static final byte[] BAD_PREFIX = "BAD ".getBytes();
@@ -2311,6 +3659,24 @@ public class ImapProtocol {
     private static final byte[] EXISTS_SUFFIX = "EXISTS".getBytes();
     private static final byte[] EXPUNGE_SUFFIX = "EXPUNGE".getBytes();
     private static final byte[] FETCH_B = "FETCH".getBytes();
+    private static final byte[] BODY_B = "BODY".getBytes();
+    private static final byte[] BODYSTRUCTURE_B = "BODYSTRUCTURE".getBytes();
+    private static final byte[] ENVELOPE_B = "ENVELOPE".getBytes();
+    private static final byte[] UID_B = "UID".getBytes();
+    private static final byte[] FLAGS_B = "FLAGS".getBytes();
+    private static final byte[] BINARY_B = "BINARY".getBytes();
+    private static final byte[] VANISHED_PREFIX = "* VANISHED ".getBytes();
+    private static final byte[] STATUS_PREFIX_B = "* STATUS ".getBytes();
+    private static final byte[] CAPABILITY_PREFIX_B = "* CAPABILITY ".getBytes();
+    private static final byte[] ESEARCH_PREFIX = "* ESEARCH".getBytes();
+    private static final byte[] SEARCH_PREFIX = "* SEARCH".getBytes();
+    private static final byte[] SORT_PREFIX = "* SORT".getBytes();
+    private static final byte[] THREAD_PREFIX = "* THREAD".getBytes();
+    private static final byte[] MIN_B = "MIN".getBytes();
+    private static final byte[] MAX_B = "MAX".getBytes();
+    private static final byte[] COUNT_B = "COUNT".getBytes();
+    private static final byte[] ALL_B = "ALL".getBytes();
+    private static final byte[] EARLIER_B = "(EARLIER) ".getBytes();
     private static String CHAR_SP = " ";
     private static final byte CHAR_PLUS = (byte)'+';
     private static String CHAR_COLON = ":";
@@ -2323,6 +3689,7 @@ public class ImapProtocol {
     private static String UIDNEXT_ = "UIDNEXT ";
     private static String UIDVALIDITY_ = "UIDVALIDITY ";
     private static String UNSEEN_ = "UNSEEN ";
+    private static String HIGHESTMODSEQ_ = "HIGHESTMODSEQ ";
     private static String _RECENT = " RECENT";
     private static String _EXISTS = " EXISTS";
 }
@@ -53,30 +53,64 @@ public class ImapResponseLineTester extends ConnectionResponseTester {
     private int literalLength = -1;
     private boolean inQuoted;
     private boolean inQuotedEscape;
+    private final boolean stopAtLiteral;
+    private int pendingLiteralLength = -1;
+
+    /**
+     * Creates a new response tester, which includes any literals in the
+     * responses it finds.
+     */
+    public ImapResponseLineTester() {
+        this(false);
+    }
+
+    /**
+     * Creates a new response tester.
+     *
+     * @param stopAtLiteral if true, responses will end at the line break
+     *   following the first literal size marker, leaving the literal itself
+     *   to be read separately.  The size of that literal is then available
+     *   from {@link #literalLength()}.
+     */
+    public ImapResponseLineTester(boolean stopAtLiteral) {
+        this.stopAtLiteral = stopAtLiteral;
+    }
+
+    /**
+     * Gets the size of the literal immediately following the last response
+     * that was found, if this tester was created to stop at literals.
+     *
+     * @return the literal size, or -1 if the last response did not end with
+     *   a literal size marker
+     */
+    public int literalLength() {
+        return pendingLiteralLength;
+    }
 
-    public int checkForCompleteResponse(byte[] buf, int len) {
+    public int checkForCompleteResponse(byte[] buf, int offset, int length) {
         trimCount = 0;
+        int len = offset + length;
 
         if (literalLength >= 0) {
-            if ((lastLength + literalLength) < len) {
+            if ((lastLength + literalLength) < length) {
                 lastLength += literalLength;
                 literalLength = -1;
             } else {
-                literalLength -= (len - lastLength);
-                lastLength = len;
+                literalLength -= (length - lastLength);
+                lastLength = length;
 
                 return -1;
             }
         }
  
-        int p = indexOfLinefeedIgnoringQuoted(buf, lastLength, len);
+        int p = indexOfLinefeedIgnoringQuoted(buf, offset + lastLength, len);
 
         while ((p != -1) && (p < len)) {
-            if ((p > 0) && (buf[p - 1] == CR)) {
-                if ((p > 3) && (buf[p - 2] == RCBRACKET)) {
+            if ((p > offset) && (buf[p - 1] == CR)) {
+                if ((p - offset > 3) && (buf[p - 2] == RCBRACKET)) {
                     int i = p - 3;
 
-                    while (i >= 0) {
+                    while (i >= offset) {
                         if ((buf[i] >= DIGIT_ZERO) && (buf[i] <= DIGIT_NINE)) {
                             i--;
                         }
@@ -101,29 +135,37 @@ public class ImapResponseLineTester extends ConnectionResponseTester {
 
             p++;
 
-            if (literalLength >= 0) {
+            if (literalLength >= 0 && stopAtLiteral) {
+                pendingLiteralLength = literalLength;
+                lastLength = 0;
+                literalLength = -1;
+
+                return p - offset;
+            }
+            else if (literalLength >= 0) {
                 if ((len - p) >= literalLength) {
                     p += literalLength;
                     literalLength = -1;
                 }
                 else {
                     literalLength -= (len - p);
-                    lastLength = len;
+                    lastLength = length;
 
                     return -1;
                 }
             }
             else {
+                pendingLiteralLength = -1;
                 lastLength = 0;
                 literalLength = -1;
 
-                return p;
+                return p - offset;
             }
 
             p = indexOfLinefeedIgnoringQuoted(buf, p, len);
         }
 
-        lastLength = len;
+        lastLength = length;
 
         return -1;
     }
@@ -0,0 +1,197 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail.imap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import org.logicprobe.LogicMail.util.Serializable;
+import org.logicprobe.LogicMail.util.UniqueIdGenerator;
+
+/**
+ * Persisted results of the session setup commands that are normally sent
+ * each time a connection is opened to an IMAP server.  These results are
+ * reused on reconnect, as long as the server presents the same greeting and
+ * the cached results have not expired.
+ */
+public class ImapSessionCache implements Serializable {
+    /**
+     * Maximum age of cached session data.
+     * Currently set to 24 hours.
+     */
+    private static final long MAX_AGE = 86400000L;
+    
+    private long uniqueId;
+    private String fingerprint;
+    private long createdTime;
+    private String[] capabilities;
+    private String folderDelim;
+    private String namespacePrefix;
+    private String namespaceDelimiter;
+    
+    /**
+     * Instantiates a new empty session cache, for deserialization.
+     */
+    public ImapSessionCache() {
+        this.uniqueId = UniqueIdGenerator.getInstance().getUniqueId();
+        this.fingerprint = "";
+        this.capabilities = new String[0];
+        this.folderDelim = "";
+    }
+    
+    /**
+     * Instantiates a new session cache.
+     *
+     * @param fingerprint the fingerprint of the server this data came from
+     * @param capabilities the server capabilities table
+     * @param nsPersonal the personal namespace, or <code>null</code> if not available
+     * @param folderDelim the folder hierarchy delimiter
+     */
+    public ImapSessionCache(String fingerprint, Hashtable capabilities, ImapProtocol.Namespace nsPersonal, String folderDelim) {
+        this.uniqueId = UniqueIdGenerator.getInstance().getUniqueId();
+        this.fingerprint = fingerprint;
+        this.createdTime = System.currentTimeMillis();
+        this.capabilities = new String[capabilities.size()];
+        Enumeration e = capabilities.keys();
+        int i = 0;
+        while(e.hasMoreElements()) {
+            this.capabilities[i++] = (String)e.nextElement();
+        }
+        if(nsPersonal != null) {
+            this.namespacePrefix = nsPersonal.prefix;
+            this.namespaceDelimiter = nsPersonal.delimiter;
+        }
+        this.folderDelim = (folderDelim != null) ? folderDelim : "";
+    }
+    
+    /**
+     * Checks whether this cached data can be used for a new session.
+     *
+     * @param fingerprint the fingerprint of the server being connected to
+     * @param currentTime the current time
+     * @return true, if the cached data is still valid
+     */
+    public boolean isValid(String fingerprint, long currentTime) {
+        return this.fingerprint.equals(fingerprint)
+            && currentTime >= createdTime
+            && (currentTime - createdTime) < MAX_AGE;
+    }
+    
+    /**
+     * Gets the server capabilities, in the same form as returned by
+     * {@link ImapProtocol#executeCapability()}.
+     *
+     * @return the capabilities table
+     */
+    public Hashtable getCapabilities() {
+        Hashtable table = new Hashtable(capabilities.length);
+        for(int i=0; i<capabilities.length; i++) {
+            table.put(capabilities[i], Boolean.TRUE);
+        }
+        return table;
+    }
+    
+    /**
+     * Gets the personal namespace.
+     *
+     * @return the personal namespace, or <code>null</code> if not available
+     */
+    public ImapProtocol.Namespace getPersonalNamespace() {
+        if(namespacePrefix == null || namespaceDelimiter == null) {
+            return null;
+        }
+        ImapProtocol.Namespace namespace = new ImapProtocol.Namespace();
+        namespace.prefix = namespacePrefix;
+        namespace.delimiter = namespaceDelimiter;
+        return namespace;
+    }
+    
+    /**
+     * Gets the folder hierarchy delimiter.
+     *
+     * @return the folder delimiter
+     */
+    public String getFolderDelim() {
+        return folderDelim;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.logicprobe.LogicMail.util.Serializable#getUniqueId()
+     */
+    public long getUniqueId() {
+        return uniqueId;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.logicprobe.LogicMail.util.Serializable#serialize(java.io.DataOutput)
+     */
+    public void serialize(DataOutput output) throws IOException {
+        output.writeLong(uniqueId);
+        output.writeUTF(fingerprint);
+        output.writeLong(createdTime);
+        output.writeInt(capabilities.length);
+        for(int i=0; i<capabilities.length; i++) {
+            output.writeUTF(capabilities[i]);
+        }
+        output.writeUTF(folderDelim);
+        output.writeBoolean(namespacePrefix != null && namespaceDelimiter != null);
+        if(namespacePrefix != null && namespaceDelimiter != null) {
+            output.writeUTF(namespacePrefix);
+            output.writeUTF(namespaceDelimiter);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.logicprobe.LogicMail.util.Serializable#deserialize(java.io.DataInput)
+     */
+    public void deserialize(DataInput input) throws IOException {
+        uniqueId = input.readLong();
+        fingerprint = input.readUTF();
+        createdTime = input.readLong();
+        int size = input.readInt();
+        capabilities = new String[size];
+        for(int i=0; i<size; i++) {
+            capabilities[i] = input.readUTF();
+        }
+        folderDelim = input.readUTF();
+        if(input.readBoolean()) {
+            namespacePrefix = input.readUTF();
+            namespaceDelimiter = input.readUTF();
+        }
+        else {
+            namespacePrefix = null;
+            namespaceDelimiter = null;
+        }
+    }
+}
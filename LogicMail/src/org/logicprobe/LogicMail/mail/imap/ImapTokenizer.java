@@ -0,0 +1,366 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail.imap;
+
+import org.logicprobe.LogicMail.util.StringArrays;
+
+/**
+ * Cursor-style tokenizer for the parenthesized data within IMAP responses.
+ * <p>
+ * Tokens are read directly from the response data, one at a time, so that
+ * a response can be interpreted as it is read without first building a tree
+ * of its contents.  The value of a token is only copied out of the data
+ * when it is actually requested.
+ * </p>
+ * <p>
+ * The tokens are split the same way as by
+ * {@link ImapParser#parenListLexer(byte[], int, int)}.  Atoms are unquoted
+ * elements such as keywords, flags, numbers and <tt>NIL</tt>, while strings
+ * are quoted text or literals.
+ * </p>
+ */
+class ImapTokenizer {
+    /** There are no more tokens. */
+    static final int END = 0;
+    /** An unquoted element, such as a keyword, flag, number, or NIL. */
+    static final int ATOM = 1;
+    /** A quoted string or a literal. */
+    static final int STRING = 2;
+    /** The start of a parenthesized list. */
+    static final int LIST_START = 3;
+    /** The end of a parenthesized list. */
+    static final int LIST_END = 4;
+    
+    private static final byte[] NIL_B = "NIL".getBytes();
+    
+    private byte[] data;
+    private int position;
+    private int limit;
+    private int type;
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenEscaped;
+    
+    /**
+     * Instantiates a new tokenizer with no data.
+     */
+    ImapTokenizer() {
+    }
+    
+    /**
+     * Instantiates a new tokenizer.
+     *
+     * @param data the data to tokenize
+     * @param offset the offset to start tokenizing from
+     * @param length the length of the data to tokenize
+     */
+    ImapTokenizer(byte[] data, int offset, int length) {
+        reset(data, offset, length);
+    }
+    
+    /**
+     * Resets this tokenizer to the start of new data.
+     *
+     * @param data the data to tokenize
+     * @param offset the offset to start tokenizing from
+     * @param length the length of the data to tokenize
+     */
+    void reset(byte[] data, int offset, int length) {
+        if(offset + length > data.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.type = END;
+        this.tokenStart = offset;
+        this.tokenEnd = offset;
+        this.tokenEscaped = false;
+    }
+    
+    /**
+     * Advances to the next token.
+     *
+     * @return the type of the token
+     */
+    int next() {
+        while(position < limit && data[position] == (byte)' ') {
+            position++;
+        }
+        
+        if(position >= limit) {
+            type = END;
+            tokenStart = limit;
+            tokenEnd = limit;
+            return type;
+        }
+        
+        tokenEscaped = false;
+        byte ch = data[position];
+        if(ch == (byte)'(') {
+            type = LIST_START;
+            tokenStart = position;
+            tokenEnd = ++position;
+        }
+        else if(ch == (byte)')') {
+            type = LIST_END;
+            tokenStart = position;
+            tokenEnd = ++position;
+        }
+        else if(ch == (byte)'"') {
+            type = STRING;
+            tokenStart = ++position;
+            while(position < limit) {
+                ch = data[position];
+                if(ch == (byte)'\\') {
+                    tokenEscaped = true;
+                    position += 2;
+                }
+                else if(ch == (byte)'"') {
+                    break;
+                }
+                else {
+                    if(ch == (byte)'\r' || ch == (byte)'\n') {
+                        tokenEscaped = true;
+                    }
+                    position++;
+                }
+            }
+            tokenEnd = Math.min(position, limit);
+            position = tokenEnd + 1;
+        }
+        else if(ch == (byte)'{'
+                || (ch == (byte)'~' && (position + 1) < limit && data[position + 1] == (byte)'{')) {
+            // Literal string, which may be a binary literal (RFC 3516)
+            if(ch == (byte)'~') {
+                position++;
+            }
+            int p = StringArrays.indexOf(data, (byte)'}', position, limit);
+            if(p == -1) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            int length = StringArrays.parseInt(data, position + 1, p - position - 1);
+            type = STRING;
+            tokenStart = p + 3;
+            tokenEnd = tokenStart + length;
+            if(tokenEnd > limit) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            position = tokenEnd;
+        }
+        else {
+            type = ATOM;
+            tokenStart = position;
+            while(position < limit && data[position] != (byte)' ' && data[position] != (byte)')') {
+                position++;
+            }
+            tokenEnd = position;
+        }
+        
+        return type;
+    }
+    
+    /**
+     * Gets the type of the current token.
+     */
+    int getType() {
+        return type;
+    }
+    
+    /**
+     * Skips past the remainder of the current list, including the token
+     * that ends it.
+     */
+    void skipList() {
+        int depth = 1;
+        while(depth > 0) {
+            int next = next();
+            if(next == LIST_START) {
+                depth++;
+            }
+            else if(next == LIST_END) {
+                depth--;
+            }
+            else if(next == END) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Skips past the value at the current token, which only has an effect
+     * if that value is a list.
+     */
+    void skipValue() {
+        if(type == LIST_START) {
+            skipList();
+        }
+    }
+    
+    /**
+     * Checks whether the current token is the atom <tt>NIL</tt>.
+     */
+    boolean isNil() {
+        return type == ATOM && equalsIgnoreCase(NIL_B);
+    }
+    
+    /**
+     * Checks whether the current token is an atom exactly matching the
+     * provided keyword.
+     *
+     * @param keyword the keyword to compare against
+     * @return true, if the token matches
+     */
+    boolean atomEquals(byte[] keyword) {
+        if(type != ATOM || (tokenEnd - tokenStart) != keyword.length) {
+            return false;
+        }
+        for(int i=0; i<keyword.length; i++) {
+            if(data[tokenStart + i] != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Checks whether the current token is an atom starting with the
+     * provided prefix.
+     *
+     * @param prefix the prefix to compare against
+     * @return true, if the token starts with the prefix
+     */
+    boolean atomStartsWith(byte[] prefix) {
+        if(type != ATOM || (tokenEnd - tokenStart) < prefix.length) {
+            return false;
+        }
+        for(int i=0; i<prefix.length; i++) {
+            if(data[tokenStart + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Checks whether the text of the current token matches the provided
+     * value, ignoring the case of any ASCII letters.
+     *
+     * @param value the value to compare against
+     * @return true, if the token matches
+     */
+    boolean equalsIgnoreCase(byte[] value) {
+        if(tokenEscaped || (tokenEnd - tokenStart) != value.length) {
+            return false;
+        }
+        for(int i=0; i<value.length; i++) {
+            byte a = data[tokenStart + i];
+            byte b = value[i];
+            if(a != b) {
+                if(a >= (byte)'A' && a <= (byte)'Z') { a += 32; }
+                if(b >= (byte)'A' && b <= (byte)'Z') { b += 32; }
+                if(a != b) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the value of the current token as an integer.
+     *
+     * @return the integer value
+     * @throws NumberFormatException if the token is not a number
+     */
+    int getInt() throws NumberFormatException {
+        if(type != ATOM || tokenEnd == tokenStart) {
+            throw new NumberFormatException();
+        }
+        return StringArrays.parseInt(data, tokenStart, tokenEnd - tokenStart);
+    }
+    
+    /**
+     * Gets the value of the current token as a byte array, with any escape
+     * characters removed from quoted strings.
+     *
+     * @return the token value
+     */
+    byte[] getBytes() {
+        if(!tokenEscaped) {
+            byte[] result = new byte[tokenEnd - tokenStart];
+            System.arraycopy(data, tokenStart, result, 0, result.length);
+            return result;
+        }
+        
+        byte[] buf = new byte[tokenEnd - tokenStart];
+        int length = 0;
+        int i = tokenStart;
+        while(i < tokenEnd) {
+            byte ch = data[i];
+            if(ch == (byte)'\\') {
+                if(i + 1 < tokenEnd) {
+                    byte ch1 = data[i + 1];
+                    if(ch1 == (byte)'\\' || ch1 == (byte)'"') {
+                        buf[length++] = ch1;
+                    }
+                }
+                i += 2;
+            }
+            else if(ch == (byte)'\r' || ch == (byte)'\n') {
+                i++;
+            }
+            else {
+                buf[length++] = ch;
+                i++;
+            }
+        }
+        
+        byte[] result = new byte[length];
+        System.arraycopy(buf, 0, result, 0, length);
+        return result;
+    }
+    
+    /**
+     * Gets the value of the current token as a string, with any escape
+     * characters removed from quoted strings.
+     *
+     * @return the token value
+     */
+    String getString() {
+        if(!tokenEscaped) {
+            return new String(data, tokenStart, tokenEnd - tokenStart);
+        }
+        else {
+            return new String(getBytes());
+        }
+    }
+}
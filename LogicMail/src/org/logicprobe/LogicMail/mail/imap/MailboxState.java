@@ -30,16 +30,12 @@
  */
 package org.logicprobe.LogicMail.mail.imap;
 
-import java.util.Vector;
-
 import org.logicprobe.LogicMail.AnalyticsDataCollector;
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.imap.ImapProtocol.SelectResponse;
 
 import net.rim.device.api.system.EventLogger;
-import net.rim.device.api.util.IntHashtable;
-import net.rim.device.api.util.SimpleSortingIntVector;
 
 /**
  * Encapsulates all state information for an IMAP mailbox, for data that does
@@ -47,18 +43,21 @@ import net.rim.device.api.util.SimpleSortingIntVector;
  */
 public class MailboxState {
     private final Object lock = new Object();
-    private final IntHashtable indexToTokenMap;
-    private final SimpleSortingIntVector indexVector;
+    private final MessageIndexMap indexMap;
+    /**
+     * Lowest index affected by an expunge since the shifted tokens were last
+     * requested, or <code>Integer.MAX_VALUE</code> if none.
+     */
+    private int lowestShiftedIndex = Integer.MAX_VALUE;
     private int exists;
     private int recent;
     private int unseen;
     private int uidNext = -1;
     private int uidValidity;
+    private long highestModSeq;
     
     public MailboxState() {
-        indexToTokenMap = new IntHashtable();
-        indexVector = new SimpleSortingIntVector();
-        indexVector.setSortAsAdded(SimpleSortingIntVector.SORT_TYPE_NUMERIC);
+        indexMap = new MessageIndexMap();
     }
 
     /**
@@ -66,13 +65,14 @@ public class MailboxState {
      */
     public void clear() {
         synchronized(lock) {
-            indexToTokenMap.clear();
-            indexVector.removeAllElements();
+            indexMap.clear();
+            lowestShiftedIndex = Integer.MAX_VALUE;
             exists = 0;
             recent = 0;
             unseen = 0;
             uidNext = -1;
             uidValidity = 0;
+            highestModSeq = 0;
         }
     }
     
@@ -87,8 +87,8 @@ public class MailboxState {
         boolean result = true;
         synchronized(lock) {
             if(!indexMapStillValid(selectResponse)) {
-                indexToTokenMap.clear();
-                indexVector.removeAllElements();
+                indexMap.clear();
+                lowestShiftedIndex = Integer.MAX_VALUE;
                 result = false;
             }
             this.exists = selectResponse.exists;
@@ -96,6 +96,7 @@ public class MailboxState {
             this.unseen = selectResponse.unseen;
             this.uidNext = selectResponse.uidNext;
             this.uidValidity = selectResponse.uidValidity;
+            this.highestModSeq = selectResponse.highestModSeq;
         }
         return result;
     }
@@ -170,6 +171,23 @@ public class MailboxState {
         }
     }
     
+    /**
+     * Gets the highest mod-sequence value reported when the mailbox was
+     * selected, as defined by the CONDSTORE extension.
+     *
+     * @return the highest mod-sequence, or 0 if the server does not support
+     *         persistent mod-sequences for this mailbox
+     */
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    public void setHighestModSeq(long highestModSeq) {
+        synchronized(lock) {
+            this.highestModSeq = highestModSeq;
+        }
+    }
+    
     /**
      * Update mailbox state from a <tt>FETCH</tt> response.
      *
@@ -177,34 +195,31 @@ public class MailboxState {
      */
     public void messageFetched(MessageToken token) {
         synchronized(lock) {
-            int index = ((ImapMessageToken)token).getMessageIndex();
-            if(indexToTokenMap.containsKey(index)) {
-                if(token.equals(indexToTokenMap.get(index))) {
-                    // Do nothing if this is a redundant update
-                    return;
-                }
-                else
-                {
-                    // This means we missed an untagged expunge, or otherwise have
-                    // bad mailbox state information.  This is a very dangerous
-                    // situation where the only safe action is to log an error,
-                    // completely flush our index-to-UID maps, and record this
-                    // fetch as our only known good data.
-    
-                    EventLogger.logEvent(AppInfo.GUID,
-                            ("Untagged FETCH response is out of sync with known mailbox state").getBytes(),
-                            EventLogger.ERROR);
-                    AnalyticsDataCollector.getInstance().onApplicationError(
-                            "Untagged FETCH response is out of sync with known mailbox state");
-                    
-                    indexToTokenMap.clear();
-                    indexVector.removeAllElements();
-                    indexToTokenMap.put(index, token);
-                    indexVector.addElement(index);
-                }
+            ImapMessageToken imapToken = (ImapMessageToken)token;
+            int index = imapToken.getMessageIndex();
+            ImapMessageToken existingToken = indexMap.get(index);
+            if(token.equals(existingToken)) {
+                // Do nothing if this is a redundant update
+                return;
+            }
+            
+            if(existingToken != null || !indexMap.put(imapToken)) {
+                // This means we missed an untagged expunge, or otherwise have
+                // bad mailbox state information.  This is a very dangerous
+                // situation where the only safe action is to log an error,
+                // completely flush our index-to-UID maps, and record this
+                // fetch as our only known good data.
+
+                EventLogger.logEvent(AppInfo.GUID,
+                        ("Untagged FETCH response is out of sync with known mailbox state").getBytes(),
+                        EventLogger.ERROR);
+                AnalyticsDataCollector.getInstance().onApplicationError(
+                        "Untagged FETCH response is out of sync with known mailbox state");
+                
+                indexMap.clear();
+                lowestShiftedIndex = Integer.MAX_VALUE;
+                indexMap.put(imapToken);
             }
-            indexToTokenMap.put(index, token);
-            indexVector.addElement(index);
         }
     }
     
@@ -215,9 +230,56 @@ public class MailboxState {
      * @return the message token, if available
      */
     public ImapMessageToken getMessageToken(int index) {
+        synchronized(lock) {
+            return indexMap.get(index);
+        }
+    }
+    
+    /**
+     * Gets the tokens of all messages with known indices.
+     *
+     * @return the message tokens, in ascending order
+     */
+    public ImapMessageToken[] getMessageTokens() {
+        synchronized(lock) {
+            return indexMap.getFrom(1);
+        }
+    }
+    
+    /**
+     * Gets the index of a message.
+     *
+     * @param uid the unique ID of the message
+     * @return the index of the message within the mailbox, or -1 if unknown
+     */
+    public int getMessageIndex(int uid) {
+        synchronized(lock) {
+            return indexMap.indexOfUid(uid);
+        }
+    }
+    
+    /**
+     * Expunge a message, by unique ID, from the mailbox.
+     * <p>
+     * If the index of the message is not known, then the index map can no
+     * longer be trusted and is cleared.
+     * </p>
+     *
+     * @param uid the unique ID of the expunged message
+     * @return token for the expunged message, if available
+     */
+    public ImapMessageToken messageVanished(int uid) {
         ImapMessageToken result;
         synchronized(lock) {
-            result = (ImapMessageToken)indexToTokenMap.get(index);
+            int index = indexMap.indexOfUid(uid);
+            if(index != -1) {
+                result = messageExpunged(index);
+            }
+            else {
+                result = null;
+                indexMap.clear();
+                lowestShiftedIndex = Integer.MAX_VALUE;
+            }
         }
         return result;
     }
@@ -226,92 +288,51 @@ public class MailboxState {
      * Expunge a message, by index, from the mailbox.
      *
      * @param indices the indices of the expunged messages
-     * @param updatedTokens empty <code>Vector</code> to be populated with
-     *        <code>MessageToken</code>s updated by the expunge operation
      * @return tokens for the expunged messages, if available
      */
-    public ImapMessageToken[] messagesExpunged(int[] indices, Vector updatedTokens) {
+    public ImapMessageToken[] messagesExpunged(int[] indices) {
         ImapMessageToken[] result = new ImapMessageToken[indices.length];
         for(int i=0; i<indices.length; i++) {
-            result[i] = messageExpunged(indices[i], updatedTokens);
+            result[i] = messageExpunged(indices[i]);
         }
         return result;
     }
     
     /**
      * Expunge a message, by index, from the mailbox.
+     * <p>
+     * This shifts the index of every message following the expunged one,
+     * but does not report those messages individually.  They can be obtained
+     * as a group from {@link #getShiftedMessageTokens()}.
+     * </p>
      *
      * @param index the index of the expunged message
-     * @param updatedTokens empty <code>Vector</code> to be populated with
-     *        <code>MessageToken</code>s updated by the expunge operation
      * @return token for the expunged message, if available
      */
-    public ImapMessageToken messageExpunged(int index, Vector updatedTokens) {
-        ImapMessageToken result;
+    public ImapMessageToken messageExpunged(int index) {
         synchronized(lock) {
-            result = (ImapMessageToken)indexToTokenMap.remove(index);
-            if(result != null) {
-                removeIndexFromVector(index, updatedTokens);
-            }
-            else {
-                shiftVectorAroundRemovedIndex(index, updatedTokens);
-            }
+            lowestShiftedIndex = Math.min(lowestShiftedIndex, index);
+            return indexMap.remove(index);
         }
-        return result;
     }
     
-    private void removeIndexFromVector(int index, Vector updatedTokens) {
-        // Find the index of the expunged element
-        int p = indexVector.binarySearch(index, SimpleSortingIntVector.SORT_TYPE_NUMERIC);
-        
-        // Remove the element from the vector
-        indexVector.removeElementAt(p);
-
-        // Get the new size of the vector
-        int size = indexVector.size();
-        
-        // If we removed the last element, then return
-        if(p == size) { return; }
-        
-        // Otherwise, iterate over the portion of the vector following the
-        // removed element and decrement the index values
-        decrementIndexValues(p, updatedTokens);
-    }
-
-    private void shiftVectorAroundRemovedIndex(int index, Vector updatedTokens) {
-        int size = indexVector.size();
-        
-        // Shortcut out if the expunge has no effect on the vector
-        if(size == 0 || indexVector.elementAt(size-1) < index) {
-            return;
-        }
-        
-        // Get the position where this index would be if it was in the vector.
-        // This is the start point for our index shift.
-        int p = indexVector.binarySearch(index, SimpleSortingIntVector.SORT_TYPE_NUMERIC);
-        p = (p * -1) - 1; // Above returns: -(insertPoint + 1)
-        
-        // Iterate over the portion of the vector following this point,
-        // and decrement the index values
-        decrementIndexValues(p, updatedTokens);
-    }
-
-    private void decrementIndexValues(int startPosition, Vector updatedTokens) {
-        int size = indexVector.size();
-        
-        for(int i=startPosition; i<size; i++) {
-            // Get the old index value
-            int oldIndex = indexVector.elementAt(i);
-            int newIndex = oldIndex - 1;
-            
-            // Remove the mapped token, update it, and put it back in the map
-            ImapMessageToken token = (ImapMessageToken)indexToTokenMap.remove(oldIndex);
-            token.setMessageIndex(newIndex);
-            indexToTokenMap.put(newIndex, token);
-            updatedTokens.addElement(token);
-            
-            // Update the index in the vector
-            indexVector.setElementAt(newIndex, i);
+    /**
+     * Gets the tokens of all messages with indices shifted by expunges since
+     * the last call to this method, with their indices brought up to date.
+     *
+     * @return the shifted message tokens, in ascending order
+     */
+    public ImapMessageToken[] getShiftedMessageTokens() {
+        synchronized(lock) {
+            ImapMessageToken[] result;
+            if(lowestShiftedIndex != Integer.MAX_VALUE) {
+                result = indexMap.getFrom(lowestShiftedIndex);
+                lowestShiftedIndex = Integer.MAX_VALUE;
+            }
+            else {
+                result = new ImapMessageToken[0];
+            }
+            return result;
         }
     }
 }
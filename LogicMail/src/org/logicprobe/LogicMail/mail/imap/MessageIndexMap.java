@@ -0,0 +1,338 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail.imap;
+
+/**
+ * Sparse map between IMAP message indices and message tokens, designed to
+ * make expunges cheap on large mailboxes.
+ * <p>
+ * Since message indices are always in the same order as message UIDs, the
+ * known messages are kept in arrays sorted by UID.  The index of each message
+ * is stored as the index it had when it was added, along with a Fenwick tree
+ * of the offsets applied by later expunges.  An expunge is then just an
+ * offset update on every entry following it, which takes
+ * <code>O(log n)</code> time, instead of touching each of those entries.
+ * Lookups by UID take <code>O(log n)</code> time, and lookups by index take
+ * <code>O(log<sup>2</sup> n)</code> time.
+ * </p>
+ * <p>
+ * Expunged entries are left in place, with no token, until the arrays need
+ * to be rebuilt.  This happens when they fill up, or when a message is added
+ * anywhere other than after the last known message.
+ * </p>
+ * <p>
+ * The index stored within each token is only brought up to date when that
+ * token is returned from this map.
+ * </p>
+ */
+class MessageIndexMap {
+    private static final int INITIAL_CAPACITY = 16;
+    
+    /** UIDs of the entries, in ascending order. */
+    private int[] uids;
+    /** Index of each entry, before the offsets in the tree are applied. */
+    private int[] baseIndices;
+    /** Token of each entry, or <code>null</code> if it has been expunged. */
+    private ImapMessageToken[] tokens;
+    /** Fenwick tree of index offsets, with entry <code>p</code> at <code>p + 1</code>. */
+    private int[] offsetTree;
+    /** Number of entries in the arrays, including expunged entries. */
+    private int length;
+    /** Number of entries that have not been expunged. */
+    private int size;
+    
+    public MessageIndexMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+    
+    private void allocate(int capacity) {
+        uids = new int[capacity];
+        baseIndices = new int[capacity];
+        tokens = new ImapMessageToken[capacity];
+        offsetTree = new int[capacity + 1];
+        length = 0;
+        size = 0;
+    }
+    
+    /**
+     * Removes all entries from the map.
+     */
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+    
+    /**
+     * Gets the number of messages in the map.
+     *
+     * @return the number of messages
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Gets the token for a message.
+     *
+     * @param index the index of the message within the mailbox
+     * @return the message token, or <code>null</code> if unknown
+     */
+    public ImapMessageToken get(int index) {
+        int p = findIndex(index);
+        if(p < length && tokens[p] != null && indexAt(p) == index) {
+            return tokenAt(p);
+        }
+        else {
+            return null;
+        }
+    }
+    
+    /**
+     * Gets the index of a message.
+     *
+     * @param uid the unique ID of the message
+     * @return the index of the message within the mailbox, or -1 if unknown
+     */
+    public int indexOfUid(int uid) {
+        int p = findUid(uid);
+        if(p >= 0 && tokens[p] != null) {
+            return indexAt(p);
+        }
+        else {
+            return -1;
+        }
+    }
+    
+    /**
+     * Adds a message to the map.  The message index is taken from the token.
+     * <p>
+     * This will fail if the message is inconsistent with the messages already
+     * in the map, either by having a UID that is already mapped, or by having
+     * an index that is out of order with the other messages.
+     * </p>
+     *
+     * @param token the message token
+     * @return true, if the message was added
+     */
+    public boolean put(ImapMessageToken token) {
+        int uid = token.getImapMessageUid();
+        int index = token.getMessageIndex();
+        
+        int p = findUid(uid);
+        if(p >= 0) {
+            if(tokens[p] != null) {
+                return false;
+            }
+            // Only an expunged entry, so rebuild to get it out of the way
+            rebuild(length + 1);
+            p = findUid(uid);
+        }
+        p = -(p + 1);
+        if((p > 0 && tokens[p - 1] == null) || (p < length && tokens[p] == null)) {
+            // Expunged entries cannot be reliably ordered against new ones
+            rebuild(length + 1);
+            p = -(findUid(uid) + 1);
+        }
+        
+        // Check that the new index is between those of the entries around it
+        if((p > 0 && indexAt(p - 1) >= index) || (p < length && indexAt(p) <= index)) {
+            return false;
+        }
+        
+        if(p == length && length < uids.length) {
+            // Appending only needs to account for the existing offsets
+            uids[p] = uid;
+            baseIndices[p] = index - offsetAt(p);
+            tokens[p] = token;
+            length++;
+        }
+        else {
+            rebuild(length + 1);
+            p = -(findUid(uid) + 1);
+            System.arraycopy(uids, p, uids, p + 1, length - p);
+            System.arraycopy(baseIndices, p, baseIndices, p + 1, length - p);
+            System.arraycopy(tokens, p, tokens, p + 1, length - p);
+            uids[p] = uid;
+            baseIndices[p] = index;
+            tokens[p] = token;
+            length++;
+        }
+        size++;
+        return true;
+    }
+    
+    /**
+     * Removes a message from the map, by index, and shifts down the index of
+     * every message following it.  This is done even if the message itself
+     * was not known.
+     *
+     * @param index the index of the expunged message
+     * @return the token of the expunged message, if known
+     */
+    public ImapMessageToken remove(int index) {
+        int p = findIndex(index);
+        if(p == length) {
+            // Nothing follows the expunged message
+            return null;
+        }
+        
+        ImapMessageToken result;
+        if(tokens[p] != null && indexAt(p) == index) {
+            result = tokenAt(p);
+            tokens[p] = null;
+            size--;
+            addOffset(p + 1, -1);
+        }
+        else {
+            result = null;
+            addOffset(p, -1);
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the tokens of all messages at or following an index, with their
+     * indices brought up to date.
+     *
+     * @param index the index of the first message to include
+     * @return the message tokens, in ascending order
+     */
+    public ImapMessageToken[] getFrom(int index) {
+        int start = findIndex(index);
+        int count = 0;
+        for(int p = start; p < length; p++) {
+            if(tokens[p] != null) { count++; }
+        }
+        ImapMessageToken[] result = new ImapMessageToken[count];
+        int i = 0;
+        for(int p = start; p < length; p++) {
+            if(tokens[p] != null) {
+                result[i++] = tokenAt(p);
+            }
+        }
+        return result;
+    }
+    
+    private ImapMessageToken tokenAt(int p) {
+        ImapMessageToken token = tokens[p];
+        token.setMessageIndex(indexAt(p));
+        return token;
+    }
+    
+    private int indexAt(int p) {
+        return baseIndices[p] + offsetAt(p);
+    }
+    
+    private int offsetAt(int p) {
+        int sum = 0;
+        for(int i = p + 1; i > 0; i -= (i & -i)) {
+            sum += offsetTree[i];
+        }
+        return sum;
+    }
+    
+    private void addOffset(int p, int delta) {
+        for(int i = p + 1; i < offsetTree.length; i += (i & -i)) {
+            offsetTree[i] += delta;
+        }
+    }
+    
+    /**
+     * Binary search by UID.
+     *
+     * @return the position of the UID, or <code>-(insertPoint + 1)</code>
+     */
+    private int findUid(int uid) {
+        int low = 0;
+        int high = length - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(uids[mid] < uid) {
+                low = mid + 1;
+            }
+            else if(uids[mid] > uid) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+    
+    /**
+     * Binary search for the first entry that is either known and at or after
+     * the provided index, or expunged and after the provided index.  Entries
+     * are always in order by this comparison, as an expunged entry never has
+     * an index greater than the known entry following it.
+     *
+     * @return the position of the entry, or the number of entries if none
+     */
+    private int findIndex(int index) {
+        int low = 0;
+        int high = length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            int midIndex = indexAt(mid);
+            if(midIndex < index || (midIndex == index && tokens[mid] == null)) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Rebuilds the arrays with the current message indices and no expunged
+     * entries, making sure there is room for the requested number of entries.
+     */
+    private void rebuild(int minCapacity) {
+        int[] oldUids = uids;
+        int[] oldIndices = new int[length];
+        ImapMessageToken[] oldTokens = tokens;
+        int oldLength = length;
+        for(int p = 0; p < oldLength; p++) {
+            oldIndices[p] = indexAt(p);
+        }
+        
+        allocate(Math.max(INITIAL_CAPACITY, Math.max(minCapacity, size * 2)));
+        for(int p = 0; p < oldLength; p++) {
+            if(oldTokens[p] != null) {
+                uids[length] = oldUids[p];
+                baseIndices[length] = oldIndices[p];
+                tokens[length] = oldTokens[p];
+                length++;
+            }
+        }
+        size = length;
+    }
+}
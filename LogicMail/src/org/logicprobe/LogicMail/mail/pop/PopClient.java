@@ -32,11 +32,12 @@
 package org.logicprobe.LogicMail.mail.pop;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
 
 import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.IntIntHashtable;
 import net.rim.device.api.util.ToIntHashtable;
 
 import org.logicprobe.LogicMail.conf.AccountConfig;
@@ -51,6 +52,7 @@ import org.logicprobe.LogicMail.mail.FolderMessageCallback;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
+import org.logicprobe.LogicMail.mail.MessageContentCallback;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.Message;
@@ -61,6 +63,7 @@ import org.logicprobe.LogicMail.message.MimeMessagePart;
 import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.NetworkConnector;
 import org.logicprobe.LogicMail.util.MailMessageParser;
+import org.logicprobe.LogicMail.util.MailMessageStreamParser;
 import org.logicprobe.LogicMail.util.Watchdog;
 import org.logicprobe.LogicMail.util.WatchdogListener;
 
@@ -82,12 +85,28 @@ public class PopClient extends AbstractIncomingMailClient {
     private boolean openStarted;
     
     private static String CAPA_STLS = "STLS"; 
+    private static String CAPA_PIPELINING = "PIPELINING";
     
     /**
      * Table of supported server capabilities
      */
     private Hashtable capabilities;
     
+    /**
+     * Message UIDs by index, from the last time the full listing was
+     * requested during this session.  Since the server locks the mailbox
+     * while a client is connected, these remain valid until the connection
+     * is closed.
+     */
+    private String[] indexUids;
+    
+    /**
+     * Message sizes by index, from the first time the full listing was
+     * needed during this session.  Like the UIDs, these remain valid until
+     * the connection is closed.
+     */
+    private IntIntHashtable indexSizeMap;
+    
     /**
      * Active mailbox.  Since POP3 does not support multiple
      * mailboxes for a user, it is used to contain some
@@ -184,6 +203,8 @@ public class PopClient extends AbstractIncomingMailClient {
         if(!openStarted) {
             watchdog.shutdown();
             this.connection = localConnection;
+            indexUids = null;
+            indexSizeMap = null;
             popProtocol.setConnection(connection);
             popProtocol.setWatchdog(watchdog);
             watchdog.setDefaultTimeoutForConnection(connection.getConnectionType());
@@ -246,6 +267,8 @@ public class PopClient extends AbstractIncomingMailClient {
      */
     public void close() throws IOException, MailException {
         openStarted = false;
+        indexUids = null;
+        indexSizeMap = null;
         if(connection != null) {
             if(connection.isConnected()) {
                 try {
@@ -457,6 +480,11 @@ public class PopClient extends AbstractIncomingMailClient {
 	
     private void getFolderMessagesImpl(int[] indices, boolean flagsOnly, FolderMessageCallback callback, MailProgressHandler progressHandler)
     		throws IOException, MailException {
+        if(indices.length > 1) {
+            getFolderMessagesBulk(indices, flagsOnly, callback, progressHandler);
+            return;
+        }
+        
         for(int i=0; i<indices.length; i++) {
             MessageEnvelope env;
             if(!flagsOnly) {
@@ -484,13 +512,98 @@ public class PopClient extends AbstractIncomingMailClient {
         }
         callback.folderMessageUpdate(null);
     }
+    
+    /**
+     * Gets the folder messages for several indices, using the full UIDL and
+     * LIST responses for the mailbox instead of asking for each message
+     * separately.  These responses are only requested once per session.
+     * If the server supports pipelining, the headers are then requested with
+     * a single pipelined sequence of TOP commands.
+     */
+    private void getFolderMessagesBulk(int[] indices, boolean flagsOnly, final FolderMessageCallback callback, final MailProgressHandler progressHandler)
+            throws IOException, MailException {
+        if(indexUids == null) {
+            getFolderMessageUids(progressHandler);
+        }
+        if(indexSizeMap == null) {
+            indexSizeMap = popProtocol.executeList(progressHandler);
+        }
+        final int total = indices.length;
+        
+        PopProtocol.TopCallback topCallback = new PopProtocol.TopCallback() {
+            private int count;
+            public void responseAvailable(int index, byte[][] lines) {
+                MessageEnvelope env;
+                if(lines != null) {
+                    String[] headerText = new String[lines.length];
+                    for(int j=0; j<lines.length; j++) {
+                        headerText[j] = new String(lines[j]);
+                    }
+                    env = MailMessageParser.parseMessageEnvelope(headerText);
+                }
+                else {
+                    env = null;
+                }
+                
+                String uid = (index > 0 && index <= indexUids.length) ? indexUids[index - 1] : null;
+                if(uid != null) {
+                    int messageSize = indexSizeMap.containsKey(index) ? indexSizeMap.get(index) : 0;
+                    
+                    FolderMessage folderMessage = new FolderMessage(
+                            new PopMessageToken(index, uid),
+                            env, index, uid.hashCode(), messageSize);
+                    callback.folderMessageUpdate(folderMessage);
+                }
+                
+                count++;
+                if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_PROCESSING, count, total); }
+            }
+        };
+        
+        if(flagsOnly) {
+            for(int i=0; i<indices.length; i++) {
+                topCallback.responseAvailable(indices[i], null);
+            }
+        }
+        else if(capabilities != null && capabilities.containsKey(CAPA_PIPELINING)) {
+            popProtocol.executeTop(indices, 0, topCallback, progressHandler);
+        }
+        else {
+            for(int i=0; i<indices.length; i++) {
+                topCallback.responseAvailable(indices[i], popProtocol.executeTop(indices[i], 0));
+            }
+        }
+        callback.folderMessageUpdate(null);
+    }
 
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.AbstractIncomingMailClient#getFolderMessageIndexMap(org.logicprobe.LogicMail.mail.MailProgressHandler)
      */
     public ToIntHashtable getFolderMessageIndexMap(MailProgressHandler progressHandler) throws IOException, MailException {
-        ToIntHashtable indexUidMap = popProtocol.executeUidl(progressHandler);
-        return indexUidMap;
+        String[] uids = getFolderMessageUids(progressHandler);
+        ToIntHashtable uidIndexMap = new ToIntHashtable(uids.length);
+        for(int i=0; i<uids.length; i++) {
+            if(uids[i] != null) {
+                uidIndexMap.put(uids[i], i + 1);
+            }
+        }
+        return uidIndexMap;
+    }
+    
+    /**
+     * Gets the UIDs of all the messages in the mailbox, in mailbox order.
+     * This is the same information as
+     * {@link #getFolderMessageIndexMap(MailProgressHandler)}, without the
+     * cost of building a map from it.
+     *
+     * @param progressHandler the progress handler
+     * @return the message UIDs, where the UID of each message is at its
+     *     index minus one, and deleted messages have <code>null</code> entries
+     */
+    public String[] getFolderMessageUids(MailProgressHandler progressHandler) throws IOException, MailException {
+        // Keep the listing for later header requests
+        indexUids = popProtocol.executeUidl(progressHandler);
+        return indexUids;
     }
     
     /* (non-Javadoc)
@@ -504,67 +617,48 @@ public class PopClient extends AbstractIncomingMailClient {
     }
     
     /* (non-Javadoc)
-     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getMessage(org.logicprobe.LogicMail.mail.MessageToken, boolean, org.logicprobe.LogicMail.mail.MailProgressHandler)
+     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getMessage(org.logicprobe.LogicMail.mail.MessageToken, boolean, org.logicprobe.LogicMail.mail.MessageContentCallback, org.logicprobe.LogicMail.mail.MailProgressHandler)
      */
-    public Message getMessage(MessageToken messageToken, boolean useLimits, MailProgressHandler progressHandler) throws IOException, MailException {
+    public Message getMessage(MessageToken messageToken, boolean useLimits, MessageContentCallback contentCallback, MailProgressHandler progressHandler) throws IOException, MailException {
     	PopMessageToken popMessageToken = (PopMessageToken)messageToken;
     	
-    	byte[][] retrResult;
+    	// The message is parsed as it is received, so each part is decoded
+    	// once its data is complete and the raw message text is never held
+    	// in memory as a whole.  Decoded parts are handed to the content
+    	// callback right away, and only kept if it declines them.
+    	MessagePartCallback partCallback = new MessagePartCallback(contentCallback);
+    	MailMessageStreamParser parser = new MailMessageStreamParser(partCallback);
+    	MessageLineCallback lineCallback = new MessageLineCallback(parser);
+    	
     	boolean messageNotTruncated; 
     	if(useLimits) {
             // Figure out the max number of lines
             int maxLines = accountConfig.getMaxMessageLines();
 
             // Download the message text
-            retrResult = popProtocol.executeTop(popMessageToken.getMessageIndex(), maxLines, progressHandler);
+            popProtocol.executeTop(popMessageToken.getMessageIndex(), maxLines, lineCallback, progressHandler);
     	    
-            // Find how many lines were actually returned
-            int retrievedLines = 0;
-            for(int i=0; i<retrResult.length; i++) {
-                int lineLength = retrResult[i].length;
-                if(lineLength == 0
-                        || (lineLength == 1 && retrResult[i][0] == '\n')
-                        || (lineLength == 2 && retrResult[i][0] == '\r' && retrResult[i][1] == '\n')) {
-                    retrievedLines = retrResult.length - i - 1;
-                    break;
-                }
-            }
-            
-            messageNotTruncated = retrievedLines < maxLines;
+            messageNotTruncated = lineCallback.getBodyLineCount() < maxLines;
     	}
     	else {
     	    messageNotTruncated = true;
-    	    retrResult = popProtocol.executeRetr(popMessageToken.getMessageIndex(), progressHandler);
+    	    popProtocol.executeRetr(popMessageToken.getMessageIndex(), lineCallback, progressHandler);
     	}
         
         // Note: The "are we complete?" logic may return confusing results in
         // the special case where maxLines == retrievedLines and we are
         // downloading a single-part message with no separators.
+        partCallback.setMessageNotTruncated(messageNotTruncated);
 
-        InputStream inputStream = MailMessageParser.convertMessageResultToStream(retrResult);
-        
-        Hashtable contentMap = new Hashtable();
-        MimeMessagePart rootPart = MailMessageParser.parseRawMessage(contentMap, inputStream);
+        MimeMessagePart rootPart = parser.finish();
         if(rootPart != null) {
-            int partComplete = ((Integer)contentMap.get(Boolean.TRUE)).intValue();
-            boolean complete = messageNotTruncated || partComplete == 1;
+            boolean complete = messageNotTruncated || parser.isComplete();
             
             Message msg = new Message(rootPart, complete);
-            Enumeration e = contentMap.keys();
+            Enumeration e = partCallback.getContent().elements();
             while(e.hasMoreElements()) {
-                Object element = e.nextElement();
-                if(!(element instanceof MimeMessagePart)) { continue; }
-                MimeMessagePart part = (MimeMessagePart)element;
-                MimeMessageContent content = (MimeMessageContent)contentMap.get(part);
-                if(content.getRawData().length == 0) { continue; }
-                
-                // Avoid confusing results if we have a single-part message with
-                // no section separators, and we think we got all of it.
-                if(part == rootPart && messageNotTruncated) {
-                    content.setPartComplete(MimeMessageContent.PART_COMPLETE);
-                }
-                
-                msg.putContent(part, content);
+                MimeMessageContent content = (MimeMessageContent)e.nextElement();
+                msg.putContent(content.getMessagePart(), content);
             }
             
             return msg;
@@ -597,4 +691,70 @@ public class PopClient extends AbstractIncomingMailClient {
     public void noop() throws IOException, MailException {
     	popProtocol.executeNoop();
 	}
+
+    /**
+     * Receives the parts of a downloaded message from the parser, and passes
+     * them on to the content callback as soon as each one is complete.  Only
+     * the parts the content callback does not take ownership of are kept.
+     */
+    private static class MessagePartCallback implements MailMessageStreamParser.PartCallback {
+        private final MessageContentCallback contentCallback;
+        private final Vector content = new Vector();
+        private boolean messageNotTruncated;
+        
+        public MessagePartCallback(MessageContentCallback contentCallback) {
+            this.contentCallback = contentCallback;
+        }
+        
+        public void setMessageNotTruncated(boolean messageNotTruncated) {
+            this.messageNotTruncated = messageNotTruncated;
+        }
+        
+        public void partAvailable(MimeMessagePart part, MimeMessageContent partContent) {
+            if(partContent == null || partContent.getRawData().length == 0) { return; }
+            
+            // Avoid confusing results if we have a single-part message with
+            // no section separators, and we think we got all of it.  The root
+            // of such a message is only passed here once parsing finishes.
+            if(part.getParent() == null && messageNotTruncated) {
+                partContent.setPartComplete(MimeMessageContent.PART_COMPLETE);
+            }
+            
+            if(contentCallback == null || contentCallback.messageContentAvailable(partContent)) {
+                content.addElement(partContent);
+            }
+        }
+        
+        public Vector getContent() {
+            return content;
+        }
+    }
+    
+    /**
+     * Passes the lines of a downloaded message to the parser, while counting
+     * the lines that follow the message headers.
+     */
+    private static class MessageLineCallback implements PopProtocol.LineCallback {
+        private final MailMessageStreamParser parser;
+        private boolean inHeaders = true;
+        private int bodyLineCount;
+        
+        public MessageLineCallback(MailMessageStreamParser parser) {
+            this.parser = parser;
+        }
+        
+        public void lineAvailable(byte[] line) {
+            if(inHeaders) {
+                if(line.length == 0) { inHeaders = false; }
+            }
+            else {
+                bodyLineCount++;
+            }
+            parser.parseLine(line);
+        }
+        
+        public int getBodyLineCount() {
+            return bodyLineCount;
+        }
+    }
 }
@@ -36,12 +36,13 @@ import java.util.Hashtable;
 
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
-import net.rim.device.api.util.ToIntHashtable;
+import net.rim.device.api.util.IntIntHashtable;
 
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
 import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.LineAccumulator;
 import org.logicprobe.LogicMail.util.StringArrays;
 import org.logicprobe.LogicMail.util.Watchdog;
 
@@ -49,8 +50,20 @@ import org.logicprobe.LogicMail.util.Watchdog;
  * This class implements the commands for the POP3 protocol
  */
 public class PopProtocol {
+    /**
+     * Maximum number of pipelined commands that may be awaiting a response
+     * at any given time.
+     */
+    private static final int PIPELINE_DEPTH = 10;
+    
     private Connection connection;
     private Watchdog watchdog;
+    private final LineAccumulator responseLines = new LineAccumulator();
+    private final LineCallback responseLineCallback = new LineCallback() {
+        public void lineAvailable(byte[] line) {
+            responseLines.add(line);
+        }
+    };
     
     /** Creates a new instance of PopProtocol */
     public PopProtocol() {
@@ -238,6 +251,37 @@ public class PopProtocol {
         }
     }
     
+    /**
+     * Execute the "LIST" command for the entire mailbox.
+     * 
+     * @param progressHandler progress handler
+     * @return Map of message indices to sizes, in bytes
+     */
+    public IntIntHashtable executeList(MailProgressHandler progressHandler) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeList()").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        
+        byte[][] result = executeFollowBinary(LIST, true, progressHandler);
+        IntIntHashtable indexSizeMap = new IntIntHashtable(result.length);
+        
+        for(int i=0; i<result.length; i++) {
+            byte[] line = result[i];
+            int p = Arrays.getIndex(line, (byte)' ');
+            if(p > 0 && p < line.length - 1) {
+                try {
+                    int index = StringArrays.parseInt(line, 0, p);
+                    int size = StringArrays.parseInt(line, p + 1, line.length - p - 1);
+                    indexSizeMap.put(index, size);
+                } catch (Exception e) { }
+            }
+        }
+        return indexSizeMap;
+    }
+    
     /**
      * Execute the "TOP" command
      * @param index Message index
@@ -263,6 +307,118 @@ public class PopProtocol {
         return executeFollowBinary(TOP_ + index + ' ' + lines, true, progressHandler);
     }
     
+    /**
+     * Execute the "TOP" command, passing each line of the response to the
+     * callback as it is received instead of collecting the whole response.
+     * @param index Message index
+     * @param lines Number of lines to retrieve
+     * @param callback Callback for notification of each line
+     * @param progressHandler progress handler
+     */
+    public void executeTop(int index, int lines, LineCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeTop("+index+", "+lines+")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        executeFollowBinary(TOP_ + index + ' ' + lines, callback, progressHandler);
+    }
+    
+    /**
+     * Execute the "TOP" command for several messages, using command
+     * pipelining as defined in RFC 2449.
+     * <p>
+     * Commands are sent without waiting for the preceding responses, while
+     * keeping a limited number outstanding, and each response is passed to
+     * the callback as soon as it has been received.  This should only be
+     * used if the server has advertised the "PIPELINING" capability.
+     * </p>
+     * <p>
+     * If the callback throws, no further responses are passed to it, but
+     * the remaining responses are still read so the connection is left in
+     * a usable state before the exception is rethrown.
+     * </p>
+     *
+     * @param indices Message indices
+     * @param lines Number of lines to retrieve
+     * @param callback Callback for notification of each response
+     * @param progressHandler progress handler
+     * @throws MailException if any of the commands failed, after all the
+     *   successful responses have been passed to the callback
+     */
+    public void executeTop(int[] indices, int lines, TopCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeTop({" + indices.length + "}, " + lines + ")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        if(indices.length == 0) { return; }
+        
+        String suffix = " " + lines + "\r\n";
+        
+        // Send the initial window of commands as a single write
+        int sent = Math.min(PIPELINE_DEPTH, indices.length);
+        StringBuffer commandBuf = new StringBuffer();
+        for(int i=0; i<sent; i++) {
+            commandBuf.append(TOP_).append(indices[i]).append(suffix);
+        }
+        
+        watchdog.start();
+        byte[] data = commandBuf.toString().getBytes();
+        connection.sendRaw(data, 0, data.length);
+        watchdog.kick();
+        
+        String failedResult = null;
+        RuntimeException callbackException = null;
+        Error callbackError = null;
+        for(int i=0; i<indices.length; i++) {
+            int preCount = connection.getBytesReceived();
+            byte[] status = connection.receive();
+            watchdog.kick();
+            
+            // Keep the pipeline full
+            if(sent < indices.length) {
+                commandBuf.setLength(0);
+                commandBuf.append(TOP_).append(indices[sent]).append(suffix);
+                data = commandBuf.toString().getBytes();
+                connection.sendRaw(data, 0, data.length);
+                watchdog.kick();
+                sent++;
+            }
+            
+            int postCount = connection.getBytesReceived();
+            if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK, (postCount - preCount), -1); }
+            
+            if(status.length > 0 && status[0] == '-') {
+                if(failedResult == null) { failedResult = new String(status); }
+                continue;
+            }
+            
+            byte[][] result = receiveFollowBinary(progressHandler);
+            if(callbackException != null || callbackError != null) { continue; }
+            try {
+                callback.responseAvailable(indices[i], result);
+            } catch (RuntimeException e) {
+                callbackException = e;
+            } catch (Error e) {
+                callbackError = e;
+            }
+        }
+        watchdog.cancel();
+        
+        if(callbackError != null) {
+            throw callbackError;
+        }
+        else if(callbackException != null) {
+            throw callbackException;
+        }
+        else if(failedResult != null) {
+            throw new MailException(failedResult);
+        }
+    }
+    
     /**
      * Execute the "RETR" command
      * @param index Message index
@@ -278,6 +434,23 @@ public class PopProtocol {
         return executeFollowBinary(RETR_ + index, true, progressHandler);
     }
     
+    /**
+     * Execute the "RETR" command, passing each line of the response to the
+     * callback as it is received instead of collecting the whole response.
+     * @param index Message index
+     * @param callback Callback for notification of each line
+     * @param progressHandler progress handler
+     */
+    public void executeRetr(int index, LineCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeRetr("+index+")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        executeFollowBinary(RETR_ + index, callback, progressHandler);
+    }
+    
     /**
      * Execute the "UIDL" command for a specific message index.
      * @param index Message index
@@ -303,9 +476,11 @@ public class PopProtocol {
      * Execute the "UIDL" command for the entire mailbox.
      * 
      * @param progressHandler progress handler
-     * @return Map of <code>String</code> message UIDs to index values
+     * @return message UIDs in mailbox order, where the UID of each message
+     *     is at its index minus one, and messages that were not listed
+     *     have <code>null</code> entries
      */
-    public ToIntHashtable executeUidl(MailProgressHandler progressHandler) throws IOException, MailException {
+    public String[] executeUidl(MailProgressHandler progressHandler) throws IOException, MailException {
         if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(
             AppInfo.GUID,
@@ -314,21 +489,29 @@ public class PopProtocol {
         }
         
         byte[][] result = executeFollowBinary(UIDL, true, progressHandler);
-        ToIntHashtable uidIndexMap = new ToIntHashtable(result.length);
         
+        // Messages deleted during this session are left out of the listing,
+        // so the last index may be higher than the number of lines.
+        int[] indices = new int[result.length];
+        int maxIndex = 0;
         for(int i=0; i<result.length; i++) {
-            byte[] line = result[i];
-            int p = Arrays.getIndex(line, (byte)' ');
-            int uidLen = line.length - p - 1;
-            if(p > 0 && uidLen > 0) {
+            int p = Arrays.getIndex(result[i], (byte)' ');
+            if(p > 0 && p < result[i].length - 1) {
                 try {
-                    int index = StringArrays.parseInt(line, 0, p);
-                    String uid = new String(line, p + 1, uidLen);
-                    uidIndexMap.put(uid, index);
-                } catch (Exception e) { }
+                    indices[i] = StringArrays.parseInt(result[i], 0, p);
+                    if(indices[i] > maxIndex) { maxIndex = indices[i]; }
+                } catch (NumberFormatException e) { }
             }
         }
-        return uidIndexMap;
+        
+        String[] uids = new String[maxIndex];
+        for(int i=0; i<result.length; i++) {
+            if(indices[i] > 0) {
+                int p = Arrays.getIndex(result[i], (byte)' ');
+                uids[indices[i] - 1] = new String(result[i], p + 1, result[i].length - p - 1);
+            }
+        }
+        return uids;
     }
     
     /**
@@ -382,15 +565,47 @@ public class PopProtocol {
             return null;
         }
         
+        int postCount = connection.getBytesReceived();
+        if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK, (postCount - preCount), -1); }
+        
+        byte[][] lines = receiveFollowBinary(progressHandler);
+        watchdog.cancel();
+        return lines;
+    }
+    
+    /**
+     * Receives the lines of a multi-line response, following a successful
+     * status line, until a lone "." is encountered.
+     *
+     * @param progressHandler progress handler
+     * @return An array of lines containing the response
+     */
+    private byte[][] receiveFollowBinary(MailProgressHandler progressHandler) throws IOException {
+        responseLines.clear();
+        receiveFollowBinary(responseLineCallback, progressHandler);
+        byte[][] lines = responseLines.toArray();
+        responseLines.clear();
+        return lines;
+    }
+    
+    /**
+     * Receives the lines of a multi-line response, following a successful
+     * status line, until a lone "." is encountered.  Each line is passed
+     * to the callback as soon as it has been received.
+     *
+     * @param callback Callback for notification of each line
+     * @param progressHandler progress handler
+     */
+    private void receiveFollowBinary(LineCallback callback, MailProgressHandler progressHandler) throws IOException {
+        int preCount = connection.getBytesReceived();
         byte[] buffer = connection.receive();
         watchdog.kick();
         
         int postCount = connection.getBytesReceived();
         if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK, (postCount - preCount), -1); }
 
-        byte[][] lines = new byte[0][];
         while(buffer != null && !(buffer.length == 1 && buffer[0] == CHAR_PERIOD)) {
-            Arrays.add(lines, unescapeDots(buffer));
+            callback.lineAvailable(unescapeDots(buffer));
             preCount = postCount;
             buffer = connection.receive();
             watchdog.kick();
@@ -398,8 +613,27 @@ public class PopProtocol {
             postCount = connection.getBytesReceived();
             if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK, (postCount - preCount), -1); }
         }
+    }
+    
+    /**
+     * Execute a POP3 command that returns multiple lines, passing each line
+     * to the callback as it is received.  An "-ERR" response to the command
+     * will generate an exception.
+     *
+     * @param command The command to execute
+     * @param callback Callback for notification of each line
+     * @param progressHandler progress handler
+     */
+    private void executeFollowBinary(String command, LineCallback callback, MailProgressHandler progressHandler) throws IOException, MailException {
+        int preCount = connection.getBytesReceived();
+        watchdog.start();
+        executeImpl(command, true);
+        
+        int postCount = connection.getBytesReceived();
+        if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK, (postCount - preCount), -1); }
+        
+        receiveFollowBinary(callback, progressHandler);
         watchdog.cancel();
-        return lines;
     }
     
     /**
@@ -481,11 +715,38 @@ public class PopProtocol {
         return result;
     }
     
+    /**
+     * Callback for the lines of a multi-line response.
+     */
+    public static interface LineCallback {
+        /**
+         * Called when a line of the response has been received.
+         *
+         * @param line the line, without the CRLF and with any escaped
+         *   leading dot removed
+         */
+        void lineAvailable(byte[] line);
+    }
+    
+    /**
+     * Callback for pipelined "TOP" commands.
+     */
+    public static interface TopCallback {
+        /**
+         * Called when the response to a "TOP" command has been received.
+         *
+         * @param index Message index
+         * @param lines the lines of the response
+         */
+        void responseAvailable(int index, byte[][] lines);
+    }
+    
     // String constants
     private static String NOOP = "NOOP";
     private static String DELE_ = "DELE ";
     private static String UIDL = "UIDL";
     private static String UIDL_ = "UIDL ";
+    private static String LIST = "LIST";
     private static String LIST_ = "LIST ";
     private static String TOP_ = "TOP ";
     private static String RETR_ = "RETR ";
@@ -48,7 +48,10 @@ import org.logicprobe.LogicMail.util.MailMessageParser;
 import org.logicprobe.LogicMail.util.Watchdog;
 import org.logicprobe.LogicMail.util.WatchdogListener;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import java.util.Hashtable;
 
@@ -74,6 +77,9 @@ public class SmtpClient implements OutgoingMailClient {
      */
     private Hashtable capabilities;
     
+    private static final String CAPA_PIPELINING = "PIPELINING";
+    private static final String CAPA_CHUNKING = "CHUNKING";
+    
     private MailSettingsListener mailSettingsListener = new MailSettingsListener() {
             public void mailSettingsSaved(MailSettingsEvent e) {
                 mailSettings_MailSettingsSaved(e);
@@ -227,7 +233,7 @@ public class SmtpClient implements OutgoingMailClient {
         this.password = password;
     }
 
-    public byte[] sendMessage(MessageEnvelope envelope, Message message)
+    public String sendMessage(MessageEnvelope envelope, Message message)
         throws IOException, MailException {
         if (!isFresh) {
             smtpProtocol.executeReset();
@@ -235,33 +241,61 @@ public class SmtpClient implements OutgoingMailClient {
 
         isFresh = false;
 
-        byte[] rawMessage = generateRawMessage(envelope, message);
+        RawMessageOutputStream rawMessage = generateRawMessage(envelope, message);
+        InputStream messageStream = rawMessage.getInputStream();
 
-        sendEnvelopeInformation(envelope);
+        boolean chunking = hasCapability(CAPA_CHUNKING);
+        boolean dataAccepted;
+        if (hasCapability(CAPA_PIPELINING)) {
+            // BDAT carries the message itself, so it can only be sent once
+            // all the recipients are known to be accepted
+            dataAccepted = sendEnvelopeInformationPipelined(envelope, !chunking);
+        } else {
+            sendEnvelopeInformation(envelope);
+            dataAccepted = false;
+        }
 
         // Send the message
-        if (!smtpProtocol.executeData(rawMessage)) {
+        boolean result;
+        if (chunking) {
+            result = smtpProtocol.executeBinaryData(messageStream, rawMessage.size());
+        } else if (dataAccepted) {
+            result = smtpProtocol.executeDataContent(messageStream);
+        } else {
+            result = smtpProtocol.executeData(messageStream);
+        }
+        if (!result) {
             throw new MailException("Error sending message");
         }
 
-        return rawMessage;
+        return rawMessage.toString();
     }
     
-    private byte[] generateRawMessage(MessageEnvelope envelope, Message message) {
-        // Serialize the message
-        MessageMimeConverter messageMimeConverter = new MessageMimeConverter(message);
-
+    private boolean hasCapability(String capability) {
+        return capabilities != null && capabilities.containsKey(capability);
+    }
+    
+    private RawMessageOutputStream generateRawMessage(MessageEnvelope envelope, Message message) {
         // Generate the envelope headers
         byte[] messageHeaderData = MailMessageParser.generateMessageHeaders(envelope, true).getBytes();
-
-        // Generate the body headers and content
-        byte[] messageMimeData = messageMimeConverter.toMimeByteArray();
-
-        // Combine the two into the raw message
-        byte[] rawMessage = new byte[messageHeaderData.length + messageMimeData.length];
-        System.arraycopy(messageHeaderData, 0, rawMessage, 0, messageHeaderData.length);
-        System.arraycopy(messageMimeData, 0, rawMessage, messageHeaderData.length, messageMimeData.length);
-        return rawMessage;
+        RawMessageOutputStream output = new RawMessageOutputStream();
+        output.write(messageHeaderData, 0, messageHeaderData.length);
+
+        // Generate the body headers and content directly after them, so
+        // the serialized message does not have to be copied to combine them
+        MessageMimeConverter messageMimeConverter = new MessageMimeConverter(message, output);
+        messageMimeConverter.toMimeStream();
+        return output;
+    }
+    
+    /**
+     * Holds the serialized message, and allows it to be sent directly from
+     * the underlying buffer instead of from a copy of it.
+     */
+    private static class RawMessageOutputStream extends ByteArrayOutputStream {
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
     }
 
     private void sendEnvelopeInformation(MessageEnvelope envelope)
@@ -270,30 +304,114 @@ public class SmtpClient implements OutgoingMailClient {
             throw new MailException("Error with sender");
         }
 
-        for (int i = 0; i < envelope.to.length; i++) {
-            String address = stripEmail(envelope.to[i]);
-            if (!smtpProtocol.executeRecipient(address)) {
-                throw new RecipientException(RecipientException.RECIPIENT_TO, address);
+        String[] addresses = getRecipientAddresses(envelope);
+        int[] types = getRecipientTypes(envelope);
+        for (int i = 0; i < addresses.length; i++) {
+            if (!smtpProtocol.executeRecipient(addresses[i])) {
+                throw new RecipientException(types[i], addresses[i]);
+            }
+        }
+    }
+
+    /**
+     * Sends the envelope information as a single pipelined group of
+     * commands, optionally followed by the DATA command.
+     * <p>
+     * If the server accepts the DATA command even though the sender or a
+     * recipient was rejected, then it is already waiting for the message
+     * content.  The only way to keep it from delivering the message to the
+     * remaining recipients is to drop the connection, which makes the
+     * server discard the transaction.
+     * </p>
+     *
+     * @return true, if the DATA command was sent and accepted
+     */
+    private boolean sendEnvelopeInformationPipelined(MessageEnvelope envelope, boolean includeData)
+            throws IOException, MailException, RecipientException {
+        String[] addresses = getRecipientAddresses(envelope);
+        int[] types = getRecipientTypes(envelope);
+        boolean[] results = smtpProtocol.executePipelinedEnvelope(
+                stripEmail(envelope.from[0]), addresses, includeData);
+        boolean dataAccepted = includeData && results[results.length - 1];
+
+        MailException exception = null;
+        if (!results[0]) {
+            exception = new MailException("Error with sender");
+        } else {
+            for (int i = 0; i < addresses.length; i++) {
+                if (!results[i + 1]) {
+                    exception = new RecipientException(types[i], addresses[i]);
+                    break;
+                }
+            }
+        }
+
+        if (exception != null) {
+            if (dataAccepted) {
+                abortConnection();
             }
+            throw exception;
         }
+        if (includeData && !dataAccepted) {
+            throw new MailException("Error sending message");
+        }
+        return dataAccepted;
+    }
+
+    /**
+     * Closes the connection without sending anything further to the server.
+     */
+    private void abortConnection() throws IOException {
+        openStarted = false;
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (watchdog.isStarted()) { watchdog.cancel(); }
+    }
 
+    private static String[] getRecipientAddresses(MessageEnvelope envelope) {
+        String[] addresses = new String[getRecipientCount(envelope)];
+        int n = 0;
+        for (int i = 0; i < envelope.to.length; i++) {
+            addresses[n++] = stripEmail(envelope.to[i]);
+        }
         if (envelope.cc != null) {
             for (int i = 0; i < envelope.cc.length; i++) {
-                String address = stripEmail(envelope.cc[i]);
-                if (!smtpProtocol.executeRecipient(address)) {
-                    throw new RecipientException(RecipientException.RECIPIENT_CC, address);
-                }
+                addresses[n++] = stripEmail(envelope.cc[i]);
             }
         }
+        if (envelope.bcc != null) {
+            for (int i = 0; i < envelope.bcc.length; i++) {
+                addresses[n++] = stripEmail(envelope.bcc[i]);
+            }
+        }
+        return addresses;
+    }
 
+    private static int[] getRecipientTypes(MessageEnvelope envelope) {
+        int[] types = new int[getRecipientCount(envelope)];
+        int n = 0;
+        for (int i = 0; i < envelope.to.length; i++) {
+            types[n++] = RecipientException.RECIPIENT_TO;
+        }
+        if (envelope.cc != null) {
+            for (int i = 0; i < envelope.cc.length; i++) {
+                types[n++] = RecipientException.RECIPIENT_CC;
+            }
+        }
         if (envelope.bcc != null) {
             for (int i = 0; i < envelope.bcc.length; i++) {
-                String address = stripEmail(envelope.bcc[i]);
-                if (!smtpProtocol.executeRecipient(address)) {
-                    throw new RecipientException(RecipientException.RECIPIENT_BCC, address);
-                }
+                types[n++] = RecipientException.RECIPIENT_BCC;
             }
         }
+        return types;
+    }
+
+    private static int getRecipientCount(MessageEnvelope envelope) {
+        return envelope.to.length
+            + ((envelope.cc != null) ? envelope.cc.length : 0)
+            + ((envelope.bcc != null) ? envelope.bcc.length : 0);
     }
 
     private static String stripEmail(String input) {
@@ -31,18 +31,21 @@
 
 package org.logicprobe.LogicMail.mail.smtp;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Hashtable;
 
 import net.rim.device.api.crypto.MD5Digest;
 import net.rim.device.api.io.Base64InputStream;
 import net.rim.device.api.io.Base64OutputStream;
 import net.rim.device.api.system.EventLogger;
-import net.rim.device.api.util.Arrays;
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.util.Connection;
-import org.logicprobe.LogicMail.util.StringArrays;
+import org.logicprobe.LogicMail.util.DotStuffingOutputStream;
+import org.logicprobe.LogicMail.util.LineAccumulator;
 import org.logicprobe.LogicMail.util.Watchdog;
 
 /**
@@ -51,6 +54,7 @@ import org.logicprobe.LogicMail.util.Watchdog;
 public class SmtpProtocol {
     private Connection connection;
     private Watchdog watchdog;
+    private final LineAccumulator responseLines = new LineAccumulator();
     
     /** Specifies the PLAIN authentication mechanism */
     public static final int AUTH_PLAIN = 1;
@@ -295,16 +299,71 @@ public class SmtpProtocol {
         return result.startsWith(CODE_250);
     }
     
+    /**
+     * Execute the "MAIL FROM" and "RCPT TO" commands, and optionally the
+     * "DATA" command, as a single pipelined group.
+     * This should only be used if the server supports the PIPELINING
+     * extension (RFC 2920).  All the commands are sent in a single write,
+     * and their replies are then matched up in the order they were sent.
+     * <p>
+     * If the "DATA" command is included and succeeds, then the server is
+     * waiting for the message content, which must be sent with
+     * {@link #executeDataContent(byte[])}.
+     * </p>
+     *
+     * @param sender Sender of the message, formatted the standard way,
+     *               as "foo@bar.com"
+     * @param recipients Recipients of the message, formatted the same way
+     * @param includeData True to end the group with the "DATA" command
+     * @return The success of each command, in the order they were sent
+     */
+    public boolean[] executePipelinedEnvelope(String sender, String[] recipients, boolean includeData) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("SmtpProtocol.executePipelinedEnvelope(\""+sender+"\", "+recipients.length+", "+includeData+")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        
+        StringBuffer buf = new StringBuffer();
+        buf.append("MAIL FROM:<").append(sender).append(">\r\n");
+        for(int i=0; i<recipients.length; i++) {
+            buf.append("RCPT TO:<").append(recipients[i]).append(">\r\n");
+        }
+        if(includeData) {
+            buf.append(DATA).append("\r\n");
+        }
+        byte[] commands = buf.toString().getBytes();
+        
+        watchdog.start();
+        connection.sendRaw(commands, 0, commands.length);
+        
+        boolean[] results = new boolean[recipients.length + (includeData ? 2 : 1)];
+        for(int i=0; i<results.length; i++) {
+            String result = receiveReply();
+            watchdog.kick();
+            if(includeData && i == results.length - 1) {
+                results[i] = result.startsWith(CODE_354);
+            }
+            else {
+                results[i] = result.startsWith(CODE_250);
+            }
+        }
+        watchdog.cancel();
+        return results;
+    }
+    
     /**
      * Execute the "DATA" command.
-     * @param message Message data fully serialized into a flat ASCII byte array
+     * @param message Stream providing the message data, serialized into
+     *                ASCII text
      * @return True if successful, false on failure
      */
-    public boolean executeData(byte[] message) throws IOException, MailException {
+    public boolean executeData(InputStream message) throws IOException, MailException {
         if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(
             AppInfo.GUID,
-            ("SmtpProtocol.executeData(\""+message+"\")").getBytes(),
+            ("SmtpProtocol.executeData()").getBytes(),
             EventLogger.DEBUG_INFO);
         }
 
@@ -316,44 +375,124 @@ public class SmtpProtocol {
         watchdog.kick();
         
         if(!result.startsWith(CODE_354)) {
+            watchdog.cancel();
             return false;
         }
         
-        int offset = 0;
-        while(offset < message.length) {
-            int p = StringArrays.indexOf(message, CHAR_LF, offset);
-            int len;
-            if(p != -1) {
-                len = (p + 1) - offset;
-            }
-            else {
-                len = message.length - offset;
-            }
-            
-            if(len == 0) { break; }
-            if(message[offset] == CHAR_PERIOD) {
-                byte[] escapedLine = new byte[len + 1];
-                escapedLine[0] = CHAR_PERIOD;
-                System.arraycopy(message, offset, escapedLine, 1, len);
-                connection.sendRaw(escapedLine, 0, escapedLine.length);
-            }
-            else {
-                connection.sendRaw(message, offset, len);
-            }
-			watchdog.kick();
-            offset += len;
+        return sendDataContent(message);
+    }
+    
+    /**
+     * Send the message content following a "DATA" command that has already
+     * been accepted by the server, such as one sent as part of
+     * {@link #executePipelinedEnvelope(String, String[], boolean)}.
+     * @param message Stream providing the message data, serialized into
+     *                ASCII text
+     * @return True if successful, false on failure
+     */
+    public boolean executeDataContent(InputStream message) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("SmtpProtocol.executeDataContent()").getBytes(),
+            EventLogger.DEBUG_INFO);
         }
         
-        connection.sendCommand("\r\n.");
+        watchdog.start();
+        return sendDataContent(message);
+    }
+    
+    private boolean sendDataContent(InputStream message) throws IOException {
+        // The message is passed through a dot-stuffing buffer, so it only
+        // reaches the connection in large blocks
+        DotStuffingOutputStream output =
+            new DotStuffingOutputStream(new ConnectionOutputStream());
+        copyStream(message, output, -1);
+        output.finish();
         watchdog.cancel();
 
         // Wait without a watchdog, which will fail if the underlying
         // connection hits a timeout.
-        result = new String(connection.receive());
+        String result = new String(connection.receive());
 		
         return result.startsWith(CODE_250);
     }
     
+    /**
+     * Execute the "BDAT" command, sending the whole message as the last
+     * and only chunk.
+     * This should only be used if the server supports the CHUNKING
+     * extension (RFC 3030).  Since the size of the message is given up
+     * front, the content is sent as-is, without any dot-stuffing.
+     * @param message Stream providing the message data
+     * @param length Length of the message data, in bytes
+     * @return True if successful, false on failure
+     */
+    public boolean executeBinaryData(InputStream message, int length) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("SmtpProtocol.executeBinaryData("+length+")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        
+        watchdog.start();
+        
+        byte[] command = (BDAT + ' ' + length + " LAST\r\n").getBytes();
+        connection.sendRaw(command, 0, command.length);
+        watchdog.kick();
+        copyStream(message, new ConnectionOutputStream(), length);
+        watchdog.cancel();
+        
+        // Wait without a watchdog, which will fail if the underlying
+        // connection hits a timeout.
+        String result = receiveReply();
+        
+        return result.startsWith(CODE_250);
+    }
+    
+    /**
+     * Copies data from an input stream to an output stream.
+     *
+     * @param input the input stream
+     * @param output the output stream
+     * @param length the number of bytes to copy, or -1 to copy until the
+     *     end of the input stream
+     */
+    private static void copyStream(InputStream input, OutputStream output, int length) throws IOException {
+        byte[] buf = new byte[COPY_BUFFER_SIZE];
+        int remaining = length;
+        while(remaining != 0) {
+            int len = (remaining > 0) ? Math.min(buf.length, remaining) : buf.length;
+            len = input.read(buf, 0, len);
+            if(len == -1) {
+                if(remaining > 0) { throw new EOFException(); }
+                break;
+            }
+            output.write(buf, 0, len);
+            if(remaining > 0) { remaining -= len; }
+        }
+    }
+    
+    /**
+     * Output stream that sends everything written to it directly to the
+     * connection, kicking the watchdog after each write.  Each write is
+     * sent with a separate call to the connection, so this should only be
+     * given data in large blocks.
+     */
+    private class ConnectionOutputStream extends OutputStream {
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+        
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(len > 0) {
+                connection.sendRaw(b, off, len);
+                watchdog.kick();
+            }
+        }
+    }
+    
     /**
      * Execute the "RSET" command.
      * @return True if successful, false on failure
@@ -408,7 +547,7 @@ public class SmtpProtocol {
 
     /**
      * Execute an SMTP command that returns multiple lines.
-     * This works by running the normal execute() and then
+     * This works by sending the command and then
      * receiving every new line until a line with a space
      * between the code and value is encountered.
      *
@@ -421,25 +560,44 @@ public class SmtpProtocol {
         if(command != null) {
             connection.sendCommand(command);
         }
-        connection.receive();
-        watchdog.kick();
-        
-        String buffer = new String(connection.receive());
-        watchdog.kick();
         
-        String[] lines = new String[0];
-        while(buffer != null) {
-            buffer = new String(connection.receive());
+        responseLines.clear();
+        byte[] buffer;
+        do {
+            buffer = connection.receive();
             watchdog.kick();
             
-            Arrays.add(lines, buffer);
-            if(buffer.length() >=4 && buffer.charAt(3) == ' ') {
-                break;
-            }
-        }
+            if(buffer == null) { break; }
+            responseLines.add(buffer);
+        } while(!isLastReplyLine(buffer));
         watchdog.cancel();
+        
+        String[] lines = responseLines.toStringArray();
+        responseLines.clear();
         return lines;
     }
+    
+    /**
+     * Receives a complete reply, which may span multiple lines, and returns
+     * the last line of it.
+     *
+     * @return the last line of the reply
+     */
+    private String receiveReply() throws IOException {
+        byte[] buffer = connection.receive();
+        while(buffer != null && !isLastReplyLine(buffer)) {
+            buffer = connection.receive();
+        }
+        return (buffer != null) ? new String(buffer) : "";
+    }
+    
+    /**
+     * Checks whether a reply line is the last line of its reply, which is
+     * the case when the reply code is followed by a space instead of a dash.
+     */
+    private static boolean isLastReplyLine(byte[] line) {
+        return line.length < 4 || line[3] != (byte)'-';
+    }
 
     private static final char[] HEX_CHARS =
         {'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
@@ -518,8 +676,8 @@ public class SmtpProtocol {
     private static String EHLO = "EHLO";
     private static String STARTTLS = "STARTTLS";
     private static String DATA = "DATA";
+    private static String BDAT = "BDAT";
     private static String RSET = "RSET";
     private static String QUIT = "QUIT";
-    private static final byte CHAR_PERIOD = (byte)'.';
-    private static final byte CHAR_LF = (byte)'\n';
+    private static final int COPY_BUFFER_SIZE = DotStuffingOutputStream.DEFAULT_BUFFER_SIZE;
 }
@@ -61,8 +61,21 @@ public class MessageMimeConverter {
     
     /** Creates a new instance of MessageMimeConverter */
     public MessageMimeConverter(Message message) {
+        this(message, new ByteArrayOutputStream());
+    }
+    
+    /**
+     * Creates a new instance of MessageMimeConverter, which appends the MIME
+     * data to an existing stream.  Anything already written to the stream,
+     * such as message headers, is then included in the contents of this
+     * converter without having to copy the MIME data to combine the two.
+     *
+     * @param message the message to convert
+     * @param output the stream to write the MIME data to
+     */
+    public MessageMimeConverter(Message message, ByteArrayOutputStream output) {
     	this.message = message;
-    	this.byteArrayOutputStream = new ByteArrayOutputStream();
+    	this.byteArrayOutputStream = output;
     	this.mimeOutputStream = null;
     	this.partMimeMap = new Hashtable();
     	this.partVisitor = new MessageMimeConverterPartVisitor();
@@ -88,6 +101,17 @@ public class MessageMimeConverter {
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * Get the stream containing the contents of this converter, so they can
+     * be read without making a copy of them.
+     *
+     * @return Stream containing the message encoded in MIME format
+     */
+    public ByteArrayOutputStream toMimeStream() {
+        processMessage();
+        return byteArrayOutputStream;
+    }
+
     private void processMessage() {
         if(!processed) {
             message.getStructure().accept(partVisitor);
@@ -37,6 +37,7 @@ import net.rim.device.api.system.PersistentObject;
 import net.rim.device.api.system.PersistentStore;
 import net.rim.device.api.collection.util.BigVector;
 
+import org.logicprobe.LogicMail.mail.FolderSyncState;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.message.FolderMessage;
@@ -161,6 +162,33 @@ public class FolderMessageCache {
         }
     }
     
+    /**
+     * Gets the point at which the cached messages for a folder were last
+     * synchronized with the mail server.
+     *
+     * @param folder the folder to get the synchronization point for
+     * @return the synchronization point, which will not be valid if unknown
+     */
+    public FolderSyncState getFolderSyncState(FolderTreeItem folder) {
+        synchronized(lockObj) {
+            return cacheObject.getFolderSyncState(folder);
+        }
+    }
+    
+    /**
+     * Sets the point at which the cached messages for a folder were last
+     * synchronized with the mail server.  This is only retained for folders
+     * that have cached messages, and is discarded along with them.
+     *
+     * @param folder the folder to set the synchronization point for
+     * @param syncState the synchronization point
+     */
+    public void setFolderSyncState(FolderTreeItem folder, FolderSyncState syncState) {
+        synchronized(lockObj) {
+            cacheObject.setFolderSyncState(folder, syncState);
+        }
+    }
+    
     public void removeFolder(FolderTreeItem folder) {
         synchronized(lockObj) {
             cacheObject.removeFolder(folder);
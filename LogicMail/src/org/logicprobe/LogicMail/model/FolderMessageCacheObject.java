@@ -34,8 +34,10 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import org.logicprobe.LogicMail.mail.FolderSyncState;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.PersistableFolderTreeItem;
+import org.logicprobe.LogicMail.mail.PopUidlIndex;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.PersistableFolderMessage;
 
@@ -65,6 +67,20 @@ public class FolderMessageCacheObject implements Persistable {
      */
     private LongHashtable cachedMessages;
     
+    /**
+     * Map of folder Unique IDs to <code>long[]</code> arrays containing the
+     * UIDVALIDITY and highest mod-sequence that the cached messages reflect,
+     * optionally followed by the UIDNEXT, EXISTS, and index-UID pairs of the
+     * mailbox state.
+     */
+    private LongHashtable cachedSyncState;
+    
+    /**
+     * Map of folder Unique IDs to <code>long[]</code> arrays containing the
+     * entries of the POP UIDL index that the cached messages reflect.
+     */
+    private LongHashtable cachedUidlIndex;
+    
     /**
      * Instantiates a new folder message cache object, when creating for the
      * first time.  This constructor is not expected to be called when this
@@ -79,6 +95,12 @@ public class FolderMessageCacheObject implements Persistable {
             cachedFolders = new LongHashtable();
             cachedMessages = new LongHashtable();
         }
+        if(cachedSyncState == null) {
+            cachedSyncState = new LongHashtable();
+        }
+        if(cachedUidlIndex == null) {
+            cachedUidlIndex = new LongHashtable();
+        }
     }
     
     public FolderTreeItem[] getFolders() {
@@ -110,6 +132,12 @@ public class FolderMessageCacheObject implements Persistable {
     public void removeFolder(FolderTreeItem folder) {
         cachedFolders.remove(folder.getUniqueId());
         cachedMessages.remove(folder.getUniqueId());
+        if(cachedSyncState != null) {
+            cachedSyncState.remove(folder.getUniqueId());
+        }
+        if(cachedUidlIndex != null) {
+            cachedUidlIndex.remove(folder.getUniqueId());
+        }
     }
     
     public FolderMessage[] getFolderMessages(FolderTreeItem folder) {
@@ -169,8 +197,78 @@ public class FolderMessageCacheObject implements Persistable {
         }
     }
     
+    public FolderSyncState getFolderSyncState(FolderTreeItem folder) {
+        initializeIfNecessary();
+        FolderSyncState syncState;
+        long[] state = (long[])cachedSyncState.get(folder.getUniqueId());
+        if(state != null && state.length >= 2) {
+            syncState = new FolderSyncState((int)state[0], state[1]);
+            if(state.length >= 4 && (state.length % 2) == 0) {
+                int count = (state.length - 4) / 2;
+                int[] messageIndices = new int[count];
+                int[] messageUids = new int[count];
+                for(int i=0; i<count; i++) {
+                    messageIndices[i] = (int)state[4 + (i * 2)];
+                    messageUids[i] = (int)state[5 + (i * 2)];
+                }
+                syncState.setMailboxState((int)state[2], (int)state[3], messageIndices, messageUids);
+            }
+        }
+        else {
+            syncState = new FolderSyncState();
+        }
+        
+        long[] uidlIndex = (long[])cachedUidlIndex.get(folder.getUniqueId());
+        if(uidlIndex != null) {
+            syncState.setUidlIndex(new PopUidlIndex(uidlIndex));
+        }
+        return syncState;
+    }
+    
+    public void setFolderSyncState(FolderTreeItem folder, FolderSyncState syncState) {
+        initializeIfNecessary();
+        if((syncState.isValid() || syncState.hasMailboxState())
+                && cachedMessages.containsKey(folder.getUniqueId())) {
+            long[] state;
+            if(syncState.hasMailboxState()) {
+                int[] messageIndices = syncState.getMessageIndices();
+                int[] messageUids = syncState.getMessageUids();
+                state = new long[4 + (messageIndices.length * 2)];
+                state[2] = syncState.getUidNext();
+                state[3] = syncState.getExists();
+                for(int i=0; i<messageIndices.length; i++) {
+                    state[4 + (i * 2)] = messageIndices[i];
+                    state[5 + (i * 2)] = messageUids[i];
+                }
+            }
+            else {
+                state = new long[2];
+            }
+            state[0] = syncState.getUidValidity();
+            state[1] = syncState.getHighestModSeq();
+            cachedSyncState.put(folder.getUniqueId(), state);
+        }
+        else {
+            cachedSyncState.remove(folder.getUniqueId());
+        }
+        
+        if(syncState.getUidlIndex() != null
+                && cachedMessages.containsKey(folder.getUniqueId())) {
+            cachedUidlIndex.put(folder.getUniqueId(), syncState.getUidlIndex().toArray());
+        }
+        else {
+            cachedUidlIndex.remove(folder.getUniqueId());
+        }
+    }
+    
     public void clear() {
         cachedFolders.clear();
         cachedMessages.clear();
+        if(cachedSyncState != null) {
+            cachedSyncState.clear();
+        }
+        if(cachedUidlIndex != null) {
+            cachedUidlIndex.clear();
+        }
     }
 }
@@ -200,12 +200,24 @@ abstract class FolderRequestHandler {
                 cacheLoadedMessages = null;
             }
 
-            MailStoreRequest request = mailStore.createFolderRefreshRequest(folderTreeItem, cacheLoadedMessages);
+            MailStoreRequest request = createFolderRefreshRequest(cacheLoadedMessages);
             request.setRequestCallback(finalFetchCallback);
             processMailStoreRequest(request);
         }});
     }
     
+    /**
+     * Creates the request for the folder refresh operation.  Subclasses may
+     * override this method to supply protocol-specific refresh parameters.
+     *
+     * @param cacheLoadedMessages the messages loaded from the cache, or
+     *     <code>null</code> if this is not the initial refresh
+     * @return the folder refresh request
+     */
+    protected MailStoreRequest createFolderRefreshRequest(FolderMessage[] cacheLoadedMessages) {
+        return mailStore.createFolderRefreshRequest(folderTreeItem, cacheLoadedMessages);
+    }
+    
     /**
      * This method should be called upon the completion of a folder refresh.
      * The final cleanup here has no difference in handling depending on
@@ -33,9 +33,15 @@ package org.logicprobe.LogicMail.model;
 import java.util.Date;
 import java.util.Vector;
 
+import net.rim.device.api.util.IntIntHashtable;
+
+import org.logicprobe.LogicMail.mail.FolderSyncState;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
+import org.logicprobe.LogicMail.mail.MailStoreRequest;
+import org.logicprobe.LogicMail.mail.MailStoreRequestCallback;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.NetworkMailStore;
+import org.logicprobe.LogicMail.mail.imap.ImapMessageToken;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageFlags;
 
@@ -44,10 +50,27 @@ import org.logicprobe.LogicMail.message.MessageFlags;
  * logic specific to the behavior of IMAP mail store folders.
  * <p>
  * IMAP folder refresh is a three-part operation consisting of two flag fetches
- * and a message header fetch.
+ * and a message header fetch.  If the server supports quick resynchronization,
+ * and the cache has a known synchronization point, the flag fetches are
+ * replaced by a single fetch of everything that has changed since then.
  * </p>
  */
 class ImapFolderRequestHandler extends FolderRequestHandler {
+    /**
+     * Synchronization point for the refresh operation in progress, which is
+     * saved to the cache if the operation completes successfully.
+     */
+    private volatile FolderSyncState pendingSyncState;
+    
+    /**
+     * Server-ordered message UIDs from the first page of the last ordered
+     * message request, reused when requesting further pages in the same
+     * order.  These are kept across folder refreshes, so that paging stays
+     * consistent with the pages that have already been loaded.
+     */
+    private volatile int[] orderedUids;
+    private volatile IntIntHashtable orderedUidPositionMap;
+    private volatile int orderedUidsOrder = -1;
     
     public ImapFolderRequestHandler(
             NetworkMailStoreServices mailStoreServices,
@@ -57,6 +80,113 @@ class ImapFolderRequestHandler extends FolderRequestHandler {
         super(mailStoreServices, mailStore, folderMessageCache, folderTreeItem);
     }
 
+    protected MailStoreRequest createFolderRefreshRequest(FolderMessage[] cacheLoadedMessages) {
+        if(cacheLoadedMessages == null) {
+            pendingSyncState = null;
+            return super.createFolderRefreshRequest(cacheLoadedMessages);
+        }
+        
+        FolderSyncState syncState = folderMessageCache.getFolderSyncState(folderTreeItem);
+        pendingSyncState = syncState;
+        return mailStore.createFolderRefreshRequest(folderTreeItem, cacheLoadedMessages, syncState);
+    }
+    
+    protected void endFolderRefreshOperation(boolean success) {
+        FolderSyncState syncState = pendingSyncState;
+        pendingSyncState = null;
+        if(success && syncState != null) {
+            folderMessageCache.setFolderSyncState(folderTreeItem, syncState);
+        }
+        super.endFolderRefreshOperation(success);
+    }
+
+    /**
+     * Requests a page of messages from the folder, in an order determined
+     * by the server.  The complete ordered list of message UIDs is fetched
+     * along with the first page, and reused for further pages in the same
+     * order.
+     *
+     * @param order the message order, such as <code>ImapClient.ORDER_DATE</code>
+     * @param pageIndex the index of the page to fetch
+     * @param pageSize the number of messages in each page
+     */
+    public void requestOrderedFolderMessages(final int order, final int pageIndex, final int pageSize) {
+        if(pageIndex > 0 && orderedUidsOrder == order) {
+            requestOrderedFolderMessagesPage(pageIndex, pageSize);
+            return;
+        }
+        
+        // The order has to be known before any messages on the page are
+        // made available, so they can be positioned as they are added.
+        processMailStoreRequest(mailStore.createFolderMessageOrderRequest(folderTreeItem, order)
+                .setRequestCallback(new MailStoreRequestCallback() {
+                    public void mailStoreRequestComplete(MailStoreRequest request) {
+                        setOrderedUids(order, NetworkMailStore.getResultOrderedUids(request));
+                        requestOrderedFolderMessagesPage(pageIndex, pageSize);
+                    }
+                    public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                        mailStoreServices.fireFolderMessagesAvailable(folderTreeItem, null, false);
+                    }
+                }));
+    }
+    
+    private void requestOrderedFolderMessagesPage(int pageIndex, int pageSize) {
+        processMailStoreRequest(mailStore.createFolderMessagesOrderedRequest(
+                folderTreeItem, orderedUids, pageIndex, pageSize)
+                .setRequestCallback(new MailStoreRequestCallback() {
+                    public void mailStoreRequestComplete(MailStoreRequest request) { }
+                    public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                        // Commit and notify even in cases of failure, to ensure that
+                        // post-request operations can occur.
+                        folderMessageCache.commit();
+                        mailStoreServices.fireFolderMessagesAvailable(folderTreeItem, null, false);
+                    }
+                }));
+    }
+    
+    private void setOrderedUids(int order, int[] uids) {
+        IntIntHashtable positionMap = new IntIntHashtable(uids.length);
+        for(int i=0; i<uids.length; i++) {
+            positionMap.put(uids[i], i);
+        }
+        orderedUidsOrder = -1;
+        orderedUids = uids;
+        orderedUidPositionMap = positionMap;
+        orderedUidsOrder = order;
+    }
+    
+    /**
+     * Gets the number of messages in the folder, as of the last time the
+     * server was asked for the provided order.
+     *
+     * @param order the message order
+     * @return the number of ordered messages, or -1 if the folder has not
+     *     been ordered that way
+     */
+    public int getOrderedFolderMessageCount(int order) {
+        int[] uids = orderedUids;
+        return (orderedUidsOrder == order && uids != null) ? uids.length : -1;
+    }
+    
+    /**
+     * Gets the position of a message in the server-determined order from the
+     * last ordered message request.
+     *
+     * @param order the message order
+     * @param messageToken the token for the message
+     * @return the position of the message, or -1 if it is not known
+     */
+    public int getOrderedFolderMessagePosition(int order, MessageToken messageToken) {
+        IntIntHashtable positionMap = orderedUidPositionMap;
+        if(orderedUidsOrder != order || positionMap == null
+                || !(messageToken instanceof ImapMessageToken)) {
+            return -1;
+        }
+        
+        int uid = ((ImapMessageToken)messageToken).getImapMessageUid();
+        return positionMap.containsKey(uid) ? positionMap.get(uid) : -1;
+    }
+    
     public void setPriorFolderMessagesSeen(final Date startDate) {
         invokeAfterRefresh(new PostRefreshRunnable() {
             public void run(boolean refreshSuccessful) {
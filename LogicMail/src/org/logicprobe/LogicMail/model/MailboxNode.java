@@ -93,6 +93,41 @@ public class MailboxNode implements Node, Serializable {
 	 */
 	private MessageNode firstMessageNode;
 	
+	/**
+	 * The server-determined order messages are loaded in, or -1 if messages
+	 * are loaded by index and ordered locally.  In a server-determined order,
+	 * messages are loaded a page at a time and kept in order by their
+	 * position within the server's ordering of the folder.
+	 */
+	private int messageOrder = -1;
+	private int messageOrderPageCount;
+	private final ToIntHashtable messageOrderPositionMap = new ToIntHashtable();
+	
+	/**
+	 * Comparator used in place of {@link MessageNode#getComparator()} while a
+	 * server-determined order is in effect.  Earlier positions in that order
+	 * compare as newer, and messages without a known position, such as those
+	 * arriving after the order was fetched, compare as newer than any others.
+	 */
+	private final Comparator orderedMessageComparator = new Comparator() {
+	    public int compare(Object o1, Object o2) {
+	        int position1 = messageOrderPositionMap.get(o1);
+	        int position2 = messageOrderPositionMap.get(o2);
+	        if(position1 == -1 && position2 == -1) {
+	            return MessageNode.getComparator().compare(o1, o2);
+	        }
+	        else if(position1 == -1) {
+	            return 1;
+	        }
+	        else if(position2 == -1) {
+	            return -1;
+	        }
+	        else {
+	            return position2 - position1;
+	        }
+	    }
+	};
+	
     private final Hashtable pendingExpungeMessageSet = new Hashtable();
     
 	public final static int TYPE_NORMAL = 0;
@@ -509,7 +544,14 @@ public class MailboxNode implements Node, Serializable {
 	private boolean addMessageImpl(MessageNode message) {
 		if(!messageSet.containsKey(message)) {
 			message.setParent(this);
-			messages.insertElement(MessageNode.getComparator(), message);
+			if(messageOrder != -1) {
+			    int position = ((NetworkMailStoreServices)getParentAccount().getMailStoreServices())
+			        .getOrderedFolderMessagePosition(folderTreeItem, messageOrder, message.getMessageToken());
+			    if(position != -1) {
+			        messageOrderPositionMap.put(message, position);
+			    }
+			}
+			messages.insertElement(getMessageComparator(), message);
 			messageSet.put(message, Boolean.TRUE);
 			tokenToMessageMap.put(message.getMessageToken(), message);
 			AccountNode parentAccount = getParentAccount();
@@ -583,7 +625,8 @@ public class MailboxNode implements Node, Serializable {
 	 */
 	private boolean removeMessageImpl(MessageNode message) {
 		if(messageSet.containsKey(message)) {
-			messages.removeElement(MessageNode.getComparator(), message);
+			messages.removeElement(getMessageComparator(), message);
+			messageOrderPositionMap.remove(message);
 			message.setParent(null);
 			messageSet.remove(message);
 			tokenToMessageMap.remove(message.getMessageToken());
@@ -613,6 +656,7 @@ public class MailboxNode implements Node, Serializable {
 			tokenToMessageIndexMap.clear();
 			messageIndexToTokenMap.clear();
 			messageIndexVector.removeAll();
+			messageOrderPositionMap.clear();
 			firstMessageNode = null;
 		}
         updateUnseenMessages(false);
@@ -850,11 +894,21 @@ public class MailboxNode implements Node, Serializable {
     public boolean hasMoreLoadableMessages() {
         boolean result;
         synchronized(messages) {
-            result = (firstMessageNode == null);
+            if(messageOrder != -1) {
+                result = hasMoreOrderedMessages();
+            }
+            else {
+                result = (firstMessageNode == null);
+            }
         }
         return result;
     }
     
+    private boolean hasMoreOrderedMessages() {
+        return ((NetworkMailStoreServices)getParentAccount().getMailStoreServices())
+            .hasMoreOrderedFolderMessages(folderTreeItem, messageOrder, messageOrderPageCount);
+    }
+    
     /**
      * Finds gaps between message nodes where more messages are loadable.
      * Each gap is identified by a pair of message nodes that exclusively
@@ -862,6 +916,10 @@ public class MailboxNode implements Node, Serializable {
      * range at the start of the mailbox, as its loading is automatically
      * triggered by a refresh.  The gap at the end of the mailbox is indicated
      * with a <code>null</code> value for the second parameter of the range.
+     * <p>
+     * In a server-determined message order, there is only ever a gap at the
+     * end of the order, following the last message loaded in that order.
+     * </p>
      * 
      * @return an array of 2-dimensional message node arrays, with each if the
      *         two elements exclusively defining the bounds of a loadable gap.
@@ -870,6 +928,15 @@ public class MailboxNode implements Node, Serializable {
         Vector gaps;
         
         synchronized(messages) {
+            if(messageOrder != -1) {
+                if(messages.size() == 0 || !hasMoreOrderedMessages()) {
+                    return new MessageNode[0][];
+                }
+                // Messages with a known position sort before those without,
+                // so the first element is the last one loaded in order.
+                return new MessageNode[][] { { null, (MessageNode)messages.elementAt(0) } };
+            }
+            
             if(messageIndexVector.size() == 0) { return new MessageNode[0][]; }
             
             messageIndexVector.optimize();
@@ -1176,16 +1243,103 @@ public class MailboxNode implements Node, Serializable {
 
     /**
      * Called to fetch additional messages after the supplied node.
+     * In a server-determined message order, this fetches the next page of
+     * messages in that order instead.
      *
      * @param firstNode the existing message node to fetch messages after
      */
     public void requestMoreMessages(MessageNode firstNode) {
+        int pageIndex;
+        synchronized(messages) {
+            pageIndex = (messageOrder != -1) ? messageOrderPageCount++ : -1;
+        }
+        if(pageIndex != -1) {
+            ((NetworkMailStoreServices)parentAccount.getMailStoreServices())
+                .requestOrderedFolderMessages(this.folderTreeItem, messageOrder, pageIndex);
+            return;
+        }
+        
         MessageToken firstToken = firstNode.getMessageToken();
         
         parentAccount.getMailStoreServices().requestMoreFolderMessages(
                 this.folderTreeItem, firstToken);
     }
     
+    /**
+     * Checks whether messages in this mailbox can be loaded in the provided
+     * server-determined order.
+     *
+     * @param order the message order, such as <code>ImapClient.ORDER_DATE</code>
+     * @return true, if the order is supported
+     */
+    public boolean hasMessageOrder(int order) {
+        return (parentAccount instanceof NetworkAccountNode)
+            && ((NetworkMailStoreServices)parentAccount.getMailStoreServices()).hasFolderMessageOrder(order);
+    }
+    
+    /**
+     * Gets the server-determined order messages are loaded in.
+     *
+     * @return the message order, or -1 if messages are ordered locally
+     */
+    public int getMessageOrder() {
+        return messageOrder;
+    }
+    
+    /**
+     * Sets the server-determined order to load messages in.  The currently
+     * loaded messages are removed, and the first page of messages in the new
+     * order is requested.  Later pages are requested through
+     * {@link #requestMoreMessages(MessageNode)}.  Setting the order back to
+     * -1 returns to loading messages by index, and refreshes the mailbox.
+     * This has no effect for accounts that do not support server-side
+     * message ordering.
+     *
+     * @param order the message order, such as <code>ImapClient.ORDER_DATE</code>,
+     *     or -1 to order messages locally
+     */
+    public void setMessageOrder(int order) {
+        if(!(parentAccount instanceof NetworkAccountNode)) { return; }
+        
+        // The messages have to be removed with the comparator they were
+        // added with, before the comparator is changed.
+        MessageNode[] removedMessages;
+        synchronized(messages) {
+            int size = messages.size();
+            removedMessages = new MessageNode[size];
+            messages.copyInto(0, size, removedMessages, 0);
+            for(int i=0; i<size; i++) {
+                removeMessageImpl(removedMessages[i]);
+            }
+            messageOrder = order;
+            messageOrderPageCount = (order != -1) ? 1 : 0;
+        }
+        if(removedMessages.length > 0) {
+            updateUnseenMessages(false);
+            fireMailboxStatusChanged(MailboxNodeEvent.TYPE_DELETED_MESSAGES, removedMessages);
+        }
+        
+        if(order != -1) {
+            ((NetworkMailStoreServices)parentAccount.getMailStoreServices())
+                .requestOrderedFolderMessages(this.folderTreeItem, order, 0);
+        }
+        else {
+            refreshMessages(true);
+        }
+    }
+    
+    /**
+     * Gets the comparator for the order messages are kept in by this mailbox.
+     * This is the server-determined order set with {@link #setMessageOrder(int)},
+     * if any, and otherwise the local ordering of
+     * {@link MessageNode#getComparator()}.
+     *
+     * @return the message comparator
+     */
+    public Comparator getMessageComparator() {
+        return (messageOrder != -1) ? orderedMessageComparator : MessageNode.getComparator();
+    }
+    
 	/**
      * Adds a <tt>MailboxNodeListener</tt> to the mailbox node.
      * 
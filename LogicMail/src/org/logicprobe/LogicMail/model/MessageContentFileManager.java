@@ -168,6 +168,45 @@ public class MessageContentFileManager {
         return messageUidSet.containsKey(messageToken.getMessageUid());
     }
     
+    /**
+     * Check whether complete cached content exists for a message part.
+     *
+     * @param folder the folder that the message is stored within
+     * @param messageToken the token for the message
+     * @param messagePart the message part to check for
+     * @return true, if complete content for the part exists in the cache
+     */
+    public synchronized boolean messagePartContentExists(FolderTreeItem folder, MessageToken messageToken, MimeMessagePart messagePart) {
+        if(!messageContentExists(folder, messageToken)) { return false; }
+        
+        FileConnection fileConnection = null;
+        try {
+            fileConnection = getFolderFileConnection(folder);
+            if(!fileConnection.exists()) { return false; }
+            
+            String folderUrl = fileConnection.getURL();
+            fileConnection.close();
+            
+            fileConnection = (FileConnection)Connector.open(getMessageFileUrl(folderUrl, messageToken));
+            if(!fileConnection.exists()) { return false; }
+            
+            MessageContentFileReader reader = new MessageContentFileReader(fileConnection, messageToken.getMessageUid());
+            reader.open();
+            boolean result = reader.hasCompleteContent(messagePart);
+            reader.close();
+            return result;
+        } catch (Exception e) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("Unable to check cached content: " + e.getMessage()).getBytes(),
+                    EventLogger.ERROR);
+            return false;
+        } finally {
+            if(fileConnection != null) {
+                try { fileConnection.close(); } catch (Exception e) { }
+            }
+        }
+    }
+    
     /**
      * Gets the cached content for a particular message.
      *
@@ -265,8 +304,9 @@ public class MessageContentFileManager {
      * @param messageToken the token for the message
      * @param content the content to be added to the cache
      * @param customValues array of 4 <code>int</code> values for the file header
+     * @return true, if the content was written to the cache
      */
-    public synchronized void putCompleteMessageContent(
+    public synchronized boolean putCompleteMessageContent(
             FolderTreeItem folder,
             MessageToken messageToken,
             MimeMessageContent[] content,
@@ -274,7 +314,7 @@ public class MessageContentFileManager {
         if(customValues == null || customValues.length != 4) {
             throw new IllegalArgumentException();
         }
-        putMessageContentImpl(folder, messageToken, content, false, customValues);
+        return putMessageContentImpl(folder, messageToken, content, false, customValues);
     }
     
     /**
@@ -285,28 +325,77 @@ public class MessageContentFileManager {
      * @param folder the folder that the message is stored within
      * @param messageToken the token for the message
      * @param content the content to be added to the cache
+     * @return true, if the content was written to the cache
      */
-    public synchronized void putMessageContent(
+    public synchronized boolean putMessageContent(
             FolderTreeItem folder,
             MessageToken messageToken,
             MimeMessageContent[] content) {
-        putMessageContentImpl(folder, messageToken, content, true, null);
+        return putMessageContentImpl(folder, messageToken, content, true, null);
     }
     
-    private void putMessageContentImpl(
+    /**
+     * Update the header fields of message content already in the cache.
+     * This is used when the values are not known until after the content has
+     * been added, and has no effect if the message is not in the cache.
+     *
+     * @param folder the folder that the message is stored within
+     * @param messageToken the token for the message
+     * @param customValues array of 4 <code>int</code> values for the file header
+     */
+    public synchronized void updateMessageContentCustomValues(
+            FolderTreeItem folder,
+            MessageToken messageToken,
+            int[] customValues) {
+        if(customValues == null || customValues.length != 4) {
+            throw new IllegalArgumentException();
+        }
+        if(cacheUrl == null) { return; }
+        
+        FileConnection fileConnection = null;
+        String fileUrl = null;
+        try {
+            fileConnection = getFolderFileConnection(folder);
+            if(!fileConnection.exists()) { return; }
+            
+            String folderUrl = fileConnection.getURL();
+            fileConnection.close();
+            fileUrl = getMessageFileUrl(folderUrl, messageToken);
+            
+            fileConnection = (FileConnection)Connector.open(fileUrl);
+            if(!fileConnection.exists()) { return; }
+            
+            MessageContentFileWriter writer = new MessageContentFileWriter(fileConnection, messageToken.getMessageUid());
+            writer.open();
+            writer.updateCustomValues(customValues);
+            writer.close();
+        } catch (Exception e) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("Unable to update token: " + ((fileUrl != null) ? fileUrl : folder.getPath())
+                        + "\r\n" + e.getMessage()).getBytes(),
+                    EventLogger.ERROR);
+        } finally {
+            if(fileConnection != null) {
+                try { fileConnection.close(); } catch (Exception e) { }
+            }
+        }
+    }
+    
+    private boolean putMessageContentImpl(
             FolderTreeItem folder,
             MessageToken messageToken,
             MimeMessageContent[] content,
             boolean append,
             int[] customValues) {
         
-        if(cacheUrl == null) { return; }
+        if(cacheUrl == null) { return false; }
 
         FileConnection fileConnection = null;
         String fileUrl = null;
+        boolean result = false;
         try {
             fileConnection = getFolderFileConnection(folder);
-            if(!fileConnection.exists()) { return; }
+            if(!fileConnection.exists()) { return false; }
             
             String folderUrl = fileConnection.getURL();
             fileConnection.close();
@@ -338,6 +427,7 @@ public class MessageContentFileManager {
                 folderMessageUidCache.put(folder, messageUidSet);
             }
             messageUidSet.put(messageToken.getMessageUid(), Boolean.TRUE);
+            result = true;
         } catch (Exception e) {
             if(fileUrl != null) {
                 EventLogger.logEvent(AppInfo.GUID,
@@ -356,6 +446,7 @@ public class MessageContentFileManager {
                 try { fileConnection.close(); } catch (Exception e) { }
             }
         }
+        return result;
     }
     
     private String[] getMessageFiles(FolderTreeItem folder) throws IOException {
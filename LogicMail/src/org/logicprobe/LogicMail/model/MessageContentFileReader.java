@@ -141,6 +141,28 @@ public class MessageContentFileReader extends MessageContentFileBase {
         }
     }
 
+    /**
+     * Checks whether the file contains complete content for the provided
+     * message part, without loading that content.
+     *
+     * @param part the part to check
+     * @return true, if content exists and is not marked as incomplete
+     */
+    public boolean hasCompleteContent(MimeMessagePart part) throws IOException {
+        checkFileOpened();
+        
+        int contentOffset = getContentOffset(part);
+        if(contentOffset == -1) { return false; }
+        
+        DataInputStream dataInput = fileConnection.openDataInputStream();
+        try {
+            dataInput.skip(contentOffset);
+            return dataInput.readInt() != MimeMessageContent.PART_INCOMPLETE;
+        } finally {
+            dataInput.close();
+        }
+    }
+
     /**
      * Gets the custom values from the content file header.
      * If values were not set during file creation, then they will all default
@@ -162,16 +184,7 @@ public class MessageContentFileReader extends MessageContentFileBase {
     public MimeMessageContent getContent(MimeMessagePart part) throws IOException, UnsupportedContentException {
         checkFileOpened();
         
-        int contentOffset = -1;
-        if(contentUidMap.containsKey(part.getUniqueId())) {
-            contentOffset = contentUidMap.get(part.getUniqueId());
-        }
-        else {
-            int tagHash = createPartTagHash(part);
-            if(contentTagMap.containsKey(tagHash)) {
-                contentOffset = contentTagMap.get(tagHash);
-            }
-        }
+        int contentOffset = getContentOffset(part);
         if(contentOffset == -1) { return null; }
         
         DataInputStream dataInput = fileConnection.openDataInputStream();
@@ -197,4 +210,15 @@ public class MessageContentFileReader extends MessageContentFileBase {
         content.setPartComplete(partComplete);
         return content;
     }
+    
+    private int getContentOffset(MimeMessagePart part) {
+        if(contentUidMap.containsKey(part.getUniqueId())) {
+            return contentUidMap.get(part.getUniqueId());
+        }
+        int tagHash = createPartTagHash(part);
+        if(contentTagMap.containsKey(tagHash)) {
+            return contentTagMap.get(tagHash);
+        }
+        return -1;
+    }
 }
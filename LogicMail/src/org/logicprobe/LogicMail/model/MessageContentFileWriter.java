@@ -78,6 +78,26 @@ public class MessageContentFileWriter extends MessageContentFileBase {
         this.customValues = values;
     }
     
+    /**
+     * Replaces the custom values in the header of an open file, leaving its
+     * existing content in place.
+     *
+     * @param values array of 4 integers representing the custom values
+     */
+    public void updateCustomValues(int[] values) throws IOException {
+        if(values == null || values.length != 4) {
+            throw new IllegalArgumentException();
+        }
+        checkFileOpened();
+        this.customValues = values;
+        
+        // The header length only depends on the UID, so the new header
+        // can be written directly over the old one.
+        OutputStream output = fileConnection.openOutputStream(0);
+        output.write(generateHeader());
+        output.close();
+    }
+    
     /**
      * Open the file for writing.
      * If the file exists, its header will be validated against the UID supplied
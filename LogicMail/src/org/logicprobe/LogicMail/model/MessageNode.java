@@ -1219,16 +1219,33 @@ public class MessageNode implements Node {
 	
 	/**
 	 * Called to load a specific message part for this node.
+	 * If the mail store does not support message parts, then the part will
+	 * only be loaded if it is available from the local cache.
 	 * 
 	 * @param messagePart Content part to load
 	 */
 	public void requestContentPart(ContentPart messagePart) {
 	    MailStoreServices mailStore = parent.getParentAccount().getMailStoreServices();
-		if(mailStore.hasMessageParts()) {
+		if(mailStore.hasMessageParts() || mailStore instanceof NetworkMailStoreServices) {
 			mailStore.requestMessageParts(messageToken, new MimeMessagePart[] { messagePart });
 		}
 	}
 	
+	/**
+	 * Checks whether complete content for a part of this message is available
+	 * from the local cache, for content that is not kept with the message.
+	 *
+	 * @param messagePart the message part to check for
+	 * @return true, if the part can be loaded from the cache
+	 */
+	public boolean hasCachedContentPart(ContentPart messagePart) {
+	    MailStoreServices mailStore = parent.getParentAccount().getMailStoreServices();
+	    if(mailStore instanceof NetworkMailStoreServices) {
+	        return ((NetworkMailStoreServices)mailStore).hasCachedMessagePart(messageToken, messagePart);
+	    }
+	    return false;
+	}
+	
 	/**
 	 * Called to request that the message state be changed to deleted.
 	 * Completion of this request will be indicated by a status
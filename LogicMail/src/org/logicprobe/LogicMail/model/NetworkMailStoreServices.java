@@ -46,14 +46,17 @@ import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.FolderTreeRequest;
 import org.logicprobe.LogicMail.mail.MailStoreRequest;
 import org.logicprobe.LogicMail.mail.MailStoreRequestCallback;
+import org.logicprobe.LogicMail.mail.MessageContentCallback;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.NetworkMailStore;
 import org.logicprobe.LogicMail.mail.NetworkPollingStartRequest;
 import org.logicprobe.LogicMail.message.FolderMessage;
+import org.logicprobe.LogicMail.message.ImageContent;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
 import org.logicprobe.LogicMail.message.MimeMessagePartTransformer;
+import org.logicprobe.LogicMail.message.TextContent;
 import org.logicprobe.LogicMail.util.ThreadQueue;
 
 public class NetworkMailStoreServices extends MailStoreServices {
@@ -66,6 +69,9 @@ public class NetworkMailStoreServices extends MailStoreServices {
     /** Map of FolderTreeItem objects to corresponding request handlers */
     private final Hashtable folderRequestHandlerMap = new Hashtable();
     
+    /** Map of MessageToken objects to content callbacks for whole-message requests */
+    private final Hashtable contentCallbackMap = new Hashtable();
+    
     public NetworkMailStoreServices(NetworkMailStore mailStore, FolderMessageCache folderMessageCache) {
         super(mailStore);
         this.mailStore = mailStore;
@@ -173,6 +179,77 @@ public class NetworkMailStoreServices extends MailStoreServices {
         handler.requestMoreFolderMessages(firstToken, increment);
     }
     
+    /**
+     * Checks whether folder messages can be requested in the provided
+     * server-determined order.
+     *
+     * @param order the message order, such as <code>ImapClient.ORDER_DATE</code>
+     * @return true, if the order is supported
+     */
+    public boolean hasFolderMessageOrder(int order) {
+        return mailStore.hasFolderMessageOrder(order);
+    }
+    
+    /**
+     * Requests a page of folder messages in an order determined by the
+     * server.  This has no effect for folders other than IMAP.  If the
+     * server does not support the required ordering extension, the request
+     * fails and listeners are notified with no new messages.
+     * Requesting the first page always fetches the order from the server,
+     * while later pages reuse the order fetched along with the first page.
+     *
+     * @param folderTreeItem the folder to request messages from
+     * @param order the message order, such as <code>ImapClient.ORDER_DATE</code>
+     * @param pageIndex the index of the page to fetch
+     */
+    public void requestOrderedFolderMessages(FolderTreeItem folderTreeItem, int order, int pageIndex) {
+        FolderRequestHandler handler = getFolderRequestHandler(folderTreeItem);
+        if(handler instanceof ImapFolderRequestHandler) {
+            int increment = mailStore.getAccountConfig().getFolderMessageIncrement();
+            ((ImapFolderRequestHandler)handler).requestOrderedFolderMessages(order, pageIndex, increment);
+        }
+    }
+    
+    /**
+     * Checks whether more pages of folder messages are available, beyond the
+     * provided number of pages that have been requested in the provided order.
+     *
+     * @param folderTreeItem the folder to check
+     * @param order the message order
+     * @param pageCount the number of pages that have been requested
+     * @return true, if more pages are available
+     */
+    public boolean hasMoreOrderedFolderMessages(FolderTreeItem folderTreeItem, int order, int pageCount) {
+        FolderRequestHandler handler = getFolderRequestHandler(folderTreeItem);
+        if(handler instanceof ImapFolderRequestHandler) {
+            int increment = mailStore.getAccountConfig().getFolderMessageIncrement();
+            int count = ((ImapFolderRequestHandler)handler).getOrderedFolderMessageCount(order);
+            return count > pageCount * increment;
+        }
+        else {
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the position of a message within the server-determined order of
+     * its folder, as fetched by the last ordered page request.
+     *
+     * @param folderTreeItem the folder containing the message
+     * @param order the message order
+     * @param messageToken the token for the message
+     * @return the position of the message, or -1 if it is not known
+     */
+    public int getOrderedFolderMessagePosition(FolderTreeItem folderTreeItem, int order, MessageToken messageToken) {
+        FolderRequestHandler handler = getFolderRequestHandler(folderTreeItem);
+        if(handler instanceof ImapFolderRequestHandler) {
+            return ((ImapFolderRequestHandler)handler).getOrderedFolderMessagePosition(order, messageToken);
+        }
+        else {
+            return -1;
+        }
+    }
+    
     public void requestMessageSeen(MessageToken messageToken) {
         FolderRequestHandler handler = getFolderRequestHandler(messageToken);
         handler.setFolderMessageSeen(messageToken);
@@ -293,6 +370,47 @@ public class NetworkMailStoreServices extends MailStoreServices {
         return contentFileManager.messageContentExists(folder, messageToken);
     }
     
+    /**
+     * Checks whether complete content for a message part is available from
+     * the cache.  For mail stores that download whole messages, this is the
+     * only place non-displayable parts are kept once downloaded.
+     *
+     * @param messageToken the token for the message
+     * @param messagePart the message part to check for
+     * @return true, if the part can be loaded from the cache
+     */
+    public boolean hasCachedMessagePart(MessageToken messageToken, MimeMessagePart messagePart) {
+        FolderRequestHandler handler = getFolderRequestHandler(messageToken);
+        if(handler == null) { return false; }
+        
+        messageCacheThreadQueue.completePendingTasks();
+        return contentFileManager.messagePartContentExists(handler.getFolder(), messageToken, messagePart);
+    }
+    
+    public void requestMessageMove(final FolderTreeItem folderTreeItem, final MessageNode messageNode) {
+        // Sanity check
+        if(!(mailStore.hasAppend()
+                && mailStore.hasCopy()
+                && messageNode.getParent().getParentAccount().getMailStoreServices() == this)) {
+            return;
+        }
+        
+        // The network mail store handles both the copy and the deletion of
+        // the original message within a single request.
+        mailStore.processRequest(mailStore.createMessageMoveRequest(
+                messageNode.getMessageToken(),
+                folderTreeItem)
+                .setRequestCallback(new MailStoreRequestCallback() {
+                    public void mailStoreRequestComplete(MailStoreRequest request) { }
+                    public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                        if(!isFinal) {
+                            requestMessageMove(folderTreeItem, messageNode);
+                        }
+                        // Do nothing if the request failed
+                    }
+                }));
+    }
+    
     public boolean requestMessageRefresh(
             final MessageToken messageToken,
             final MimeMessagePart[] partsToSkip,
@@ -363,9 +481,11 @@ public class NetworkMailStoreServices extends MailStoreServices {
         if(handler == null || !handler.isInitialRefreshComplete()) { return false; }
         
         mailStore.processRequest(mailStore.createMessageRequest(messageToken, false)
+                .setContentCallback(createContentCallback(handler.getFolder(), messageToken))
                 .setRequestCallback(new MailStoreRequestCallback() {
                     public void mailStoreRequestComplete(MailStoreRequest request) { }
                     public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                        contentCallbackMap.remove(messageToken);
                         messageRefreshFailed(messageToken, false);
                     }
                 }));
@@ -513,9 +633,11 @@ public class NetworkMailStoreServices extends MailStoreServices {
                     && mailStore.getAccountConfig() instanceof PopConfig
                     && previousMaxLines < ((PopConfig)mailStore.getAccountConfig()).getMaxMessageLines()) {
                 mailStore.processRequest(mailStore.createMessageRequest(messageToken, true)
+                        .setContentCallback(createContentCallback(folder, messageToken))
                         .setRequestCallback(new MailStoreRequestCallback() {
                             public void mailStoreRequestComplete(MailStoreRequest request) { }
                             public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                                contentCallbackMap.remove(messageToken);
                                 // In this specific case, a failure will cause us to
                                 // revert to cached data instead of giving up.
                                 if(loadedContent.length > 0) {
@@ -536,9 +658,11 @@ public class NetworkMailStoreServices extends MailStoreServices {
         }
         else if(!cacheOnly) {
             mailStore.processRequest(mailStore.createMessageRequest(messageToken, true)
+                    .setContentCallback(createContentCallback(folder, messageToken))
                     .setRequestCallback(new MailStoreRequestCallback() {
                         public void mailStoreRequestComplete(MailStoreRequest request) { }
                         public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                            contentCallbackMap.remove(messageToken);
                             if(isFinal || cacheOnly) {
                                 messageRefreshFailed(messageToken, false);
                             }
@@ -587,7 +711,11 @@ public class NetworkMailStoreServices extends MailStoreServices {
                 }
                 
                 // Request the remaining parts from the server
-                if(partsToFetch.size() > 0) {
+                if(!mailStore.hasMessageParts()) {
+                    // Parts of whole messages can only come from the cache
+                    messageRefreshComplete(messageToken);
+                }
+                else if(partsToFetch.size() > 0) {
                     MimeMessagePart[] partsArray = new MimeMessagePart[partsToFetch.size()];
                     partsToFetch.copyInto(partsArray);
                     mailStore.processRequest(mailStore.createMessagePartsRequest(messageToken, partsArray));
@@ -617,12 +745,21 @@ public class NetworkMailStoreServices extends MailStoreServices {
             customValues[1] = ((PopConfig)mailStore.getAccountConfig()).getMaxMessageLines();
         }
         
-        // Update the message content cache
+        // Update the message content cache, which may have already been
+        // written as the message was downloaded
         final FolderTreeItem folder = handler.getFolder();
+        final CacheContentCallback contentCallback =
+            (CacheContentCallback)contentCallbackMap.remove(messageToken);
         messageCacheThreadQueue.invokeLater(new Runnable() {
             public void run() {
-                contentFileManager.putCompleteMessageContent(
-                        folder, messageToken, messageContent, customValues);
+                if(contentCallback != null && contentCallback.isContentAdded()) {
+                    contentFileManager.updateMessageContentCustomValues(
+                            folder, messageToken, customValues);
+                }
+                else {
+                    contentFileManager.putCompleteMessageContent(
+                            folder, messageToken, messageContent, customValues);
+                }
             }
         });
         
@@ -657,4 +794,68 @@ public class NetworkMailStoreServices extends MailStoreServices {
         FolderRequestHandler handler = getFolderRequestHandler(messageToken);
         handler.handleMessageFlagsChanged(messageToken, messageFlags);
     }
+    
+    private MessageContentCallback createContentCallback(FolderTreeItem folder, MessageToken messageToken) {
+        CacheContentCallback contentCallback = new CacheContentCallback(folder, messageToken);
+        contentCallbackMap.put(messageToken, contentCallback);
+        return contentCallback;
+    }
+    
+    /**
+     * Writes the content of a whole message to the cache as it is downloaded,
+     * so that only the content needed for display has to stay in memory.
+     * Anything else can be loaded back from the cache on request.
+     * <p>
+     * The writes are queued along with all the other cache updates, so they
+     * happen in order and off the connection thread.
+     * </p>
+     */
+    private class CacheContentCallback implements MessageContentCallback {
+        private final FolderTreeItem folder;
+        private final MessageToken messageToken;
+        private boolean contentAdded;
+        
+        public CacheContentCallback(FolderTreeItem folder, MessageToken messageToken) {
+            this.folder = folder;
+            this.messageToken = messageToken;
+        }
+        
+        public boolean messageContentAvailable(final MimeMessageContent content) {
+            messageCacheThreadQueue.invokeLater(new Runnable() {
+                public void run() {
+                    writeContent(content);
+                }
+            });
+            
+            // Only the content needed for display is kept with the message.
+            // Anything else is only available once it has been written.
+            return content instanceof TextContent || content instanceof ImageContent;
+        }
+        
+        private void writeContent(MimeMessageContent content) {
+            if(!contentAdded) {
+                // Replace any existing cache file.  The header values are
+                // left at zero until the message has been completely
+                // downloaded, so an interrupted download is not mistaken
+                // for a complete one.
+                contentAdded = contentFileManager.putCompleteMessageContent(
+                        folder, messageToken, new MimeMessageContent[] { content }, new int[4]);
+            }
+            else {
+                contentFileManager.putMessageContent(
+                        folder, messageToken, new MimeMessageContent[] { content });
+            }
+        }
+        
+        /**
+         * Checks whether any content has been written to the cache.  This
+         * must only be called from the message cache thread, after all the
+         * writes have been queued.
+         *
+         * @return true, if content has been written
+         */
+        public boolean isContentAdded() {
+            return contentAdded;
+        }
+    }
 }
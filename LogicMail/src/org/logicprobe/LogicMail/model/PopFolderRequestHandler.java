@@ -33,7 +33,9 @@ package org.logicprobe.LogicMail.model;
 import java.util.Date;
 import java.util.Vector;
 
+import org.logicprobe.LogicMail.mail.FolderSyncState;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
+import org.logicprobe.LogicMail.mail.MailStoreRequest;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.NetworkMailStore;
 import org.logicprobe.LogicMail.message.FolderMessage;
@@ -48,8 +50,17 @@ import org.logicprobe.LogicMail.message.MessageFlags;
  * connected, subsequent refresh operations are not performed unless the
  * connection is broken and reestablished.
  * </p>
+ * <p>
+ * The UIDL index of the mailbox is kept along with the cached messages, so
+ * each refresh only has to reconcile it with the server's UIDL listing.
+ * </p>
  */
 class PopFolderRequestHandler extends FolderRequestHandler {
+    /**
+     * The folder state used by the refresh in progress, which is saved once
+     * that refresh completes successfully.
+     */
+    private volatile FolderSyncState pendingSyncState;
 
     public PopFolderRequestHandler(
             NetworkMailStoreServices mailStoreServices,
@@ -59,6 +70,26 @@ class PopFolderRequestHandler extends FolderRequestHandler {
         super(mailStoreServices, mailStore, folderMessageCache, folderTreeItem);
     }
     
+    protected MailStoreRequest createFolderRefreshRequest(FolderMessage[] cacheLoadedMessages) {
+        if(cacheLoadedMessages == null) {
+            pendingSyncState = null;
+            return super.createFolderRefreshRequest(cacheLoadedMessages);
+        }
+        
+        FolderSyncState syncState = folderMessageCache.getFolderSyncState(folderTreeItem);
+        pendingSyncState = syncState;
+        return mailStore.createFolderRefreshRequest(folderTreeItem, cacheLoadedMessages, syncState);
+    }
+    
+    protected void endFolderRefreshOperation(boolean success) {
+        FolderSyncState syncState = pendingSyncState;
+        pendingSyncState = null;
+        if(success && syncState != null) {
+            folderMessageCache.setFolderSyncState(folderTreeItem, syncState);
+        }
+        super.endFolderRefreshOperation(success);
+    }
+    
     public void setPriorFolderMessagesSeen(final Date startDate) {
         invokeAfterRefresh(new PostRefreshRunnable() {
             public void run(boolean refreshSuccessful) {
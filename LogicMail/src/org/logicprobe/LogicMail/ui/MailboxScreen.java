@@ -59,6 +59,7 @@ import org.logicprobe.LogicMail.conf.GlobalConfig;
 import org.logicprobe.LogicMail.conf.MailSettings;
 import org.logicprobe.LogicMail.conf.MailSettingsEvent;
 import org.logicprobe.LogicMail.conf.MailSettingsListener;
+import org.logicprobe.LogicMail.mail.imap.ImapClient;
 import org.logicprobe.LogicMail.model.MailboxNode;
 import org.logicprobe.LogicMail.model.MailboxNodeEvent;
 import org.logicprobe.LogicMail.model.MailboxNodeListener;
@@ -98,6 +99,7 @@ public class MailboxScreen extends AbstractScreenProvider {
 
     protected MenuItem compositionItem;
     protected MenuItem markPriorOpenedItem;
+    protected MenuItem serverOrderItem;
 	
     /**
      * Initializes a new MailboxScreen to view the provided mailbox.
@@ -409,6 +411,11 @@ public class MailboxScreen extends AbstractScreenProvider {
                 }
             }
         };
+        serverOrderItem = new MenuItem(resources, LogicMailResource.MENUITEM_SERVER_ORDER, 400120, 2000) {
+            public void run() {
+                handleServerOrderAction();
+            }
+        };
 	}
 
     /* (non-Javadoc)
@@ -431,6 +438,9 @@ public class MailboxScreen extends AbstractScreenProvider {
             if(composeEnabled) {
                 menu.add(compositionItem);
             }
+            if(hasServerOrder()) {
+                menu.add(serverOrderItem);
+            }
         }
         else {
             messageActions.makeContextMenu(menu, instance, messageNode, false);
@@ -442,6 +452,61 @@ public class MailboxScreen extends AbstractScreenProvider {
             menu.add(compositionItem);
         }
         menu.add(markPriorOpenedItem);
+        if(hasServerOrder()) {
+            menu.add(serverOrderItem);
+        }
+    }
+    
+    private static final int[] SERVER_ORDERS = {
+        ImapClient.ORDER_DATE, ImapClient.ORDER_FROM, ImapClient.ORDER_SUBJECT, ImapClient.ORDER_THREAD
+    };
+    private static final int[] SERVER_ORDER_KEYS = {
+        LogicMailResource.MAILBOX_ORDER_DATE, LogicMailResource.MAILBOX_ORDER_SENDER,
+        LogicMailResource.MAILBOX_ORDER_SUBJECT, LogicMailResource.MAILBOX_ORDER_THREAD
+    };
+    
+    private boolean hasServerOrder() {
+        for(int i=0; i<SERVER_ORDERS.length; i++) {
+            if(mailboxNode.hasMessageOrder(SERVER_ORDERS[i])) { return true; }
+        }
+        return false;
+    }
+    
+    private void handleServerOrderAction() {
+        // The choices are the supported server orders, followed by local
+        // ordering and cancel.
+        Vector choices = new Vector();
+        Vector orders = new Vector();
+        for(int i=0; i<SERVER_ORDERS.length; i++) {
+            if(mailboxNode.hasMessageOrder(SERVER_ORDERS[i])) {
+                choices.addElement(resources.getString(SERVER_ORDER_KEYS[i]));
+                orders.addElement(new Integer(SERVER_ORDERS[i]));
+            }
+        }
+        choices.addElement(resources.getString(LogicMailResource.MAILBOX_ORDER_LOCAL));
+        orders.addElement(new Integer(-1));
+        choices.addElement(resources.getString(LogicMailResource.MENUITEM_CANCEL));
+        
+        Object[] choiceArray = new Object[choices.size()];
+        choices.copyInto(choiceArray);
+        int choice = Dialog.ask(
+                resources.getString(LogicMailResource.MAILBOX_SERVER_ORDER_PROMPT),
+                choiceArray, choiceArray.length - 1);
+        if(choice < 0 || choice >= orders.size()) { return; }
+        
+        int order = ((Integer)orders.elementAt(choice)).intValue();
+        if(order == -1 && mailboxNode.getMessageOrder() == -1) { return; }
+        
+        AnalyticsDataCollector.getInstance().onButtonClick(getScreenPath(), getScreenName(), "serverOrder");
+        
+        // Gaps in the old order no longer apply, and the new order will
+        // report its own gap once the first page has loaded.
+        for(int i=messageFieldManager.getFieldCount() - 1; i>=0; i--) {
+            if(messageFieldManager.getField(i) instanceof MailboxActionField) {
+                messageFieldManager.delete(messageFieldManager.getField(i));
+            }
+        }
+        mailboxNode.setMessageOrder(order);
     }
     
     public boolean onClose() {
@@ -670,7 +735,7 @@ public class MailboxScreen extends AbstractScreenProvider {
     	
     	int fieldCount = messageFieldManager.getFieldCount();
 		if(fieldCount > 0) {
-			Comparator comparator = MessageNode.getComparator();
+			Comparator comparator = mailboxNode.getMessageComparator();
 			int index = messageFieldManager.getFieldCount();
 			
 			if(displayOrder) {
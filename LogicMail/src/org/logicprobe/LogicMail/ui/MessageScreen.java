@@ -560,7 +560,14 @@ public class MessageScreen extends AbstractScreenProvider {
         }
         else {
             MimeMessageContent content = messageNode.getMessageContent(attachmentField.getMessagePart());
-            return content != null && content.isPartComplete() != MimeMessageContent.PART_INCOMPLETE;
+            if(content != null) {
+                return content.isPartComplete() != MimeMessageContent.PART_INCOMPLETE;
+            }
+            else {
+                // Attachments of downloaded messages are only kept in the
+                // cache, and are loaded from there when saved
+                return messageNode.hasCachedContentPart(attachmentField.getMessagePart());
+            }
         }
     }
     
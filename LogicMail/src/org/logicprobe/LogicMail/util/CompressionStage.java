@@ -0,0 +1,260 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Base class for a compression stage that can be inserted between a
+ * {@link Connection} and its underlying socket streams.
+ * <p>
+ * Subclasses provide the actual compressing and decompressing streams.
+ * This class wraps them to keep track of the number of bytes that actually
+ * cross the network, and the time spent decompressing received data, so the
+ * effectiveness of compression can be measured on each connection.
+ * </p>
+ * <p>
+ * An instance should only be used with a single connection.
+ * </p>
+ */
+public abstract class CompressionStage {
+    /**
+     * Flush the compressed output stream every time the connection sends
+     * data, so each command reaches the server as soon as it is sent.
+     */
+    public static final int FLUSH_ON_SEND = 0;
+    
+    /**
+     * Only flush the compressed output stream when the connection is about
+     * to wait for data from the server.  Commands sent back to back, such as
+     * pipelined commands, are then compressed and sent together.
+     */
+    public static final int FLUSH_ON_RECEIVE = 1;
+    
+    private final int flushPolicy;
+    private int wireBytesSent;
+    private int wireBytesReceived;
+    private long wireReadTime;
+    private long inflateTime;
+    
+    /**
+     * Instantiates a new compression stage.
+     *
+     * @param flushPolicy the flush policy, either {@link #FLUSH_ON_SEND}
+     *   or {@link #FLUSH_ON_RECEIVE}
+     */
+    protected CompressionStage(int flushPolicy) {
+        if(flushPolicy != FLUSH_ON_SEND && flushPolicy != FLUSH_ON_RECEIVE) {
+            throw new IllegalArgumentException();
+        }
+        this.flushPolicy = flushPolicy;
+    }
+    
+    /**
+     * Gets the flush policy.
+     *
+     * @return the flush policy
+     */
+    public int getFlushPolicy() {
+        return flushPolicy;
+    }
+    
+    /**
+     * Creates the stream that decompresses data read from the network.
+     *
+     * @param wireInput the stream of compressed data from the network
+     * @return the decompressing stream
+     */
+    protected abstract InputStream createInputStream(InputStream wireInput);
+    
+    /**
+     * Creates the stream that compresses data written to the network.
+     *
+     * @param wireOutput the stream of compressed data to the network
+     * @return the compressing stream
+     */
+    protected abstract OutputStream createOutputStream(OutputStream wireOutput);
+    
+    /**
+     * Wraps the input stream of a connection with this stage.
+     *
+     * @param wireInput the socket input stream
+     * @return the stream to read uncompressed data from
+     */
+    InputStream wrapInputStream(InputStream wireInput) {
+        return new InflateInputStream(createInputStream(new WireInputStream(wireInput)));
+    }
+    
+    /**
+     * Wraps the output stream of a connection with this stage.
+     *
+     * @param wireOutput the socket output stream
+     * @return the stream to write uncompressed data to
+     */
+    OutputStream wrapOutputStream(OutputStream wireOutput) {
+        return createOutputStream(new WireOutputStream(wireOutput));
+    }
+    
+    /**
+     * Gets the number of compressed bytes that have been sent.
+     *
+     * @return bytes sent on the network
+     */
+    public int getWireBytesSent() {
+        return wireBytesSent;
+    }
+    
+    /**
+     * Gets the number of compressed bytes that have been received.
+     *
+     * @return bytes received from the network
+     */
+    public int getWireBytesReceived() {
+        return wireBytesReceived;
+    }
+    
+    /**
+     * Gets the time spent decompressing received data.  This does not
+     * include time spent waiting for data to arrive from the network.
+     *
+     * @return the decompression time, in milliseconds
+     */
+    public long getInflateTime() {
+        return inflateTime;
+    }
+    
+    /**
+     * Counts and times reads of compressed data from the network.
+     */
+    private class WireInputStream extends InputStream {
+        private final InputStream input;
+        
+        public WireInputStream(InputStream input) {
+            this.input = input;
+        }
+        
+        public int read() throws IOException {
+            long startTime = System.currentTimeMillis();
+            int result = input.read();
+            wireReadTime += System.currentTimeMillis() - startTime;
+            if(result != -1) {
+                wireBytesReceived++;
+            }
+            return result;
+        }
+        
+        public int read(byte[] b, int off, int len) throws IOException {
+            long startTime = System.currentTimeMillis();
+            int result = input.read(b, off, len);
+            wireReadTime += System.currentTimeMillis() - startTime;
+            if(result > 0) {
+                wireBytesReceived += result;
+            }
+            return result;
+        }
+        
+        public int available() throws IOException {
+            return input.available();
+        }
+        
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+    
+    /**
+     * Times reads of decompressed data, subtracting the time spent
+     * waiting on the network.
+     */
+    private class InflateInputStream extends InputStream {
+        private final InputStream input;
+        
+        public InflateInputStream(InputStream input) {
+            this.input = input;
+        }
+        
+        public int read() throws IOException {
+            long startTime = System.currentTimeMillis();
+            long startWireTime = wireReadTime;
+            int result = input.read();
+            inflateTime += (System.currentTimeMillis() - startTime) - (wireReadTime - startWireTime);
+            return result;
+        }
+        
+        public int read(byte[] b, int off, int len) throws IOException {
+            long startTime = System.currentTimeMillis();
+            long startWireTime = wireReadTime;
+            int result = input.read(b, off, len);
+            inflateTime += (System.currentTimeMillis() - startTime) - (wireReadTime - startWireTime);
+            return result;
+        }
+        
+        public int available() throws IOException {
+            return input.available();
+        }
+        
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+    
+    /**
+     * Counts writes of compressed data to the network.
+     */
+    private class WireOutputStream extends OutputStream {
+        private final OutputStream output;
+        
+        public WireOutputStream(OutputStream output) {
+            this.output = output;
+        }
+        
+        public void write(int b) throws IOException {
+            output.write(b);
+            wireBytesSent++;
+        }
+        
+        public void write(byte[] b, int off, int len) throws IOException {
+            output.write(b, off, len);
+            wireBytesSent += len;
+        }
+        
+        public void flush() throws IOException {
+            output.flush();
+        }
+        
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
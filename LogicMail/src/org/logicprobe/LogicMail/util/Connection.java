@@ -31,9 +31,6 @@
 
 package org.logicprobe.LogicMail.util;
 
-import net.rim.device.api.compress.ZLibInputStream;
-import net.rim.device.api.compress.ZLibOutputStream;
-import net.rim.device.api.io.NoCopyByteArrayOutputStream;
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
 
@@ -67,9 +64,12 @@ public class Connection {
     private final GlobalConfig globalConfig;
     private InputStream input;
     private OutputStream output;
-    private int fakeAvailable = -1;
     private int bytesSent = 0;
     private int bytesReceived = 0;
+    private CompressionStage compressionStage;
+    private int compressionStartSent;
+    private int compressionStartReceived;
+    private boolean flushPending;
     private final Object socketLock = new Object();
     private final Object socketReadLock = new Object();
     private final Object socketWriteLock = new Object();
@@ -78,16 +78,37 @@ public class Connection {
     private volatile boolean connectionClosed = true;
     
     /**
-     * Byte stream used to hold received data before it is passed back to
-     * the rest of the application.
+     * Default amount of free space to make available at the end of the
+     * receive buffer prior to reading from the socket.
      */
-    private final ByteArrayOutputStream byteStream = new NoCopyByteArrayOutputStream(1024);
+    private static final int DEFAULT_READ_SIZE = 8192;
     
     /**
-     * Temporary read buffer used as an intermediary between the socket and
-     * the byteStream.
+     * Amount of free space to make available at the end of the receive
+     * buffer prior to reading from the socket.  This is effectively the
+     * upper bound on how much data a single read can return.
      */
-    private final byte[] readBuffer = new byte[1024];
+    private int readSize = DEFAULT_READ_SIZE;
+    
+    /**
+     * Buffer used to hold received data before it is passed back to the
+     * rest of the application.  Data is read from the socket directly into
+     * the end of this buffer, and complete responses are consumed from the
+     * front of it by advancing <code>receiveStart</code>.  Unconsumed data is
+     * only moved when the free space at the end of the buffer runs out.
+     */
+    private byte[] receiveBuffer = new byte[DEFAULT_READ_SIZE * 2];
+    
+    /** Start of the unconsumed data within the receive buffer. */
+    private int receiveStart;
+    
+    /** End of the unconsumed data within the receive buffer. */
+    private int receiveEnd;
+    
+    /**
+     * Tester used for plain line-oriented receive operations.
+     */
+    private final ConnectionResponseTester lineResponseTester = new LineResponseTester();
     
     /**
      * Initializes a new connection object.
@@ -111,12 +132,31 @@ public class Connection {
     }
     
     /**
-     * Enables compression on the I/O sockets using ZLib.
+     * Enables compression on the I/O sockets using ZLib, flushing the
+     * compressed stream every time data is sent.
      */
     public void enableCompression() {
-        if(this.input instanceof ZLibInputStream) { return; }
-        this.input = new ZLibInputStream(this.input, true);
-        this.output = new ZLibOutputStream(this.output, true);
+        enableCompression(new DeflateCompressionStage(CompressionStage.FLUSH_ON_SEND));
+    }
+    
+    /**
+     * Enables compression on the I/O sockets using the provided stage.
+     * Compression can only be enabled once on a connection, and only
+     * affects data sent or received after this method is called.
+     *
+     * @param compressionStage the compression stage to use
+     */
+    public void enableCompression(CompressionStage compressionStage) {
+        synchronized(socketReadLock) {
+            synchronized(socketWriteLock) {
+                if(this.compressionStage != null) { return; }
+                this.input = compressionStage.wrapInputStream(this.input);
+                this.output = compressionStage.wrapOutputStream(this.output);
+                this.compressionStage = compressionStage;
+                this.compressionStartSent = bytesSent;
+                this.compressionStartReceived = bytesReceived;
+            }
+        }
     }
     
     /**
@@ -125,7 +165,25 @@ public class Connection {
     public void close() {
         forceClose();
 
-        EventLogger.logEvent(AppInfo.GUID, "Connection closed".getBytes(),
+        StringBuffer buf = new StringBuffer();
+        buf.append("Connection closed: type=");
+        buf.append(connectionType);
+        buf.append(", sent=");
+        buf.append(bytesSent);
+        buf.append('/');
+        buf.append(getWireBytesSent());
+        buf.append(", received=");
+        buf.append(bytesReceived);
+        buf.append('/');
+        buf.append(getWireBytesReceived());
+        if(compressionStage != null) {
+            buf.append(", ratio=");
+            buf.append(getCompressionRatio());
+            buf.append("%, inflate=");
+            buf.append(compressionStage.getInflateTime());
+            buf.append("ms");
+        }
+        EventLogger.logEvent(AppInfo.GUID, buf.toString().getBytes(),
                 EventLogger.INFORMATION);
     }
 
@@ -244,6 +302,100 @@ public class Connection {
         return bytesReceived;
     }
 
+    /**
+     * Gets the number of bytes that have actually been written to the
+     * network since the connection was opened.  This is the same as
+     * {@link #getBytesSent()} unless compression has been enabled.
+     * <p>
+     * The counter is not synchronized, so it should only be
+     * called from the same thread as the send and receive
+     * methods.
+     * </p>
+     * @return bytes sent on the network
+     */
+    public int getWireBytesSent() {
+        if(compressionStage != null) {
+            return compressionStartSent + compressionStage.getWireBytesSent();
+        }
+        else {
+            return bytesSent;
+        }
+    }
+
+    /**
+     * Gets the number of bytes that have actually been read from the
+     * network since the connection was opened.  This is the same as
+     * {@link #getBytesReceived()} unless compression has been enabled.
+     * <p>
+     * The counter is not synchronized, so it should only be
+     * called from the same thread as the send and receive
+     * methods.
+     * </p>
+     * @return bytes received from the network
+     */
+    public int getWireBytesReceived() {
+        if(compressionStage != null) {
+            return compressionStartReceived + compressionStage.getWireBytesReceived();
+        }
+        else {
+            return bytesReceived;
+        }
+    }
+
+    /**
+     * Gets the compression ratio achieved on this connection, counting
+     * all data in both directions since compression was enabled.
+     *
+     * @return the size of the uncompressed data as a percentage of the
+     *   size of the data on the network, or 100 if compression is not enabled
+     *   or nothing has been transferred
+     */
+    public int getCompressionRatio() {
+        if(compressionStage == null) { return 100; }
+        long wireBytes = compressionStage.getWireBytesSent() + compressionStage.getWireBytesReceived();
+        long rawBytes = (bytesSent - compressionStartSent) + (bytesReceived - compressionStartReceived);
+        if(wireBytes == 0 || rawBytes == 0) { return 100; }
+        return (int)((rawBytes * 100) / wireBytes);
+    }
+
+    /**
+     * Gets the time spent decompressing received data on this connection.
+     *
+     * @return the decompression time, in milliseconds
+     */
+    public long getInflateTime() {
+        if(compressionStage != null) {
+            return compressionStage.getInflateTime();
+        }
+        else {
+            return 0;
+        }
+    }
+
+    /**
+     * Sets the maximum number of bytes to request from the socket in a
+     * single read.  Larger values reduce the number of calls needed to
+     * receive bulk data, at the cost of a larger receive buffer.
+     *
+     * @param readSize the read size, in bytes
+     */
+    public void setReadSize(int readSize) {
+        if(readSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.readSize = readSize;
+    }
+    
+    /**
+     * Gets the maximum number of bytes to request from the socket in a
+     * single read.
+     *
+     * @return the read size, in bytes
+     */
+    public int getReadSize() {
+        return readSize;
+    }
+    
     /**
      * Gets the socket used by this connection instance.
      * This method should only be called by <code>NetworkConnector</code>
@@ -299,7 +451,7 @@ public class Connection {
                 bytesSent += buf.length;
             }
     
-            output.flush();
+            flushOutput();
         }
         synchronized (socketLock) { socketWriteThread = null; }
         if(connectionClosed) { throw new IOException(); }
@@ -331,13 +483,48 @@ public class Connection {
             output.write(data, offset, length);
             bytesSent += length;
     
-            output.flush();
+            flushOutput();
         }
         synchronized (socketLock) { socketWriteThread = null; }
         
         if(connectionClosed) { throw new IOException(); }
     }
 
+    /**
+     * Flushes the output stream after a send, unless the compression flush
+     * policy allows the flush to be deferred until the next receive.
+     * Must be called while holding <code>socketWriteLock</code>.
+     */
+    private void flushOutput() throws IOException {
+        if(compressionStage != null
+                && compressionStage.getFlushPolicy() == CompressionStage.FLUSH_ON_RECEIVE) {
+            // If another thread is already waiting on a response, then
+            // nothing will flush this data for us.
+            boolean readPending;
+            synchronized(socketLock) { readPending = (socketReadThread != null); }
+            if(!readPending) {
+                flushPending = true;
+                return;
+            }
+        }
+        flushPending = false;
+        output.flush();
+    }
+    
+    /**
+     * Flushes any output that was deferred by {@link #flushOutput()}.
+     * Must be called before any read that could block waiting for a
+     * response to that output.
+     */
+    private void flushPendingOutput() throws IOException {
+        synchronized(socketWriteLock) {
+            if(flushPending && output != null) {
+                flushPending = false;
+                output.flush();
+            }
+        }
+    }
+    
     /**
      * Returns the number of bytes available for reading.
      * Used to poll the connection without blocking.
@@ -347,10 +534,12 @@ public class Connection {
     public int available() throws IOException {
         //FIXME: This may cause issues if checked during a blocking read
         synchronized(socketReadLock) {
-            if (fakeAvailable == -1) {
-                return input.available();
+            int buffered = receiveEnd - receiveStart;
+            if (buffered > 0) {
+                return buffered;
             } else {
-                return fakeAvailable;
+                flushPendingOutput();
+                return input.available();
             }
         }
     }
@@ -392,66 +581,138 @@ public class Connection {
         if(connectionClosed) { throw new IOException(); }
         return result;
     }
-    
+
+    /**
+     * Receives a fixed amount of raw data from the server, writing it to the
+     * provided stream as it arrives instead of returning it.
+     * <p>
+     * This is intended for protocol literals whose length is known in
+     * advance, so that their contents do not need to be accumulated in
+     * memory.  Any data which has already been read from the socket is
+     * written first, and any data read beyond the requested length is kept
+     * for the next call to {@link #receive()}.
+     * </p>
+     *
+     * @param output the stream to write the received data to
+     * @param length the number of bytes to receive
+     */
+    public void receiveRaw(OutputStream output, int length) throws IOException {
+        synchronized (socketLock) { socketReadThread = Thread.currentThread(); }
+        receiveRawImpl(output, length);
+        synchronized (socketLock) { socketReadThread = null; }
+
+        if(globalConfig.getConnDebug()) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("[RECV RAW] " + length + " bytes").getBytes(),
+                    EventLogger.DEBUG_INFO);
+        }
+
+        if(connectionClosed) { throw new IOException(); }
+    }
+
+    private void receiveRawImpl(OutputStream output, int length) throws IOException {
+        synchronized(socketReadLock) {
+            int remaining = length;
+
+            // Write out any data left over from previous reads
+            int buffered = receiveEnd - receiveStart;
+            if(buffered > 0 && remaining > 0) {
+                int count = Math.min(buffered, remaining);
+                output.write(receiveBuffer, receiveStart, count);
+                remaining -= count;
+                if(count < buffered) {
+                    receiveStart += count;
+                }
+                else {
+                    receiveStart = 0;
+                    receiveEnd = 0;
+                }
+            }
+
+            // Read the rest directly from the socket, passing each chunk
+            // through the otherwise empty receive buffer.
+            while(remaining > 0) {
+                flushPendingOutput();
+                int len = input.read(receiveBuffer, 0, receiveBuffer.length);
+                if(len == -1) {
+                    handleSocketReadError();
+                }
+                bytesReceived += len;
+
+                int count = Math.min(len, remaining);
+                output.write(receiveBuffer, 0, count);
+                remaining -= count;
+                if(count < len) {
+                    receiveStart = count;
+                    receiveEnd = len;
+                }
+            }
+        }
+    }
+
     private byte[] receiveImpl(ConnectionResponseTester responseTester) throws IOException {
         synchronized(socketReadLock) {
             // Check existing data for a usable line
             byte[] line = checkForLine(responseTester);
-            if(line != null) {
-                return line;
-            }
-    
-            // Read from the socket
-            int firstByte = input.read();
-            if(firstByte != -1) {
-                byteStream.write((byte)firstByte);
-                bytesReceived++;
-                int bytesAvailable = input.available();
-                while(bytesAvailable > 0) {
-                    int len = input.read(readBuffer, 0, Math.min(bytesAvailable, readBuffer.length));
-                    byteStream.write(readBuffer, 0, len);
-                    bytesReceived += len;
-                    
-                    // Check read data for a usable line
-                    line = checkForLine(responseTester);
-                    if(line != null) {
-                        return line;
-                    }
-                    
-                    bytesAvailable = input.available();
-    
-                    // If no bytes are reported as being available, but we have
-                    // not yet received a full line, then we need to attempt
-                    // another single-byte blocking read.
-                    if(bytesAvailable == 0) {
-                        firstByte = input.read();
-                        if(firstByte != -1) {
-                            byteStream.write((byte)firstByte);
-                            bytesReceived++;
-                            bytesAvailable = input.available();
-                        }
-                        else {
-                            handleSocketReadError();
-                        }
-                    }
+            
+            while(line == null) {
+                // Read from the socket.  This blocks until at least one byte
+                // is available, and returns as much data as the stream can
+                // provide without blocking further, up to the free space in
+                // the receive buffer.  This does not depend on available(),
+                // which some streams (such as compressed or TLS streams)
+                // always report as zero.
+                ensureReceiveCapacity(readSize);
+                flushPendingOutput();
+                int len = input.read(receiveBuffer, receiveEnd, receiveBuffer.length - receiveEnd);
+                if(len == -1) {
+                    // If we got here, then there is either a connection error
+                    // or the response tester has a bug.
+                    handleSocketReadError();
                 }
+                receiveEnd += len;
+                bytesReceived += len;
                 
-                // Check for any final data
-                if(byteStream.size() > 0) {
-                    line = checkForLine(responseTester);
-                    if(line != null) {
-                        return line;
-                    }
-                }
+                // Check read data for a usable line
+                line = checkForLine(responseTester);
             }
-            else {
-                handleSocketReadError();
+            return line;
+        }
+    }
+    
+    /**
+     * Makes sure the receive buffer has at least the requested amount of free
+     * space following the unconsumed data.
+     * <p>
+     * If the unconsumed data occupies less than half of the buffer, it is
+     * moved to the front of the existing buffer.  Otherwise, the buffer is
+     * grown.  Either way, data is only moved once the space at the end of the
+     * buffer has been used up, so the cost of consuming responses from the
+     * front of the buffer stays linear in the amount of data received.
+     * </p>
+     *
+     * @param needed the number of free bytes required
+     */
+    private void ensureReceiveCapacity(int needed) {
+        if(receiveBuffer.length - receiveEnd >= needed) {
+            return;
+        }
+        
+        int used = receiveEnd - receiveStart;
+        if(used + needed <= receiveBuffer.length / 2) {
+            System.arraycopy(receiveBuffer, receiveStart, receiveBuffer, 0, used);
+        }
+        else {
+            int newLength = receiveBuffer.length * 2;
+            while(newLength < used + needed) {
+                newLength *= 2;
             }
+            byte[] newBuffer = new byte[newLength];
+            System.arraycopy(receiveBuffer, receiveStart, newBuffer, 0, used);
+            receiveBuffer = newBuffer;
         }
-        // We should never get here, unless there is a connection error or the
-        // line response tester has a bug.
-        handleSocketReadError();
-        return null;
+        receiveStart = 0;
+        receiveEnd = used;
     }
     
     private void handleSocketReadError() throws IOException {
@@ -470,76 +731,76 @@ public class Connection {
     }
 
     /**
-     * Checks the byte stream buffer for a usable line of returnable data.
-     * If a line is returned, the buffer will be updated to only contain data
-     * following that line.
+     * Checks the receive buffer for a usable line of returnable data.
+     * If a line is returned, the start of the unconsumed data will be
+     * advanced past that line.
      *
      * @return the trimmed string which ended in a CRLF in the source data
      */
     private byte[] checkForLine(ConnectionResponseTester responseTester) throws IOException {
-        byte[] result;
-        
-        byte[] buf = byteStream.toByteArray();
-        int size = byteStream.size();
+        int size = receiveEnd - receiveStart;
+        if(size == 0) {
+            return null;
+        }
         
-        int p = responseTester.checkForCompleteResponse(buf, size);
+        int p = responseTester.checkForCompleteResponse(receiveBuffer, receiveStart, size);
         
         if(p != -1) {
             int trimCount = responseTester.trimCount();
             
-            result = Arrays.copy(buf, 0, p - trimCount);
+            byte[] result = Arrays.copy(receiveBuffer, receiveStart, p - trimCount);
             
             if(p < size) {
-                buf = Arrays.copy(buf, p, size - p);
-                byteStream.reset();
-                byteStream.write(buf);
-                fakeAvailable = buf.length;
+                receiveStart += p;
             }
             else {
-                byteStream.reset();
-                fakeAvailable = -1;
+                receiveStart = 0;
+                receiveEnd = 0;
             }
+            return result;
         }
         else {
-            fakeAvailable = size;
-            result = null;
+            return null;
         }
-        return result;
     }
 
-    private static ConnectionResponseTester lineResponseTester = new ConnectionResponseTester() {
+    /**
+     * Tests received data for complete lines, terminated by a LF or CRLF.
+     */
+    private static class LineResponseTester extends ConnectionResponseTester {
         private int trimCount;
         private int lastLength = 0;
         
-        public int checkForCompleteResponse(byte[] buf, int len) {
+        public int checkForCompleteResponse(byte[] buf, int offset, int length) {
             trimCount = 0;
-            int p = StringArrays.indexOf(buf, LF, lastLength);
+            int len = offset + length;
+            int p = StringArrays.indexOf(buf, LF, offset + lastLength, len);
             
-            if(p != -1 && p < len) {
-                // Specific test for responses that use a double LF in
-                // the middle, to separate things that look like separate
-                // responses but really are not.
-                while(p != -1 && p + 1 < len && buf[p + 1] == LF) {
-                    if(p + 2 == len) {
-                        lastLength = len;
-                        return -1;
-                    }
-                    else {
-                        p = StringArrays.indexOf(buf, LF, p + 2);
-                    }
+            // Specific test for responses that use a double LF in
+            // the middle, to separate things that look like separate
+            // responses but really are not.
+            while(p != -1 && p + 1 < len && buf[p + 1] == LF) {
+                if(p + 2 == len) {
+                    lastLength = length;
+                    return -1;
                 }
-                
-                if(p > 0 && buf[p - 1] == CR) {
+                else {
+                    p = StringArrays.indexOf(buf, LF, p + 2, len);
+                }
+            }
+            
+            if(p != -1) {
+                if(p > offset && buf[p - 1] == CR) {
                     trimCount = 2;
                 }
                 else {
                     trimCount = 1;
                 }
                 lastLength = 0;
-                return ++p;
+                return ++p - offset;
             }
             else {
-                lastLength = len;
+                lastLength = length;
                 return -1;
             }
         }
@@ -551,5 +812,5 @@ public class Connection {
         public String logString(byte[] result) {
             return new String(result);
         }
-    };
+    }
 }
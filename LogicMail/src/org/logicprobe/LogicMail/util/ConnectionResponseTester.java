@@ -38,19 +38,42 @@ package org.logicprobe.LogicMail.util;
 public abstract class ConnectionResponseTester {
     /**
      * Checks the provided buffer for a complete response.
+     * <p>
+     * The unconsumed data starts at <code>offset</code>, which may change
+     * between calls as the connection reuses its receive buffer.
+     * Implementations that keep state between calls must therefore track
+     * positions relative to <code>offset</code>, rather than as absolute
+     * indices into <code>buf</code>.
+     * </p>
+     * 
+     * @param buf the raw socket receive buffer
+     * @param offset the start of the unconsumed data within the buffer
+     * @param length the length of the unconsumed data within the buffer
+     * @return length of the complete response, counted from
+     *   <code>offset</code>, or <code>-1</code> if none is currently
+     *   available within the buffer
+     */
+    public abstract int checkForCompleteResponse(byte[] buf, int offset, int length);
+    
+    /**
+     * Checks the provided buffer for a complete response, starting at the
+     * beginning of the buffer.
      * 
      * @param buf the raw socket receive buffer
      * @param len the length of the valid data within the buffer
      * @return length of the complete response, or <code>-1</code> if none
      *   is currently available within the buffer
+     * @see #checkForCompleteResponse(byte[], int, int)
      */
-    public abstract int checkForCompleteResponse(byte[] buf, int len);
+    public int checkForCompleteResponse(byte[] buf, int len) {
+        return checkForCompleteResponse(buf, 0, len);
+    }
     
     /**
      * Number of characters to trim from the response prior to returning the
      * resulting data.  Primarily useful for cases such as trimming CRLF codes.
      * Expect this method to be called immediately following a call to
-     * {{@link #checkForCompleteResponse(byte[], int)} that provides a
+     * {@link #checkForCompleteResponse(byte[], int, int)} that provides a
      * successful result.
      * 
      * @return number of characters to trim
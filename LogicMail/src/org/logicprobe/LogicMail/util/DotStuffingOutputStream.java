@@ -0,0 +1,152 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that applies the SMTP dot-stuffing transparency procedure
+ * (RFC 5321, section 4.5.2) to the data written through it, for sending
+ * message content following the "DATA" command.
+ * <p>
+ * Any line that begins with a period has an extra period added to the start
+ * of it.  The data is collected in a buffer, which is only written to the
+ * underlying stream when it is full, or when the stream is flushed or
+ * finished.  Since that normally means the underlying stream is only
+ * written to once per buffer, the buffer should be large.
+ * </p>
+ */
+public class DotStuffingOutputStream extends OutputStream {
+    /** Default size of the output buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 16384;
+    
+    private static final byte CR = (byte)'\r';
+    private static final byte LF = (byte)'\n';
+    private static final byte PERIOD = (byte)'.';
+    
+    private final OutputStream output;
+    private final byte[] buffer;
+    private int count;
+    private boolean lineStart = true;
+    
+    /**
+     * Instantiates a new dot-stuffing output stream with the default
+     * buffer size.
+     *
+     * @param output the underlying output stream
+     */
+    public DotStuffingOutputStream(OutputStream output) {
+        this(output, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Instantiates a new dot-stuffing output stream.
+     *
+     * @param output the underlying output stream
+     * @param bufferSize the size of the output buffer
+     */
+    public DotStuffingOutputStream(OutputStream output, int bufferSize) {
+        if(bufferSize < 2) {
+            throw new IllegalArgumentException();
+        }
+        this.output = output;
+        this.buffer = new byte[bufferSize];
+    }
+    
+    public void write(int b) throws IOException {
+        if(count + 2 > buffer.length) {
+            flushBuffer();
+        }
+        if(lineStart && b == PERIOD) {
+            buffer[count++] = PERIOD;
+        }
+        buffer[count++] = (byte)b;
+        lineStart = (b == LF);
+    }
+    
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        for(int i=off; i<end; i++) {
+            // Always leave room for a byte and the period that may precede it
+            if(count + 2 > buffer.length) {
+                flushBuffer();
+            }
+            byte value = b[i];
+            if(lineStart && value == PERIOD) {
+                buffer[count++] = PERIOD;
+            }
+            buffer[count++] = value;
+            lineStart = (value == LF);
+        }
+    }
+    
+    /**
+     * Writes the end-of-data marker, and flushes everything written to this
+     * stream.  If the data did not end with a line break, one is added
+     * before the marker.  Nothing further should be written to this stream
+     * after this method is called.
+     */
+    public void finish() throws IOException {
+        if(!lineStart) {
+            writeUnstuffed(CR);
+            writeUnstuffed(LF);
+        }
+        writeUnstuffed(PERIOD);
+        writeUnstuffed(CR);
+        writeUnstuffed(LF);
+        flush();
+    }
+    
+    public void flush() throws IOException {
+        flushBuffer();
+        output.flush();
+    }
+    
+    public void close() throws IOException {
+        flush();
+        output.close();
+    }
+    
+    private void writeUnstuffed(byte value) throws IOException {
+        if(count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = value;
+    }
+    
+    private void flushBuffer() throws IOException {
+        if(count > 0) {
+            output.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
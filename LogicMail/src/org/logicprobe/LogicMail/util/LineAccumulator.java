@@ -0,0 +1,140 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+/**
+ * Collects the lines of a protocol response as they are received.
+ * <p>
+ * Lines are stored in an array whose capacity doubles as needed, so
+ * collecting a response of <i>n</i> lines takes time proportional to
+ * <i>n</i>, instead of copying the whole array for every line as
+ * <code>Arrays.add()</code> does.  An instance can be cleared and reused
+ * for subsequent responses, keeping its capacity between uses.
+ * </p>
+ */
+public class LineAccumulator {
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    /**
+     * Capacity above which the storage array is released on
+     * {@link #clear()}, so an unusually large response does not keep its
+     * storage allocated for the lifetime of the instance.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024;
+    
+    private byte[][] lines;
+    private int count;
+    
+    /**
+     * Instantiates a new line accumulator.
+     */
+    public LineAccumulator() {
+        lines = new byte[DEFAULT_CAPACITY][];
+    }
+    
+    /**
+     * Adds a line to the end of the collected lines.
+     *
+     * @param line the line to add
+     */
+    public void add(byte[] line) {
+        if(count == lines.length) {
+            byte[][] newLines = new byte[lines.length * 2][];
+            System.arraycopy(lines, 0, newLines, 0, count);
+            lines = newLines;
+        }
+        lines[count++] = line;
+    }
+    
+    /**
+     * Gets the number of lines collected.
+     *
+     * @return the number of lines
+     */
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * Gets a collected line.
+     *
+     * @param index the index of the line
+     * @return the line
+     * @throws ArrayIndexOutOfBoundsException if the index is out of range
+     */
+    public byte[] elementAt(int index) {
+        if(index >= count) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return lines[index];
+    }
+    
+    /**
+     * Gets the collected lines as an array, sized to the number of lines.
+     *
+     * @return the collected lines
+     */
+    public byte[][] toArray() {
+        byte[][] result = new byte[count][];
+        System.arraycopy(lines, 0, result, 0, count);
+        return result;
+    }
+    
+    /**
+     * Gets the collected lines as an array of strings, sized to the number
+     * of lines.
+     *
+     * @return the collected lines
+     */
+    public String[] toStringArray() {
+        String[] result = new String[count];
+        for(int i=0; i<count; i++) {
+            result[i] = new String(lines[i]);
+        }
+        return result;
+    }
+    
+    /**
+     * Removes all collected lines, so the instance can be reused.
+     */
+    public void clear() {
+        if(lines.length > MAX_RETAINED_CAPACITY) {
+            lines = new byte[DEFAULT_CAPACITY][];
+        }
+        else {
+            for(int i=0; i<count; i++) {
+                lines[i] = null;
+            }
+        }
+        count = 0;
+    }
+}
@@ -0,0 +1,430 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.rim.device.api.system.EventLogger;
+import net.rim.device.api.util.DataBuffer;
+
+import org.logicprobe.LogicMail.AppInfo;
+import org.logicprobe.LogicMail.message.MimeMessageContent;
+import org.logicprobe.LogicMail.message.MimeMessageContentFactory;
+import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.message.MimeMessagePartFactory;
+import org.logicprobe.LogicMail.message.MultiPart;
+import org.logicprobe.LogicMail.message.TextPart;
+import org.logicprobe.LogicMail.message.UnsupportedContentException;
+
+/**
+ * Parses raw message source text incrementally, one line at a time, as it
+ * is received from the server.
+ * <p>
+ * Unlike {@link MailMessageParser#parseRawMessage(Hashtable, java.io.InputStream)},
+ * this does not need the complete message source up front.  Headers are
+ * unfolded and MIME boundaries are detected as each line is provided, so
+ * only the encoded data of the part currently being read is held in memory.
+ * Each single part is decoded as soon as its closing boundary has been
+ * read, and passed to the {@link PartCallback} before parsing continues.
+ * </p>
+ * <p>
+ * Lines are expected without their line terminators, and with any protocol
+ * specific escaping (such as POP3 dot-stuffing) already removed.
+ * </p>
+ */
+public class MailMessageStreamParser {
+    private static final int STATE_HEADERS = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_MULTIPART = 2;
+    private static final int STATE_EPILOGUE = 3;
+    
+    private static final byte[] CRLF = new byte[] { (byte)'\r', (byte)'\n' };
+    private static final String CONTENT_TYPE = "content-type";
+    private static final String CONTENT_TRANSFER_ENCODING = "content-transfer-encoding";
+    private static final String CONTENT_DISPOSITION = "content-disposition";
+    private static final String CONTENT_ID = "content-id";
+    
+    private final PartCallback callback;
+    
+    private int state = STATE_HEADERS;
+    private MimeMessagePart rootPart;
+    private boolean complete = true;
+    
+    /** Stack of the multi-parts currently being read. */
+    private final Vector multiPartStack = new Vector();
+    /** Boundary lines matching each entry in the multi-part stack. */
+    private final Vector boundaryStack = new Vector();
+    /** Set by {@link #findBoundary(byte[])} when the boundary is a closing one. */
+    private boolean closingBoundary;
+    
+    /** Unfolded header fields of the part currently being read. */
+    private final Hashtable headers = new Hashtable();
+    /** Header line that may still be continued by the following line. */
+    private StringBuffer headerLine;
+    
+    /** Header values for the single part currently being read. */
+    private String type;
+    private String subtype;
+    private String name;
+    private String encoding;
+    private String charset;
+    private String disposition;
+    private String contentId;
+    
+    /** Encoded data of the single part currently being read. */
+    private final DataBuffer bodyBuffer = new DataBuffer();
+    private boolean bodyLinePending;
+    
+    /**
+     * Instantiates a new message stream parser.
+     *
+     * @param callback the callback to notify as each part is parsed
+     */
+    public MailMessageStreamParser(PartCallback callback) {
+        this.callback = callback;
+    }
+    
+    /**
+     * Parses the next line of the message source.
+     *
+     * @param line the line, without the CRLF
+     */
+    public void parseLine(byte[] line) {
+        switch(state) {
+        case STATE_HEADERS:
+            parseHeaderLine(line);
+            break;
+        case STATE_BODY:
+            int depth = findBoundary(line);
+            if(depth == -1) {
+                if(bodyLinePending) {
+                    bodyBuffer.write(CRLF);
+                }
+                bodyBuffer.write(line);
+                bodyLinePending = true;
+            }
+            else {
+                // The line break preceding a boundary belongs to the boundary,
+                // so the pending one is simply dropped here.
+                finishSinglePart(MimeMessageContent.PART_COMPLETE);
+                handleBoundary(depth);
+            }
+            break;
+        case STATE_MULTIPART:
+            depth = findBoundary(line);
+            if(depth != -1) {
+                handleBoundary(depth);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+    
+    /**
+     * Finishes parsing the message, once all available lines have been
+     * provided.  Any part still being read at this point is treated as
+     * having been truncated, unless it is the only part of the message.
+     *
+     * @return the root part of the message, or <code>null</code> if no
+     *   message headers were found
+     */
+    public MimeMessagePart finish() {
+        if(state == STATE_HEADERS && (headerLine != null || !headers.isEmpty())) {
+            endHeaders();
+        }
+        if(state == STATE_BODY) {
+            if(multiPartStack.isEmpty()) {
+                finishSinglePart(MimeMessageContent.PART_UNKNOWN);
+            }
+            else {
+                finishSinglePart(MimeMessageContent.PART_INCOMPLETE);
+            }
+        }
+        if(!multiPartStack.isEmpty()) {
+            complete = false;
+            multiPartStack.removeAllElements();
+            boundaryStack.removeAllElements();
+        }
+        state = STATE_EPILOGUE;
+        return rootPart;
+    }
+    
+    /**
+     * Gets whether the message was completely parsed.  This is only known
+     * for multi-part messages, where it is true if the closing boundary of
+     * every multi-part was found.
+     *
+     * @return true, if the message is known to be complete
+     */
+    public boolean isComplete() {
+        return complete && (rootPart instanceof MultiPart) && state == STATE_EPILOGUE;
+    }
+    
+    private void parseHeaderLine(byte[] line) {
+        if(line.length == 0) {
+            endHeaders();
+        }
+        else if(line[0] == (byte)' ' || line[0] == (byte)'\t') {
+            // Unfold the header, replacing the indentation with a single space
+            if(headerLine == null) { return; }
+            for(int i=1; i<line.length; i++) {
+                if(line[i] != (byte)' ' && line[i] != (byte)'\t') {
+                    headerLine.append(' ');
+                    headerLine.append(new String(line, i, line.length - i));
+                    break;
+                }
+            }
+        }
+        else {
+            addHeaderLine();
+            headerLine = new StringBuffer(new String(line));
+        }
+    }
+    
+    private void addHeaderLine() {
+        if(headerLine == null) { return; }
+        String text = headerLine.toString();
+        headerLine = null;
+        
+        int p = text.indexOf(':');
+        if(p <= 0) { return; }
+        String key = text.substring(0, p).trim().toLowerCase();
+        if(!headers.containsKey(key)) {
+            headers.put(key, text.substring(p + 1).trim());
+        }
+    }
+    
+    private void endHeaders() {
+        addHeaderLine();
+        
+        String contentType = (String)headers.get(CONTENT_TYPE);
+        type = "text";
+        subtype = "plain";
+        if(contentType != null) {
+            int p = contentType.indexOf(';');
+            String mimeType = (p != -1) ? contentType.substring(0, p).trim() : contentType;
+            int q = mimeType.indexOf('/');
+            if(q > 0 && q < mimeType.length() - 1) {
+                type = mimeType.substring(0, q).toLowerCase();
+                subtype = mimeType.substring(q + 1).toLowerCase();
+            }
+        }
+        
+        String boundary = getParameter(contentType, "boundary");
+        if(type.equals("multipart") && boundary != null && boundary.length() > 0) {
+            MimeMessagePart part = MimeMessagePartFactory.createMimeMessagePart(
+                    type, subtype, null, null, null, null, null, -1);
+            addToParent(part);
+            multiPartStack.addElement(part);
+            boundaryStack.addElement(("--" + boundary).getBytes());
+            headers.clear();
+            state = STATE_MULTIPART;
+            return;
+        }
+        
+        name = StringParser.parseEncodedHeader(getParameter(contentType, "name"), false);
+        charset = getParameter(contentType, "charset");
+        encoding = (String)headers.get(CONTENT_TRANSFER_ENCODING);
+        if(encoding == null) {
+            encoding = "7bit";
+        }
+        disposition = (String)headers.get(CONTENT_DISPOSITION);
+        if(disposition != null) {
+            int p = disposition.indexOf(';');
+            if(p != -1) {
+                disposition = disposition.substring(0, p);
+            }
+            disposition = disposition.trim().toLowerCase();
+        }
+        contentId = (String)headers.get(CONTENT_ID);
+        headers.clear();
+        
+        bodyBuffer.reset();
+        bodyLinePending = false;
+        state = STATE_BODY;
+    }
+    
+    private void finishSinglePart(int partComplete) {
+        // Decode the data if the part is complete or indeterminate, or is a
+        // text part where partial decoding still yields usable output.
+        byte[] buffer;
+        if(partComplete != MimeMessageContent.PART_INCOMPLETE
+                || type.equalsIgnoreCase(TextPart.TYPE)) {
+            buffer = bodyBuffer.toArray();
+        }
+        else {
+            buffer = null;
+        }
+        bodyBuffer.reset();
+        bodyLinePending = false;
+        
+        MimeMessagePart part = MimeMessagePartFactory.createMimeMessagePart(
+                type, subtype, name, encoding, charset, disposition, contentId,
+                (buffer != null) ? buffer.length : 0);
+        addToParent(part);
+        
+        MimeMessageContent content = null;
+        if(buffer != null && buffer.length > 0) {
+            try {
+                content = MimeMessageContentFactory.createContentEncoded(part, buffer);
+                content.setPartComplete(partComplete);
+            } catch (UnsupportedContentException e) {
+                EventLogger.logEvent(AppInfo.GUID,
+                        ("UnsupportedContentException: " + e.getMessage()).getBytes(),
+                        EventLogger.WARNING);
+            }
+        }
+        
+        callback.partAvailable(part, content);
+    }
+    
+    private void addToParent(MimeMessagePart part) {
+        if(multiPartStack.isEmpty()) {
+            if(rootPart == null) {
+                rootPart = part;
+            }
+        }
+        else {
+            ((MultiPart)multiPartStack.lastElement()).addPart(part);
+        }
+    }
+    
+    /**
+     * Checks whether a line is a boundary of any multi-part being read,
+     * starting with the innermost one.
+     *
+     * @param line the line to check
+     * @return the depth of the multi-part in the stack, or -1 if the line
+     *   is not a boundary
+     */
+    private int findBoundary(byte[] line) {
+        if(line.length < 3 || line[0] != (byte)'-' || line[1] != (byte)'-') {
+            return -1;
+        }
+        for(int i=boundaryStack.size() - 1; i >= 0; --i) {
+            byte[] boundary = (byte[])boundaryStack.elementAt(i);
+            if(!StringArrays.startsWith(line, boundary)) { continue; }
+            
+            int p = boundary.length;
+            closingBoundary = (line.length >= p + 2 && line[p] == (byte)'-' && line[p + 1] == (byte)'-');
+            if(closingBoundary) { p += 2; }
+            
+            // Only trailing whitespace may follow the boundary
+            while(p < line.length && (line[p] == (byte)' ' || line[p] == (byte)'\t')) { p++; }
+            if(p == line.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void handleBoundary(int depth) {
+        // Any multi-parts nested within the one this boundary belongs to
+        // were never closed.
+        while(multiPartStack.size() > depth + 1) {
+            multiPartStack.removeElementAt(multiPartStack.size() - 1);
+            boundaryStack.removeElementAt(boundaryStack.size() - 1);
+            complete = false;
+        }
+        
+        if(closingBoundary) {
+            multiPartStack.removeElementAt(depth);
+            boundaryStack.removeElementAt(depth);
+            state = multiPartStack.isEmpty() ? STATE_EPILOGUE : STATE_MULTIPART;
+        }
+        else {
+            headers.clear();
+            headerLine = null;
+            state = STATE_HEADERS;
+        }
+    }
+    
+    /**
+     * Gets a parameter from a structured header value, such as
+     * <code>Content-Type</code>.
+     *
+     * @param value the header value
+     * @param key the case-insensitive parameter name
+     * @return the unquoted parameter value, or <code>null</code> if not found
+     */
+    private static String getParameter(String value, String key) {
+        if(value == null) { return null; }
+        int len = value.length();
+        int p = value.indexOf(';');
+        while(p != -1) {
+            int q = value.indexOf('=', p + 1);
+            if(q == -1) { break; }
+            String paramName = value.substring(p + 1, q).trim();
+            
+            String paramValue;
+            int r = q + 1;
+            while(r < len && value.charAt(r) == ' ') { r++; }
+            if(r < len && value.charAt(r) == '\"') {
+                StringBuffer buf = new StringBuffer();
+                r++;
+                while(r < len && value.charAt(r) != '\"') {
+                    if(value.charAt(r) == '\\' && r + 1 < len) { r++; }
+                    buf.append(value.charAt(r));
+                    r++;
+                }
+                paramValue = buf.toString();
+                p = value.indexOf(';', r);
+            }
+            else {
+                p = value.indexOf(';', r);
+                paramValue = value.substring(r, (p != -1) ? p : len).trim();
+            }
+            
+            if(paramName.equalsIgnoreCase(key)) {
+                return paramValue;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Callback for parts as they are parsed.
+     */
+    public static interface PartCallback {
+        /**
+         * Called when a single part has been completely read.  Multi-parts
+         * are not passed to this method, but are already populated with any
+         * preceding sub-parts when this is called.
+         *
+         * @param part the part that was read
+         * @param content the decoded content of the part, or <code>null</code>
+         *   if it could not be decoded
+         */
+        void partAvailable(MimeMessagePart part, MimeMessageContent content);
+    }
+}
@@ -0,0 +1,70 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Byte array output stream for collecting data whose size is known in
+ * advance, such as a message body section.
+ * <p>
+ * The buffer is created at the expected size, and if exactly that much data
+ * is written, {@link #getData()} returns the buffer itself instead of a copy
+ * of it.  If the expected size was wrong, the stream still works the same
+ * way as a normal <code>ByteArrayOutputStream</code>.
+ * </p>
+ */
+public class SizedByteArrayOutputStream extends ByteArrayOutputStream {
+    /**
+     * Instantiates a new sized byte array output stream.
+     *
+     * @param size the expected size of the data
+     */
+    public SizedByteArrayOutputStream(int size) {
+        super(Math.max(size, 0));
+    }
+    
+    /**
+     * Gets the data written to this stream.  The returned array may be the
+     * internal buffer, so nothing more should be written to the stream once
+     * this method has been called.
+     *
+     * @return the data written to this stream
+     */
+    public byte[] getData() {
+        if(count == buf.length) {
+            return buf;
+        }
+        else {
+            return toByteArray();
+        }
+    }
+}
@@ -193,6 +193,31 @@ public class StringArrays {
         return -1;
     }
     
+    /**
+     * Returns the index within this array of the first occurrence of the
+     * specified element, starting at the specified index and stopping
+     * before the specified end index.
+     * 
+     * @param array the array representing the string.
+     * @param ch the element to search for.
+     * @param fromIndex the index to start the search from.
+     * @param toIndex the index to stop the search at, exclusive.
+     * @return the index the element was found, or <code>-1</code> if it was
+     *   not found.
+     */
+    public static int indexOf(byte[] array, byte ch, int fromIndex, int toIndex) {
+        if(toIndex > array.length) {
+            toIndex = array.length;
+        }
+        
+        for(int i = fromIndex; i<toIndex; i++) {
+            if(array[i] == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     /**
      * Tests if this string starts with the specified prefix.
      *
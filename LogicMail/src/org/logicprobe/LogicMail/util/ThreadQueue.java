@@ -63,14 +63,15 @@ public class ThreadQueue {
 	 */
 	public void shutdown(boolean wait) {
 		isShutdown = true;
+		Thread thread;
 		synchronized(runnableQueue) {
 			runnableQueue.clear();
+			thread = threadQueueThread;
 		}
-		if(wait && threadQueueThread != null) {
+		if(wait && thread != null) {
 			try {
-				threadQueueThread.join();
+				thread.join();
 			} catch (InterruptedException e) { }
-			threadQueueThread = null;
 		}
 	}
 	
@@ -78,17 +79,22 @@ public class ThreadQueue {
 	 * Blocks until all pending tasks have completed
 	 */
 	public void completePendingTasks() {
-	    if(threadQueueThread != null) {
+	    Thread thread;
+	    synchronized(runnableQueue) {
+	        thread = threadQueueThread;
+	    }
+	    if(thread != null) {
 	        try {
-	            threadQueueThread.join();
+	            thread.join();
 	        } catch (InterruptedException e) { }
-	        threadQueueThread = null;
 	    }
 	}
 	
 	/**
 	 * Puts the provided <tt>Runnable</tt> object on the
 	 * work item queue.  Starts the worker thread if necessary.
+	 * This may be called from any number of threads, and work items
+	 * still run one at a time in the order they were queued.
 	 * 
 	 * @param runnable The <tt>Runnable</tt> object.
 	 * @throws IllegalStateException Thrown if {@link #shutdown(boolean)} has been called.
@@ -97,23 +103,15 @@ public class ThreadQueue {
 		if(isShutdown) {
 			throw new IllegalStateException("Thread queue has been shutdown");
 		}
-		boolean queued = false;
 		synchronized(runnableQueue) {
-			if(threadQueueThread != null && threadQueueThread.isAlive()) {
-				runnableQueue.add(runnable);
-				queued = true;
-			}
-		}
-		if(!queued) {
-			if(threadQueueThread != null) {
-				try {
-					threadQueueThread.join();
-				} catch (InterruptedException e) { }
-				threadQueueThread = null;
-			}
-			threadQueueThread = new ThreadQueueThread();
 			runnableQueue.add(runnable);
-			threadQueueThread.start();
+			
+			// A worker thread that has found the queue empty will not take
+			// any more work items, so a new one is needed
+			if(threadQueueThread == null || threadQueueThread.finished) {
+				threadQueueThread = new ThreadQueueThread();
+				threadQueueThread.start();
+			}
 		}
 	}
 	
@@ -121,6 +119,9 @@ public class ThreadQueue {
 	 * Actual thread implementation used for the work item queue.
 	 */
 	private class ThreadQueueThread extends Thread {
+		/** Set, while holding the queue lock, once this thread stops taking work items. */
+		private boolean finished;
+		
 		/**
 		 * Instantiates a new thread queue thread.
 		 */
@@ -138,6 +139,7 @@ public class ThreadQueue {
 						runnable = (Runnable)runnableQueue.remove();
 					}
 					else {
+						finished = true;
 						return;
 					}
 				}
@@ -136,6 +136,33 @@ public class AccountConfigTest extends TestCase {
         }
     }
     
+    public void testImapSerialization() {
+        try {
+            ImapConfig instance = new ImapConfig();
+            assertEquals(1, instance.getMaxConnections());
+            instance.setMaxConnections(0);
+            assertEquals(1, instance.getMaxConnections());
+            instance.setMaxConnections(3);
+            instance.setEnableCompression(true);
+            
+            // Serialize
+            TestOutputStream testOutput = new TestOutputStream();
+            instance.serialize(new DataOutputStream(testOutput));
+            
+            // Deserialize
+            TestInputStream testInput = new TestInputStream(testOutput.getBuffer());
+            instance = new ImapConfig();
+            instance.deserialize(new DataInputStream(testInput));
+            
+            // Verify results
+            assertEquals(3, instance.getMaxConnections());
+            assertTrue(instance.getEnableCompression());
+        } catch (Throwable t) {
+            fail("Exception thrown during test: "+t.toString());
+            t.printStackTrace();
+        }
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("AccountConfig");
 
@@ -143,6 +170,8 @@ public class AccountConfigTest extends TestCase {
         { public void run(TestCase tc) {((AccountConfigTest)tc).testInitialization(); } }));
         suite.addTest(new AccountConfigTest("serialization", new TestMethod()
         { public void run(TestCase tc) {((AccountConfigTest)tc).testSerialization(); } }));
+        suite.addTest(new AccountConfigTest("imapSerialization", new TestMethod()
+        { public void run(TestCase tc) {((AccountConfigTest)tc).testImapSerialization(); } }));
 
         return suite;
     }
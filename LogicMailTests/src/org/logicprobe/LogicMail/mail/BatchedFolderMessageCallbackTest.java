@@ -0,0 +1,204 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail;
+
+import java.util.Vector;
+
+import org.logicprobe.LogicMail.message.FolderMessage;
+import org.logicprobe.LogicMail.message.MessageEnvelope;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for BatchedFolderMessageCallback.
+ */
+public class BatchedFolderMessageCallbackTest extends TestCase {
+    private FolderTreeItem inboxFolder;
+    private Vector firedMessages;
+    private Vector firedFlagsOnly;
+    private AbstractMailStore mailStore;
+    
+    public BatchedFolderMessageCallbackTest() {
+    }
+    
+    public BatchedFolderMessageCallbackTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        inboxFolder = new FolderTreeItem("INBOX", "INBOX", ".");
+        firedMessages = new Vector();
+        firedFlagsOnly = new Vector();
+        mailStore = new MockAbstractMailStore() {
+            public void fireFolderMessagesAvailable(FolderTreeItem folder, FolderMessage[] messages, boolean flagsOnly) {
+                assertEquals(inboxFolder, folder);
+                firedMessages.addElement(messages);
+                firedFlagsOnly.addElement(new Boolean(flagsOnly));
+            }
+        };
+    }
+    
+    public void tearDown() {
+        inboxFolder = null;
+        firedMessages = null;
+        firedFlagsOnly = null;
+        mailStore = null;
+    }
+    
+    private static FolderMessage createMessage(int index) {
+        return new FolderMessage(new FakeMessageToken(index), new MessageEnvelope(), index, index + 10, -1);
+    }
+    
+    public void testEmptySequence() {
+        BatchedFolderMessageCallback instance = new BatchedFolderMessageCallback(mailStore, inboxFolder, false);
+        instance.folderMessageUpdate(null);
+        
+        assertEquals(1, firedMessages.size());
+        assertNull(firedMessages.elementAt(0));
+        assertEquals(Boolean.FALSE, firedFlagsOnly.elementAt(0));
+    }
+    
+    public void testPartialBatch() {
+        BatchedFolderMessageCallback instance = new BatchedFolderMessageCallback(mailStore, inboxFolder, true);
+        FolderMessage message1 = createMessage(1);
+        FolderMessage message2 = createMessage(2);
+        instance.folderMessageUpdate(message1);
+        instance.folderMessageUpdate(message2);
+        
+        assertEquals("Premature flush", 0, firedMessages.size());
+        
+        instance.folderMessageUpdate(null);
+        
+        assertEquals(2, firedMessages.size());
+        FolderMessage[] batch = (FolderMessage[])firedMessages.elementAt(0);
+        assertNotNull(batch);
+        assertEquals(2, batch.length);
+        assertEquals(message1, batch[0]);
+        assertEquals(message2, batch[1]);
+        assertNull(firedMessages.elementAt(1));
+        assertEquals(Boolean.TRUE, firedFlagsOnly.elementAt(0));
+        assertEquals(Boolean.TRUE, firedFlagsOnly.elementAt(1));
+    }
+    
+    public void testFlushWithoutEnd() {
+        BatchedFolderMessageCallback instance = new BatchedFolderMessageCallback(mailStore, inboxFolder, false);
+        FolderMessage message1 = createMessage(1);
+        FolderMessage message2 = createMessage(2);
+        instance.folderMessageUpdate(message1);
+        instance.folderMessageUpdate(message2);
+        
+        // Simulate a fetch that fails before the end of the sequence
+        instance.flush();
+        
+        assertEquals(1, firedMessages.size());
+        FolderMessage[] batch = (FolderMessage[])firedMessages.elementAt(0);
+        assertNotNull(batch);
+        assertEquals(2, batch.length);
+        assertEquals(message1, batch[0]);
+        assertEquals(message2, batch[1]);
+        
+        // Nothing left to pass on
+        instance.flush();
+        assertEquals(1, firedMessages.size());
+    }
+    
+    public void testMultipleBatches() {
+        BatchedFolderMessageCallback instance = new BatchedFolderMessageCallback(mailStore, inboxFolder, false);
+        int count = (BatchedFolderMessageCallback.BATCH_SIZE * 2) + 20;
+        for(int i=0; i<count; i++) {
+            instance.folderMessageUpdate(createMessage(i));
+        }
+        instance.folderMessageUpdate(null);
+        
+        // Time-based flushes may split the batches further on a slow
+        // device, so only check the upper bound and total count.
+        int total = 0;
+        int size = firedMessages.size();
+        assertTrue(size >= 4);
+        for(int i=0; i<size - 1; i++) {
+            FolderMessage[] batch = (FolderMessage[])firedMessages.elementAt(i);
+            assertNotNull(batch);
+            assertTrue(batch.length <= BatchedFolderMessageCallback.BATCH_SIZE);
+            for(int j=0; j<batch.length; j++) {
+                assertEquals(total + j, batch[j].getIndex());
+            }
+            total += batch.length;
+        }
+        assertEquals(count, total);
+        assertNull(firedMessages.elementAt(size - 1));
+    }
+    
+    public void testCallbackHooks() {
+        final Vector available = new Vector();
+        final boolean[] completed = new boolean[1];
+        BatchedFolderMessageCallback instance = new BatchedFolderMessageCallback(mailStore, inboxFolder, false) {
+            protected void messageAvailable(FolderMessage folderMessage) {
+                available.addElement(folderMessage);
+            }
+            protected void messagesComplete() {
+                assertEquals("Batch not flushed before completion", 1, firedMessages.size());
+                completed[0] = true;
+            }
+        };
+        
+        FolderMessage message1 = createMessage(1);
+        instance.folderMessageUpdate(message1);
+        assertEquals(1, available.size());
+        assertEquals(message1, available.elementAt(0));
+        assertTrue(!completed[0]);
+        
+        instance.folderMessageUpdate(null);
+        assertTrue(completed[0]);
+        assertEquals(1, available.size());
+        assertEquals(2, firedMessages.size());
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("BatchedFolderMessageCallback");
+        
+        suite.addTest(new BatchedFolderMessageCallbackTest("emptySequence", new TestMethod()
+        { public void run(TestCase tc) {((BatchedFolderMessageCallbackTest)tc).testEmptySequence(); } }));
+        suite.addTest(new BatchedFolderMessageCallbackTest("partialBatch", new TestMethod()
+        { public void run(TestCase tc) {((BatchedFolderMessageCallbackTest)tc).testPartialBatch(); } }));
+        suite.addTest(new BatchedFolderMessageCallbackTest("flushWithoutEnd", new TestMethod()
+        { public void run(TestCase tc) {((BatchedFolderMessageCallbackTest)tc).testFlushWithoutEnd(); } }));
+        suite.addTest(new BatchedFolderMessageCallbackTest("multipleBatches", new TestMethod()
+        { public void run(TestCase tc) {((BatchedFolderMessageCallbackTest)tc).testMultipleBatches(); } }));
+        suite.addTest(new BatchedFolderMessageCallbackTest("callbackHooks", new TestMethod()
+        { public void run(TestCase tc) {((BatchedFolderMessageCallbackTest)tc).testCallbackHooks(); } }));
+        
+        return suite;
+    }
+}
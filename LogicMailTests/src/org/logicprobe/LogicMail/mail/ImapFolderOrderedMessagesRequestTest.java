@@ -0,0 +1,240 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import org.logicprobe.LogicMail.conf.ConnectionConfig;
+import org.logicprobe.LogicMail.conf.GlobalConfig;
+import org.logicprobe.LogicMail.conf.ImapConfig;
+import org.logicprobe.LogicMail.mail.imap.ImapClient;
+import org.logicprobe.LogicMail.message.FolderMessage;
+import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.NetworkConnector;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for ImapFolderMessageOrderRequest and
+ * ImapFolderOrderedMessagesRequest.
+ */
+public class ImapFolderOrderedMessagesRequestTest extends TestCase {
+    private ImapConfig accountConfig;
+    private FolderTreeItem inboxFolder;
+    private TestImapClient client;
+    private NetworkMailStore mailStore;
+    private Vector firedMessages;
+    private boolean requestComplete;
+    
+    private static final int[] ORDERED_UIDS = { 9, 8, 7, 6, 5 };
+    
+    public ImapFolderOrderedMessagesRequestTest() {
+    }
+    
+    public ImapFolderOrderedMessagesRequestTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        accountConfig = new ImapConfig();
+        accountConfig.setMaxConnections(1);
+        inboxFolder = new FolderTreeItem("INBOX", "INBOX", ".");
+        client = new TestImapClient(accountConfig);
+        MailClientFactory.setIncomingMailClient(accountConfig, client);
+        firedMessages = new Vector();
+        requestComplete = false;
+        mailStore = new NetworkMailStore(accountConfig) {
+            protected void fireFolderMessagesAvailable(FolderTreeItem folder, FolderMessage[] messages, boolean flagsOnly) {
+                assertEquals(inboxFolder, folder);
+                assertTrue(!flagsOnly);
+                firedMessages.addElement(messages);
+            }
+        };
+    }
+    
+    public void tearDown() {
+        mailStore.shutdown(true);
+        mailStore = null;
+        client = null;
+        inboxFolder = null;
+        accountConfig = null;
+        firedMessages = null;
+    }
+    
+    private void executeRequest(MailStoreRequest request) throws Throwable {
+        request.setRequestCallback(new MailStoreRequestCallback() {
+            public void mailStoreRequestComplete(MailStoreRequest request) {
+                requestComplete = true;
+            }
+            public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+                fail("Request failed: " + exception);
+            }
+        });
+        ((NetworkMailStoreRequest)request).execute(client);
+    }
+    
+    private int[] getFiredUids() {
+        Vector uids = new Vector();
+        int size = firedMessages.size();
+        for(int i=0; i<size - 1; i++) {
+            FolderMessage[] messages = (FolderMessage[])firedMessages.elementAt(i);
+            for(int j=0; j<messages.length; j++) {
+                uids.addElement(new Integer(messages[j].getUid()));
+            }
+        }
+        int[] result = new int[uids.size()];
+        for(int i=0; i<result.length; i++) {
+            result[i] = ((Integer)uids.elementAt(i)).intValue();
+        }
+        return result;
+    }
+    
+    private void assertEquals(int[] expected, int[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for(int i=0; i<expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+    
+    public void testMessageOrder() throws Throwable {
+        MailStoreRequest request = mailStore.createFolderMessageOrderRequest(inboxFolder, ImapClient.ORDER_THREAD);
+        executeRequest(request);
+        
+        assertTrue(requestComplete);
+        assertEquals(ImapClient.ORDER_THREAD, client.requestedOrder);
+        assertEquals(ORDERED_UIDS, NetworkMailStore.getResultOrderedUids(request));
+        assertEquals(0, firedMessages.size());
+    }
+    
+    public void testFirstPage() throws Throwable {
+        executeRequest(mailStore.createFolderMessagesOrderedRequest(inboxFolder, ORDERED_UIDS, 0, 2));
+        
+        assertTrue(requestComplete);
+        assertEquals(new int[] { 9, 8 }, client.requestedUids);
+        assertEquals(new int[] { 9, 8 }, getFiredUids());
+        assertNull(firedMessages.lastElement());
+    }
+    
+    public void testPartialLastPage() throws Throwable {
+        executeRequest(mailStore.createFolderMessagesOrderedRequest(inboxFolder, ORDERED_UIDS, 2, 2));
+        
+        assertTrue(requestComplete);
+        assertEquals(new int[] { 5 }, client.requestedUids);
+        assertEquals(new int[] { 5 }, getFiredUids());
+        assertNull(firedMessages.lastElement());
+    }
+    
+    public void testPageBeyondEnd() throws Throwable {
+        executeRequest(mailStore.createFolderMessagesOrderedRequest(inboxFolder, ORDERED_UIDS, 3, 2));
+        
+        // Listeners are still told the fetch is complete
+        assertTrue(requestComplete);
+        assertEquals(new int[0], client.requestedUids);
+        assertEquals(1, firedMessages.size());
+        assertNull(firedMessages.elementAt(0));
+    }
+    
+    public void testInvalidPage() {
+        try {
+            mailStore.createFolderMessagesOrderedRequest(inboxFolder, null, 0, 2);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+        try {
+            mailStore.createFolderMessagesOrderedRequest(inboxFolder, ORDERED_UIDS, 0, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) { }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("ImapFolderOrderedMessagesRequest");
+        
+        suite.addTest(new ImapFolderOrderedMessagesRequestTest("messageOrder", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ImapFolderOrderedMessagesRequestTest)tc).testMessageOrder(); } }));
+        suite.addTest(new ImapFolderOrderedMessagesRequestTest("firstPage", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ImapFolderOrderedMessagesRequestTest)tc).testFirstPage(); } }));
+        suite.addTest(new ImapFolderOrderedMessagesRequestTest("partialLastPage", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ImapFolderOrderedMessagesRequestTest)tc).testPartialLastPage(); } }));
+        suite.addTest(new ImapFolderOrderedMessagesRequestTest("pageBeyondEnd", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ImapFolderOrderedMessagesRequestTest)tc).testPageBeyondEnd(); } }));
+        suite.addTest(new ImapFolderOrderedMessagesRequestTest("invalidPage", new TestMethod()
+        { public void run(TestCase tc) {((ImapFolderOrderedMessagesRequestTest)tc).testInvalidPage(); } }));
+        
+        return suite;
+    }
+    
+    /**
+     * IMAP client that is already in the folder under test, and serves its
+     * message order and messages without a server connection.
+     */
+    private class TestImapClient extends ImapClient {
+        int requestedOrder = -1;
+        int[] requestedUids;
+        
+        public TestImapClient(ImapConfig accountConfig) {
+            super(new NetworkConnector() {
+                public Connection open(ConnectionConfig connectionConfig) throws IOException {
+                    throw new IOException();
+                }
+                public Connection open(ConnectionConfig connectionConfig, boolean forceWiFi) throws IOException {
+                    throw new IOException();
+                }
+                public Connection getConnectionAsTLS(Connection connection) throws IOException {
+                    throw new IOException();
+                }
+            }, new GlobalConfig(), accountConfig);
+        }
+        
+        public FolderTreeItem getActiveFolder() {
+            return inboxFolder;
+        }
+        
+        public int[] getFolderMessageOrder(int order, MailProgressHandler progressHandler) {
+            requestedOrder = order;
+            return ORDERED_UIDS;
+        }
+        
+        public void getFolderMessagesByUid(int[] uids, FolderMessageCallback callback, MailProgressHandler progressHandler) {
+            requestedUids = uids;
+            for(int i=0; i<uids.length; i++) {
+                callback.folderMessageUpdate(new FolderMessage(
+                        new FakeMessageToken(uids[i]), new MessageEnvelope(), uids[i], uids[i], -1));
+            }
+            callback.folderMessageUpdate(null);
+        }
+    }
+}
@@ -49,6 +49,10 @@ public class MailTests extends TestCase {
     public Test suite() {
         TestSuite suite = new TestSuite("LogicMail.mail");
         suite.addTest(new NetworkMailStoreTest().suite());
+        suite.addTest(new BatchedFolderMessageCallbackTest().suite());
+        suite.addTest(new PooledMailConnectionHandlerTest().suite());
+        suite.addTest(new PopUidlIndexTest().suite());
+        suite.addTest(new ImapFolderOrderedMessagesRequestTest().suite());
         suite.addTest(new ImapTests().suite());
         suite.addTest(new PopTests().suite());
         suite.addTest(new SmtpTests().suite());
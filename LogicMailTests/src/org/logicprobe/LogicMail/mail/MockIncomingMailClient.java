@@ -382,20 +382,21 @@ public class MockIncomingMailClient extends AMockObject implements org.logicprob
         }
     }
 
-    public static final MockMethod MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MAILPROGRESSHANDLER = new MockMethod(
+    public static final MockMethod MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MESSAGECONTENTCALLBACK_MAILPROGRESSHANDLER = new MockMethod(
         MockIncomingMailClient.class, 
-        "MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MAILPROGRESSHANDLER",
-        new Class[]{org.logicprobe.LogicMail.mail.MessageToken.class, Boolean.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        "MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MESSAGECONTENTCALLBACK_MAILPROGRESSHANDLER",
+        new Class[]{org.logicprobe.LogicMail.mail.MessageToken.class, Boolean.class, org.logicprobe.LogicMail.mail.MessageContentCallback.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
         new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
         org.logicprobe.LogicMail.message.Message.class,
         true);
-    public org.logicprobe.LogicMail.message.Message getMessage(org.logicprobe.LogicMail.mail.MessageToken arg0, boolean arg1, org.logicprobe.LogicMail.mail.MailProgressHandler arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+    public org.logicprobe.LogicMail.message.Message getMessage(org.logicprobe.LogicMail.mail.MessageToken arg0, boolean arg1, org.logicprobe.LogicMail.mail.MessageContentCallback arg2, org.logicprobe.LogicMail.mail.MailProgressHandler arg3) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
         try {
-            Object[] args = new Object[3];
+            Object[] args = new Object[4];
             args[0] = arg0;
             args[1] = new Boolean(arg1);
             args[2] = arg2;
-            MethodInvocation mi = new MethodInvocation(MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MAILPROGRESSHANDLER, this, args);
+            args[3] = arg3;
+            MethodInvocation mi = new MethodInvocation(MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MESSAGECONTENTCALLBACK_MAILPROGRESSHANDLER, this, args);
             getInvocationHandler().invoke(mi);
             Object retVal = mi.getReturnValue();
             return (org.logicprobe.LogicMail.message.Message)retVal;
@@ -633,6 +634,28 @@ public class MockIncomingMailClient extends AMockObject implements org.logicprob
         }
     }
 
+    public static final MockMethod MTHD_HAS_FOLDER_NOTIFY = new MockMethod(
+        MockIncomingMailClient.class, 
+        "MTHD_HAS_FOLDER_NOTIFY",
+        new Class[]{},
+        new Class[]{},
+        Boolean.class,
+        true);
+    public boolean hasFolderNotify()  {
+        try {
+            Object[] args = new Object[0];
+            MethodInvocation mi = new MethodInvocation(MTHD_HAS_FOLDER_NOTIFY, this, args);
+            getInvocationHandler().invoke(mi);
+            Object retVal = mi.getReturnValue();
+            AMockObject.assertReturnNotNull(MTHD_HAS_FOLDER_NOTIFY, retVal);
+            return ((Boolean)retVal).booleanValue();
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            throw new HammockException(t);
+        }
+    }
+
     public static final MockMethod MTHD_HAS_IDLE = new MockMethod(
         MockIncomingMailClient.class, 
         "MTHD_HAS_IDLE",
@@ -946,6 +969,30 @@ public class MockIncomingMailClient extends AMockObject implements org.logicprob
         }
     }
 
+    public static final MockMethod MTHD_MOVE_MESSAGE_$_MESSAGETOKEN_FOLDERTREEITEM = new MockMethod(
+        MockIncomingMailClient.class, 
+        "MTHD_MOVE_MESSAGE_$_MESSAGETOKEN_FOLDERTREEITEM",
+        new Class[]{org.logicprobe.LogicMail.mail.MessageToken.class, org.logicprobe.LogicMail.mail.FolderTreeItem.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        null,
+        true);
+    public void moveMessage(org.logicprobe.LogicMail.mail.MessageToken arg0, org.logicprobe.LogicMail.mail.FolderTreeItem arg1) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[2];
+            args[0] = arg0;
+            args[1] = arg1;
+            MethodInvocation mi = new MethodInvocation(MTHD_MOVE_MESSAGE_$_MESSAGETOKEN_FOLDERTREEITEM, this, args);
+            getInvocationHandler().invoke(mi);
+            mi.getReturnValue();
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+    }
+
     public static final MockMethod MTHD_NOOP = new MockMethod(
         MockIncomingMailClient.class, 
         "MTHD_NOOP",
@@ -53,6 +53,27 @@ public class MockIncomingMailClientListener extends AMockObject implements org.l
         }
     }
 
+    public static final MockMethod MTHD_FOLDER_STATUS_CHANGED_$_FOLDERTREEITEM = new MockMethod(
+        MockIncomingMailClientListener.class, 
+        "MTHD_FOLDER_STATUS_CHANGED_$_FOLDERTREEITEM",
+        new Class[]{org.logicprobe.LogicMail.mail.FolderTreeItem.class},
+        new Class[]{},
+        null,
+        true);
+    public void folderStatusChanged(org.logicprobe.LogicMail.mail.FolderTreeItem arg0)  {
+        try {
+            Object[] args = new Object[1];
+            args[0] = arg0;
+            MethodInvocation mi = new MethodInvocation(MTHD_FOLDER_STATUS_CHANGED_$_FOLDERTREEITEM, this, args);
+            getInvocationHandler().invoke(mi);
+            mi.getReturnValue();
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            throw new HammockException(t);
+        }
+    }
+
     public static final MockMethod MTHD_IDLE_MODE_ERROR = new MockMethod(
         MockIncomingMailClientListener.class, 
         "MTHD_IDLE_MODE_ERROR",
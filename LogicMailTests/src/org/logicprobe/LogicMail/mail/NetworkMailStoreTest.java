@@ -127,6 +127,7 @@ public class NetworkMailStoreTest extends TestCase {
         hammock.setStubExpectation(MockIncomingMailClient.MTHD_HAS_UNDELETE).setReturnValue(Boolean.TRUE);
         hammock.setStubExpectation(MockIncomingMailClient.MTHD_HAS_LOCKED_FOLDERS).setReturnValue(Boolean.TRUE);
         hammock.setStubExpectation(MockIncomingMailClient.MTHD_HAS_IDLE).setReturnValue(Boolean.FALSE);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_HAS_FOLDER_NOTIFY).setReturnValue(Boolean.FALSE);
         hammock.setStubExpectation(MockIncomingMailClient.MTHD_IS_IDLE_ENABLED).setReturnValue(Boolean.TRUE);
         hammock.setStubExpectation(MockIncomingMailClient.MTHD_GET_ACCT_CONFIG).setReturnValue(fakeAccountConfig);
         hammock.setStubExpectation(MockIncomingMailClient.MTHD_GET_CONNECTION_CONFIG).setReturnValue(fakeAccountConfig);
@@ -335,8 +336,8 @@ public class NetworkMailStoreTest extends TestCase {
         hammock.setExpectation(MockIncomingMailClient.MTHD_OPEN).setReturnValue(Boolean.TRUE);
         hammock.setExpectation(MockIncomingMailClient.MTHD_SET_ACTIVE_FOLDER_$_MESSAGETOKEN_BOOLEAN,
                 new Object[] { messageToken, Boolean.TRUE }).setReturnValue(null);
-        hammock.setExpectation(MockIncomingMailClient.MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MAILPROGRESSHANDLER,
-                new Object[] { messageToken, Boolean.TRUE, null }).ignoreArgument(2)
+        hammock.setExpectation(MockIncomingMailClient.MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MESSAGECONTENTCALLBACK_MAILPROGRESSHANDLER,
+                new Object[] { messageToken, Boolean.TRUE, null, null }).ignoreArgument(3)
                 .setReturnValue(testMessage);
         hammock.setExpectation(MockIncomingMailClient.MTHD_CLOSE);
     	
@@ -449,8 +450,8 @@ public class NetworkMailStoreTest extends TestCase {
                 .ignoreArgument(2).ignoreArgument(3);
         hammock.setExpectation(MockIncomingMailClient.MTHD_SET_ACTIVE_FOLDER_$_MESSAGETOKEN_BOOLEAN,
                 new Object[] { messageToken1, Boolean.TRUE }).setReturnValue(null);
-        hammock.setExpectation(MockIncomingMailClient.MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MAILPROGRESSHANDLER,
-                new Object[] { messageToken1, Boolean.TRUE, null }).ignoreArgument(2)
+        hammock.setExpectation(MockIncomingMailClient.MTHD_GET_MESSAGE_$_MESSAGETOKEN_BOOLEAN_MESSAGECONTENTCALLBACK_MAILPROGRESSHANDLER,
+                new Object[] { messageToken1, Boolean.TRUE, null, null }).ignoreArgument(3)
                 .setReturnValue(testMessage);
         hammock.setExpectation(MockIncomingMailClient.MTHD_CLOSE);
     	
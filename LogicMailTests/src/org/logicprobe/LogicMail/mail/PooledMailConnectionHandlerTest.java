@@ -0,0 +1,164 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.util.Vector;
+
+import org.logicprobe.LogicMail.conf.AccountConfig;
+
+import com.hammingweight.hammock.Hammock;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for PooledMailConnectionHandler, and the routing of requests
+ * to secondary connections by NetworkMailStore.
+ */
+public class PooledMailConnectionHandlerTest extends TestCase {
+    private Hammock hammock;
+    private AccountConfig fakeAccountConfig;
+    private MockIncomingMailClient mockIncomingMailClient;
+    private PooledMailConnectionHandler instance;
+    
+    public PooledMailConnectionHandlerTest() {
+    }
+    
+    public PooledMailConnectionHandlerTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        hammock = new Hammock();
+        fakeAccountConfig = new AccountConfig() { };
+        mockIncomingMailClient = new MockIncomingMailClient(hammock);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_SET_LISTENER_$_INCOMINGMAILCLIENTLISTENER, new Object[1]).ignoreArgument(0);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_GET_CONNECTION_CONFIG).setReturnValue(fakeAccountConfig);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_CLOSE);
+        instance = new PooledMailConnectionHandler(null, mockIncomingMailClient);
+    }
+    
+    public void tearDown() {
+        instance.shutdown(false);
+        instance = null;
+        mockIncomingMailClient = null;
+        fakeAccountConfig = null;
+        hammock = null;
+    }
+    
+    public void testStartConcurrent() {
+        final Vector errors = new Vector();
+        Thread[] threads = new Thread[8];
+        for(int i=0; i<threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        instance.start();
+                    } catch (Throwable t) {
+                        errors.addElement(t);
+                    }
+                }
+            };
+        }
+        for(int i=0; i<threads.length; i++) {
+            threads[i].start();
+        }
+        for(int i=0; i<threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) { }
+        }
+        
+        assertEquals("errors", 0, errors.size());
+        assertTrue("running", instance.isRunning());
+    }
+    
+    public void testStartRepeated() {
+        instance.start();
+        assertTrue("running", instance.isRunning());
+        instance.start();
+        assertTrue("running", instance.isRunning());
+        
+        instance.shutdown(false);
+        assertTrue("shutdown", !instance.isRunning());
+        
+        instance.start();
+        assertTrue("restarted", instance.isRunning());
+    }
+    
+    public void testPoolIndexAffinity() {
+        String[] folders = {
+                "INBOX", "INBOX.Sent", "INBOX.Drafts", "INBOX.Trash",
+                "Archive/2010", "Archive/2011", "Lists.logicmail-dev"
+        };
+        for(int poolSize=1; poolSize<=4; poolSize++) {
+            for(int i=0; i<folders.length; i++) {
+                int index = NetworkMailStore.getPoolIndex(folders[i], poolSize);
+                assertTrue("range", index >= 0 && index < poolSize);
+                assertEquals("stable", index, NetworkMailStore.getPoolIndex(new String(folders[i]), poolSize));
+            }
+        }
+    }
+    
+    public void testPoolIndexNegativeHash() {
+        // "polygenelubricants" has a hash code of Integer.MIN_VALUE
+        String folder = "polygenelubricants";
+        assertEquals(Integer.MIN_VALUE, folder.hashCode());
+        for(int poolSize=1; poolSize<=4; poolSize++) {
+            int index = NetworkMailStore.getPoolIndex(folder, poolSize);
+            assertTrue("range", index >= 0 && index < poolSize);
+        }
+        
+        folder = "INBOX.Negative";
+        while(folder.hashCode() >= 0) { folder = folder + 'x'; }
+        for(int poolSize=1; poolSize<=4; poolSize++) {
+            int index = NetworkMailStore.getPoolIndex(folder, poolSize);
+            assertTrue("range", index >= 0 && index < poolSize);
+        }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("PooledMailConnectionHandler");
+        
+        suite.addTest(new PooledMailConnectionHandlerTest("startConcurrent", new TestMethod()
+        { public void run(TestCase tc) {((PooledMailConnectionHandlerTest)tc).testStartConcurrent(); } }));
+        suite.addTest(new PooledMailConnectionHandlerTest("startRepeated", new TestMethod()
+        { public void run(TestCase tc) {((PooledMailConnectionHandlerTest)tc).testStartRepeated(); } }));
+        suite.addTest(new PooledMailConnectionHandlerTest("poolIndexAffinity", new TestMethod()
+        { public void run(TestCase tc) {((PooledMailConnectionHandlerTest)tc).testPoolIndexAffinity(); } }));
+        suite.addTest(new PooledMailConnectionHandlerTest("poolIndexNegativeHash", new TestMethod()
+        { public void run(TestCase tc) {((PooledMailConnectionHandlerTest)tc).testPoolIndexNegativeHash(); } }));
+        
+        return suite;
+    }
+}
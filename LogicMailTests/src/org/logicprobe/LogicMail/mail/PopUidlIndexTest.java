@@ -0,0 +1,168 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for PopUidlIndex.
+ */
+public class PopUidlIndexTest extends TestCase {
+    public PopUidlIndexTest() {
+    }
+    
+    public PopUidlIndexTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    private static PopUidlIndex createIndex(String[] uids) {
+        PopUidlIndex index = new PopUidlIndex();
+        index.merge(uids);
+        for(int i=0; i<index.size(); i++) {
+            index.setEntry(i, (i + 1) * 100, PopUidlIndex.FLAG_CONTENT_CACHED | (i % 2 == 0 ? PopUidlIndex.FLAG_SEEN : 0));
+        }
+        return new PopUidlIndex(index.toArray());
+    }
+    
+    private void assertEntry(PopUidlIndex index, int position, String uid, int messageIndex, int size, int flags) {
+        assertEquals("hash", PopUidlIndex.hashUid(uid), index.getUidHash(position));
+        assertEquals("index", messageIndex, index.getMessageIndex(position));
+        assertEquals("size", size, index.getMessageSize(position));
+        assertEquals("flags", flags, index.getFlags(position));
+    }
+    
+    public void testEntryPacking() {
+        PopUidlIndex index = new PopUidlIndex();
+        index.merge(new String[] { "uid1", null, "uid3" });
+        
+        assertEquals(2, index.size());
+        assertEntry(index, 0, "uid1", 1, 0, 0);
+        assertEntry(index, 1, "uid3", 3, 0, 0);
+        assertEquals(0, index.positionOf(1));
+        assertEquals(-1, index.positionOf(2));
+        assertEquals(1, index.positionOf(3));
+        
+        index.setEntry(0, 123456789, PopUidlIndex.FLAG_SEEN | PopUidlIndex.FLAG_DELETED);
+        index.setEntry(1, Integer.MAX_VALUE, PopUidlIndex.FLAG_CONTENT_CACHED);
+        PopUidlIndex restored = new PopUidlIndex(index.toArray());
+        assertEquals(2, restored.size());
+        assertEquals(PopUidlIndex.hashUid("uid1"), restored.getUidHash(0));
+        assertEquals(123456789, restored.getMessageSize(0));
+        assertEquals(PopUidlIndex.FLAG_SEEN | PopUidlIndex.FLAG_DELETED, restored.getFlags(0));
+        assertEquals(0x1FFFFFFF, restored.getMessageSize(1));
+        assertEquals(PopUidlIndex.FLAG_CONTENT_CACHED, restored.getFlags(1));
+        assertEquals(-1, restored.getMessageIndex(0));
+    }
+    
+    public void testMergeUnchanged() {
+        PopUidlIndex index = createIndex(new String[] { "a", "b", "c" });
+        
+        assertEquals(0, index.merge(new String[] { "a", "b", "c" }));
+        assertEquals(3, index.size());
+        assertEntry(index, 0, "a", 1, 100, PopUidlIndex.FLAG_CONTENT_CACHED | PopUidlIndex.FLAG_SEEN);
+        assertEntry(index, 1, "b", 2, 200, PopUidlIndex.FLAG_CONTENT_CACHED);
+        assertEntry(index, 2, "c", 3, 300, PopUidlIndex.FLAG_CONTENT_CACHED | PopUidlIndex.FLAG_SEEN);
+    }
+    
+    public void testMergeRemovedAndAppended() {
+        PopUidlIndex index = createIndex(new String[] { "a", "b", "c", "d", "e" });
+        
+        // "b" and "e" were removed, "f" and "g" arrived
+        assertEquals(2, index.merge(new String[] { "a", "c", "d", "f", "g" }));
+        assertEquals(5, index.size());
+        assertEntry(index, 0, "a", 1, 100, PopUidlIndex.FLAG_CONTENT_CACHED | PopUidlIndex.FLAG_SEEN);
+        assertEntry(index, 1, "c", 2, 300, PopUidlIndex.FLAG_CONTENT_CACHED | PopUidlIndex.FLAG_SEEN);
+        assertEntry(index, 2, "d", 3, 400, PopUidlIndex.FLAG_CONTENT_CACHED);
+        assertEntry(index, 3, "f", 4, 0, 0);
+        assertEntry(index, 4, "g", 5, 0, 0);
+    }
+    
+    public void testMergeOutOfOrder() {
+        PopUidlIndex index = createIndex(new String[] { "a", "b", "c", "d" });
+        
+        // A server that does not keep messages in order should still have
+        // the state of every message carried over
+        assertEquals(1, index.merge(new String[] { "c", "a", "x", "d" }));
+        assertEquals(4, index.size());
+        assertEntry(index, 0, "c", 1, 300, PopUidlIndex.FLAG_CONTENT_CACHED | PopUidlIndex.FLAG_SEEN);
+        assertEntry(index, 1, "a", 2, 100, PopUidlIndex.FLAG_CONTENT_CACHED | PopUidlIndex.FLAG_SEEN);
+        assertEntry(index, 2, "x", 3, 0, 0);
+        assertEntry(index, 3, "d", 4, 400, PopUidlIndex.FLAG_CONTENT_CACHED);
+    }
+    
+    public void testMergeLargeMailbox() {
+        // Index of 10000 messages, with every tenth one removed and 100 new
+        // ones added at the end
+        String[] uids = new String[10000];
+        for(int i=0; i<uids.length; i++) {
+            uids[i] = "UID" + i;
+        }
+        PopUidlIndex index = createIndex(uids);
+        
+        String[] listing = new String[9100];
+        int n = 0;
+        for(int i=0; i<uids.length; i++) {
+            if(i % 10 != 0) { listing[n++] = uids[i]; }
+        }
+        for(int i=0; i<100; i++) {
+            listing[n++] = "NEW" + i;
+        }
+        
+        int dropped = index.merge(listing);
+        
+        assertEquals(1000, dropped);
+        assertEquals(9100, index.size());
+        assertEntry(index, 0, "UID1", 1, 200, PopUidlIndex.FLAG_CONTENT_CACHED);
+        assertEntry(index, 8999, "UID9999", 9000, 1000000, PopUidlIndex.FLAG_CONTENT_CACHED);
+        assertEntry(index, 9000, "NEW0", 9001, 0, 0);
+        assertEquals(9099, index.positionOf(9100));
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("PopUidlIndex");
+        
+        suite.addTest(new PopUidlIndexTest("entryPacking", new TestMethod()
+        { public void run(TestCase tc) {((PopUidlIndexTest)tc).testEntryPacking(); } }));
+        suite.addTest(new PopUidlIndexTest("mergeUnchanged", new TestMethod()
+        { public void run(TestCase tc) {((PopUidlIndexTest)tc).testMergeUnchanged(); } }));
+        suite.addTest(new PopUidlIndexTest("mergeRemovedAndAppended", new TestMethod()
+        { public void run(TestCase tc) {((PopUidlIndexTest)tc).testMergeRemovedAndAppended(); } }));
+        suite.addTest(new PopUidlIndexTest("mergeOutOfOrder", new TestMethod()
+        { public void run(TestCase tc) {((PopUidlIndexTest)tc).testMergeOutOfOrder(); } }));
+        suite.addTest(new PopUidlIndexTest("mergeLargeMailbox", new TestMethod()
+        { public void run(TestCase tc) {((PopUidlIndexTest)tc).testMergeLargeMailbox(); } }));
+        
+        return suite;
+    }
+}
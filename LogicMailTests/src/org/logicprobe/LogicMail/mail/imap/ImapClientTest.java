@@ -46,7 +46,9 @@ import org.logicprobe.LogicMail.conf.ConnectionConfig;
 import org.logicprobe.LogicMail.conf.GlobalConfig;
 import org.logicprobe.LogicMail.conf.ImapConfig;
 import org.logicprobe.LogicMail.mail.FolderMessageCallback;
+import org.logicprobe.LogicMail.mail.FolderSyncState;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
+import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.MockIncomingMailClientListener;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
@@ -74,6 +76,8 @@ public class ImapClientTest extends TestCase {
     private MockImapProtocol mockImapProtocol;
     private MockIncomingMailClientListener mockClientListener;
     private ImapProtocol.UntaggedResponseListener untaggedResponseListener;
+    private Hashtable capabilities;
+    private String greeting = "";
     
     public ImapClientTest() {
     }
@@ -126,7 +130,7 @@ public class ImapClientTest extends TestCase {
         hammock.setStubExpectation(MockImapProtocol.MTHD_SET_CONNECTION_$_CONNECTION);
         hammock.setStubExpectation(MockImapProtocol.MTHD_SET_WATCHDOG_$_WATCHDOG);
         
-        Hashtable capabilities = new Hashtable();
+        capabilities = new Hashtable();
         capabilities.put("NAMESPACE", Boolean.TRUE);
         capabilities.put("CHILDREN", Boolean.TRUE);
         hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_CAPABILITY).setReturnValue(capabilities);
@@ -134,14 +138,19 @@ public class ImapClientTest extends TestCase {
         hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
                 new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
                 .setReturnValue(Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(capabilities);
         
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_NAMESPACE).setReturnValue(createNamespaceResponse());
+    }
+    
+    private static ImapProtocol.NamespaceResponse createNamespaceResponse() {
         ImapProtocol.NamespaceResponse namespaces = new ImapProtocol.NamespaceResponse();
         namespaces.personal = new ImapProtocol.Namespace[] { new ImapProtocol.Namespace() };
         namespaces.personal[0].prefix = "";
         namespaces.personal[0].delimiter = ".";
         namespaces.other = new ImapProtocol.Namespace[0];
         namespaces.shared = new ImapProtocol.Namespace[0];
-        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_NAMESPACE).setReturnValue(namespaces);
+        return namespaces;
     }
     
     public void testOpen() throws Throwable {
@@ -153,44 +162,278 @@ public class ImapClientTest extends TestCase {
         hammock.verify();
     }
     
+    public void testOpenSessionCache() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        
+        hammock.setStubExpectation(MockImapProtocol.MTHD_EXECUTE_LOGOUT);
+        instance.close();
+        hammock.verify();
+        
+        // Reconnecting should reuse the capabilities and namespace
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
+                .setReturnValue(Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(null);
+        assertTrue(instance.open());
+        
+        hammock.verify();
+    }
+    
+    public void testOpenLoginCapabilities() throws Throwable {
+        // The capabilities advertised with the login replace the ones from
+        // before the login
+        capabilities = new Hashtable();
+        capabilities.put("NAMESPACE", Boolean.TRUE);
+        hammock.setStubExpectation(MockImapProtocol.MTHD_SET_CONNECTION_$_CONNECTION);
+        hammock.setStubExpectation(MockImapProtocol.MTHD_SET_WATCHDOG_$_WATCHDOG);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_CAPABILITY).setReturnValue(capabilities);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
+                .setReturnValue(Boolean.TRUE);
+        Hashtable loginCapabilities = new Hashtable();
+        loginCapabilities.put("NAMESPACE", Boolean.TRUE);
+        loginCapabilities.put("CHILDREN", Boolean.TRUE);
+        loginCapabilities.put("IDLE", Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(loginCapabilities);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_NAMESPACE).setReturnValue(createNamespaceResponse());
+        
+        assertTrue(!capabilities.containsKey("IDLE"));
+        assertTrue(instance.open());
+        assertTrue(instance.hasIdle());
+        hammock.verify();
+        
+        hammock.setStubExpectation(MockImapProtocol.MTHD_EXECUTE_LOGOUT);
+        instance.close();
+        
+        // Reconnecting should reuse the post-login capabilities, even if the
+        // login does not advertise them again
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
+                .setReturnValue(Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(null);
+        assertTrue(instance.open());
+        assertTrue(instance.hasIdle());
+        
+        hammock.verify();
+    }
+    
+    public void testOpenCapabilityAfterLogin() throws Throwable {
+        // If the login does not advertise capabilities, they are requested
+        // again once authenticated
+        capabilities = new Hashtable();
+        capabilities.put("NAMESPACE", Boolean.TRUE);
+        hammock.setStubExpectation(MockImapProtocol.MTHD_SET_CONNECTION_$_CONNECTION);
+        hammock.setStubExpectation(MockImapProtocol.MTHD_SET_WATCHDOG_$_WATCHDOG);
+        Hashtable preLoginCapabilities = new Hashtable();
+        preLoginCapabilities.put("STARTTLS", Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_CAPABILITY).setReturnValue(preLoginCapabilities);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
+                .setReturnValue(Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(null);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_CAPABILITY).setReturnValue(capabilities);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_NAMESPACE).setReturnValue(createNamespaceResponse());
+        
+        assertTrue(instance.open());
+        assertTrue(!instance.hasIdle());
+        
+        hammock.verify();
+    }
+    
+    public void testOpenLoginSelect() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        hammock.setStubExpectation(MockImapProtocol.MTHD_EXECUTE_LOGOUT);
+        instance.close();
+        hammock.verify();
+        assertNull(instance.getActiveFolder());
+        
+        // Reconnecting should select the same folder along with the login
+        ImapProtocol.SelectResponse selectResponse = new ImapProtocol.SelectResponse();
+        selectResponse.exists = 5;
+        selectResponse.uidNext = 106;
+        selectResponse.uidValidity = 1234;
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_SELECT_$_STRING_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass(), "INBOX" })
+                .setReturnValue(selectResponse);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(null);
+        assertTrue(instance.open());
+        assertEquals(inboxFolder, instance.getActiveFolder());
+        
+        // No additional select should be necessary
+        instance.setActiveFolder(inboxFolder, true);
+        
+        hammock.verify();
+    }
+    
+    public void testOpenLoginSelectStale() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        hammock.setStubExpectation(MockImapProtocol.MTHD_EXECUTE_LOGOUT);
+        instance.close();
+        hammock.verify();
+        
+        // Reconnecting should still make the selected folder active, even
+        // though its state can no longer be used
+        ImapProtocol.SelectResponse selectResponse = new ImapProtocol.SelectResponse();
+        selectResponse.exists = 5;
+        selectResponse.uidNext = 106;
+        selectResponse.uidValidity = 5678;
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_SELECT_$_STRING_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass(), "INBOX" })
+                .setReturnValue(selectResponse);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(null);
+        assertTrue(instance.open());
+        assertEquals(inboxFolder, instance.getActiveFolder());
+        
+        // Untagged responses should apply to the selected folder
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_RECENT_FOLDER_MESSAGES_AVAILABLE_$_FOLDERTREEITEM,
+                new Object[] { inboxFolder });
+        untaggedResponseListener.existsResponse(6);
+        
+        // The next select should report the need for a refresh, without
+        // selecting the folder again
+        assertTrue(!instance.setActiveFolder(inboxFolder, true));
+        assertTrue(instance.setActiveFolder(inboxFolder, true));
+        
+        hammock.verify();
+    }
+    
+    public void testOpenSessionCacheGreeting() throws Throwable {
+        greeting = "* OK [CAPABILITY IMAP4rev1 NAMESPACE CHILDREN] Server ready 1a2b3c";
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        
+        hammock.setStubExpectation(MockImapProtocol.MTHD_EXECUTE_LOGOUT);
+        instance.close();
+        hammock.verify();
+        
+        // Per-connection text in the greeting should not prevent the
+        // capabilities and namespace from being reused
+        greeting = "* OK [CAPABILITY IMAP4rev1 NAMESPACE CHILDREN] Server ready 4d5e6f";
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
+                new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
+                .setReturnValue(Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_GET_LOGIN_CAPABILITIES).setReturnValue(null);
+        assertTrue(instance.open());
+        
+        hammock.verify();
+    }
+    
+    public void testUntaggedResponsesWithoutActiveFolder() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        assertNull(instance.getActiveFolder());
+        
+        // Nothing should be reported without a selected folder
+        untaggedResponseListener.existsResponse(6);
+        untaggedResponseListener.recentResponse(1);
+        untaggedResponseListener.expungeResponse(1);
+        untaggedResponseListener.vanishedResponse(new int[] { 101 });
+        ImapProtocol.FetchFlagsResponse flagsResponse = new ImapProtocol.FetchFlagsResponse();
+        flagsResponse.index = 1;
+        flagsResponse.uid = 101;
+        flagsResponse.flags = new ImapProtocol.MessageFlags();
+        untaggedResponseListener.fetchResponse(flagsResponse);
+        
+        hammock.verify();
+    }
+    
     public void testGetFolderTree() throws Throwable {
         configureForBasicOpen();
         assertTrue(instance.open());
 
         accountConfig.setOnlySubscribedFolders(false);
         
-        Vector listResponses1 = new Vector();
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_LIST_$_STRING_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "", "*", null })
+                .setReturnValue(createFolderTreeListResponses());
+        
+        FolderTreeItem rootFolder = instance.getFolderTree(null);
+        assertFolderTree(rootFolder);
+        
+        hammock.verify();
+    }
+    
+    public void testGetFolderTreeListStatus() throws Throwable {
+        configureForBasicOpen();
+        capabilities.put("LIST-EXTENDED", Boolean.TRUE);
+        capabilities.put("LIST-STATUS", Boolean.TRUE);
+        assertTrue(instance.open());
+
+        accountConfig.setOnlySubscribedFolders(true);
+        
+        Vector listResponses = createFolderTreeListResponses();
+        ImapProtocol.ListResponse unsubscribed = new ImapProtocol.ListResponse();
+        unsubscribed.name = "INBOX.Folder3";
+        unsubscribed.delim = ".";
+        unsubscribed.canSelect = true;
+        listResponses.addElement(unsubscribed);
+        for(int i=0; i<listResponses.size(); i++) {
+            ImapProtocol.ListResponse response = (ImapProtocol.ListResponse)listResponses.elementAt(i);
+            response.subscribed = (response != unsubscribed);
+            response.status = new ImapProtocol.StatusResponse();
+            response.status.exists = 10 + i;
+            response.status.unseen = i;
+        }
+        
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_LIST_EXTENDED_$_STRING_STRING_BOOLEAN_MAILPROGRESSHANDLER,
+                new Object[] { "", "*", Boolean.TRUE, null })
+                .setReturnValue(listResponses);
+        
+        FolderTreeItem rootFolder = instance.getFolderTree(null);
+        FolderTreeItem inboxFolder = assertFolderTree(rootFolder);
+        assertEquals(11, inboxFolder.getMsgCount());
+        assertEquals(1, inboxFolder.getUnseenCount());
+        
+        // The status from the listing should be used instead of STATUS
+        FolderTreeItem[] children = inboxFolder.children();
+        children[0].setMsgCount(0);
+        children[1].setMsgCount(0);
+        instance.refreshFolderStatus(children, null);
+        assertEquals(10, children[0].getMsgCount());
+        assertEquals(0, children[0].getUnseenCount());
+        assertEquals(12, children[1].getMsgCount());
+        assertEquals(2, children[1].getUnseenCount());
+        
+        hammock.verify();
+    }
+    
+    private static Vector createFolderTreeListResponses() {
+        // Children listed ahead of their parent, to check that the tree is
+        // assembled independent of response order.
+        Vector listResponses = new Vector();
         ImapProtocol.ListResponse listResponse1 = new ImapProtocol.ListResponse();
         listResponse1.name = "INBOX";
         listResponse1.delim = ".";
         listResponse1.canSelect = true;
         listResponse1.hasChildren = true;
-        listResponses1.addElement(listResponse1);
-        
-        Vector listResponses2 = new Vector();
+        listResponses.addElement(listResponse1);
         ImapProtocol.ListResponse listResponse2a = new ImapProtocol.ListResponse();
-        listResponse2a.name = "INBOX.Folder1";
+        listResponse2a.name = "INBOX.Folder2";
         listResponse2a.delim = ".";
         listResponse2a.canSelect = true;
         listResponse2a.hasChildren = false;
-        listResponses2.addElement(listResponse2a);
+        listResponses.insertElementAt(listResponse2a, 0);
         ImapProtocol.ListResponse listResponse2b = new ImapProtocol.ListResponse();
-        listResponse2b.name = "INBOX.Folder2";
+        listResponse2b.name = "INBOX.Folder1";
         listResponse2b.delim = ".";
         listResponse2b.canSelect = true;
         listResponse2b.hasChildren = false;
-        listResponses2.addElement(listResponse2b);
-        
-        hammock.setExpectation(
-                MockImapProtocol.MTHD_EXECUTE_LIST_$_STRING_STRING_MAILPROGRESSHANDLER,
-                new Object[] { "", "%", null })
-                .setReturnValue(listResponses1);
-        hammock.setExpectation(
-                MockImapProtocol.MTHD_EXECUTE_LIST_$_STRING_STRING_MAILPROGRESSHANDLER,
-                new Object[] { "INBOX.", "%", null })
-                .setReturnValue(listResponses2);
-        
-        FolderTreeItem rootFolder = instance.getFolderTree(null);
+        listResponses.addElement(listResponse2b);
+        return listResponses;
+    }
+    
+    private FolderTreeItem assertFolderTree(FolderTreeItem rootFolder) {
         assertNotNull(rootFolder);
         FolderTreeItem[] children = rootFolder.children();
         assertNotNull(children);
@@ -210,23 +453,23 @@ public class ImapClientTest extends TestCase {
         assertNotNull(children);
         assertEquals(2, children.length);
         
-        assertEquals("Folder1", children[0].getName());
-        assertEquals("INBOX.Folder1", children[0].getPath());
+        assertEquals("Folder2", children[0].getName());
+        assertEquals("INBOX.Folder2", children[0].getPath());
         assertEquals(".", children[0].getDelim());
         assertTrue(!children[0].hasChildren());
         assertTrue(children[0].isSelectable());
         assertTrue(children[0].isAppendable());
         assertEquals(inboxFolder, children[0].getParent());
         
-        assertEquals("Folder2", children[1].getName());
-        assertEquals("INBOX.Folder2", children[1].getPath());
+        assertEquals("Folder1", children[1].getName());
+        assertEquals("INBOX.Folder1", children[1].getPath());
         assertEquals(".", children[1].getDelim());
         assertTrue(!children[1].hasChildren());
         assertTrue(children[1].isSelectable());
         assertTrue(children[1].isAppendable());
         assertEquals(inboxFolder, children[1].getParent());
         
-        hammock.verify();
+        return inboxFolder;
     }
     
     private FolderTreeItem configureForSetActiveFolder(int exists) {
@@ -279,6 +522,171 @@ public class ImapClientTest extends TestCase {
         }
     }
 
+    public void testGetNewFolderMessagesSearch() throws Throwable {
+        configureForBasicOpen();
+        capabilities.put("ESEARCH", Boolean.TRUE);
+        assertTrue(instance.open());
+        accountConfig.setInitialFolderMessages(3);
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        // Of the newest 3 undeleted messages, the unread one is fetched first
+        ImapProtocol.SearchResponse searchResponse = new ImapProtocol.SearchResponse();
+        searchResponse.uids = new int[] { 101, 102, 104, 105, 106 };
+        searchResponse.min = 101;
+        searchResponse.max = 106;
+        searchResponse.count = 5;
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_SEARCH_UID_$_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "NOT DELETED", null })
+                .setReturnValue(searchResponse);
+        ImapProtocol.SearchResponse unseenResponse = new ImapProtocol.SearchResponse();
+        unseenResponse.uids = new int[] { 102, 105 };
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_SEARCH_UID_$_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "UNSEEN NOT DELETED", null })
+                .setReturnValue(unseenResponse);
+        
+        configureForGetFolderMessagesUid(new int[] { 4 }, new int[] { 105 });
+        configureForGetFolderMessagesUid(new int[] { 3, 5 }, new int[] { 104, 106 });
+        
+        TestFolderMessageCallback callback = new TestFolderMessageCallback();
+        instance.getNewFolderMessages(false, callback, null);
+
+        hammock.verify();
+        
+        // Only the end of the last FETCH should be reported
+        int[] expectedUids = { 105, 104, 106 };
+        assertEquals(expectedUids.length + 1, callback.folderMessages.size());
+        for(int i=0; i<expectedUids.length; i++) {
+            FolderMessage folderMessage = (FolderMessage)callback.folderMessages.elementAt(i);
+            assertEquals(expectedUids[i], folderMessage.getUid());
+        }
+        assertNull(callback.folderMessages.elementAt(expectedUids.length));
+    }
+    
+    private void assertEquals(int[] expected, int[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for(int i=0; i<expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+    
+    public void testReverseThreadOrder() {
+        // Threads of 3, 1 and 2 messages, with the newest thread last
+        assertEquals(
+                new int[] { 5, 6, 4, 1, 2, 3 },
+                ImapClient.reverseThreadOrder(
+                        new int[] { 1, 2, 3, 4, 5, 6 },
+                        new int[] { 0, 1, 2, 0, 0, 1 }));
+        
+        // Messages before the first thread root stay at the end
+        assertEquals(
+                new int[] { 2, 3, 1 },
+                ImapClient.reverseThreadOrder(
+                        new int[] { 1, 2, 3 },
+                        new int[] { 1, 0, 1 }));
+        
+        assertEquals(new int[0], ImapClient.reverseThreadOrder(new int[0], new int[0]));
+    }
+    
+    public void testGetFolderMessageOrder() throws Throwable {
+        configureForBasicOpen();
+        capabilities.put("SORT", Boolean.TRUE);
+        assertTrue(instance.open());
+        assertTrue(instance.hasFolderMessageOrder(ImapClient.ORDER_DATE));
+        assertTrue(instance.hasFolderMessageOrder(ImapClient.ORDER_FROM));
+        assertTrue(!instance.hasFolderMessageOrder(ImapClient.ORDER_THREAD));
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_SORT_UID_$_STRING_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "REVERSE DATE", "NOT DELETED", null })
+                .setReturnValue(new int[] { 105, 103, 104 });
+        
+        assertEquals(
+                new int[] { 105, 103, 104 },
+                instance.getFolderMessageOrder(ImapClient.ORDER_DATE, null));
+        
+        hammock.verify();
+    }
+    
+    public void testGetFolderMessageOrderThread() throws Throwable {
+        configureForBasicOpen();
+        capabilities.put("THREAD=REFERENCES", Boolean.TRUE);
+        assertTrue(instance.open());
+        assertTrue(instance.hasFolderMessageOrder(ImapClient.ORDER_THREAD));
+        assertTrue(!instance.hasFolderMessageOrder(ImapClient.ORDER_DATE));
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        ImapProtocol.ThreadResponse threadResponse = new ImapProtocol.ThreadResponse();
+        threadResponse.uids = new int[] { 101, 103, 102, 104, 105 };
+        threadResponse.depths = new int[] { 0, 1, 0, 0, 1 };
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_THREAD_UID_$_STRING_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "REFERENCES", "NOT DELETED", null })
+                .setReturnValue(threadResponse);
+        
+        // The newest thread comes first, with its messages kept in order
+        assertEquals(
+                new int[] { 104, 105, 102, 101, 103 },
+                instance.getFolderMessageOrder(ImapClient.ORDER_THREAD, null));
+        
+        hammock.verify();
+    }
+    
+    public void testRestoreFolderState() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        
+        // Saved with 3 messages, and 2 more have arrived since then
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        FolderSyncState syncState = new FolderSyncState(1234, 0);
+        syncState.setMailboxState(104, 3, new int[] { 1, 2, 3 }, new int[] { 101, 102, 103 });
+        instance.restoreFolderState(inboxFolder, syncState);
+        assertTrue(instance.setActiveFolder(inboxFolder, true));
+        
+        // Only the new messages should be fetched
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_FETCH_FLAGS_UID_$_INT_MAILPROGRESSHANDLER,
+                new Object[] { new Integer(104), null })
+                .setReturnValue(new ImapProtocol.FetchFlagsResponse[0]);
+        instance.getNewFolderMessages(true, new TestFolderMessageCallback(), null);
+        hammock.verify();
+        
+        FolderSyncState savedState = new FolderSyncState();
+        instance.saveActiveFolderState(savedState);
+        assertEquals(5, savedState.getExists());
+        assertEquals(3, savedState.getMessageIndices().length);
+        assertEquals(103, savedState.getMessageUids()[2]);
+    }
+    
+    public void testRestoreFolderStateStale() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        
+        // Saved with a different UIDVALIDITY
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        FolderSyncState syncState = new FolderSyncState(4321, 0);
+        syncState.setMailboxState(104, 3, new int[] { 1, 2, 3 }, new int[] { 101, 102, 103 });
+        instance.restoreFolderState(inboxFolder, syncState);
+        assertTrue(!instance.setActiveFolder(inboxFolder, true));
+        
+        // The initial message window should be fetched
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_FETCH_FLAGS_$_INT_INT_MAILPROGRESSHANDLER,
+                new Object[] { new Integer(1), new Integer(5), null })
+                .setReturnValue(new ImapProtocol.FetchFlagsResponse[0]);
+        instance.getNewFolderMessages(true, new TestFolderMessageCallback(), null);
+        hammock.verify();
+    }
+    
     public void testIdleModeBegin() throws Throwable {
         configureForBasicOpen();
         assertTrue(instance.open());
@@ -295,6 +703,62 @@ public class ImapClientTest extends TestCase {
         hammock.verify();
     }
     
+    public void testIdleModeNotify() throws Throwable {
+        configureForBasicOpen();
+        capabilities.put("IDLE", Boolean.TRUE);
+        capabilities.put("NOTIFY", Boolean.TRUE);
+        assertTrue(instance.open());
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        assertTrue(!instance.hasFolderNotify());
+        
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_NOTIFY_$_STRING,
+                new Object[] { "(selected MessageNew MessageExpunge FlagChange) (personal MessageNew MessageExpunge FlagChange)" })
+                .setReturnValue(Boolean.TRUE);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_$_IMAPPROTOCOL$IDLELISTENER,
+                new Object[] { null }).setArgumentMatcher(0, new NotNullArgumentMatcher());
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_FOLDER_STATUS_CHANGED_$_FOLDERTREEITEM,
+                new Object[] { null }).setArgumentMatcher(0, new IArgumentMatcher() {
+                    public boolean areArgumentsEqual(Object argumentExpected, Object argumentActual) {
+                        FolderTreeItem folder = (FolderTreeItem)argumentActual;
+                        return folder != null
+                            && "Sent".equals(folder.getPath())
+                            && folder.getMsgCount() == 40
+                            && folder.getUnseenCount() == 3
+                            && folder.getRecentCount() == -1;
+                    }
+                });
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE);
+        
+        instance.idleModeBegin();
+        assertTrue(instance.hasFolderNotify());
+        
+        // Only changes to folders other than the active one are reported
+        ImapProtocol.StatusResponse status = new ImapProtocol.StatusResponse();
+        status.exists = 6;
+        status.unseen = -1;
+        status.recent = -1;
+        untaggedResponseListener.statusResponse("INBOX", status);
+        
+        status = new ImapProtocol.StatusResponse();
+        status.exists = 40;
+        status.unseen = 3;
+        status.recent = -1;
+        untaggedResponseListener.statusResponse("Sent", status);
+        
+        instance.idleModeEnd();
+        hammock.verify();
+        
+        // Notifications only need to be requested once per session
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_$_IMAPPROTOCOL$IDLELISTENER,
+                new Object[] { null }).setArgumentMatcher(0, new NotNullArgumentMatcher());
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE);
+        instance.idleModeBegin();
+        instance.idleModeEnd();
+        hammock.verify();
+    }
+    
     public void testIdleModeMessagesAvailable() throws Throwable {
         configureForBasicOpen();
         assertTrue(instance.open());
@@ -384,6 +848,17 @@ public class ImapClientTest extends TestCase {
                 });
         hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE);
         
+        // The remaining messages are reported as shifted once idle ends
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_FOLDER_MESSAGE_EXPUNGED_$_MESSAGETOKEN_ARRAY_MESSAGETOKEN,
+                new Object[] { null, null })
+                .setArgumentMatcher(1, new IArgumentMatcher() {
+                    public boolean areArgumentsEqual(Object argumentExpected, Object argumentActual) {
+                        MessageToken[] actualTokens = (MessageToken[])argumentActual;
+                        return actualTokens.length == responses.length - 1
+                            && ((ImapMessageToken)actualTokens[0]).getMessageIndex() == responses[1].index - 1;
+                    }
+                });
+        
         instance.idleModeBegin();
         
         // Simulate an expunge on the first message in the folder
@@ -432,6 +907,29 @@ public class ImapClientTest extends TestCase {
         return responses;
     }
     
+    private void configureForGetFolderMessagesUid(int[] indices, final int[] uids) {
+        final ImapProtocol.FetchEnvelopeResponse[] responses = new ImapProtocol.FetchEnvelopeResponse[uids.length];
+        for(int i=0; i<responses.length; i++) {
+            responses[i] = createDummyFetchEnvelopeResponse(indices[i], uids[i]);
+        }
+        
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_FETCH_ENVELOPE_UID_$_ARRAY_INT_IMAPPROTOCOL$FETCHENVELOPECALLBACK_MAILPROGRESSHANDLER,
+                new Object[] { uids, null, null})
+                .setArgumentMatcher(1, new IArgumentMatcher() {
+                    public boolean areArgumentsEqual(Object argumentExpected, Object argumentActual) {
+                        // Inject the fake FETCH responses through the
+                        // callback, as with configureForGetFolderMessages().
+                        ImapProtocol.FetchEnvelopeCallback fetchEnvelopeCallback = (ImapProtocol.FetchEnvelopeCallback)argumentActual;
+                        for(int i=0; i<responses.length; i++) {
+                            fetchEnvelopeCallback.responseAvailable(responses[i]);
+                        }
+                        fetchEnvelopeCallback.responseAvailable(null);
+                        return true;
+                    }
+                });
+    }
+    
     private static ImapProtocol.FetchEnvelopeResponse createDummyFetchEnvelopeResponse(int index, int uid) {
         ImapProtocol.FetchEnvelopeResponse response = new ImapProtocol.FetchEnvelopeResponse();
         response.index = index;
@@ -457,17 +955,47 @@ public class ImapClientTest extends TestCase {
 
         suite.addTest(new ImapClientTest("open", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpen(); }}));
+        suite.addTest(new ImapClientTest("openSessionCache", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpenSessionCache(); }}));
+        suite.addTest(new ImapClientTest("openLoginCapabilities", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpenLoginCapabilities(); }}));
+        suite.addTest(new ImapClientTest("openCapabilityAfterLogin", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpenCapabilityAfterLogin(); }}));
+        suite.addTest(new ImapClientTest("openLoginSelect", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpenLoginSelect(); }}));
+        suite.addTest(new ImapClientTest("openLoginSelectStale", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpenLoginSelectStale(); }}));
+        suite.addTest(new ImapClientTest("openSessionCacheGreeting", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testOpenSessionCacheGreeting(); }}));
+        suite.addTest(new ImapClientTest("untaggedResponsesWithoutActiveFolder", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testUntaggedResponsesWithoutActiveFolder(); }}));
 
         suite.addTest(new ImapClientTest("getFolderTree", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testGetFolderTree(); }}));
+        suite.addTest(new ImapClientTest("getFolderTreeListStatus", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testGetFolderTreeListStatus(); }}));
         suite.addTest(new ImapClientTest("setActiveFolder", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testSetActiveFolder(); }}));
 
         suite.addTest(new ImapClientTest("getNewFolderMessages", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testGetNewFolderMessages(); }}));
+        suite.addTest(new ImapClientTest("getNewFolderMessagesSearch", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testGetNewFolderMessagesSearch(); }}));
+        suite.addTest(new ImapClientTest("reverseThreadOrder", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testReverseThreadOrder(); }}));
+        suite.addTest(new ImapClientTest("getFolderMessageOrder", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testGetFolderMessageOrder(); }}));
+        suite.addTest(new ImapClientTest("getFolderMessageOrderThread", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testGetFolderMessageOrderThread(); }}));
+        suite.addTest(new ImapClientTest("restoreFolderState", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testRestoreFolderState(); }}));
+        suite.addTest(new ImapClientTest("restoreFolderStateStale", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testRestoreFolderStateStale(); }}));
 
         suite.addTest(new ImapClientTest("idleModeBegin", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeBegin(); }}));
+        suite.addTest(new ImapClientTest("idleModeNotify", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeNotify(); }}));
         suite.addTest(new ImapClientTest("idleModeMessagesAvailable", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeMessagesAvailable(); }}));
         suite.addTest(new ImapClientTest("idleModeFlagsChanged", new TestMethod()
@@ -502,10 +1030,8 @@ public class ImapClientTest extends TestCase {
             Hamspy hamspy = new Hamspy(true);
             SocketConnection stubSocket = new MockSocketConnection(hamspy);
             hamspy.setStubExpectation(MockSocketConnection.MTHD_OPEN_DATA_INPUT_STREAM).setReturnValue(
-                    new DataInputStream(new ByteArrayInputStream(new byte[] {
-                            (byte)'\r', (byte)'\n', (byte)'\r', (byte)'\n',
-                            (byte)'\r', (byte)'\n', (byte)'\r', (byte)'\n'
-                    })));
+                    new DataInputStream(new ByteArrayInputStream(
+                            (greeting + "\r\n\r\n\r\n\r\n").getBytes())));
             hamspy.setStubExpectation(MockSocketConnection.MTHD_OPEN_DATA_OUTPUT_STREAM).setReturnValue(
                     new DataOutputStream(new OutputStream() {
                         public void write(int b) throws IOException { }
@@ -524,7 +1050,9 @@ public class ImapClientTest extends TestCase {
         public IntVector exists = new IntVector();
         public IntVector recent = new IntVector();
         public IntVector expunge = new IntVector();
+        public IntVector vanished = new IntVector();
         public Vector fetch = new Vector();
+        public Vector status = new Vector();
 
         public void existsResponse(int value) {
             exists.addElement(value);
@@ -538,5 +1066,13 @@ public class ImapClientTest extends TestCase {
         public void fetchResponse(ImapProtocol.FetchFlagsResponse value) {
             fetch.addElement(value);
         }
+        public void vanishedResponse(int[] uids) {
+            for(int i=0; i<uids.length; i++) {
+                vanished.addElement(uids[i]);
+            }
+        }
+        public void statusResponse(String mailboxName, ImapProtocol.StatusResponse status) {
+            this.status.addElement(status);
+        }
     }
 }
@@ -72,6 +72,40 @@ public class ImapParserTest extends TestCase {
         assertEquals("Umlaut Test 2", "Gelschte Objekte", result);
     }
 
+
+    public void testParseSequenceSet() {
+        int[] result = ImapParser.parseSequenceSet("42");
+        assertEquals("Single", 1, result.length);
+        assertEquals("Single", 42, result[0]);
+
+        result = ImapParser.parseSequenceSet("41,43:45,48");
+        assertEquals("Mixed", 5, result.length);
+        assertEquals("Mixed", 41, result[0]);
+        assertEquals("Mixed", 43, result[1]);
+        assertEquals("Mixed", 44, result[2]);
+        assertEquals("Mixed", 45, result[3]);
+        assertEquals("Mixed", 48, result[4]);
+
+        result = ImapParser.parseSequenceSet("12:10");
+        assertEquals("Reversed", 3, result.length);
+        assertEquals("Reversed", 10, result[0]);
+        assertEquals("Reversed", 12, result[2]);
+    }
+
+    public void testCreateSequenceSets() {
+        String[] result = ImapParser.createSequenceSets(new int[] { 42 }, 100);
+        assertEquals("Single", 1, result.length);
+        assertEquals("Single", "42", result[0]);
+
+        result = ImapParser.createSequenceSets(new int[] { 48, 44, 41, 43, 45, 44 }, 100);
+        assertEquals("Mixed", 1, result.length);
+        assertEquals("Mixed", "41,43:45,48", result[0]);
+
+        result = ImapParser.createSequenceSets(new int[] { 1, 2, 3, 10, 20, 21, 30 }, 8);
+        assertEquals("Split", 2, result.length);
+        assertEquals("Split", "1:3,10", result[0]);
+        assertEquals("Split", "20:21,30", result[1]);
+    }
     
     public void testParenStringLexerSimple() {
         String rawText = "(UID 134 BODY[1] \"\")";
@@ -122,6 +156,21 @@ public class ImapParserTest extends TestCase {
         assertEquals("Quoted with CRLF", expected, result);
     }
     
+    public void testParenStringLexerBinaryLiteral() {
+        String rawText = "(UID 134 BINARY[2] ~{5}\r\nAB\0CD BINARY[3] {2}\r\nEF)";
+        Object[] expected = new Object[] {
+                LPAREN, "UID", "134",
+                "BINARY[2]", new byte[] { 'A', 'B', 0, 'C', 'D' },
+                "BINARY[3]", "EF".getBytes(),
+                RPAREN
+        };
+
+        byte[] data = rawText.getBytes();
+        Vector result = ImapParser.parenListLexer(data, 0, data.length);
+        
+        assertEquals("Binary literal", expected, result);
+    }
+    
     public void testParenStringLexerEnvelope1() {
         String rawText = "(FLAGS (\\Answered \\Seen) " +
             "ENVELOPE (\"Mon, 12 Mar 2007 19:38:31 -0700\" \"Re: Calm down! :-)\" " +
@@ -447,12 +496,21 @@ public class ImapParserTest extends TestCase {
         suite.addTest(new ImapParserTest("parseFolderName", new TestMethod()
         { public void run(TestCase tc) { ((ImapParserTest) tc).testParseFolderName(); }}));
         
+        suite.addTest(new ImapParserTest("parseSequenceSet", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testParseSequenceSet(); }}));
+        
+        suite.addTest(new ImapParserTest("createSequenceSets", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testCreateSequenceSets(); }}));
+        
         suite.addTest(new ImapParserTest("parenStringLexerSimple", new TestMethod()
         { public void run(TestCase tc) { ((ImapParserTest) tc).testParenStringLexerSimple(); }}));
         
         suite.addTest(new ImapParserTest("parenStringLexerQuotedWithLineBreak", new TestMethod()
         { public void run(TestCase tc) { ((ImapParserTest) tc).testParenStringLexerQuotedWithLineBreak(); }}));
 
+        suite.addTest(new ImapParserTest("parenStringLexerBinaryLiteral", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testParenStringLexerBinaryLiteral(); }}));
+
         suite.addTest(new ImapParserTest("parenStringLexerEnvelope1", new TestMethod()
         { public void run(TestCase tc) { ((ImapParserTest) tc).testParenStringLexerEnvelope1(); }}));
 
@@ -40,8 +40,11 @@ import net.rim.device.api.util.IntVector;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.StringParser;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Hashtable;
@@ -90,6 +93,148 @@ public class ImapProtocolTest extends TestCase {
         assertEquals(Boolean.TRUE, result.get("DELTA"));
     }
 
+    public void testExecuteEnable() throws Throwable {
+        instance.addExecuteExpectation("ENABLE", "QRESYNC",
+            new String[] { "* ENABLED QRESYNC" });
+        assertTrue(instance.executeEnable("QRESYNC"));
+
+        instance.addExecuteExpectation("ENABLE", "QRESYNC",
+            new String[] { "* ENABLED" });
+        assertTrue(!instance.executeEnable("QRESYNC"));
+    }
+
+    public void testExecuteNotify() throws Throwable {
+        instance.addExecuteExpectation("NOTIFY", "SET (selected MessageNew) (personal MessageNew)",
+            new String[] { "* STATUS \"Lists/Foo\" (MESSAGES 12 UIDNEXT 301 UNSEEN 2)" });
+        assertTrue(instance.executeNotify("(selected MessageNew) (personal MessageNew)"));
+        
+        assertEquals(1, listener.statusNames.size());
+        assertEquals("Lists/Foo", listener.statusNames.elementAt(0));
+        ImapProtocol.StatusResponse status =
+            (ImapProtocol.StatusResponse)listener.status.elementAt(0);
+        assertEquals(12, status.exists);
+        assertEquals(2, status.unseen);
+        assertEquals(-1, status.recent);
+    }
+
+    public void testExecuteSelect() throws Throwable {
+        instance.addExecuteExpectation("SELECT", "\"INBOX\"",
+            new String[] {
+                "* 172 EXISTS",
+                "* 1 RECENT",
+                "* OK [UNSEEN 12] Message 12 is first unseen",
+                "* OK [UIDVALIDITY 3857529045] UIDs valid",
+                "* OK [UIDNEXT 4392] Predicted next UID",
+                "* FLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft)",
+                "* OK [HIGHESTMODSEQ 715194045007] Highest"
+            });
+
+        ImapProtocol.SelectResponse result = instance.executeSelect("INBOX");
+        assertEquals(172, result.exists);
+        assertEquals(1, result.recent);
+        assertEquals(12, result.unseen);
+        assertEquals(4392, result.uidNext);
+        assertEquals(715194045007L, result.highestModSeq);
+    }
+
+    public void testExecuteLoginSelect() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection((
+            "* CAPABILITY IMAP4rev1 LITERAL+ IDLE\r\n" +
+            "A0 OK LOGIN completed\r\n" +
+            "* 172 EXISTS\r\n" +
+            "* 1 RECENT\r\n" +
+            "* OK [UNSEEN 12] Message 12 is first unseen\r\n" +
+            "* OK [UIDNEXT 4392] Predicted next UID\r\n" +
+            "A1 OK [READ-WRITE] SELECT completed\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+
+        ImapProtocol.SelectResponse result = instance.executeLoginSelect("user", "pass", "INBOX");
+        
+        // Both commands are sent before either response is read
+        assertEquals(
+            "A0 LOGIN \"user\" \"pass\"\r\n" +
+            "A1 SELECT \"INBOX\"\r\n",
+            new String(socket.getSentBytes()));
+        
+        assertNotNull(result);
+        assertEquals(172, result.exists);
+        assertEquals(1, result.recent);
+        assertEquals(12, result.unseen);
+        assertEquals(4392, result.uidNext);
+        
+        Hashtable capabilities = instance.getLoginCapabilities();
+        assertNotNull(capabilities);
+        assertEquals(3, capabilities.size());
+        assertEquals(Boolean.TRUE, capabilities.get("IDLE"));
+    }
+    
+    public void testExecuteLoginCapabilities() throws Throwable {
+        // Capabilities in an untagged response
+        StubSocketConnection socket = new StubSocketConnection((
+            "* CAPABILITY IMAP4rev1 IDLE QRESYNC\r\n" +
+            "A0 OK Logged in\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        assertTrue(instance.executeLogin("user", "pass"));
+        assertEquals("A0 LOGIN \"user\" \"pass\"\r\n", new String(socket.getSentBytes()));
+        Hashtable result = instance.getLoginCapabilities();
+        assertNotNull(result);
+        assertEquals(3, result.size());
+        assertEquals(Boolean.TRUE, result.get("IDLE"));
+        assertEquals(Boolean.TRUE, result.get("QRESYNC"));
+        
+        // Capabilities in a response code
+        socket = new StubSocketConnection((
+            "A1 OK [CAPABILITY IMAP4rev1 SORT ENABLE] Logged in\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        assertTrue(instance.executeLogin("user", "pass"));
+        result = instance.getLoginCapabilities();
+        assertNotNull(result);
+        assertEquals(3, result.size());
+        assertEquals(Boolean.TRUE, result.get("SORT"));
+        assertEquals(Boolean.TRUE, result.get("ENABLE"));
+        
+        // No capabilities advertised
+        socket = new StubSocketConnection((
+            "A2 OK Logged in\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        assertTrue(instance.executeLogin("user", "pass"));
+        assertNull(instance.getLoginCapabilities());
+        
+        // Failed login
+        socket = new StubSocketConnection((
+            "A3 NO [AUTHENTICATIONFAILED] Invalid credentials\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        assertTrue(!instance.executeLogin("user", "wrong"));
+        assertNull(instance.getLoginCapabilities());
+    }
+    
+    public void testExecuteLoginSelectFailed() throws Throwable {
+        // A failed login also fails the select
+        StubSocketConnection socket = new StubSocketConnection((
+            "A0 NO Invalid credentials\r\n" +
+            "A1 BAD Not authenticated\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        assertNull(instance.executeLoginSelect("user", "wrong", "INBOX"));
+        
+        // A successful login with a failed select is an error
+        socket = new StubSocketConnection((
+            "A2 OK LOGIN completed\r\n" +
+            "A3 NO Mailbox does not exist\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        try {
+            instance.executeLoginSelect("user", "pass", "Missing");
+            fail("Expected exception");
+        } catch (MailException e) {
+            assertEquals("A3 NO Mailbox does not exist", e.getMessage());
+        }
+    }
+
     public void testExecuteNamespace1() throws Throwable {
         // Normal namespace:
         // NAMESPACE (("" "/")) (("Other Users/" "/")) NIL
@@ -160,6 +305,44 @@ public class ImapProtocolTest extends TestCase {
         assertEquals("INBOX", result1.name);
     }
 
+    public void testExecuteListExtended() throws Throwable {
+        instance.addExecuteExpectation("LIST",
+            "\"\" \"*\" RETURN (SUBSCRIBED CHILDREN STATUS (MESSAGES UNSEEN RECENT))",
+            new String[] {
+                "* LIST (\\Subscribed \\HasChildren) \".\" \"INBOX\"",
+                "* STATUS \"INBOX\" (MESSAGES 17 UNSEEN 16 RECENT 1)",
+                "* LIST (\\HasNoChildren) \".\" \"INBOX.Saved\"",
+                "* STATUS \"INBOX.Saved\" (MESSAGES 2 UNSEEN 0 RECENT 0)",
+                "* LIST (\\NonExistent \\Subscribed) \".\" \"Gone\""
+            });
+
+        Vector result = instance.executeListExtended("", "*", true, null);
+        assertNotNull(result);
+        assertEquals(3, result.size());
+
+        ImapProtocol.ListResponse result1 = (ImapProtocol.ListResponse) result.elementAt(0);
+        assertEquals("INBOX", result1.name);
+        assertTrue(result1.subscribed);
+        assertTrue(result1.hasChildren);
+        assertTrue(result1.canSelect);
+        assertNotNull(result1.status);
+        assertEquals(17, result1.status.exists);
+        assertEquals(16, result1.status.unseen);
+        assertEquals(1, result1.status.recent);
+
+        ImapProtocol.ListResponse result2 = (ImapProtocol.ListResponse) result.elementAt(1);
+        assertEquals("INBOX.Saved", result2.name);
+        assertTrue(!result2.subscribed);
+        assertNotNull(result2.status);
+        assertEquals(2, result2.status.exists);
+
+        ImapProtocol.ListResponse result3 = (ImapProtocol.ListResponse) result.elementAt(2);
+        assertEquals("Gone", result3.name);
+        assertTrue(result3.subscribed);
+        assertTrue(!result3.canSelect);
+        assertNull(result3.status);
+    }
+
     public void testExecuteList2() throws Throwable {
         // Test subfolders of inbox
         instance.addExecuteExpectation("LIST", "\"INBOX.\" \"%\"",
@@ -814,6 +997,54 @@ public class ImapProtocolTest extends TestCase {
         assertEquals("EXPUNGE", 5, listener.expunge.elementAt(0));
     }
     
+    public void testExecuteFetchFlagsUidSequenceSet() throws Throwable {
+        instance.addExecuteExpectation(
+                "UID FETCH", "40:42,45 (FLAGS UID)",
+                new String[] {
+                        "* 38 FETCH (FLAGS (\\Seen) UID 40)",
+                        "* 39 FETCH (FLAGS () UID 41)",
+                        "* 40 FETCH (FLAGS () UID 42)",
+                        "* 41 FETCH (FLAGS () UID 45)"
+                });
+
+        ImapProtocol.FetchFlagsResponse[] result =
+            instance.executeFetchFlagsUid(new int[] { 45, 40, 41, 42 }, null);
+
+        assertNotNull(result);
+        assertEquals(4, result.length);
+        assertEquals(40, result[0].uid);
+        assertEquals(45, result[3].uid);
+    }
+    
+    public void testExecuteFetchFlagsChangedSince() throws Throwable {
+        instance.addExecuteExpectation(
+                "UID FETCH", "1:* (FLAGS UID) (CHANGEDSINCE 12345 VANISHED)",
+                new String[] {
+                        "* VANISHED (EARLIER) 41,43:45",
+                        "* 38 FETCH (UID 50 FLAGS (\\Seen) MODSEQ (12350))",
+                        "* 40 FETCH (UID 52 FLAGS () MODSEQ (12351))"
+                });
+
+        ImapProtocol.FetchChangesResponse result =
+            instance.executeFetchFlagsChangedSince(12345L, null);
+
+        assertNotNull(result);
+        assertEquals(2, result.changed.length);
+        assertEquals(38, result.changed[0].index);
+        assertEquals(50, result.changed[0].uid);
+        assertTrue(result.changed[0].flags.seen);
+        assertEquals(40, result.changed[1].index);
+        assertEquals(52, result.changed[1].uid);
+        assertTrue(!result.changed[1].flags.seen);
+
+        assertEquals(4, result.vanished.length);
+        assertEquals(41, result.vanished[0]);
+        assertEquals(43, result.vanished[1]);
+        assertEquals(44, result.vanished[2]);
+        assertEquals(45, result.vanished[3]);
+        assertEquals(0, listener.vanished.size());
+    }
+
     public void testExecuteFetchBody() throws Throwable {
         instance.addExecuteExpectation(
             "UID FETCH", "288 (BODY[1]<0.1024>)",
@@ -898,6 +1129,325 @@ public class ImapProtocolTest extends TestCase {
         assertTrue(msg, !untaggedFetch.flags.flagged);
         assertTrue(msg, !untaggedFetch.flags.recent);
     }
+    
+    public void testExecuteFetchBodyStream() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection((
+            "* 83 FETCH (FLAGS (\\Answered \\Seen) UID 287)\r\n" +
+            "* 84 FETCH (UID 288 BODY[1]<0> {7}\r\nHello\r\n FLAGS (\\Seen))\r\n" +
+            "A0 OK UID FETCH completed\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int result = instance.executeFetchBody(288, "1", output, null);
+        
+        assertEquals("A0 UID FETCH 288 (BODY[1]<0.1024>)\r\n", new String(socket.getSentBytes()));
+        assertEquals(7, result);
+        assertEquals("Hello\r\n", new String(output.toByteArray()));
+        
+        String msg ="Untagged FETCH";
+        assertEquals(msg, 1, listener.fetch.size());
+        ImapProtocol.FetchFlagsResponse untaggedFetch = (ImapProtocol.FetchFlagsResponse)listener.fetch.elementAt(0);
+        assertEquals(msg, 83, untaggedFetch.index);
+        assertEquals(msg, 287, untaggedFetch.uid);
+    }
+    
+    public void testExecuteFetchBodyStreamLong() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection((
+            "* 84 FETCH (UID 288 BODY[1]<0> {4}\r\nABCD)\r\n" +
+            "A0 OK UID FETCH completed\r\n" +
+            "* 84 FETCH (UID 288 BODY[1]<4> {4}\r\nEFGH)\r\n" +
+            "A1 OK UID FETCH completed\r\n" +
+            "* 84 FETCH (UID 288 BODY[1]<8> {2}\r\nIJ)\r\n" +
+            "A2 OK UID FETCH completed\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        instance.setFetchIncrement(4);
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int result = instance.executeFetchBody(288, "1", output, null);
+        
+        assertEquals(10, result);
+        assertEquals("ABCDEFGHIJ", new String(output.toByteArray()));
+        assertEquals(
+            "A0 UID FETCH 288 (BODY[1]<0.4>)\r\n" +
+            "A1 UID FETCH 288 (BODY[1]<4.4>)\r\n" +
+            "A2 UID FETCH 288 (BODY[1]<8.4>)\r\n",
+            new String(socket.getSentBytes()));
+    }
+    
+    public void testExecuteFetchBodies() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection((
+            "* 84 FETCH (UID 288 BODY[1]<0> {7}\r\nHello\r\n BODY[1.2]<0> {6}\r\nABCDEF FLAGS (\\Seen))\r\n" +
+            "A0 OK UID FETCH completed\r\n" +
+            "* 84 FETCH (UID 288 BODY[1.2]<6> {2}\r\nGH)\r\n" +
+            "A1 OK UID FETCH completed\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        instance.setFetchIncrement(4);
+        
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[] {
+                new ByteArrayOutputStream(), new ByteArrayOutputStream() };
+        int[] result = instance.executeFetchBodies(288,
+                new String[] { "1", "1.2" }, new int[] { 7, 5 }, outputs, null);
+        
+        // The second section was larger than expected, so it had to be
+        // completed with a second command.
+        assertEquals(
+            "A0 UID FETCH 288 (BODY[1]<0.8> BODY[1.2]<0.6>)\r\n" +
+            "A1 UID FETCH 288 (BODY[1.2]<6.4>)\r\n",
+            new String(socket.getSentBytes()));
+        assertEquals(2, result.length);
+        assertEquals(7, result[0]);
+        assertEquals(8, result[1]);
+        assertEquals("Hello\r\n", new String(outputs[0].toByteArray()));
+        assertEquals("ABCDEFGH", new String(outputs[1].toByteArray()));
+    }
+    
+    public void testExecuteFetchBinaries() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection((
+            "* 84 FETCH (UID 288 BINARY[1]<0> ~{5}\r\nAB\0CD BINARY[2]<0> {3}\r\nxyz)\r\n" +
+            "A0 OK UID FETCH completed\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[] {
+                new ByteArrayOutputStream(), new ByteArrayOutputStream() };
+        int[] result = instance.executeFetchBinaries(288,
+                new String[] { "1", "2" }, new int[] { 8, 4 }, outputs, null);
+        
+        assertEquals(
+            "A0 UID FETCH 288 (BINARY[1]<0.9> BINARY[2]<0.5>)\r\n",
+            new String(socket.getSentBytes()));
+        assertEquals(2, result.length);
+        assertEquals(5, result[0]);
+        assertEquals(3, result[1]);
+        assertEquals("AB\0CD", new String(outputs[0].toByteArray()));
+        assertEquals("xyz", new String(outputs[1].toByteArray()));
+    }
+    
+    public void testExecutePipeline() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection((
+            "* 5 FETCH (FLAGS (\\Seen \\Deleted) UID 100)\r\n" +
+            "A0 OK STORE completed\r\n" +
+            "* 6 FETCH (FLAGS (\\Seen \\Deleted) UID 101)\r\n" +
+            "A2 NO COPY failed\r\n" +
+            "A1 OK STORE completed\r\n").getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        final Vector responses = new Vector();
+        ImapProtocol.PipelinedCommand[] commands = new ImapProtocol.PipelinedCommand[3];
+        for(int i=0; i<commands.length; i++) {
+            final int index = i;
+            commands[i] = new ImapProtocol.PipelinedCommand(
+                    (i < 2) ? "UID STORE" : "UID COPY",
+                    (i < 2) ? ((100 + i) + " +FLAGS (\\Deleted)") : "100:101 \"Trash\"",
+                    new ImapProtocol.ExecuteCallback() {
+                public void processResponse(byte[] rawLine) {
+                    responses.addElement(index + ":" + new String(rawLine));
+                }
+                public void executeComplete() {
+                    responses.addElement(index + ":done");
+                }
+            });
+        }
+        
+        try {
+            instance.executePipeline(commands, null);
+            fail("Expected exception");
+        } catch (MailException e) {
+            assertEquals("A2 NO COPY failed", e.getMessage());
+        }
+        
+        assertEquals(
+            "A0 UID STORE 100 +FLAGS (\\Deleted)\r\n" +
+            "A1 UID STORE 101 +FLAGS (\\Deleted)\r\n" +
+            "A2 UID COPY 100:101 \"Trash\"\r\n",
+            new String(socket.getSentBytes()));
+        
+        assertEquals(5, responses.size());
+        assertEquals("0:* 5 FETCH (FLAGS (\\Seen \\Deleted) UID 100)", responses.elementAt(0));
+        assertEquals("0:done", responses.elementAt(1));
+        assertEquals("1:* 6 FETCH (FLAGS (\\Seen \\Deleted) UID 101)", responses.elementAt(2));
+        assertEquals("2:done", responses.elementAt(3));
+        assertEquals("1:done", responses.elementAt(4));
+        
+        assertTrue(commands[0].isOk());
+        assertTrue(commands[1].isOk());
+        assertTrue(commands[2].isComplete());
+        assertTrue(!commands[2].isOk());
+    }
+    
+    public void testExecuteStatusPipelined() throws Throwable {
+        // More mailboxes than can be outstanding at once, so the
+        // remaining commands are sent as earlier ones complete
+        int count = 12;
+        String[] mboxPaths = new String[count];
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<count; i++) {
+            mboxPaths[i] = "Folder" + i;
+            buf.append("* STATUS Folder" + i + " (MESSAGES " + (i + 10) + " RECENT " + i + " UNSEEN 1)\r\n");
+            buf.append("A" + i + " OK STATUS completed\r\n");
+        }
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        ImapProtocol.StatusResponse[] result = instance.executeStatus(mboxPaths, null);
+        
+        assertEquals(count, result.length);
+        for(int i=0; i<count; i++) {
+            assertEquals(i + 10, result[i].exists);
+            assertEquals(i, result[i].recent);
+            assertEquals(1, result[i].unseen);
+        }
+        
+        String sent = new String(socket.getSentBytes());
+        assertTrue(sent.startsWith("A0 STATUS \"Folder0\" (MESSAGES RECENT UNSEEN)\r\n"));
+        assertTrue(sent.endsWith("A11 STATUS \"Folder11\" (MESSAGES RECENT UNSEEN)\r\n"));
+    }
+    
+    public void testExecuteStorePipelined() throws Throwable {
+        // Enough scattered UIDs that the sequence set has to be split
+        // across several commands
+        int[] uids = new int[500];
+        for(int i=0; i<uids.length; i++) {
+            uids[i] = 1000 + (i * 2);
+        }
+        String[] uidSets = ImapParser.createSequenceSets(uids, 1000);
+        assertTrue(uidSets.length > 1);
+        
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<uidSets.length; i++) {
+            buf.append("* " + (i + 1) + " FETCH (FLAGS (\\Seen) UID " + uidSets[i].substring(0, 4) + ")\r\n");
+            buf.append("A" + i + " OK STORE completed\r\n");
+        }
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        instance.executeStore(uids, true, new String[] { "\\Seen" });
+        
+        assertEquals(uidSets.length, listener.fetch.size());
+        
+        buf.setLength(0);
+        for(int i=0; i<uidSets.length; i++) {
+            buf.append("A" + i + " UID STORE " + uidSets[i] + " +FLAGS (\\Seen)\r\n");
+        }
+        assertEquals(buf.toString(), new String(socket.getSentBytes()));
+    }
+    
+    public void testExecuteResponseScaling() throws Throwable {
+        // Collect responses of increasing length, to check that long
+        // responses are collected completely and in order.
+        int[] lineCounts = { 1000, 10000, 100000 };
+        for(int i=0; i<lineCounts.length; i++) {
+            int lineCount = lineCounts[i];
+            StringBuffer buf = new StringBuffer();
+            for(int j=1; j<=lineCount; j++) {
+                buf.append("* ").append(j).append(" FETCH (FLAGS (\\Seen) UID ").append(j).append(")\r\n");
+            }
+            buf.append("A0 OK FETCH completed\r\n");
+            
+            ImapProtocol protocol = new ImapProtocol();
+            protocol.setConnection(new Connection(new StubSocketConnection(buf.toString().getBytes()), 0));
+            buf = null;
+            
+            byte[][] result = protocol.executeResponse("FETCH", "1:* (FLAGS UID)", null);
+            
+            assertEquals(lineCount, result.length);
+            assertEquals("* 1 FETCH (FLAGS (\\Seen) UID 1)", new String(result[0]));
+            assertEquals("* " + lineCount + " FETCH (FLAGS (\\Seen) UID " + lineCount + ")",
+                    new String(result[lineCount - 1]));
+        }
+    }
+
+    public void testExecuteFetchEnvelopeScaling() throws Throwable {
+        // Parse a large envelope listing, to check that each FETCH response
+        // is tokenized correctly without building an intermediate tree.
+        int lineCount = 5000;
+        StringBuffer buf = new StringBuffer();
+        for(int j=1; j<=lineCount; j++) {
+            buf.append("* ").append(j).append(" FETCH (FLAGS (\\Seen) UID ").append(j + 100)
+                .append(" ENVELOPE (\"Mon, 12 Mar 2007 19:38:31 -0700\" \"Subject ").append(j).append("\" ")
+                .append("((\"jim smith\" NIL \"jsmith\" \"scratch.test\")) ")
+                .append("((\"jim smith\" NIL \"jsmith\" \"scratch.test\")) ")
+                .append("((\"jim smith\" NIL \"jsmith\" \"scratch.test\")) ")
+                .append("((\"John Doe\" NIL \"jdoe\" \"generic.test\")) ")
+                .append("NIL NIL NIL \"<").append(j).append("@scratch.test>\") ")
+                .append("BODYSTRUCTURE (\"TEXT\" \"PLAIN\" (\"CHARSET\" \"us-ascii\") NIL NIL \"7BIT\" 44 2 NIL NIL NIL))\r\n");
+        }
+        buf.append("A0 OK FETCH completed\r\n");
+        
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(new StubSocketConnection(buf.toString().getBytes()), 0));
+        buf = null;
+        
+        ShimCallback shim = new ShimCallback();
+        protocol.executeFetchEnvelope(1, lineCount, shim, null);
+        
+        ImapProtocol.FetchEnvelopeResponse[] result = shim.getResponses();
+        assertEquals(lineCount, result.length);
+        assertEquals(lineCount, result[lineCount - 1].index);
+        assertEquals(lineCount + 100, result[lineCount - 1].uid);
+        assertTrue(result[lineCount - 1].flags.seen);
+        assertEquals("Subject " + lineCount, result[lineCount - 1].envelope.subject);
+        assertEquals("<" + lineCount + "@scratch.test>", result[lineCount - 1].envelope.messageId);
+        assertNotNull(result[lineCount - 1].structure);
+    }
+
+    public void testExecuteSearchUid() throws Throwable {
+        instance.addExecuteExpectation("UID SEARCH",
+            "RETURN (MIN MAX COUNT ALL) UNSEEN NOT DELETED",
+            new String[] { "* ESEARCH (TAG \"A5\") UID MIN 4 MAX 12 COUNT 5 ALL 4:6,10,12" });
+
+        ImapProtocol.SearchResponse result = instance.executeSearchUid("UNSEEN NOT DELETED", null);
+        assertNotNull(result);
+        assertEquals(4, result.min);
+        assertEquals(12, result.max);
+        assertEquals(5, result.count);
+        int[] expectedUids = { 4, 5, 6, 10, 12 };
+        assertEquals(expectedUids.length, result.uids.length);
+        for(int i=0; i<expectedUids.length; i++) {
+            assertEquals(expectedUids[i], result.uids[i]);
+        }
+    }
+
+    public void testExecuteSearchUidEmpty() throws Throwable {
+        instance.addExecuteExpectation("UID SEARCH",
+            "RETURN (MIN MAX COUNT ALL) NOT DELETED",
+            new String[] { "* ESEARCH (TAG \"A5\") UID COUNT 0" });
+
+        ImapProtocol.SearchResponse result = instance.executeSearchUid("NOT DELETED", null);
+        assertNotNull(result);
+        assertEquals(0, result.count);
+        assertEquals(0, result.uids.length);
+    }
+
+    public void testExecuteSortUid() throws Throwable {
+        instance.addExecuteExpectation("UID SORT",
+            "(REVERSE DATE) UTF-8 NOT DELETED",
+            new String[] { "* SORT 5 3 4 1 2" });
+
+        int[] result = instance.executeSortUid("REVERSE DATE", "NOT DELETED", null);
+        assertNotNull(result);
+        int[] expected = { 5, 3, 4, 1, 2 };
+        assertEquals(expected.length, result.length);
+        for(int i=0; i<expected.length; i++) {
+            assertEquals(expected[i], result[i]);
+        }
+    }
+
+    public void testExecuteThreadUid() throws Throwable {
+        instance.addExecuteExpectation("UID THREAD",
+            "REFERENCES UTF-8 ALL",
+            new String[] { "* THREAD (2)(3 6 (4 23)(44 7 96))" });
+
+        ImapProtocol.ThreadResponse result = instance.executeThreadUid("REFERENCES", "ALL", null);
+        assertNotNull(result);
+        int[] expectedUids = { 2, 3, 6, 4, 23, 44, 7, 96 };
+        int[] expectedDepths = { 0, 0, 1, 2, 3, 2, 3, 4 };
+        assertEquals(expectedUids.length, result.uids.length);
+        assertEquals(expectedDepths.length, result.depths.length);
+        for(int i=0; i<expectedUids.length; i++) {
+            assertEquals(expectedUids[i], result.uids[i]);
+            assertEquals(expectedDepths[i], result.depths[i]);
+        }
+    }
 
     public void testExecuteStore1() throws Throwable {
         instance.addExecuteExpectation("UID STORE",
@@ -1062,11 +1612,67 @@ public class ImapProtocolTest extends TestCase {
         assertTrue(!fetchResponse.flags.junk);
     }
     
+    public void testExecuteNoopVanished() throws Throwable {
+        instance.addExecuteExpectation("NOOP", null,
+                new String[] {
+                    "* VANISHED 405,407:408",
+                    "* 78 EXISTS"
+                });
+        
+        instance.executeNoop();
+        
+        assertEquals(0, listener.expunge.size());
+        assertEquals(3, listener.vanished.size());
+        assertEquals(405, listener.vanished.elementAt(0));
+        assertEquals(407, listener.vanished.elementAt(1));
+        assertEquals(408, listener.vanished.elementAt(2));
+        assertEquals(1, listener.exists.size());
+    }
+    
+    public void testExecuteNoopStatus() throws Throwable {
+        instance.addExecuteExpectation("NOOP", null,
+                new String[] {
+                    "* STATUS INBOX (MESSAGES 79 UIDNEXT 1021)",
+                    "* STATUS \"Sent Items\" (UIDNEXT 44 MESSAGES 40 UNSEEN 0)",
+                    "* 78 EXISTS"
+                });
+        
+        instance.executeNoop();
+        
+        assertEquals(2, listener.statusNames.size());
+        assertEquals("INBOX", listener.statusNames.elementAt(0));
+        ImapProtocol.StatusResponse status =
+            (ImapProtocol.StatusResponse)listener.status.elementAt(0);
+        assertEquals(79, status.exists);
+        assertEquals(-1, status.unseen);
+        assertEquals(-1, status.recent);
+        
+        assertEquals("Sent Items", listener.statusNames.elementAt(1));
+        status = (ImapProtocol.StatusResponse)listener.status.elementAt(1);
+        assertEquals(40, status.exists);
+        assertEquals(0, status.unseen);
+        assertEquals(-1, status.recent);
+        
+        assertEquals(1, listener.exists.size());
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("ImapProtocol");
 
         suite.addTest(new ImapProtocolTest("executeCapability", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteCapability(); }}));
+        suite.addTest(new ImapProtocolTest("executeEnable", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteEnable(); }}));
+        suite.addTest(new ImapProtocolTest("executeNotify", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNotify(); }}));
+        suite.addTest(new ImapProtocolTest("executeSelect", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteSelect(); }}));
+        suite.addTest(new ImapProtocolTest("executeLoginSelect", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteLoginSelect(); }}));
+        suite.addTest(new ImapProtocolTest("executeLoginCapabilities", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteLoginCapabilities(); }}));
+        suite.addTest(new ImapProtocolTest("executeLoginSelectFailed", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteLoginSelectFailed(); }}));
         
         suite.addTest(new ImapProtocolTest("executeNamespace1", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNamespace1(); }}));
@@ -1075,6 +1681,8 @@ public class ImapProtocolTest extends TestCase {
 
         suite.addTest(new ImapProtocolTest("executeList1", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteList1(); }}));
+        suite.addTest(new ImapProtocolTest("executeListExtended", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteListExtended(); }}));
         suite.addTest(new ImapProtocolTest("executeList2", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteList2(); }}));
         suite.addTest(new ImapProtocolTest("executeList3", new TestMethod()
@@ -1105,6 +1713,10 @@ public class ImapProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlags2(); }}));
         suite.addTest(new ImapProtocolTest("executeFetchFlagsUntagged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlagsUntagged(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchFlagsUidSequenceSet", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlagsUidSequenceSet(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchFlagsChangedSince", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlagsChangedSince(); }}));
         
         suite.addTest(new ImapProtocolTest("executeFetchBody", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBody(); }}));
@@ -1112,6 +1724,32 @@ public class ImapProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyLong(); }}));
         suite.addTest(new ImapProtocolTest("executeFetchBodyUntagged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyUntagged(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchBodyStream", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyStream(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchBodyStreamLong", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyStreamLong(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchBodies", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodies(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchBinaries", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBinaries(); }}));
+        suite.addTest(new ImapProtocolTest("executePipeline", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecutePipeline(); }}));
+        suite.addTest(new ImapProtocolTest("executeStatusPipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStatusPipelined(); }}));
+        suite.addTest(new ImapProtocolTest("executeStorePipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStorePipelined(); }}));
+        suite.addTest(new ImapProtocolTest("executeResponseScaling", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteResponseScaling(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchEnvelopeScaling", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchEnvelopeScaling(); }}));
+        suite.addTest(new ImapProtocolTest("executeSearchUid", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteSearchUid(); }}));
+        suite.addTest(new ImapProtocolTest("executeSearchUidEmpty", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteSearchUidEmpty(); }}));
+        suite.addTest(new ImapProtocolTest("executeSortUid", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteSortUid(); }}));
+        suite.addTest(new ImapProtocolTest("executeThreadUid", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteThreadUid(); }}));
         
         suite.addTest(new ImapProtocolTest("executeStore1", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStore1(); }}));
@@ -1126,6 +1764,10 @@ public class ImapProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteExpunge(); }}));
         suite.addTest(new ImapProtocolTest("executeNoop", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNoop(); }}));
+        suite.addTest(new ImapProtocolTest("executeNoopVanished", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNoopVanished(); }}));
+        suite.addTest(new ImapProtocolTest("executeNoopStatus", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNoopStatus(); }}));
         
         return suite;
     }
@@ -1240,7 +1882,10 @@ public class ImapProtocolTest extends TestCase {
         public IntVector exists = new IntVector();
         public IntVector recent = new IntVector();
         public IntVector expunge = new IntVector();
+        public IntVector vanished = new IntVector();
         public Vector fetch = new Vector();
+        public Vector statusNames = new Vector();
+        public Vector status = new Vector();
 
         public void existsResponse(int value) {
             exists.addElement(value);
@@ -1254,5 +1899,14 @@ public class ImapProtocolTest extends TestCase {
         public void fetchResponse(ImapProtocol.FetchFlagsResponse value) {
             fetch.addElement(value);
         }
+        public void vanishedResponse(int[] uids) {
+            for(int i=0; i<uids.length; i++) {
+                vanished.addElement(uids[i]);
+            }
+        }
+        public void statusResponse(String mailboxName, ImapProtocol.StatusResponse value) {
+            statusNames.addElement(mailboxName);
+            status.addElement(value);
+        }
     }
 }
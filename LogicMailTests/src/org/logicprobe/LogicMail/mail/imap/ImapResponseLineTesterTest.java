@@ -296,6 +296,52 @@ public class ImapResponseLineTesterTest extends TestCase {
         assertEquals("Complete", 2, trimCount);
     }
     
+    public void testMultipleChecksWithOffset() {
+        byte[] input = "XXXXHello {5}\r\nWorld\r\nFoo\r\n".getBytes();
+        int responseLength = instance.checkForCompleteResponse(input, 4, 10);
+        assertEquals("Hello {5}\\r", -1, responseLength);
+        
+        // Simulate the unconsumed data being moved within the buffer
+        byte[] moved = new byte[input.length - 4];
+        System.arraycopy(input, 4, moved, 0, moved.length);
+        responseLength = instance.checkForCompleteResponse(moved, 0, moved.length);
+        assertEquals("Hello {5}\\r\\nWorld\\r\\n", 18, responseLength);
+        assertEquals("Hello {5}\\r\\nWorld\\r\\n", 2, instance.trimCount());
+        
+        responseLength = instance.checkForCompleteResponse(input, 22, input.length - 22);
+        assertEquals("Foo\\r\\n", 5, responseLength);
+        assertEquals("Foo\\r\\n", 2, instance.trimCount());
+    }
+    
+    public void testStopAtLiteral() {
+        instance = new ImapResponseLineTester(true);
+        byte[] input = "* 1 FETCH (BODY[1] {5}\r\nWorld)\r\nFoo\r\n".getBytes();
+        int responseLength = instance.checkForCompleteResponse(input, 0, input.length);
+        assertEquals("Case 1", 24, responseLength); // Length up to the literal
+        assertEquals("Case 1", 2, instance.trimCount());
+        assertEquals("Case 1", 5, instance.literalLength());
+        
+        // Caller consumes the literal itself, then continues with the rest
+        responseLength = instance.checkForCompleteResponse(input, 29, input.length - 29);
+        assertEquals("Case 2", 3, responseLength); // Length of ")\r\n"
+        assertEquals("Case 2", -1, instance.literalLength());
+        
+        responseLength = instance.checkForCompleteResponse(input, 32, input.length - 32);
+        assertEquals("Case 3", 5, responseLength); // Length of "Foo\r\n"
+        assertEquals("Case 3", -1, instance.literalLength());
+    }
+    
+    public void testStopAtLiteralShortLength() {
+        instance = new ImapResponseLineTester(true);
+        byte[] input = "Hello {5}\r\nWorld\r\n".getBytes();
+        int responseLength = instance.checkForCompleteResponse(input, 0, 10);
+        assertEquals("Case 1", -1, responseLength);
+        
+        responseLength = instance.checkForCompleteResponse(input, 0, 11);
+        assertEquals("Case 2", 11, responseLength);
+        assertEquals("Case 2", 5, instance.literalLength());
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("ImapResponseLineTester");
 
@@ -319,6 +365,12 @@ public class ImapResponseLineTesterTest extends TestCase {
         { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testLinesWithMalformedQuoted(); }}));
         suite.addTest(new ImapResponseLineTesterTest("multipleChecksWithQuotedAndLiteral", new TestMethod()
         { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testMultipleChecksWithQuotedAndLiteral(); }}));
+        suite.addTest(new ImapResponseLineTesterTest("multipleChecksWithOffset", new TestMethod()
+        { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testMultipleChecksWithOffset(); }}));
+        suite.addTest(new ImapResponseLineTesterTest("stopAtLiteral", new TestMethod()
+        { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testStopAtLiteral(); }}));
+        suite.addTest(new ImapResponseLineTesterTest("stopAtLiteralShortLength", new TestMethod()
+        { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testStopAtLiteralShortLength(); }}));
 
         return suite;
     }
@@ -0,0 +1,160 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail.imap;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class ImapTokenizerTest extends TestCase {
+    public ImapTokenizerTest() {
+    }
+
+    public ImapTokenizerTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+
+    public void setUp() {
+    }
+
+    public void tearDown() {
+    }
+
+    private static ImapTokenizer createTokenizer(String text) {
+        byte[] data = text.getBytes();
+        return new ImapTokenizer(data, 0, data.length);
+    }
+    
+    public void testAtoms() {
+        ImapTokenizer instance = createTokenizer("(FLAGS UID 42 NIL)");
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertTrue(instance.atomEquals("FLAGS".getBytes()));
+        assertTrue(!instance.atomEquals("FLAG".getBytes()));
+        assertTrue(instance.atomStartsWith("FLAG".getBytes()));
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals("UID", instance.getString());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals(42, instance.getInt());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertTrue(instance.isNil());
+        assertEquals(ImapTokenizer.LIST_END, instance.next());
+        assertEquals(ImapTokenizer.END, instance.next());
+        assertEquals(ImapTokenizer.END, instance.next());
+    }
+    
+    public void testQuoted() {
+        ImapTokenizer instance = createTokenizer("(\"Hello World\" \"\" \"say \\\"hi\\\"\" \"NIL\")");
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        assertEquals(ImapTokenizer.STRING, instance.next());
+        assertEquals("Hello World", instance.getString());
+        assertEquals(ImapTokenizer.STRING, instance.next());
+        assertEquals("", instance.getString());
+        assertEquals(ImapTokenizer.STRING, instance.next());
+        assertEquals("say \"hi\"", instance.getString());
+        assertEquals(ImapTokenizer.STRING, instance.next());
+        assertTrue("Quoted NIL", !instance.isNil());
+        assertEquals(ImapTokenizer.LIST_END, instance.next());
+    }
+    
+    public void testLiteral() {
+        ImapTokenizer instance = createTokenizer("(BODY[] {12}\r\nHello (World UID 5)");
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals("BODY[]", instance.getString());
+        assertEquals(ImapTokenizer.STRING, instance.next());
+        assertEquals("Hello (World", instance.getString());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals("UID", instance.getString());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals(5, instance.getInt());
+        assertEquals(ImapTokenizer.LIST_END, instance.next());
+    }
+    
+    public void testBinaryLiteral() {
+        ImapTokenizer instance = createTokenizer("(BINARY[1] ~{3}\r\nabc)");
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals(ImapTokenizer.STRING, instance.next());
+        assertEquals("abc", instance.getString());
+        assertEquals(ImapTokenizer.LIST_END, instance.next());
+    }
+    
+    public void testSkipList() {
+        ImapTokenizer instance = createTokenizer("(ENVELOPE (\"a\" (\"b\" (c)) \")\") UID 7)");
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        instance.skipValue();
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals("UID", instance.getString());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        instance.skipValue();
+        assertEquals(7, instance.getInt());
+        assertEquals(ImapTokenizer.LIST_END, instance.next());
+    }
+    
+    public void testOffsetAndReset() {
+        byte[] data = "* 1 FETCH (UID 10) trailing".getBytes();
+        ImapTokenizer instance = new ImapTokenizer(data, 10, 8);
+        assertEquals(ImapTokenizer.LIST_START, instance.next());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals(10, instance.getInt());
+        assertEquals(ImapTokenizer.LIST_END, instance.next());
+        assertEquals(ImapTokenizer.END, instance.next());
+        
+        instance.reset(data, 0, 1);
+        assertEquals(ImapTokenizer.ATOM, instance.next());
+        assertEquals("*", instance.getString());
+        assertEquals(ImapTokenizer.END, instance.next());
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("ImapTokenizer");
+
+        suite.addTest(new ImapTokenizerTest("atoms", new TestMethod()
+        { public void run(TestCase tc) { ((ImapTokenizerTest) tc).testAtoms(); }}));
+        suite.addTest(new ImapTokenizerTest("quoted", new TestMethod()
+        { public void run(TestCase tc) { ((ImapTokenizerTest) tc).testQuoted(); }}));
+        suite.addTest(new ImapTokenizerTest("literal", new TestMethod()
+        { public void run(TestCase tc) { ((ImapTokenizerTest) tc).testLiteral(); }}));
+        suite.addTest(new ImapTokenizerTest("binaryLiteral", new TestMethod()
+        { public void run(TestCase tc) { ((ImapTokenizerTest) tc).testBinaryLiteral(); }}));
+        suite.addTest(new ImapTokenizerTest("skipList", new TestMethod()
+        { public void run(TestCase tc) { ((ImapTokenizerTest) tc).testSkipList(); }}));
+        suite.addTest(new ImapTokenizerTest("offsetAndReset", new TestMethod()
+        { public void run(TestCase tc) { ((ImapTokenizerTest) tc).testOffsetAndReset(); }}));
+
+        return suite;
+    }
+}
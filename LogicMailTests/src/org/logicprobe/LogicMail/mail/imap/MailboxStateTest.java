@@ -30,8 +30,6 @@
  */
 package org.logicprobe.LogicMail.mail.imap;
 
-import java.util.Vector;
-
 import j2meunit.framework.Test;
 import j2meunit.framework.TestCase;
 import j2meunit.framework.TestMethod;
@@ -69,6 +67,11 @@ public class MailboxStateTest extends TestCase {
         assertEquals(response.unseen, instance.getUnseen());
         assertEquals(response.uidNext, instance.getUidNext());
         assertEquals(response.uidValidity, instance.getUidValidity());
+        assertEquals(0L, instance.getHighestModSeq());
+        
+        response.highestModSeq = 715194045007L;
+        instance.mailboxSelected(response);
+        assertEquals(response.highestModSeq, instance.getHighestModSeq());
     }
     
     public void testMailboxReselected() throws Throwable {
@@ -145,14 +148,13 @@ public class MailboxStateTest extends TestCase {
         // These tests all begin with a contiguous block of 5 messages:
         // [10](110), [11](111), [12](112), [13](113), [14](114)
         ImapMessageToken[] tokens;
-        Vector updatedTokens = new Vector();
         String msg;
 
         msg = "Expunge the last message";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(14, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(14);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[2], instance.getMessageToken(12));
@@ -162,8 +164,8 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the first message";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 4, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(10);
+        assertEquals(msg, 4, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[1], instance.getMessageToken(10));
         assertEquals(msg, tokens[2], instance.getMessageToken(11));
         assertEquals(msg, tokens[3], instance.getMessageToken(12));
@@ -173,8 +175,8 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the middle message";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(12, updatedTokens);
-        assertEquals(msg, 2, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(12);
+        assertEquals(msg, 2, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[3], instance.getMessageToken(12));
@@ -186,16 +188,15 @@ public class MailboxStateTest extends TestCase {
         // These tests all begin with a contiguous block of 5 messages:
         // [10](110), [11](111), [12](112), [13](113), [14](114)
         ImapMessageToken[] tokens;
-        Vector updatedTokens = new Vector();
         String msg;
     
         msg = "Expunge the last two messages, lower-to-higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(13);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(13);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[2], instance.getMessageToken(12));
@@ -205,10 +206,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the last two messages, higher-to-lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(14, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(14);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(13);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[2], instance.getMessageToken(12));
@@ -218,10 +219,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the first two messages, lower-to-higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 4, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(10);
+        assertEquals(msg, 4, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[2], instance.getMessageToken(10));
         assertEquals(msg, tokens[3], instance.getMessageToken(11));
         assertEquals(msg, tokens[4], instance.getMessageToken(12));
@@ -231,10 +232,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the first two messages, higher-to-lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(11, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(11);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[2], instance.getMessageToken(10));
         assertEquals(msg, tokens[3], instance.getMessageToken(11));
         assertEquals(msg, tokens[4], instance.getMessageToken(12));
@@ -244,10 +245,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the middle two messages, lower-to-higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(12, updatedTokens);
-        assertEquals(msg, 2, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(12, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(12);
+        assertEquals(msg, 2, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(12);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[4], instance.getMessageToken(12));
@@ -257,10 +258,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the middle two messages, higher-to-lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(12, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(13);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(12);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[4], instance.getMessageToken(12));
@@ -270,10 +271,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the outer two messages, lower-to-higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 4, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(10);
+        assertEquals(msg, 4, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(13);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[1], instance.getMessageToken(10));
         assertEquals(msg, tokens[2], instance.getMessageToken(11));
         assertEquals(msg, tokens[3], instance.getMessageToken(12));
@@ -283,10 +284,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge the outer two messages, higher-to-lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(14, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(14);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[1], instance.getMessageToken(10));
         assertEquals(msg, tokens[2], instance.getMessageToken(11));
         assertEquals(msg, tokens[3], instance.getMessageToken(12));
@@ -296,10 +297,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge two split messages, lower-to-higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(11, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(12, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(11);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(12);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[2], instance.getMessageToken(11));
         assertEquals(msg, tokens[4], instance.getMessageToken(12));
@@ -309,10 +310,10 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge two split messages, higher-to-lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(11, updatedTokens);
-        assertEquals(msg, 2, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(13);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(11);
+        assertEquals(msg, 2, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[2], instance.getMessageToken(11));
         assertEquals(msg, tokens[4], instance.getMessageToken(12));
@@ -322,16 +323,16 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge all messages, lower-to-higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 4, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 2, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(10);
+        assertEquals(msg, 4, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 2, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertNull(msg, instance.getMessageToken(10));
         assertNull(msg, instance.getMessageToken(11));
         assertNull(msg, instance.getMessageToken(12));
@@ -341,16 +342,16 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge all messages, higher-to-lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(14, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(13, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(12, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(11, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(14);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(13);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(12);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(11);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        instance.messageExpunged(10);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertNull(msg, instance.getMessageToken(10));
         assertNull(msg, instance.getMessageToken(11));
         assertNull(msg, instance.getMessageToken(12));
@@ -362,14 +363,13 @@ public class MailboxStateTest extends TestCase {
         // These tests all begin with a contiguous block of 5 messages:
         // [10](110), [11](111), [12](112), [13](113), [14](114)
         ImapMessageToken[] tokens;
-        Vector updatedTokens = new Vector();
         String msg;
 
         msg = "Expunge un-fetched message, higher";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(20, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(20);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(10));
         assertEquals(msg, tokens[1], instance.getMessageToken(11));
         assertEquals(msg, tokens[2], instance.getMessageToken(12));
@@ -379,8 +379,8 @@ public class MailboxStateTest extends TestCase {
         msg = "Expunge un-fetched message, lower";
         instance.clear();
         tokens = fetchMessageBlock(10, 5);
-        instance.messageExpunged(5, updatedTokens);
-        assertEquals(msg, 5, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(5);
+        assertEquals(msg, 5, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens[0], instance.getMessageToken(9));
         assertEquals(msg, tokens[1], instance.getMessageToken(10));
         assertEquals(msg, tokens[2], instance.getMessageToken(11));
@@ -393,15 +393,14 @@ public class MailboxStateTest extends TestCase {
         // [10](110), [11](111), [12](112), ..., [20](120), [21](121), [22](122)
         ImapMessageToken[] tokens1;
         ImapMessageToken[] tokens2;
-        Vector updatedTokens = new Vector();
         String msg;
         
         msg = "Expunge the last message";
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(22, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(22);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[0], instance.getMessageToken(10));
         assertEquals(msg, tokens1[1], instance.getMessageToken(11));
         assertEquals(msg, tokens1[2], instance.getMessageToken(12));
@@ -413,8 +412,8 @@ public class MailboxStateTest extends TestCase {
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(10, updatedTokens);
-        assertEquals(msg, 5, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(10);
+        assertEquals(msg, 5, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[1], instance.getMessageToken(10));
         assertEquals(msg, tokens1[2], instance.getMessageToken(11));
         assertEquals(msg, tokens2[0], instance.getMessageToken(19));
@@ -426,8 +425,8 @@ public class MailboxStateTest extends TestCase {
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(11, updatedTokens);
-        assertEquals(msg, 4, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(11);
+        assertEquals(msg, 4, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[0], instance.getMessageToken(10));
         assertEquals(msg, tokens1[2], instance.getMessageToken(11));
         assertEquals(msg, tokens2[0], instance.getMessageToken(19));
@@ -439,8 +438,8 @@ public class MailboxStateTest extends TestCase {
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(21, updatedTokens);
-        assertEquals(msg, 1, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(21);
+        assertEquals(msg, 1, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[0], instance.getMessageToken(10));
         assertEquals(msg, tokens1[1], instance.getMessageToken(11));
         assertEquals(msg, tokens1[2], instance.getMessageToken(12));
@@ -454,15 +453,14 @@ public class MailboxStateTest extends TestCase {
         // [10](110), [11](111), [12](112), ..., [20](120), [21](121), [22](122)
         ImapMessageToken[] tokens1;
         ImapMessageToken[] tokens2;
-        Vector updatedTokens = new Vector();
         String msg;
         
         msg = "Expunge un-fetched message, lower";
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(5, updatedTokens);
-        assertEquals(msg, 6, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(5);
+        assertEquals(msg, 6, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[0], instance.getMessageToken(9));
         assertEquals(msg, tokens1[1], instance.getMessageToken(10));
         assertEquals(msg, tokens1[2], instance.getMessageToken(11));
@@ -474,8 +472,8 @@ public class MailboxStateTest extends TestCase {
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(16, updatedTokens);
-        assertEquals(msg, 3, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(16);
+        assertEquals(msg, 3, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[0], instance.getMessageToken(10));
         assertEquals(msg, tokens1[1], instance.getMessageToken(11));
         assertEquals(msg, tokens1[2], instance.getMessageToken(12));
@@ -487,8 +485,8 @@ public class MailboxStateTest extends TestCase {
         instance.clear();
         tokens1 = fetchMessageBlock(10, 3);
         tokens2 = fetchMessageBlock(20, 3);
-        instance.messageExpunged(30, updatedTokens);
-        assertEquals(msg, 0, updatedTokens.size()); updatedTokens.removeAllElements();
+        instance.messageExpunged(30);
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
         assertEquals(msg, tokens1[0], instance.getMessageToken(10));
         assertEquals(msg, tokens1[1], instance.getMessageToken(11));
         assertEquals(msg, tokens1[2], instance.getMessageToken(12));
@@ -497,6 +495,93 @@ public class MailboxStateTest extends TestCase {
         assertEquals(msg, tokens2[2], instance.getMessageToken(22));
     }
     
+    public void testMessageVanished() throws Throwable {
+        // These tests all begin with a contiguous block of 5 messages:
+        // [10](110), [11](111), [12](112), [13](113), [14](114)
+        ImapMessageToken[] tokens;
+        String msg;
+        
+        msg = "Vanish fetched message";
+        instance.clear();
+        tokens = fetchMessageBlock(10, 5);
+        assertEquals(msg, 12, instance.getMessageIndex(112));
+        assertEquals(msg, tokens[2], instance.messageVanished(112));
+        assertEquals(msg, 2, instance.getShiftedMessageTokens().length);
+        assertEquals(msg, -1, instance.getMessageIndex(112));
+        assertEquals(msg, tokens[1], instance.getMessageToken(11));
+        assertEquals(msg, tokens[3], instance.getMessageToken(12));
+        assertEquals(msg, tokens[4], instance.getMessageToken(13));
+        
+        msg = "Vanish un-fetched message";
+        instance.clear();
+        tokens = fetchMessageBlock(10, 5);
+        assertEquals(msg, -1, instance.getMessageIndex(120));
+        assertNull(msg, instance.messageVanished(120));
+        assertEquals(msg, 0, instance.getShiftedMessageTokens().length);
+        assertNull(msg, instance.getMessageToken(10));
+        assertNull(msg, instance.getMessageToken(14));
+    }
+    
+    public void testShiftedMessageTokens() throws Throwable {
+        // [10](110), [11](111), [12](112), [13](113), [14](114)
+        ImapMessageToken[] tokens = fetchMessageBlock(10, 5);
+        
+        // Shifts from several expunges are reported together
+        assertNull(instance.messageExpunged(5));
+        assertEquals(tokens[1], instance.messageExpunged(10));
+        ImapMessageToken[] shiftedTokens = instance.getShiftedMessageTokens();
+        assertEquals(4, shiftedTokens.length);
+        assertEquals(tokens[0], shiftedTokens[0]);
+        assertEquals(9, shiftedTokens[0].getMessageIndex());
+        assertEquals(tokens[4], shiftedTokens[3]);
+        assertEquals(12, shiftedTokens[3].getMessageIndex());
+        assertEquals(0, instance.getShiftedMessageTokens().length);
+        
+        assertEquals(11, instance.getMessageIndex(113));
+        assertEquals(-1, instance.getMessageIndex(111));
+    }
+    
+    public void testMessageFetchedAfterExpunge() throws Throwable {
+        // [10](110), [11](111), [12](112), [13](113), [14](114)
+        ImapMessageToken[] tokens = fetchMessageBlock(10, 5);
+        instance.messageExpunged(14);
+        instance.messageExpunged(11);
+        
+        // New message following the expunged ones
+        ImapMessageToken newToken = new ImapMessageToken("INBOX", 120);
+        newToken.setMessageIndex(13);
+        instance.messageFetched(newToken);
+        
+        // Older message preceding the expunged ones
+        ImapMessageToken oldToken = new ImapMessageToken("INBOX", 105);
+        oldToken.setMessageIndex(5);
+        instance.messageFetched(oldToken);
+        
+        assertEquals(oldToken, instance.getMessageToken(5));
+        assertEquals(tokens[0], instance.getMessageToken(10));
+        assertEquals(tokens[2], instance.getMessageToken(11));
+        assertEquals(tokens[3], instance.getMessageToken(12));
+        assertEquals(newToken, instance.getMessageToken(13));
+        assertNull(instance.getMessageToken(14));
+        assertEquals(5, instance.getMessageTokens().length);
+    }
+    
+    public void testMessageExpungedLarge() throws Throwable {
+        ImapMessageToken[] tokens = fetchMessageBlock(1, 2000);
+        
+        // Expunge every other message from the top half
+        for(int i=1; i<=500; i++) {
+            assertEquals(tokens[(i - 1) * 2], instance.messageExpunged(i));
+        }
+        assertEquals(1500, instance.getShiftedMessageTokens().length);
+        assertEquals(tokens[1], instance.getMessageToken(1));
+        assertEquals(tokens[999], instance.getMessageToken(500));
+        assertEquals(tokens[1000], instance.getMessageToken(501));
+        assertEquals(tokens[1999], instance.getMessageToken(1500));
+        assertNull(instance.getMessageToken(1501));
+        assertEquals(1500, instance.getMessageIndex(tokens[1999].getImapMessageUid()));
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("MailboxState");
 
@@ -516,6 +601,14 @@ public class MailboxStateTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageExpungedNoncontiguous(); }}));
         suite.addTest(new MailboxStateTest("messageExpungedNoncontiguousUnfetched", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageExpungedNoncontiguousUnfetched(); }}));
+        suite.addTest(new MailboxStateTest("messageVanished", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageVanished(); }}));
+        suite.addTest(new MailboxStateTest("shiftedMessageTokens", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testShiftedMessageTokens(); }}));
+        suite.addTest(new MailboxStateTest("messageFetchedAfterExpunge", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageFetchedAfterExpunge(); }}));
+        suite.addTest(new MailboxStateTest("messageExpungedLarge", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageExpungedLarge(); }}));
         
         return suite;
     }
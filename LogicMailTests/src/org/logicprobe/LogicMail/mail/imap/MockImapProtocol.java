@@ -252,6 +252,34 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         super.executeCopy(arg0, arg1);
     }
 
+    public static final MockMethod MTHD_EXECUTE_ENABLE_$_STRING = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_ENABLE_$_STRING",
+        new Class[]{String.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        Boolean.class,
+        false);
+    public boolean executeEnable(String arg0) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[1];
+            args[0] = arg0;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_ENABLE_$_STRING, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                AMockObject.assertReturnNotNull(MTHD_EXECUTE_ENABLE_$_STRING, retVal);
+                return ((Boolean)retVal).booleanValue();
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeEnable(arg0);
+    }
+
     public static final MockMethod MTHD_EXECUTE_EXPUNGE = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_EXPUNGE",
@@ -278,6 +306,68 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         super.executeExpunge();
     }
 
+    public static final MockMethod MTHD_EXECUTE_FETCH_BINARIES_$_INT_ARRAY_STRING_ARRAY_INT_ARRAY_OUTPUTSTREAM_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_FETCH_BINARIES_$_INT_ARRAY_STRING_ARRAY_INT_ARRAY_OUTPUTSTREAM_MAILPROGRESSHANDLER",
+        new Class[]{Integer.class, java.lang.String[].class, int[].class, java.io.OutputStream[].class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        int[].class,
+        false);
+    public int[] executeFetchBinaries(int arg0, java.lang.String[] arg1, int[] arg2, java.io.OutputStream[] arg3, org.logicprobe.LogicMail.mail.MailProgressHandler arg4) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[5];
+            args[0] = new Integer(arg0);
+            args[1] = arg1;
+            args[2] = arg2;
+            args[3] = arg3;
+            args[4] = arg4;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_FETCH_BINARIES_$_INT_ARRAY_STRING_ARRAY_INT_ARRAY_OUTPUTSTREAM_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (int[])retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeFetchBinaries(arg0, arg1, arg2, arg3, arg4);
+    }
+
+    public static final MockMethod MTHD_EXECUTE_FETCH_BODIES_$_INT_ARRAY_STRING_ARRAY_INT_ARRAY_OUTPUTSTREAM_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_FETCH_BODIES_$_INT_ARRAY_STRING_ARRAY_INT_ARRAY_OUTPUTSTREAM_MAILPROGRESSHANDLER",
+        new Class[]{Integer.class, java.lang.String[].class, int[].class, java.io.OutputStream[].class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        int[].class,
+        false);
+    public int[] executeFetchBodies(int arg0, java.lang.String[] arg1, int[] arg2, java.io.OutputStream[] arg3, org.logicprobe.LogicMail.mail.MailProgressHandler arg4) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[5];
+            args[0] = new Integer(arg0);
+            args[1] = arg1;
+            args[2] = arg2;
+            args[3] = arg3;
+            args[4] = arg4;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_FETCH_BODIES_$_INT_ARRAY_STRING_ARRAY_INT_ARRAY_OUTPUTSTREAM_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (int[])retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeFetchBodies(arg0, arg1, arg2, arg3, arg4);
+    }
+
     public static final MockMethod MTHD_EXECUTE_FETCH_BODYSTRUCTURE_$_INT = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_FETCH_BODYSTRUCTURE_$_INT",
@@ -334,6 +424,37 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeFetchBody(arg0, arg1, arg2);
     }
 
+    public static final MockMethod MTHD_EXECUTE_FETCH_BODY_$_INT_STRING_OUTPUTSTREAM_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_FETCH_BODY_$_INT_STRING_OUTPUTSTREAM_MAILPROGRESSHANDLER",
+        new Class[]{Integer.class, java.lang.String.class, java.io.OutputStream.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        Integer.class,
+        false);
+    public int executeFetchBody(int arg0, java.lang.String arg1, java.io.OutputStream arg2, org.logicprobe.LogicMail.mail.MailProgressHandler arg3) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[4];
+            args[0] = new Integer(arg0);
+            args[1] = arg1;
+            args[2] = arg2;
+            args[3] = arg3;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_FETCH_BODY_$_INT_STRING_OUTPUTSTREAM_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                AMockObject.assertReturnNotNull(MTHD_EXECUTE_FETCH_BODY_$_INT_STRING_OUTPUTSTREAM_MAILPROGRESSHANDLER, retVal);
+                return ((Integer)retVal).intValue();
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeFetchBody(arg0, arg1, arg2, arg3);
+    }
+
     public static final MockMethod MTHD_EXECUTE_FETCH_ENVELOPE_$_ARRAY_INT_IMAPPROTOCOL$FETCHENVELOPECALLBACK_MAILPROGRESSHANDLER = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_FETCH_ENVELOPE_$_ARRAY_INT_IMAPPROTOCOL$FETCHENVELOPECALLBACK_MAILPROGRESSHANDLER",
@@ -480,6 +601,34 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeFetchFlags(arg0, arg1, arg2);
     }
 
+    public static final MockMethod MTHD_EXECUTE_FETCH_FLAGS_CHANGED_SINCE_$_LONG_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_FETCH_FLAGS_CHANGED_SINCE_$_LONG_MAILPROGRESSHANDLER",
+        new Class[]{Long.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        org.logicprobe.LogicMail.mail.imap.ImapProtocol.FetchChangesResponse.class,
+        false);
+    public org.logicprobe.LogicMail.mail.imap.ImapProtocol.FetchChangesResponse executeFetchFlagsChangedSince(long arg0, org.logicprobe.LogicMail.mail.MailProgressHandler arg1) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[2];
+            args[0] = new Long(arg0);
+            args[1] = arg1;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_FETCH_FLAGS_CHANGED_SINCE_$_LONG_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (org.logicprobe.LogicMail.mail.imap.ImapProtocol.FetchChangesResponse)retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeFetchFlagsChangedSince(arg0, arg1);
+    }
+
     public static final MockMethod MTHD_EXECUTE_FETCH_FLAGS_UID_$_ARRAY_INT_MAILPROGRESSHANDLER = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_FETCH_FLAGS_UID_$_ARRAY_INT_MAILPROGRESSHANDLER",
@@ -618,6 +767,36 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeList(arg0, arg1, arg2);
     }
 
+    public static final MockMethod MTHD_EXECUTE_LIST_EXTENDED_$_STRING_STRING_BOOLEAN_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_LIST_EXTENDED_$_STRING_STRING_BOOLEAN_MAILPROGRESSHANDLER",
+        new Class[]{java.lang.String.class, java.lang.String.class, Boolean.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        java.util.Vector.class,
+        false);
+    public java.util.Vector executeListExtended(java.lang.String arg0, java.lang.String arg1, boolean arg2, org.logicprobe.LogicMail.mail.MailProgressHandler arg3) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[4];
+            args[0] = arg0;
+            args[1] = arg1;
+            args[2] = new Boolean(arg2);
+            args[3] = arg3;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_LIST_EXTENDED_$_STRING_STRING_BOOLEAN_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (java.util.Vector)retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeListExtended(arg0, arg1, arg2, arg3);
+    }
+
     public static final MockMethod MTHD_EXECUTE_LOGIN_$_STRING_STRING = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_LOGIN_$_STRING_STRING",
@@ -647,6 +826,35 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeLogin(arg0, arg1);
     }
 
+    public static final MockMethod MTHD_EXECUTE_LOGIN_SELECT_$_STRING_STRING_STRING = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_LOGIN_SELECT_$_STRING_STRING_STRING",
+        new Class[]{java.lang.String.class, java.lang.String.class, java.lang.String.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        org.logicprobe.LogicMail.mail.imap.ImapProtocol.SelectResponse.class,
+        false);
+    public org.logicprobe.LogicMail.mail.imap.ImapProtocol.SelectResponse executeLoginSelect(java.lang.String arg0, java.lang.String arg1, java.lang.String arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[3];
+            args[0] = arg0;
+            args[1] = arg1;
+            args[2] = arg2;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_LOGIN_SELECT_$_STRING_STRING_STRING, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (org.logicprobe.LogicMail.mail.imap.ImapProtocol.SelectResponse)retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeLoginSelect(arg0, arg1, arg2);
+    }
+
     public static final MockMethod MTHD_EXECUTE_LOGOUT = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_LOGOUT",
@@ -754,6 +962,34 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         super.executeNoop();
     }
 
+    public static final MockMethod MTHD_EXECUTE_NOTIFY_$_STRING = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_NOTIFY_$_STRING",
+        new Class[]{String.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        Boolean.class,
+        false);
+    public boolean executeNotify(String arg0) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[1];
+            args[0] = arg0;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_NOTIFY_$_STRING, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                AMockObject.assertReturnNotNull(MTHD_EXECUTE_NOTIFY_$_STRING, retVal);
+                return ((Boolean)retVal).booleanValue();
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeNotify(arg0);
+    }
+
     public static final MockMethod MTHD_EXECUTE_NO_REPLY_$_STRING_STRING = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_NO_REPLY_$_STRING_STRING",
@@ -782,6 +1018,34 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeNoReply(arg0, arg1);
     }
 
+    public static final MockMethod MTHD_EXECUTE_PIPELINE_$_ARRAY_IMAPPROTOCOL$PIPELINEDCOMMAND_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_PIPELINE_$_ARRAY_IMAPPROTOCOL$PIPELINEDCOMMAND_MAILPROGRESSHANDLER",
+        new Class[]{org.logicprobe.LogicMail.mail.imap.ImapProtocol.PipelinedCommand[].class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        null,
+        false);
+    public void executePipeline(org.logicprobe.LogicMail.mail.imap.ImapProtocol.PipelinedCommand[] arg0, org.logicprobe.LogicMail.mail.MailProgressHandler arg1) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[2];
+            args[0] = arg0;
+            args[1] = arg1;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_PIPELINE_$_ARRAY_IMAPPROTOCOL$PIPELINEDCOMMAND_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                mi.getReturnValue();
+                return;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        super.executePipeline(arg0, arg1);
+    }
+
     public static final MockMethod MTHD_EXECUTE_RESPONSE_$_STRING_STRING_IMAPPROTOCOL$EXECUTECALLBACK_MAILPROGRESSHANDLER = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_RESPONSE_$_STRING_STRING_IMAPPROTOCOL$EXECUTECALLBACK_MAILPROGRESSHANDLER",
@@ -841,6 +1105,34 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeResponse(arg0, arg1, arg2);
     }
 
+    public static final MockMethod MTHD_EXECUTE_SEARCH_UID_$_STRING_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_SEARCH_UID_$_STRING_MAILPROGRESSHANDLER",
+        new Class[]{java.lang.String.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        org.logicprobe.LogicMail.mail.imap.ImapProtocol.SearchResponse.class,
+        false);
+    public org.logicprobe.LogicMail.mail.imap.ImapProtocol.SearchResponse executeSearchUid(java.lang.String arg0, org.logicprobe.LogicMail.mail.MailProgressHandler arg1) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[2];
+            args[0] = arg0;
+            args[1] = arg1;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_SEARCH_UID_$_STRING_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (org.logicprobe.LogicMail.mail.imap.ImapProtocol.SearchResponse)retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeSearchUid(arg0, arg1);
+    }
+
     public static final MockMethod MTHD_EXECUTE_SELECT_$_STRING = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_SELECT_$_STRING",
@@ -868,6 +1160,35 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeSelect(arg0);
     }
 
+    public static final MockMethod MTHD_EXECUTE_SORT_UID_$_STRING_STRING_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_SORT_UID_$_STRING_STRING_MAILPROGRESSHANDLER",
+        new Class[]{java.lang.String.class, java.lang.String.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        int[].class,
+        false);
+    public int[] executeSortUid(java.lang.String arg0, java.lang.String arg1, org.logicprobe.LogicMail.mail.MailProgressHandler arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[3];
+            args[0] = arg0;
+            args[1] = arg1;
+            args[2] = arg2;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_SORT_UID_$_STRING_STRING_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (int[])retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeSortUid(arg0, arg1, arg2);
+    }
+
     public static final MockMethod MTHD_EXECUTE_START_TLS = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_START_TLS",
@@ -980,6 +1301,35 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         super.executeStore(arg0, arg1, arg2);
     }
 
+    public static final MockMethod MTHD_EXECUTE_THREAD_UID_$_STRING_STRING_MAILPROGRESSHANDLER = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_THREAD_UID_$_STRING_STRING_MAILPROGRESSHANDLER",
+        new Class[]{java.lang.String.class, java.lang.String.class, org.logicprobe.LogicMail.mail.MailProgressHandler.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        org.logicprobe.LogicMail.mail.imap.ImapProtocol.ThreadResponse.class,
+        false);
+    public org.logicprobe.LogicMail.mail.imap.ImapProtocol.ThreadResponse executeThreadUid(java.lang.String arg0, java.lang.String arg1, org.logicprobe.LogicMail.mail.MailProgressHandler arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[3];
+            args[0] = arg0;
+            args[1] = arg1;
+            args[2] = arg2;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_THREAD_UID_$_STRING_STRING_MAILPROGRESSHANDLER, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (org.logicprobe.LogicMail.mail.imap.ImapProtocol.ThreadResponse)retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        return super.executeThreadUid(arg0, arg1, arg2);
+    }
+
     public static final MockMethod MTHD_EXECUTE_UNTAGGED_$_STRING_STRING_STRING = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_UNTAGGED_$_STRING_STRING_STRING",
@@ -1036,6 +1386,30 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.getFetchIncrement(arg0, arg1);
     }
 
+    public static final MockMethod MTHD_GET_LOGIN_CAPABILITIES = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_GET_LOGIN_CAPABILITIES",
+        new Class[]{},
+        new Class[]{},
+        java.util.Hashtable.class,
+        false);
+    public java.util.Hashtable getLoginCapabilities()  {
+        try {
+            Object[] args = new Object[0];
+            MethodInvocation mi = new MethodInvocation(MTHD_GET_LOGIN_CAPABILITIES, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                Object retVal = mi.getReturnValue();
+                return (java.util.Hashtable)retVal;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            throw new HammockException(t);
+        }
+        return super.getLoginCapabilities();
+    }
+
     public static final MockMethod MTHD_RECEIVE = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_RECEIVE",
@@ -31,10 +31,15 @@
 package org.logicprobe.LogicMail.mail.pop;
 
 import java.util.Hashtable;
+import java.util.Vector;
+
+import net.rim.device.api.util.IntIntHashtable;
 
 import org.logicprobe.LogicMail.conf.ConnectionConfig;
 import org.logicprobe.LogicMail.mail.MailException;
+import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.MockConnection;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
 import com.hammingweight.hammock.Hammock;
 import com.hammingweight.hammock.mocks.microedition.io.MockSocketConnection;
@@ -173,6 +178,152 @@ public class PopProtocolTest extends TestCase {
         assertFollowsEquals(expected, response);
     }
 
+    public void testExecuteList() throws Throwable {
+        expectCommand("LIST");
+        expectResponse(new String[] {
+                "+OK 3 messages (4500 octets)",
+                "1 1200",
+                "2 300",
+                "4 3000",
+                "."
+        });
+        
+        IntIntHashtable result = instance.executeList(null);
+        assertEquals(3, result.size());
+        assertEquals(1200, result.get(1));
+        assertEquals(300, result.get(2));
+        assertEquals(3000, result.get(4));
+        assertTrue(!result.containsKey(3));
+    }
+    
+    public void testExecuteUidl() throws Throwable {
+        expectCommand("UIDL");
+        expectResponse(new String[] {
+                "+OK",
+                "1 whqtswO00WBw418f9t5JxYwZ",
+                "2 QhdPYR:00WBw1Ph7x7",
+                "4 ZxPq00WBw3Sf8",
+                "."
+        });
+        
+        String[] result = instance.executeUidl(null);
+        assertEquals(4, result.length);
+        assertEquals("whqtswO00WBw418f9t5JxYwZ", result[0]);
+        assertEquals("QhdPYR:00WBw1Ph7x7", result[1]);
+        assertNull(result[2]);
+        assertEquals("ZxPq00WBw3Sf8", result[3]);
+    }
+    
+    public void testExecuteTopPipelined() throws Throwable {
+        // More messages than can be outstanding at once, so the remaining
+        // commands are sent as earlier responses arrive
+        int count = 12;
+        int[] indices = new int[count];
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<count; i++) {
+            indices[i] = i + 1;
+            if(i == 3) {
+                buf.append("-ERR No such message\r\n");
+                continue;
+            }
+            buf.append("+OK\r\n");
+            buf.append("Subject: Message " + (i + 1) + "\r\n");
+            buf.append("..Dotted\r\n");
+            buf.append("\r\n");
+            buf.append(".\r\n");
+        }
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        instance.setConnection(new Connection(socket, 0));
+        
+        final Vector responses = new Vector();
+        try {
+            instance.executeTop(indices, 0, new PopProtocol.TopCallback() {
+                public void responseAvailable(int index, byte[][] lines) {
+                    responses.addElement(new Integer(index));
+                    responses.addElement(lines);
+                }
+            }, null);
+            fail("Expected exception");
+        } catch (MailException e) {
+            assertEquals("-ERR No such message", e.getMessage());
+        }
+        
+        assertEquals((count - 1) * 2, responses.size());
+        for(int i=0; i<responses.size(); i+=2) {
+            int index = ((Integer)responses.elementAt(i)).intValue();
+            byte[][] lines = (byte[][])responses.elementAt(i + 1);
+            assertTrue(index != 4);
+            assertEquals(3, lines.length);
+            assertEquals("Subject: Message " + index, new String(lines[0]));
+            assertEquals(".Dotted", new String(lines[1]));
+            assertEquals("", new String(lines[2]));
+        }
+        
+        String sent = new String(socket.getSentBytes());
+        assertTrue(sent.startsWith("TOP 1 0\r\nTOP 2 0\r\n"));
+        assertTrue(sent.endsWith("TOP 11 0\r\nTOP 12 0\r\n"));
+    }
+    
+    public void testExecuteTopPipelinedCallbackFailure() throws Throwable {
+        int count = 6;
+        int[] indices = new int[count];
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<count; i++) {
+            indices[i] = i + 1;
+            buf.append("+OK\r\n");
+            buf.append("Subject: Message " + (i + 1) + "\r\n");
+            buf.append(".\r\n");
+        }
+        buf.append("+OK\r\n");
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        Connection connection = new Connection(socket, 0);
+        instance.setConnection(connection);
+        
+        final Vector responses = new Vector();
+        try {
+            instance.executeTop(indices, 0, new PopProtocol.TopCallback() {
+                public void responseAvailable(int index, byte[][] lines) {
+                    responses.addElement(new Integer(index));
+                    if(index == 2) {
+                        throw new IllegalStateException("Callback failed");
+                    }
+                }
+            }, null);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("Callback failed", e.getMessage());
+        }
+        
+        // No further responses are passed on after the failure, but all of
+        // them are still consumed from the connection
+        assertEquals(2, responses.size());
+        assertEquals("+OK", new String(connection.receive()));
+    }
+    
+    public void testExecuteRetrStreaming() throws Throwable {
+        expectCommand("RETR 1");
+        String[] expected = new String[] {
+                "+OK Message follows",
+                "Subject: Test Message",
+                "",
+                "..Dotted line",
+                "."
+        };
+        expectResponse(expected);
+        
+        final Vector lines = new Vector();
+        instance.executeRetr(1, new PopProtocol.LineCallback() {
+            public void lineAvailable(byte[] line) {
+                lines.addElement(new String(line));
+            }
+        }, null);
+        
+        assertEquals(3, lines.size());
+        assertEquals("Subject: Test Message", lines.elementAt(0));
+        assertEquals("", lines.elementAt(1));
+        assertEquals(".Dotted line", lines.elementAt(2));
+    }
+    
     private static String[] copyArray(String[] input) {
         if(input == null || input.length == 0) { return input; }
         
@@ -223,6 +374,16 @@ public class PopProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteRetr(); }}));
         suite.addTest(new PopProtocolTest("executeRetrEscapedDots", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteRetrEscapedDots(); }}));
+        suite.addTest(new PopProtocolTest("executeRetrStreaming", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteRetrStreaming(); }}));
+        suite.addTest(new PopProtocolTest("executeList", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteList(); }}));
+        suite.addTest(new PopProtocolTest("executeUidl", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteUidl(); }}));
+        suite.addTest(new PopProtocolTest("executeTopPipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteTopPipelined(); }}));
+        suite.addTest(new PopProtocolTest("executeTopPipelinedCallbackFailure", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteTopPipelinedCallbackFailure(); }}));
         
         return suite;
     }
@@ -30,13 +30,19 @@
  */
 package org.logicprobe.LogicMail.mail.smtp;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Hashtable;
 
 import net.rim.device.api.util.Arrays;
 
 import org.logicprobe.LogicMail.conf.ConnectionConfig;
+import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.DotStuffingOutputStream;
 import org.logicprobe.LogicMail.util.MockConnection;
+import org.logicprobe.LogicMail.util.StringArrays;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
 import com.hammingweight.hammock.Hammock;
 import com.hammingweight.hammock.IArgumentMatcher;
@@ -108,9 +114,8 @@ public class SmtpProtocolTest extends TestCase {
                 "This is the message content\r\n",
         };
         expectRawSmtpData(rawMessage);
-        expectCommand("\r\n.");
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
-        boolean result = instance.executeData(toByteArray(rawMessage));
+        boolean result = instance.executeData(new ByteArrayInputStream(toByteArray(rawMessage)));
         
         assertTrue(result);
     }
@@ -118,9 +123,9 @@ public class SmtpProtocolTest extends TestCase {
     public void testExecuteDataEmpty() throws Throwable {
         expectCommand("DATA");
         expectResponse("354 Enter mail, end with \".\" on a line by itself");
-        expectCommand("\r\n.");
+        expectRawSmtpData(new String[0]);
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
-        boolean result = instance.executeData(new byte[0]);
+        boolean result = instance.executeData(new ByteArrayInputStream(new byte[0]));
         
         assertTrue(result);
     }
@@ -132,9 +137,8 @@ public class SmtpProtocolTest extends TestCase {
                 "\r\n"
         };
         expectRawSmtpData(rawMessage);
-        expectCommand("\r\n.");
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
-        boolean result = instance.executeData(toByteArray(rawMessage));
+        boolean result = instance.executeData(new ByteArrayInputStream(toByteArray(rawMessage)));
         
         assertTrue(result);
     }
@@ -159,9 +163,161 @@ public class SmtpProtocolTest extends TestCase {
         expectedData[8] = "." + expectedData[8];
         expectedData[9] = "." + expectedData[9];
         expectRawSmtpData(expectedData);
-        expectCommand("\r\n.");
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
-        boolean result = instance.executeData(toByteArray(rawMessage));
+        boolean result = instance.executeData(new ByteArrayInputStream(toByteArray(rawMessage)));
+        
+        assertTrue(result);
+    }
+    
+    public void testExecuteDataNoTrailingLineBreak() throws Throwable {
+        expectCommand("DATA");
+        expectResponse("354 Enter mail, end with \".\" on a line by itself");
+        String[] rawMessage = new String[] {
+                "Subject: Test Message\r\n",
+                "\r\n",
+                ".This is the message content"
+        };
+        expectRawSmtpData(new String[] {
+                "Subject: Test Message\r\n",
+                "\r\n",
+                "..This is the message content\r\n"
+        });
+        expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
+        boolean result = instance.executeData(new ByteArrayInputStream(toByteArray(rawMessage)));
+        
+        assertTrue(result);
+    }
+    
+    public void testExecuteDataThroughput() throws Throwable {
+        // A 5MB message of base64-encoded attachment lines
+        byte[] message = createLargeMessage(5 * 1024 * 1024);
+        
+        // Previous approach, with a separate send for each line
+        StubSocketConnection socket = new StubSocketConnection();
+        Connection connection = new Connection(socket, 0);
+        int offset = 0;
+        while(offset < message.length) {
+            int p = StringArrays.indexOf(message, (byte)'\n', offset);
+            int len = (p != -1) ? (p + 1) - offset : message.length - offset;
+            if(message[offset] == (byte)'.') {
+                byte[] escapedLine = new byte[len + 1];
+                escapedLine[0] = (byte)'.';
+                System.arraycopy(message, offset, escapedLine, 1, len);
+                connection.sendRaw(escapedLine, 0, escapedLine.length);
+            }
+            else {
+                connection.sendRaw(message, offset, len);
+            }
+            offset += len;
+        }
+        // End with the same marker as the buffered approach, so the sent
+        // data can be compared
+        connection.sendCommand(".");
+        int lineWrites = socket.getWriteCount();
+        int lineFlushes = socket.getFlushCount();
+        byte[] lineData = socket.getSentBytes();
+        
+        // Current approach, through the dot-stuffing buffer
+        socket = new StubSocketConnection("250 2.0.0 Message accepted for delivery\r\n".getBytes());
+        connection = new Connection(socket, 0);
+        instance.setConnection(connection);
+        boolean result = instance.executeDataContent(new ByteArrayInputStream(message));
+        int streamWrites = socket.getWriteCount();
+        int streamFlushes = socket.getFlushCount();
+        
+        assertTrue(result);
+        assertTrue(Arrays.equals(lineData, socket.getSentBytes()));
+        assertTrue(streamWrites <= (lineData.length / DotStuffingOutputStream.DEFAULT_BUFFER_SIZE) + 1);
+        assertTrue(streamWrites < lineWrites);
+        assertTrue(streamFlushes <= lineFlushes);
+    }
+    
+    private static byte[] createLargeMessage(int size) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(size + 80);
+        byte[] header = "Subject: Large Message\r\n\r\n".getBytes();
+        stream.write(header, 0, header.length);
+        byte[] line = new byte[78];
+        int count = 0;
+        while(stream.size() < size) {
+            for(int i=0; i<76; i++) {
+                line[i] = (byte)('A' + ((count + i) % 26));
+            }
+            // Occasionally start a line with a period, to be stuffed
+            if(count % 100 == 0) { line[0] = (byte)'.'; }
+            line[76] = (byte)'\r';
+            line[77] = (byte)'\n';
+            stream.write(line, 0, line.length);
+            count++;
+        }
+        return stream.toByteArray();
+    }
+    
+    public void testExecuteExtendedHello() throws Throwable {
+        expectCommand("EHLO client.test.org");
+        expectResponse("250-mail.test.net Hello client.test.org");
+        expectResponse("250-SIZE 35882577");
+        expectResponse("250-PIPELINING");
+        expectResponse("250-CHUNKING");
+        expectResponse("250 STARTTLS");
+        
+        Hashtable result = instance.executeExtendedHello("client.test.org");
+        assertTrue(result.containsKey("SIZE 35882577"));
+        assertTrue(result.containsKey("PIPELINING"));
+        assertTrue(result.containsKey("CHUNKING"));
+        assertTrue(result.containsKey("STARTTLS"));
+    }
+    
+    public void testExecutePipelinedEnvelope() throws Throwable {
+        expectRaw("MAIL FROM:<foobar@test.org>\r\n"
+                + "RCPT TO:<barfoo@test.net>\r\n"
+                + "RCPT TO:<bazfoo@test.net>\r\n"
+                + "DATA\r\n");
+        expectResponse("250 2.1.0 Sender ok");
+        expectResponse("250 2.1.5 Recipient ok");
+        expectResponse("250-2.1.5 Recipient ok,");
+        expectResponse("250 2.1.5 with a multi-line reply");
+        expectResponse("354 Enter mail, end with \".\" on a line by itself");
+        
+        boolean[] result = instance.executePipelinedEnvelope(
+                "foobar@test.org", new String[] { "barfoo@test.net", "bazfoo@test.net" }, true);
+        
+        assertEquals(4, result.length);
+        for(int i=0; i<result.length; i++) {
+            assertTrue(result[i]);
+        }
+    }
+    
+    public void testExecutePipelinedEnvelopeRejected() throws Throwable {
+        expectRaw("MAIL FROM:<foobar@test.org>\r\n"
+                + "RCPT TO:<barfoo@test.net>\r\n"
+                + "RCPT TO:<nobody@test.net>\r\n");
+        expectResponse("250 2.1.0 Sender ok");
+        expectResponse("250 2.1.5 Recipient ok");
+        expectResponse("550 5.1.1 User unknown");
+        
+        boolean[] result = instance.executePipelinedEnvelope(
+                "foobar@test.org", new String[] { "barfoo@test.net", "nobody@test.net" }, false);
+        
+        assertEquals(3, result.length);
+        assertTrue(result[0]);
+        assertTrue(result[1]);
+        assertTrue(!result[2]);
+    }
+    
+    public void testExecuteBinaryData() throws Throwable {
+        String[] rawMessage = new String[] {
+                "Subject: Test Message\r\n",
+                "\r\n",
+                ".\r\n"
+        };
+        byte[] data = toByteArray(rawMessage);
+        expectRaw("BDAT " + data.length + " LAST\r\n");
+        hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
+                new Object[] { data, new Integer(0), new Integer(data.length) })
+                .setArgumentMatcher(0, new ArrayOffsetArgumentMatcher(0, data.length));
+        expectResponse("250 2.0.0 Message accepted for delivery");
+        
+        boolean result = instance.executeBinaryData(new ByteArrayInputStream(data), data.length);
         
         assertTrue(result);
     }
@@ -176,22 +332,24 @@ public class SmtpProtocolTest extends TestCase {
             .setReturnValue(response.getBytes());
     }
     
-    private void expectRawSmtpData(String[] data) {
-        int offset = 0;
-        for(int i=0; i<data.length; i++) {
-            byte[] line = data[i].getBytes();
-            if(line[0] == (byte)'.') {
-                hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
-                        new Object[] { line, new Integer(0), new Integer(line.length) } );
-                offset += line.length - 1;
-            }
-            else {
-                hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
-                        new Object[] { line, new Integer(offset), new Integer(line.length) } )
-                        .setArgumentMatcher(0, new ArrayOffsetArgumentMatcher(offset, line.length));
-                offset += line.length;
-            }
-        }
+    private void expectRaw(String data) {
+        byte[] bytes = data.getBytes();
+        hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
+                new Object[] { bytes, new Integer(0), new Integer(bytes.length) });
+    }
+    
+    /**
+     * Expects the already dot-stuffed message data, followed by the end of
+     * data marker, to be sent as a single buffer.
+     */
+    private void expectRawSmtpData(String[] data) throws IOException {
+        String[] expectedData = new String[data.length + 1];
+        System.arraycopy(data, 0, expectedData, 0, data.length);
+        expectedData[data.length] = ".\r\n";
+        byte[] buffer = toByteArray(expectedData);
+        hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
+                new Object[] { buffer, new Integer(0), new Integer(buffer.length) } )
+                .setArgumentMatcher(0, new ArrayOffsetArgumentMatcher(0, buffer.length));
     }
 
     private static class ArrayOffsetArgumentMatcher implements IArgumentMatcher {
@@ -239,6 +397,18 @@ public class SmtpProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataAlmostEmpty(); }}));
         suite.addTest(new SmtpProtocolTest("executeDataWithDots", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataWithDots(); }}));
+        suite.addTest(new SmtpProtocolTest("executeDataNoTrailingLineBreak", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataNoTrailingLineBreak(); }}));
+        suite.addTest(new SmtpProtocolTest("executeDataThroughput", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataThroughput(); }}));
+        suite.addTest(new SmtpProtocolTest("executeExtendedHello", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteExtendedHello(); }}));
+        suite.addTest(new SmtpProtocolTest("executePipelinedEnvelope", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecutePipelinedEnvelope(); }}));
+        suite.addTest(new SmtpProtocolTest("executePipelinedEnvelopeRejected", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecutePipelinedEnvelopeRejected(); }}));
+        suite.addTest(new SmtpProtocolTest("executeBinaryData", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteBinaryData(); }}));
         
         return suite;
     }
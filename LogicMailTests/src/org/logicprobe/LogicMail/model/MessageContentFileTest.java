@@ -122,6 +122,36 @@ public class MessageContentFileTest extends TestCase {
         reader.close();
     }
     
+    public void testUpdateHeaderValues() throws Throwable {
+        TextPart textPart = new TextPart("plain", "", "", "", "", "", -1, "1");
+        TextContent textContent = new TextContent(textPart, "Hello World");
+        
+        MessageContentFileWriter writer = new MessageContentFileWriter(fileConnection, "12340000");
+        writer.setCustomValues(new int[] { 10, 20, 30, 40 });
+        writer.open();
+        writer.appendContent(textContent);
+        writer.close();
+        
+        writer.open();
+        writer.updateCustomValues(new int[] { 50, 60, 70, 80 });
+        writer.close();
+        
+        MessageContentFileReader reader = new MessageContentFileReader(fileConnection, "12340000");
+        reader.open();
+        assertTrue(reader.isOpen());
+        int[] customValues = reader.getCustomValues();
+        assertNotNull(customValues);
+        assertEquals(50, customValues[0]);
+        assertEquals(60, customValues[1]);
+        assertEquals(70, customValues[2]);
+        assertEquals(80, customValues[3]);
+        assertTrue(reader.hasContent(textPart));
+        MimeMessageContent readContent = reader.getContent(textPart);
+        assertNotNull(readContent);
+        assertEquals(textContent.getText(), ((TextContent)readContent).getText());
+        reader.close();
+    }
+    
     public void testAddContentToNewFile() throws Throwable {
         TextPart part = new TextPart("plain", "", "", "", "", "", -1, "1");
         TextContent content = new TextContent(part, "Hello World");
@@ -179,6 +209,29 @@ public class MessageContentFileTest extends TestCase {
         reader.close();
     }
     
+    public void testHasCompleteContent() throws Throwable {
+        TextPart textPart = new TextPart("plain", "", "", "", "", "", -1, "1");
+        TextContent textContent = new TextContent(textPart, "Hello World");
+        ApplicationPart appPart = new ApplicationPart("octet-stream", "", "", "", "", -1, "2");
+        ApplicationContent appContent = new ApplicationContent(appPart, new byte[] { (byte)0xDE, (byte)0xAD, (byte)0xBE, (byte)0xEF } );
+        appContent.setPartComplete(MimeMessageContent.PART_INCOMPLETE);
+        ApplicationPart missingPart = new ApplicationPart("octet-stream", "", "", "", "", -1, "3");
+        
+        MessageContentFileWriter writer = new MessageContentFileWriter(fileConnection, "12340000");
+        writer.open();
+        writer.appendContent(textContent);
+        writer.appendContent(appContent);
+        writer.close();
+
+        MessageContentFileReader reader = new MessageContentFileReader(fileConnection, "12340000");
+        reader.open();
+        assertTrue(reader.hasCompleteContent(textPart));
+        assertTrue(reader.hasContent(appPart));
+        assertTrue(!reader.hasCompleteContent(appPart));
+        assertTrue(!reader.hasCompleteContent(missingPart));
+        reader.close();
+    }
+    
     public void testAddContentToExistingFile() throws Throwable {
         TextPart textPart = new TextPart("plain", "", "", "", "", "", -1, "1");
         TextContent textContent = new TextContent(textPart, "Hello World");
@@ -229,10 +282,14 @@ public class MessageContentFileTest extends TestCase {
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testOpenExistingFile(); } }));
         suite.addTest(new MessageContentFileTest("openNewFileWithHeaderValues", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testOpenNewFileWithHeaderValues(); } }));
+        suite.addTest(new MessageContentFileTest("updateHeaderValues", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testUpdateHeaderValues(); } }));
         suite.addTest(new MessageContentFileTest("addContentToNewFile", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testAddContentToNewFile(); } }));
         suite.addTest(new MessageContentFileTest("addMultipleContentToNewFile", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testAddMultipleContentToNewFile(); } }));
+        suite.addTest(new MessageContentFileTest("hasCompleteContent", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testHasCompleteContent(); } }));
         suite.addTest(new MessageContentFileTest("addContentToExistingFile", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testAddContentToExistingFile(); } }));
         
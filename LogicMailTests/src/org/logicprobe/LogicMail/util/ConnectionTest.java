@@ -30,6 +30,10 @@
  */
 package org.logicprobe.LogicMail.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import net.rim.device.api.compress.ZLibOutputStream;
 import net.rim.device.api.util.Arrays;
 
 import j2meunit.framework.Test;
@@ -170,9 +174,9 @@ public class ConnectionTest extends TestCase {
     
     public void testReceiveCustomDelimiter() throws Throwable {
         ConnectionResponseTester responseTester = new ConnectionResponseTester() {
-            public int checkForCompleteResponse(byte[] buf, int len) {
-                int delimiterIndex = Arrays.getIndex(buf, (byte)'.');
-                if(delimiterIndex != -1) { delimiterIndex++; }
+            public int checkForCompleteResponse(byte[] buf, int offset, int length) {
+                int delimiterIndex = StringArrays.indexOf(buf, (byte)'.', offset, offset + length);
+                if(delimiterIndex != -1) { delimiterIndex = delimiterIndex - offset + 1; }
                 return delimiterIndex;
             }
             public int trimCount() {
@@ -196,6 +200,221 @@ public class ConnectionTest extends TestCase {
         connection.close();
     }
     
+    public void testReceiveLinesAcrossBufferGrowth() throws Throwable {
+        // Build input with lines long enough to force the receive buffer to
+        // both compact and grow while unconsumed data remains
+        StringBuffer buf = new StringBuffer();
+        String[] lines = new String[200];
+        for(int i=0; i<lines.length; i++) {
+            StringBuffer line = new StringBuffer();
+            line.append(i);
+            line.append(' ');
+            for(int j=0; j<(i * 37) % 3000; j++) {
+                line.append((char)('a' + (j % 26)));
+            }
+            lines[i] = line.toString();
+            buf.append(lines[i]);
+            buf.append("\r\n");
+        }
+        
+        Connection connection = new Connection(new StubSocketConnection(buf.toString().getBytes()), 0);
+        for(int i=0; i<lines.length; i++) {
+            byte[] actual = connection.receive();
+            assertTrue("Line " + i, Arrays.equals(lines[i].getBytes(), actual));
+        }
+        assertEquals("Bytes received", buf.length(), connection.getBytesReceived());
+        connection.close();
+    }
+    
+    public void testReceiveFetchThroughput() throws Throwable {
+        final int lineCount = 20000;
+        byte[] data = createFetchTranscript(lineCount);
+        
+        ConnectionResponseTester responseTester =
+            new org.logicprobe.LogicMail.mail.imap.ImapResponseLineTester();
+        Connection connection = new Connection(new StubSocketConnection(data), 0);
+        
+        int count = 0;
+        byte[] line;
+        do {
+            line = connection.receive(responseTester);
+            count++;
+        } while(line.length > 0 && line[0] == '*');
+        
+        assertEquals("Line count", lineCount + 1, count);
+        assertTrue("Tagged line", new String(line).startsWith("a001 OK"));
+        assertEquals("Bytes received", data.length, connection.getBytesReceived());
+        connection.close();
+    }
+    
+    public void testReceiveCompressedFetchThroughput() throws Throwable {
+        final int lineCount = 20000;
+        byte[] data = createFetchTranscript(lineCount);
+        byte[] compressedData = deflate(data);
+        
+        ConnectionResponseTester responseTester =
+            new org.logicprobe.LogicMail.mail.imap.ImapResponseLineTester();
+        Connection connection = new Connection(new StubSocketConnection(compressedData, false), 0);
+        connection.enableCompression(new DeflateCompressionStage(CompressionStage.FLUSH_ON_RECEIVE));
+        
+        int count = 0;
+        byte[] line;
+        do {
+            line = connection.receive(responseTester);
+            count++;
+        } while(line.length > 0 && line[0] == '*');
+        
+        assertEquals("Line count", lineCount + 1, count);
+        assertTrue("Tagged line", new String(line).startsWith("a001 OK"));
+        assertEquals("Bytes received", data.length, connection.getBytesReceived());
+        assertEquals("Wire bytes received", compressedData.length, connection.getWireBytesReceived());
+        assertTrue("Compression ratio", connection.getCompressionRatio() > 100);
+        assertTrue("Inflate time", connection.getInflateTime() >= 0);
+        connection.close();
+    }
+    
+    public void testCompressionCounters() throws Throwable {
+        byte[] response = "a001 OK NOOP completed\r\n".getBytes();
+        byte[] compressedResponse = deflate(response);
+        
+        StubSocketConnection socket = new StubSocketConnection(compressedResponse, false);
+        Connection connection = new Connection(socket, 0);
+        assertEquals("Ratio before compression", 100, connection.getCompressionRatio());
+        
+        connection.sendCommand("a000 COMPRESS DEFLATE");
+        int plainSent = connection.getBytesSent();
+        socket.resetSentBytes();
+        
+        connection.enableCompression(new DeflateCompressionStage(CompressionStage.FLUSH_ON_SEND));
+        connection.sendCommand("a001 NOOP");
+        int wireSent = socket.getSentBytes().length;
+        assertTrue("Flushed on send", wireSent > 0);
+        assertEquals("a001 OK NOOP completed", new String(connection.receive()));
+        
+        assertEquals("Bytes sent", plainSent + 11, connection.getBytesSent());
+        assertEquals("Wire bytes sent", plainSent + wireSent, connection.getWireBytesSent());
+        assertEquals("Bytes received", response.length, connection.getBytesReceived());
+        assertEquals("Wire bytes received", compressedResponse.length, connection.getWireBytesReceived());
+        connection.close();
+    }
+    
+    public void testCompressionFlushOnReceive() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection(
+                deflate("a001 OK\r\na002 OK\r\n".getBytes()), false);
+        Connection connection = new Connection(socket, 0);
+        connection.enableCompression(new DeflateCompressionStage(CompressionStage.FLUSH_ON_RECEIVE));
+        
+        connection.sendCommand("a001 NOOP");
+        connection.sendCommand("a002 NOOP");
+        assertEquals("Deferred flush", 0, socket.getSentBytes().length);
+        
+        assertEquals("a001 OK", new String(connection.receive()));
+        int wireSent = socket.getSentBytes().length;
+        assertTrue("Flushed on receive", wireSent > 0);
+        assertEquals("Wire bytes sent", wireSent, connection.getWireBytesSent());
+        
+        assertEquals("a002 OK", new String(connection.receive()));
+        assertEquals("Nothing more sent", wireSent, socket.getSentBytes().length);
+        connection.close();
+    }
+    
+    private static byte[] createFetchTranscript(int lineCount) {
+        StringBuffer buf = new StringBuffer();
+        for(int i=1; i<=lineCount; i++) {
+            buf.append("* ");
+            buf.append(i);
+            buf.append(" FETCH (UID ");
+            buf.append(i + 1000);
+            buf.append(" FLAGS (\\Seen \\Answered) ENVELOPE (\"Mon, 17 Oct 2011 09:00:00 -0400\" {18}\r\n");
+            buf.append("Subject of mail ");
+            buf.append((char)('A' + (i % 26)));
+            buf.append('.');
+            buf.append(" NIL NIL))\r\n");
+        }
+        buf.append("a001 OK FETCH completed\r\n");
+        return buf.toString().getBytes();
+    }
+    
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ZLibOutputStream output = new ZLibOutputStream(buf, true);
+        output.write(data);
+        output.close();
+        return buf.toByteArray();
+    }
+    
+    public void testReceiveWithoutAvailable() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection("Hello\r\nWorld\r\n".getBytes(), false);
+        Connection connection = new Connection(socket, 0);
+        byte[] expected = "Hello".getBytes();
+        byte[] actual = connection.receive();
+        assertTrue("Multiple lines", Arrays.equals(expected, actual));
+        expected = "World".getBytes();
+        actual = connection.receive();
+        assertTrue("Multiple lines", Arrays.equals(expected, actual));
+        assertEquals("Read count", 1, socket.getReadCount());
+        connection.close();
+    }
+    
+    public void testReceiveRaw() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("Hello {20000}\r\n");
+        for(int i=0; i<20000; i++) {
+            buf.append((char)('a' + (i % 26)));
+        }
+        buf.append(")\r\nWorld\r\n");
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes(), false);
+        Connection connection = new Connection(socket, 0);
+        connection.setReadSize(1024);
+        
+        byte[] expected = "Hello {20000}".getBytes();
+        byte[] actual = connection.receive();
+        assertTrue("Line before", Arrays.equals(expected, actual));
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        connection.receiveRaw(output, 20000);
+        byte[] literal = output.toByteArray();
+        assertEquals("Literal length", 20000, literal.length);
+        for(int i=0; i<20000; i++) {
+            if(literal[i] != (byte)('a' + (i % 26))) {
+                fail("Literal content at " + i);
+            }
+        }
+        
+        expected = ")".getBytes();
+        actual = connection.receive();
+        assertTrue("Line after", Arrays.equals(expected, actual));
+        expected = "World".getBytes();
+        actual = connection.receive();
+        assertTrue("Line after", Arrays.equals(expected, actual));
+        assertEquals("Bytes received", buf.length(), connection.getBytesReceived());
+        connection.close();
+    }
+    
+    public void testReceiveBodyThroughput() throws Throwable {
+        // Literal body of roughly 1MB, read from a stream that never reports
+        // any data as being available
+        final int bodyLength = 1024 * 1024;
+        StringBuffer buf = new StringBuffer();
+        buf.append("* 1 FETCH (BODY[1] {").append(bodyLength).append("}\r\n");
+        for(int i=0; i<bodyLength; i++) {
+            buf.append((i % 78 == 77) ? '\n' : (char)('a' + (i % 26)));
+        }
+        buf.append(")\r\n");
+        byte[] data = buf.toString().getBytes();
+        
+        StubSocketConnection socket = new StubSocketConnection(data, false);
+        Connection connection = new Connection(socket, 0);
+        connection.setReadSize(32768);
+        
+        byte[] line = connection.receive(new org.logicprobe.LogicMail.mail.imap.ImapResponseLineTester());
+        
+        assertEquals("Response length", data.length - 2, line.length);
+        assertEquals("Bytes received", data.length, connection.getBytesReceived());
+        assertTrue("Read count", socket.getReadCount() <= (data.length / 32768) + 2);
+        connection.close();
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("Connection");
         
@@ -211,6 +430,22 @@ public class ConnectionTest extends TestCase {
         { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveLine(); } }));
         suite.addTest(new ConnectionTest("receiveCustomDelimiter", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveCustomDelimiter(); } }));
+        suite.addTest(new ConnectionTest("receiveLinesAcrossBufferGrowth", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveLinesAcrossBufferGrowth(); } }));
+        suite.addTest(new ConnectionTest("receiveFetchThroughput", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveFetchThroughput(); } }));
+        suite.addTest(new ConnectionTest("receiveWithoutAvailable", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveWithoutAvailable(); } }));
+        suite.addTest(new ConnectionTest("receiveBodyThroughput", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveBodyThroughput(); } }));
+        suite.addTest(new ConnectionTest("receiveRaw", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveRaw(); } }));
+        suite.addTest(new ConnectionTest("compressionCounters", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testCompressionCounters(); } }));
+        suite.addTest(new ConnectionTest("compressionFlushOnReceive", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testCompressionFlushOnReceive(); } }));
+        suite.addTest(new ConnectionTest("receiveCompressedFetchThroughput", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveCompressedFetchThroughput(); } }));
         
         return suite;
     }
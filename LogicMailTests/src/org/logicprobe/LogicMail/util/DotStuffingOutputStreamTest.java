@@ -0,0 +1,140 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for DotStuffingOutputStream
+ */
+public class DotStuffingOutputStreamTest extends TestCase {
+    private RecordingOutputStream output;
+    
+    public DotStuffingOutputStreamTest() {
+    }
+    
+    public DotStuffingOutputStreamTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        output = new RecordingOutputStream();
+    }
+    
+    public void tearDown() {
+        output = null;
+    }
+    
+    public void testStuffing() throws Throwable {
+        DotStuffingOutputStream instance = new DotStuffingOutputStream(output);
+        byte[] data = "Hello\r\n.World\r\n..\r\nA.B\r\n.".getBytes();
+        instance.write(data, 0, data.length);
+        instance.finish();
+        
+        assertEquals("Hello\r\n..World\r\n...\r\nA.B\r\n..\r\n.\r\n", output.toString());
+        assertEquals(1, output.writes.size());
+        assertEquals(1, output.flushCount);
+    }
+    
+    public void testStuffingAcrossWrites() throws Throwable {
+        DotStuffingOutputStream instance = new DotStuffingOutputStream(output);
+        byte[] data = "Hello\r\n".getBytes();
+        instance.write(data, 0, data.length);
+        instance.write('.');
+        data = "World\r\n".getBytes();
+        instance.write(data, 0, data.length);
+        data = ".\r\n".getBytes();
+        instance.write(data, 0, data.length);
+        instance.finish();
+        
+        assertEquals("Hello\r\n..World\r\n..\r\n.\r\n", output.toString());
+    }
+    
+    public void testEmpty() throws Throwable {
+        DotStuffingOutputStream instance = new DotStuffingOutputStream(output);
+        instance.finish();
+        
+        assertEquals(".\r\n", output.toString());
+    }
+    
+    public void testBufferFull() throws Throwable {
+        DotStuffingOutputStream instance = new DotStuffingOutputStream(output, 8);
+        byte[] data = "ABCDEFG\r\n.HIJ\r\n".getBytes();
+        instance.write(data, 0, data.length);
+        
+        // Only full buffers are written until the data ends
+        assertEquals("ABCDEFG\r\n..HIJ", output.toString());
+        assertEquals(0, output.flushCount);
+        
+        instance.finish();
+        assertEquals("ABCDEFG\r\n..HIJ\r\n.\r\n", output.toString());
+        assertEquals(1, output.flushCount);
+        for(int i=0; i<output.writes.size(); i++) {
+            assertTrue(((Integer)output.writes.elementAt(i)).intValue() <= 8);
+        }
+    }
+    
+    private static class RecordingOutputStream extends ByteArrayOutputStream {
+        private final Vector writes = new Vector();
+        private int flushCount;
+        
+        public void write(byte[] b, int off, int len) {
+            writes.addElement(new Integer(len));
+            super.write(b, off, len);
+        }
+        
+        public void flush() throws IOException {
+            flushCount++;
+        }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("DotStuffingOutputStream");
+
+        suite.addTest(new DotStuffingOutputStreamTest("stuffing", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((DotStuffingOutputStreamTest)tc).testStuffing(); }}));
+        suite.addTest(new DotStuffingOutputStreamTest("stuffingAcrossWrites", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((DotStuffingOutputStreamTest)tc).testStuffingAcrossWrites(); }}));
+        suite.addTest(new DotStuffingOutputStreamTest("empty", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((DotStuffingOutputStreamTest)tc).testEmpty(); }}));
+        suite.addTest(new DotStuffingOutputStreamTest("bufferFull", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((DotStuffingOutputStreamTest)tc).testBufferFull(); }}));
+
+        return suite;
+    }
+}
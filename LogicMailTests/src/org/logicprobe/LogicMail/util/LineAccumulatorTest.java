@@ -0,0 +1,138 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for LineAccumulator
+ */
+public class LineAccumulatorTest extends TestCase {
+    private LineAccumulator instance = null;
+    
+    /** Creates a new instance of LineAccumulatorTest */
+    public LineAccumulatorTest() {
+    }
+    
+    public LineAccumulatorTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        instance = new LineAccumulator();
+    }
+    
+    public void tearDown() {
+        instance = null;
+    }
+    
+    public void testAdd() {
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.toArray().length);
+        
+        instance.add("Hello".getBytes());
+        instance.add("World".getBytes());
+        assertEquals(2, instance.size());
+        assertEquals("Hello", new String(instance.elementAt(0)));
+        assertEquals("World", new String(instance.elementAt(1)));
+        
+        byte[][] result = instance.toArray();
+        assertEquals(2, result.length);
+        assertEquals("Hello", new String(result[0]));
+        assertEquals("World", new String(result[1]));
+        
+        String[] strings = instance.toStringArray();
+        assertEquals(2, strings.length);
+        assertEquals("Hello", strings[0]);
+        assertEquals("World", strings[1]);
+    }
+    
+    public void testAddMany() {
+        for(int i=0; i<5000; i++) {
+            instance.add(Integer.toString(i).getBytes());
+        }
+        assertEquals(5000, instance.size());
+        
+        byte[][] result = instance.toArray();
+        assertEquals(5000, result.length);
+        for(int i=0; i<5000; i++) {
+            assertEquals(Integer.toString(i), new String(result[i]));
+        }
+    }
+    
+    public void testElementAtOutOfRange() {
+        instance.add("Hello".getBytes());
+        try {
+            instance.elementAt(1);
+            fail("Expected exception");
+        } catch (ArrayIndexOutOfBoundsException e) { }
+    }
+    
+    public void testClear() {
+        instance.add("Hello".getBytes());
+        instance.add("World".getBytes());
+        instance.clear();
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.toArray().length);
+        
+        instance.add("Foo".getBytes());
+        assertEquals(1, instance.size());
+        assertEquals("Foo", new String(instance.toArray()[0]));
+        
+        // Clearing after a large response should also work
+        for(int i=0; i<5000; i++) {
+            instance.add(Integer.toString(i).getBytes());
+        }
+        instance.clear();
+        assertEquals(0, instance.size());
+        instance.add("Bar".getBytes());
+        assertEquals("Bar", new String(instance.elementAt(0)));
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("LineAccumulator");
+
+        suite.addTest(new LineAccumulatorTest("add", new TestMethod()
+        { public void run(TestCase tc) {((LineAccumulatorTest)tc).testAdd(); } }));
+        suite.addTest(new LineAccumulatorTest("addMany", new TestMethod()
+        { public void run(TestCase tc) {((LineAccumulatorTest)tc).testAddMany(); } }));
+        suite.addTest(new LineAccumulatorTest("elementAtOutOfRange", new TestMethod()
+        { public void run(TestCase tc) {((LineAccumulatorTest)tc).testElementAtOutOfRange(); } }));
+        suite.addTest(new LineAccumulatorTest("clear", new TestMethod()
+        { public void run(TestCase tc) {((LineAccumulatorTest)tc).testClear(); } }));
+
+        return suite;
+    }
+}
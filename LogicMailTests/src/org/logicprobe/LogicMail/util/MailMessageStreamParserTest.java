@@ -0,0 +1,238 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.util.Vector;
+
+import org.logicprobe.LogicMail.message.ContentPart;
+import org.logicprobe.LogicMail.message.MimeMessageContent;
+import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.message.MultiPart;
+import org.logicprobe.LogicMail.message.TextContent;
+import org.logicprobe.LogicMail.message.TextPart;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for MailMessageStreamParser
+ */
+public class MailMessageStreamParserTest extends TestCase {
+    private Vector parts;
+    private Vector contents;
+    private MailMessageStreamParser instance;
+    
+    public MailMessageStreamParserTest() {
+    }
+    
+    public MailMessageStreamParserTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        parts = new Vector();
+        contents = new Vector();
+        instance = new MailMessageStreamParser(new MailMessageStreamParser.PartCallback() {
+            public void partAvailable(MimeMessagePart part, MimeMessageContent content) {
+                parts.addElement(part);
+                contents.addElement(content != null ? (Object)content : (Object)"null");
+            }
+        });
+    }
+    
+    public void tearDown() {
+        instance = null;
+        parts = null;
+        contents = null;
+    }
+    
+    public void testSinglePart() {
+        parseLines(new String[] {
+                "Subject: Test",
+                "Content-Type: text/plain;",
+                "\tcharset=\"us-ascii\"",
+                "Content-Transfer-Encoding: quoted-printable",
+                "",
+                "Hello =",
+                "World",
+                "Second line"
+        });
+        MimeMessagePart rootPart = instance.finish();
+        
+        assertTrue(rootPart instanceof TextPart);
+        TextPart textPart = (TextPart)rootPart;
+        assertEquals("plain", textPart.getMimeSubtype());
+        assertEquals("us-ascii", textPart.getCharset());
+        assertEquals("quoted-printable", textPart.getEncoding());
+        assertTrue(!instance.isComplete());
+        
+        assertEquals(1, parts.size());
+        assertTrue(parts.elementAt(0) == rootPart);
+        TextContent content = (TextContent)contents.elementAt(0);
+        assertEquals("Hello World\r\nSecond line", content.getText());
+        assertEquals(MimeMessageContent.PART_UNKNOWN, content.isPartComplete());
+    }
+    
+    public void testMultiPart() {
+        parseLines(new String[] {
+                "Subject: Test",
+                "Content-Type: multipart/mixed; boundary=\"outer\"",
+                "",
+                "This is a multi-part message.",
+                "--outer",
+                "Content-Type: text/plain; charset=us-ascii",
+                "",
+                "First part",
+                "",
+                "--outer",
+                "Content-Type: multipart/alternative;",
+                " boundary=inner",
+                "",
+                "--inner",
+                "Content-Type: text/plain",
+                "",
+                "Second part",
+                "--inner",
+                "Content-Type: text/html",
+                "",
+                "<b>Third part</b>",
+                "--inner--",
+                "",
+                "--outer--",
+                "Epilogue"
+        });
+        MimeMessagePart rootPart = instance.finish();
+        
+        assertTrue(instance.isComplete());
+        assertTrue(rootPart instanceof MultiPart);
+        assertEquals("mixed", rootPart.getMimeSubtype());
+        MimeMessagePart[] rootParts = ((MultiPart)rootPart).getParts();
+        assertEquals(2, rootParts.length);
+        assertTrue(rootParts[0] instanceof TextPart);
+        assertTrue(rootParts[1] instanceof MultiPart);
+        assertEquals("alternative", rootParts[1].getMimeSubtype());
+        MimeMessagePart[] innerParts = ((MultiPart)rootParts[1]).getParts();
+        assertEquals(2, innerParts.length);
+        assertEquals("html", innerParts[1].getMimeSubtype());
+        
+        assertEquals(3, parts.size());
+        assertTrue(parts.elementAt(0) == rootParts[0]);
+        assertTrue(parts.elementAt(1) == innerParts[0]);
+        assertTrue(parts.elementAt(2) == innerParts[1]);
+        assertEquals("First part\r\n", ((TextContent)contents.elementAt(0)).getText());
+        assertEquals("Second part", ((TextContent)contents.elementAt(1)).getText());
+        assertEquals("<b>Third part</b>", ((TextContent)contents.elementAt(2)).getText());
+        for(int i=0; i<3; i++) {
+            assertEquals(MimeMessageContent.PART_COMPLETE,
+                    ((MimeMessageContent)contents.elementAt(i)).isPartComplete());
+        }
+    }
+    
+    public void testPartAvailableBeforeNextPart() {
+        parseLines(new String[] {
+                "Content-Type: multipart/mixed; boundary=b",
+                "",
+                "--b",
+                "",
+                "First part",
+                "--b",
+                "Content-Type: text/plain"
+        });
+        assertEquals(1, parts.size());
+        
+        parseLines(new String[] {
+                "",
+                "Second part",
+                "--b--"
+        });
+        assertEquals(2, parts.size());
+        instance.finish();
+        assertTrue(instance.isComplete());
+    }
+    
+    public void testTruncatedMultiPart() {
+        parseLines(new String[] {
+                "Content-Type: multipart/mixed; boundary=b",
+                "",
+                "--b",
+                "Content-Type: text/plain",
+                "",
+                "First part",
+                "--b",
+                "Content-Type: application/octet-stream; name=\"file.bin\"",
+                "Content-Transfer-Encoding: base64",
+                "Content-Disposition: attachment; filename=\"file.bin\"",
+                "",
+                "AAECAwQFBgcICQ=="
+        });
+        MimeMessagePart rootPart = instance.finish();
+        
+        assertTrue(!instance.isComplete());
+        MimeMessagePart[] rootParts = ((MultiPart)rootPart).getParts();
+        assertEquals(2, rootParts.length);
+        assertEquals("octet-stream", rootParts[1].getMimeSubtype());
+        assertEquals("file.bin", ((ContentPart)rootParts[1]).getName());
+        
+        assertEquals(2, parts.size());
+        assertEquals("First part", ((TextContent)contents.elementAt(0)).getText());
+        assertEquals("null", contents.elementAt(1));
+    }
+    
+    public void testEmptyMessage() {
+        assertNull(instance.finish());
+        assertEquals(0, parts.size());
+    }
+    
+    private void parseLines(String[] lines) {
+        for(int i=0; i<lines.length; i++) {
+            instance.parseLine(lines[i].getBytes());
+        }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("MailMessageStreamParser");
+        
+        suite.addTest(new MailMessageStreamParserTest("singlePart", new TestMethod()
+        { public void run(TestCase tc) {((MailMessageStreamParserTest)tc).testSinglePart(); } }));
+        suite.addTest(new MailMessageStreamParserTest("multiPart", new TestMethod()
+        { public void run(TestCase tc) {((MailMessageStreamParserTest)tc).testMultiPart(); } }));
+        suite.addTest(new MailMessageStreamParserTest("partAvailableBeforeNextPart", new TestMethod()
+        { public void run(TestCase tc) {((MailMessageStreamParserTest)tc).testPartAvailableBeforeNextPart(); } }));
+        suite.addTest(new MailMessageStreamParserTest("truncatedMultiPart", new TestMethod()
+        { public void run(TestCase tc) {((MailMessageStreamParserTest)tc).testTruncatedMultiPart(); } }));
+        suite.addTest(new MailMessageStreamParserTest("emptyMessage", new TestMethod()
+        { public void run(TestCase tc) {((MailMessageStreamParserTest)tc).testEmptyMessage(); } }));
+        
+        return suite;
+    }
+}
@@ -102,6 +102,31 @@ public class MockConnection extends org.logicprobe.LogicMail.util.Connection imp
         super.enableCompression();
     }
 
+    public static final MockMethod MTHD_ENABLE_COMPRESSION_$_COMPRESSIONSTAGE = new MockMethod(
+        MockConnection.class, 
+        "MTHD_ENABLE_COMPRESSION_$_COMPRESSIONSTAGE",
+        new Class[]{org.logicprobe.LogicMail.util.CompressionStage.class},
+        new Class[]{},
+        null,
+        false);
+    public void enableCompression(org.logicprobe.LogicMail.util.CompressionStage compressionStage)  {
+        try {
+            Object[] args = new Object[1];
+            args[0] = compressionStage;
+            MethodInvocation mi = new MethodInvocation(MTHD_ENABLE_COMPRESSION_$_COMPRESSIONSTAGE, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                mi.getReturnValue();
+                return;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            throw new HammockException(t);
+        }
+        super.enableCompression(compressionStage);
+    }
+
     public static final MockMethod MTHD_FORCE_CLOSE = new MockMethod(
         MockConnection.class, 
         "MTHD_FORCE_CLOSE",
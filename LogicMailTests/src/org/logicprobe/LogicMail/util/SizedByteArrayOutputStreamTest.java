@@ -0,0 +1,100 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import net.rim.device.api.util.Arrays;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for SizedByteArrayOutputStream
+ */
+public class SizedByteArrayOutputStreamTest extends TestCase {
+    public SizedByteArrayOutputStreamTest() {
+    }
+    
+    public SizedByteArrayOutputStreamTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void testExpectedSize() throws Throwable {
+        SizedByteArrayOutputStream instance = new SizedByteArrayOutputStream(10);
+        byte[] data = "HelloWorld".getBytes();
+        instance.write(data, 0, 5);
+        instance.write(data, 5, 5);
+        
+        byte[] result = instance.getData();
+        assertTrue(Arrays.equals(data, result));
+        assertTrue(result == instance.getData());
+    }
+    
+    public void testSmallerSize() throws Throwable {
+        SizedByteArrayOutputStream instance = new SizedByteArrayOutputStream(10);
+        byte[] data = "Hello".getBytes();
+        instance.write(data, 0, data.length);
+        
+        assertTrue(Arrays.equals(data, instance.getData()));
+    }
+    
+    public void testLargerSize() throws Throwable {
+        SizedByteArrayOutputStream instance = new SizedByteArrayOutputStream(4);
+        byte[] data = "HelloWorld".getBytes();
+        instance.write(data, 0, data.length);
+        
+        assertTrue(Arrays.equals(data, instance.getData()));
+    }
+    
+    public void testUnknownSize() throws Throwable {
+        SizedByteArrayOutputStream instance = new SizedByteArrayOutputStream(-1);
+        assertEquals(0, instance.getData().length);
+        
+        instance.write('A');
+        assertTrue(Arrays.equals(new byte[] { (byte)'A' }, instance.getData()));
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("SizedByteArrayOutputStream");
+
+        suite.addTest(new SizedByteArrayOutputStreamTest("expectedSize", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SizedByteArrayOutputStreamTest)tc).testExpectedSize(); }}));
+        suite.addTest(new SizedByteArrayOutputStreamTest("smallerSize", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SizedByteArrayOutputStreamTest)tc).testSmallerSize(); }}));
+        suite.addTest(new SizedByteArrayOutputStreamTest("largerSize", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SizedByteArrayOutputStreamTest)tc).testLargerSize(); }}));
+        suite.addTest(new SizedByteArrayOutputStreamTest("unknownSize", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SizedByteArrayOutputStreamTest)tc).testUnknownSize(); }}));
+
+        return suite;
+    }
+}
@@ -47,6 +47,9 @@ public class StubSocketConnection implements SocketConnection {
     private boolean isDataInputStreamOpen = false;
     private boolean isDataOutputStreamOpen = false;
     private byte[] inputData;
+    private boolean reportAvailable;
+    private CountingInputStream countingInput;
+    private CountingOutputStream countingOutput;
     private ByteArrayOutputStream byteOutput;
     
     public StubSocketConnection() {
@@ -54,10 +57,44 @@ public class StubSocketConnection implements SocketConnection {
     }
     
     public StubSocketConnection(byte[] inputData) {
+        this(inputData, true);
+    }
+    
+    /**
+     * Creates a stub socket connection.
+     *
+     * @param inputData the data to provide on the input stream
+     * @param reportAvailable if false, the input stream will always report
+     *     zero bytes as being available, like many compressed and TLS
+     *     streams do
+     */
+    public StubSocketConnection(byte[] inputData, boolean reportAvailable) {
         this.inputData = inputData;
+        this.reportAvailable = reportAvailable;
         this.byteOutput = new ByteArrayOutputStream();
     }
     
+    /**
+     * Gets the number of read calls made on the input stream.
+     */
+    public int getReadCount() {
+        return countingInput != null ? countingInput.readCount : 0;
+    }
+    
+    /**
+     * Gets the number of write calls made on the output stream.
+     */
+    public int getWriteCount() {
+        return countingOutput != null ? countingOutput.writeCount : 0;
+    }
+    
+    /**
+     * Gets the number of flush calls made on the output stream.
+     */
+    public int getFlushCount() {
+        return countingOutput != null ? countingOutput.flushCount : 0;
+    }
+    
     public byte[] getSentBytes() {
         return byteOutput.toByteArray();
     }
@@ -96,13 +133,15 @@ public class StubSocketConnection implements SocketConnection {
     public DataInputStream openDataInputStream() throws IOException {
         if(isDataInputStreamOpen) { throw new IOException(); }
         isDataInputStreamOpen = true;
-        return new DataInputStream(new ByteArrayInputStream(inputData));
+        countingInput = new CountingInputStream(new ByteArrayInputStream(inputData), reportAvailable);
+        return new DataInputStream(countingInput);
     }
 
     public DataOutputStream openDataOutputStream() throws IOException {
         if(isDataOutputStreamOpen) { throw new IOException(); }
         isDataOutputStreamOpen = true;
-        return new DataOutputStream(byteOutput);
+        countingOutput = new CountingOutputStream(byteOutput);
+        return new DataOutputStream(countingOutput);
     }
     
     public InputStream openInputStream() throws IOException {
@@ -116,4 +155,54 @@ public class StubSocketConnection implements SocketConnection {
     public void close() throws IOException {
         closed = true;
     }
+    
+    private static class CountingInputStream extends InputStream {
+        private final InputStream input;
+        private final boolean reportAvailable;
+        private int readCount;
+        
+        public CountingInputStream(InputStream input, boolean reportAvailable) {
+            this.input = input;
+            this.reportAvailable = reportAvailable;
+        }
+        
+        public int read() throws IOException {
+            readCount++;
+            return input.read();
+        }
+        
+        public int read(byte[] b, int off, int len) throws IOException {
+            readCount++;
+            return input.read(b, off, len);
+        }
+        
+        public int available() throws IOException {
+            return reportAvailable ? input.available() : 0;
+        }
+    }
+    
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream output;
+        private int writeCount;
+        private int flushCount;
+        
+        public CountingOutputStream(OutputStream output) {
+            this.output = output;
+        }
+        
+        public void write(int b) throws IOException {
+            writeCount++;
+            output.write(b);
+        }
+        
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeCount++;
+            output.write(b, off, len);
+        }
+        
+        public void flush() throws IOException {
+            flushCount++;
+            output.flush();
+        }
+    }
 }
@@ -52,7 +52,11 @@ public class UtilTests extends TestCase {
         testSuite.addTest(new EventListenerListTest().suite());
         testSuite.addTest(new PersistentObjectDataStoreTest().suite());
         testSuite.addTest(new QueueTest().suite());
+        testSuite.addTest(new LineAccumulatorTest().suite());
         testSuite.addTest(new ConnectionTest().suite());
+        testSuite.addTest(new DotStuffingOutputStreamTest().suite());
+        testSuite.addTest(new SizedByteArrayOutputStreamTest().suite());
+        testSuite.addTest(new MailMessageStreamParserTest().suite());
         testSuite.addTest(new FilenameEncoderTest().suite());
         testSuite.addTest(new AtomicBooleanTest().suite());
         testSuite.addTest(new WatchdogTest().suite());